@@ -2,14 +2,22 @@ package edu.pucmm.eict;
 
 import edu.pucmm.eict.controladores.api.rest.ApiAuthController;
 import edu.pucmm.eict.controladores.AuthController;
+import edu.pucmm.eict.controladores.ExportController;
+import edu.pucmm.eict.controladores.HotLinksController;
+import edu.pucmm.eict.controladores.MetricsController;
+import edu.pucmm.eict.controladores.PurgeController;
 import edu.pucmm.eict.controladores.UrlController;
 import edu.pucmm.eict.controladores.UserController;
+import edu.pucmm.eict.controladores.WarmStartController;
 import edu.pucmm.eict.controladores.api.rest.ApiUrlController;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.repositorios.Repositories;
 import edu.pucmm.eict.services.UrlService;
 import edu.pucmm.eict.services.UserService;
 import edu.pucmm.eict.util.JwtUtil;
+import edu.pucmm.eict.util.PageParams;
 import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.rendering.template.JavalinThymeleaf;
@@ -18,16 +26,17 @@ import org.thymeleaf.templatemode.TemplateMode;
 import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import edu.pucmm.eict.util.Database; // added
 import edu.pucmm.eict.util.CsrfUtil;
 
 public class Main {
     public static void main(String[] args) {
-        // Inicializa la base de datos H2 (archivo por defecto o memoria si APP_DB_MODE=mem)
-        Database.init();
+        // Arranque en caliente: el servidor abre antes que la base y, mientras tanto, redirige
+        // desde la última instantánea de enlaces (APP_WARM_START); el resto responde 503
+        WarmStartController warmStartController = WarmStartController.create();
 
         // Configuración de Thymeleaf
         TemplateEngine templateEngine = new TemplateEngine();
@@ -38,9 +47,32 @@ public class Main {
         templateResolver.setCharacterEncoding("UTF-8");
         templateEngine.setTemplateResolver(templateResolver);
 
+        // Obtener el puerto de la variable de entorno PORT, o usar 7000 como default
+        String portStr = System.getenv("PORT");
+        int port = (portStr != null && !portStr.isEmpty()) ? Integer.parseInt(portStr) : 7000;
+
+        // Inicialización de Javalin con el puerto configurado dinámicamente
+        Javalin app = Javalin.create(config -> {
+            config.staticFiles.add("/public", Location.CLASSPATH);
+            config.fileRenderer(new JavalinThymeleaf(templateEngine));
+        }).start(port);
+        app.before(warmStartController.rejectUntilReady);
+        app.get("/go/{shortUrl}", warmStartController.redirectToOriginalUrl);
+
+        // Inicializa la base de datos H2 (archivo por defecto o memoria si APP_DB_MODE=mem)
+        Database.init();
+        // Backend de enlaces y accesos (APP_STORAGE: h2, memory o kv)
+        Repositories.init();
+
         // Servicios
         UserService userService = new UserService();
         UrlService urlService = new UrlService();
+        // Al apagar, persistir los accesos que sigan en cola
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            urlService.close();
+            Repositories.close();
+            Database.close();
+        }, "url-service-shutdown"));
         // Crear admin por defecto si no existe
         userService.createDefaultAdmin();
         // Instancia de ApiAuthController con el servicio de usuarios inyectado:
@@ -49,18 +81,11 @@ public class Main {
 
         // Controladores
         AuthController authController = new AuthController(userService);
-        UserController userController = new UserController(userService);
+        UserController userController = new UserController(userService, urlService);
         UrlController urlController = new UrlController(urlService);
-
-        // Obtener el puerto de la variable de entorno PORT, o usar 7000 como default
-        String portStr = System.getenv("PORT");
-        int port = (portStr != null && !portStr.isEmpty()) ? Integer.parseInt(portStr) : 7000;
-
-        // Inicialización de Javalin con el puerto configurado dinámicamente
-        Javalin app = Javalin.create(config -> {
-            config.staticFiles.add("/public", Location.CLASSPATH);
-            config.fileRenderer(new JavalinThymeleaf(templateEngine));
-        }).start(port);
+        MetricsController metricsController = new MetricsController(urlService);
+        PurgeController purgeController = new PurgeController(urlService, userService);
+        HotLinksController hotLinksController = new HotLinksController(urlService);
 
         // SEGURIDAD: Headers HTTP de seguridad (Mitigación Clickjacking y MIME Sniffing)
         app.after(ctx -> {
@@ -101,6 +126,11 @@ public class Main {
         ApiUrlController apiUrlController = new ApiUrlController(urlService, userService);
         app.get("/api/urls", apiUrlController.listUrlsApi);
         app.post("/api/urls", apiUrlController.createUrlApi);
+        app.post("/api/urls/bulk", apiUrlController.bulkCreateUrlsApi);
+        app.get("/api/urls/{shortUrl}/histogram", apiUrlController.histogramApi);
+        app.get("/api/hot-links", apiUrlController.hotLinksApi);
+        ExportController exportController = new ExportController(urlService, userService);
+        app.get("/api/export/clicks", exportController.exportClicksApi);
 
 
         // Middleware para inyectar el usuario desde la sesión en rutas no-API
@@ -183,16 +213,31 @@ public class Main {
         app.post("/dashboard/users/updateRole", userController.updateUserRole);
         app.post("/dashboard/users/delete", userController.deleteUser);
 
+        // Borrados masivos de enlaces en segundo plano (solo admin)
+        app.get("/dashboard/purges", purgeController.listPurges);
+        app.post("/dashboard/purges", purgeController.startPurge);
+        app.get("/dashboard/purges/{id}", purgeController.getPurge);
+        app.post("/dashboard/purges/{id}/cancel", purgeController.cancelPurge);
+
         // Rutas de URLs: se filtran según el usuario en sesión
         app.get("/dashboard/urls", ctx -> {
             Usuario currentUser = ctx.sessionAttribute("user");
-            Collection<Url> urls = urlService.getAllUrls();
-            if (currentUser != null && !"admin".equals(currentUser.getRole())) {
-                urls = urls.stream()
-                        .filter(url -> url.getUser() != null && url.getUser().getUsername().equals(currentUser.getUsername()))
-                        .collect(Collectors.toList());
+            Usuario owner = currentUser != null && !"admin".equals(currentUser.getRole()) ? currentUser : null;
+            int limit;
+            UrlPage page;
+            try {
+                limit = PageParams.limit(ctx.queryParam("limit"));
+                page = urlService.listUrls(owner, ctx.queryParam("cursor"), limit, false, null, null);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).result(e.getMessage());
+                return;
             }
-            ctx.render("urls.html", Map.of("urls", urls, "usuario", currentUser));
+            Map<String, Object> model = new HashMap<>();
+            model.put("urls", page.getUrls());
+            model.put("usuario", currentUser);
+            model.put("nextCursor", page.getNextCursor());
+            model.put("limit", limit);
+            ctx.render("urls.html", model);
         });
         // Registra la ruta POST para acortar URL
         // Fragmento de Main.java
@@ -305,6 +350,11 @@ public class Main {
         });
         app.post("/dashboard/users/update", userController.updateUser);
 
+        // Métricas internas (caché de resolución, etc.) - solo admin
+        app.get("/dashboard/metrics", metricsController.showMetrics);
+        // Enlaces más visitados en el último minuto, hora o día - solo admin
+        app.get("/dashboard/hot-links", hotLinksController.showHotLinks);
+
 
 
         // Nueva ruta para la vista de estadísticas (la ruta no depende del dashboard, sino que se invoca directamente desde index)
@@ -328,12 +378,19 @@ public class Main {
 
         // Rutas para acortar enlaces, redirigir, estadísticas y vista previa
         app.post("/acortar", urlController.createShortUrl);
-        app.get("/go/{shortUrl}", urlController.redirectToOriginalUrl);
         app.get("/urls", urlController.listUrls);
         app.get("/stats/{shortUrl}", urlController.getAccessStats);
+        app.get("/stats/{shortUrl}/histogram", urlController.getHistogram);
+        // Clicks en vivo para estadisticas.html (SSE): el before autoriza igual que /stats/{shortUrl}
+        app.before("/stats/{shortUrl}/stream", urlController.authorizeStatsStream);
+        app.sse("/stats/{shortUrl}/stream", urlController.streamStats);
+        // Descarga del detalle de clicks (CSV/NDJSON) leído en streaming
+        app.get("/export/clicks", exportController.exportClicks);
         app.get("/preview", urlController.previewUrl);
         app.get("/", ctx -> ctx.redirect("/index"));
 
+        // /go/{shortUrl} quedó registrada al inicio: desde ahora la atiende UrlController
+        warmStartController.ready(urlService, urlController.redirectToOriginalUrl);
         System.out.println("Aplicación corriendo en http://localhost:" + port);
     }
 
@@ -9,10 +9,13 @@ import edu.pucmm.eict.clientes.grpc.ListUrlsRequest;
 import edu.pucmm.eict.clientes.grpc.ListUrlsResponse;
 import edu.pucmm.eict.clientes.grpc.UrlEntry;
 import edu.pucmm.eict.clientes.grpc.UrlStatistics;
+import edu.pucmm.eict.modelos.AccessStats;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
 import edu.pucmm.eict.services.UrlService;
 import edu.pucmm.eict.services.UserService;
+import edu.pucmm.eict.util.PageParams;
 import io.grpc.stub.StreamObserver;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -28,6 +31,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class UrlShortenerServiceImpl extends UrlShortenerServiceGrpc.UrlShortenerServiceImplBase {
@@ -69,7 +73,7 @@ public class UrlShortenerServiceImpl extends UrlShortenerServiceGrpc.UrlShortene
         Date createdDate = (url.getCreatedAt() != null) ? url.getCreatedAt() : new Date();
         String createdAt = createdDate.toInstant().toString();
 
-        // Construir las estadísticas
+        // Construir las estadísticas (enlace recién creado: sin visitantes todavía)
         UrlStatistics statistics = UrlStatistics.newBuilder()
                 .setAccessCount(url.getAccessCount())
                 .addAllAccessTimes(url.getAccessTimes().stream()
@@ -106,17 +110,30 @@ public class UrlShortenerServiceImpl extends UrlShortenerServiceGrpc.UrlShortene
             responseObserver.onError(new IllegalArgumentException("Debe proporcionar el nombre de usuario"));
             return;
         }
-        List<Url> urls = urlService.getAllUrls().stream()
-                .filter(u -> u.getUser() != null && username.equals(u.getUser().getUsername()))
-                .collect(Collectors.toList());
+        Usuario owner = new Usuario();
+        owner.setUsername(username);
+        UrlPage page;
+        try {
+            int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), PageParams.MAX_LIMIT) : PageParams.DEFAULT_LIMIT;
+            page = urlService.listUrls(owner, request.getCursor(), limit, request.getIncludeDetails(), null, null);
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        List<Url> urls = page.getUrls();
+        // Visitantes únicos de toda la página en una sola lectura
+        Map<Long, AccessStats> accessStats = urlService.getAccessStats(urls, null, null);
 
         List<UrlEntry> entries = urls.stream().map(url -> {
             String shortUrl = url.getShortUrl();
             Date createdDate = (url.getCreatedAt() != null) ? url.getCreatedAt() : new Date();
             String createdAt = createdDate.toInstant().toString();
 
+            AccessStats stats = accessStats.get(url.getId());
             UrlStatistics.Builder statsBuilder = UrlStatistics.newBuilder()
                     .setAccessCount(url.getAccessCount())
+                    .setUniqueVisitors(stats.getUniqueVisitors())
+                    .putAllDailyUniqueVisitors(stats.getDailyVisitors())
                     .addAllAccessTimes(url.getAccessTimes().stream()
                             .map(date -> date.toInstant().toString())
                             .collect(Collectors.toList()));
@@ -140,7 +157,10 @@ public class UrlShortenerServiceImpl extends UrlShortenerServiceGrpc.UrlShortene
                     .build();
         }).collect(Collectors.toList());
 
-        ListUrlsResponse response = ListUrlsResponse.newBuilder().addAllUrls(entries).build();
+        ListUrlsResponse response = ListUrlsResponse.newBuilder()
+                .addAllUrls(entries)
+                .setNextCursor(page.getNextCursor() != null ? page.getNextCursor() : "")
+                .build();
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
@@ -0,0 +1,151 @@
+package edu.pucmm.eict.controladores;
+
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.services.ClickExporter;
+import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.services.UserService;
+import edu.pucmm.eict.util.DateParams;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Descarga del detalle de clicks en CSV o NDJSON, escrito a la respuesta a medida que se lee.
+ *
+ * Parámetros: shortUrl (un enlace: su dueño o un administrador), username (los enlaces de ese
+ * usuario: él mismo o un administrador) o ninguno (los enlaces propios; un administrador, todos);
+ * from y to (ISO-8601 o yyyy-MM-dd), format=csv|ndjson, resume (token de la última fila recibida)
+ * y gzip=true para bajar un archivo .gz. Sin gzip=true la respuesta igual se comprime si el
+ * cliente manda Accept-Encoding: gzip.
+ */
+public class ExportController {
+
+    private UrlService urlService;
+    private UserService userService;
+
+    public ExportController(UrlService urlService, UserService userService) {
+        this.urlService = urlService;
+        this.userService = userService;
+    }
+
+    /** Con la sesión de la aplicación web. */
+    public Handler exportClicks = ctx -> {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        if (currentUser == null) {
+            ctx.status(401).result("No autorizado. Debes iniciar sesión para exportar clicks.");
+            return;
+        }
+        export(ctx, currentUser.getUsername(), "admin".equals(currentUser.getRole()));
+    };
+
+    /** Con el token JWT (el before de /api/* deja currentUser y currentRole). */
+    public Handler exportClicksApi = ctx -> {
+        String username = ctx.attribute("currentUser");
+        if (username == null) {
+            ctx.status(401).result("No autorizado");
+            return;
+        }
+        export(ctx, username, "admin".equals(ctx.attribute("currentRole")));
+    };
+
+    private interface Export {
+        long write(OutputStream out) throws IOException;
+    }
+
+    private void export(Context ctx, String username, boolean admin) {
+        ClickExporter.Format format;
+        ClickExporter.Cursor resume;
+        Date from;
+        Date to;
+        try {
+            format = ClickExporter.Format.parse(ctx.queryParam("format"));
+            resume = ClickExporter.Cursor.parse(ctx.queryParam("resume"));
+            from = DateParams.parse(ctx.queryParam("from"));
+            to = DateParams.parse(ctx.queryParam("to"));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        if (from != null && to != null && !from.before(to)) {
+            ctx.status(400).result("Rango vacío: from debe ser anterior a to");
+            return;
+        }
+
+        String shortUrl = ctx.queryParam("shortUrl");
+        if (shortUrl != null && !shortUrl.isEmpty()) {
+            Url url = urlService.getUrlSummary(shortUrl);
+            if (url == null) {
+                ctx.status(404).result("Enlace no encontrado.");
+                return;
+            }
+            boolean isOwner = url.getUser() != null && username.equals(url.getUser().getUsername());
+            if (!isOwner && !admin) {
+                ctx.status(403).result("No tienes permiso para exportar los clicks de este enlace.");
+                return;
+            }
+            if (resume != null && resume.getUrlId() != url.getId()) {
+                ctx.status(400).result("El token de reanudación es de otro enlace.");
+                return;
+            }
+            stream(ctx, "clicks-" + url.getShortUrl(), format, out -> urlService.exportClicks(url, from, to, resume, format, out));
+            return;
+        }
+
+        String owner = ctx.queryParam("username");
+        if (owner == null || owner.isEmpty()) {
+            // Sin enlace ni usuario: los propios, o todos para un administrador
+            if (admin) {
+                stream(ctx, "clicks", format, out -> urlService.exportClicks(new UrlFilter(), from, to, resume, format, out));
+                return;
+            }
+            owner = username;
+        } else if (!admin && !owner.equals(username)) {
+            ctx.status(403).result("Solo puedes exportar los clicks de tus propios enlaces.");
+            return;
+        }
+        Usuario user = userService.getUserByUsername(owner);
+        if (user == null) {
+            ctx.status(404).result("Usuario no encontrado: " + owner);
+            return;
+        }
+        UrlFilter filter = new UrlFilter();
+        filter.setUserId(user.getId());
+        stream(ctx, "clicks-" + owner, format, out -> urlService.exportClicks(filter, from, to, resume, format, out));
+    }
+
+    // Una vez que empezaron a salir filas ya no se puede cambiar el estado: un corte se registra y
+    // el cliente sigue desde el token de la última fila que recibió
+    private void stream(Context ctx, String name, ClickExporter.Format format, Export export) {
+        boolean gzipFile = "true".equalsIgnoreCase(ctx.queryParam("gzip"));
+        String fileName = name.replaceAll("[^A-Za-z0-9._-]", "_") + "." + format.getExtension() + (gzipFile ? ".gz" : "");
+        ctx.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        ctx.header("Cache-Control", "no-store");
+        long start = System.currentTimeMillis();
+        try {
+            long rows;
+            if (gzipFile) {
+                // Directo al stream del servlet, para que Javalin no lo vuelva a comprimir
+                ctx.contentType("application/gzip");
+                try (GZIPOutputStream out = new GZIPOutputStream(ctx.res().getOutputStream(), 64 * 1024)) {
+                    rows = export.write(out);
+                }
+            } else {
+                ctx.contentType(format.getContentType());
+                OutputStream out = ctx.outputStream();
+                rows = export.write(out);
+                out.flush();
+            }
+            System.out.println("[EXPORT] " + fileName + ": " + rows + " filas en " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("[EXPORT] " + fileName + " interrumpida: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("[EXPORT] Error exportando " + fileName + ": " + e.getMessage());
+        }
+    }
+}
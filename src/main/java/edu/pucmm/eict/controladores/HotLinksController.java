@@ -0,0 +1,48 @@
+package edu.pucmm.eict.controladores;
+
+import edu.pucmm.eict.modelos.HotLink;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.util.PageParams;
+import io.javalin.http.Handler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vista del dashboard con los enlaces más visitados por ventana (solo administradores).
+ * El mismo ranking en JSON está en /api/hot-links.
+ */
+public class HotLinksController {
+
+    static final String DEFAULT_WINDOW = "1h";
+
+    private UrlService urlService;
+
+    public HotLinksController(UrlService urlService) {
+        this.urlService = urlService;
+    }
+
+    // Parámetros: window (1m, 1h o 24h) y limit
+    public Handler showHotLinks = ctx -> {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        if (currentUser == null || !"admin".equals(currentUser.getRole())) {
+            ctx.status(403).result("No tienes permiso para ver los enlaces más visitados.");
+            return;
+        }
+        String window = ctx.queryParam("window") != null ? ctx.queryParam("window") : DEFAULT_WINDOW;
+        List<HotLink> links;
+        try {
+            links = urlService.getHotLinks(window, PageParams.limit(ctx.queryParam("limit")));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        ctx.render("hot-links.html", Map.of(
+                "usuario", currentUser,
+                "window", window,
+                "windows", urlService.getHotLinkWindows(),
+                "links", links
+        ));
+    };
+}
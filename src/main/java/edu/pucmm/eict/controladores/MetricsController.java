@@ -0,0 +1,49 @@
+package edu.pucmm.eict.controladores;
+
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.repositorios.Repositories;
+import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.util.Database;
+import io.javalin.http.Handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MetricsController {
+
+    private UrlService urlService;
+
+    public MetricsController(UrlService urlService) {
+        this.urlService = urlService;
+    }
+
+    // Métricas internas en JSON (solo administradores)
+    public Handler showMetrics = ctx -> {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        if (currentUser == null || !"admin".equals(currentUser.getRole())) {
+            ctx.status(403).result("No tienes permiso para ver las métricas.");
+            return;
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("connectionPool", Database.getPoolStats());
+        metrics.put("resolveCache", urlService.getResolveCacheStats());
+        metrics.put("shortCodeFilter", urlService.getShortCodeFilterStats());
+        metrics.put("shortCodes", urlService.getShortCodeStats());
+        metrics.put("expiration", urlService.getExpirationStats());
+        metrics.put("clickIngestion", urlService.getClickIngestionStats());
+        metrics.put("accessCounter", urlService.getAccessCounterStats());
+        metrics.put("clickJournal", urlService.getClickJournalStats());
+        metrics.put("accessRetention", urlService.getAccessRetentionStats());
+        metrics.put("clickArchive", urlService.getClickArchiveStats());
+        metrics.put("linkSnapshot", urlService.getLinkSnapshotStats());
+        metrics.put("linkPurges", urlService.getLinkPurgeStats());
+        metrics.put("hotLinks", urlService.getHotLinkStats());
+        metrics.put("statsStream", urlService.getStatsStreamStats());
+        metrics.put("clickExports", urlService.getClickExportStats());
+        Map<String, Object> storage = new LinkedHashMap<>();
+        storage.put("backend", Repositories.backend());
+        storage.put("stats", Repositories.stats());
+        metrics.put("storage", storage);
+        ctx.json(metrics);
+    };
+}
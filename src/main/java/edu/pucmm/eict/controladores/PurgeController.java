@@ -0,0 +1,91 @@
+package edu.pucmm.eict.controladores;
+
+import edu.pucmm.eict.modelos.PurgeJob;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.services.UserService;
+import edu.pucmm.eict.util.DateParams;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+/**
+ * Borrados masivos de enlaces (solo administradores). Las tareas corren en segundo plano:
+ * crear una responde 202 con su estado y el avance se consulta por su id.
+ */
+public class PurgeController {
+
+    private UrlService urlService;
+    private UserService userService;
+
+    public PurgeController(UrlService urlService, UserService userService) {
+        this.urlService = urlService;
+        this.userService = userService;
+    }
+
+    private static boolean isAdmin(Context ctx) {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        if (currentUser != null && "admin".equals(currentUser.getRole())) return true;
+        ctx.status(403).result("Solo un administrador puede borrar enlaces en lote.");
+        return false;
+    }
+
+    public Handler listPurges = ctx -> {
+        if (!isAdmin(ctx)) return;
+        ctx.json(urlService.getPurgeJobs());
+    };
+
+    public Handler getPurge = ctx -> {
+        if (!isAdmin(ctx)) return;
+        PurgeJob job = findJob(ctx);
+        if (job != null) ctx.json(job);
+    };
+
+    // Parámetros (se combinan): username, orphaned=true, urlPrefix, createdBefore (ISO-8601 o epoch ms)
+    public Handler startPurge = ctx -> {
+        if (!isAdmin(ctx)) return;
+        UrlFilter filter = new UrlFilter();
+        String username = ctx.formParam("username");
+        if (username != null && !username.isEmpty()) {
+            Usuario owner = userService.getUserByUsername(username);
+            if (owner == null) {
+                ctx.status(404).result("Usuario no encontrado: " + username);
+                return;
+            }
+            filter.setUserId(owner.getId());
+        }
+        filter.setOrphaned("true".equalsIgnoreCase(ctx.formParam("orphaned")));
+        filter.setOriginalUrlPrefix(ctx.formParam("urlPrefix"));
+        PurgeJob job;
+        try {
+            filter.setCreatedBefore(DateParams.parse(ctx.formParam("createdBefore")));
+            job = urlService.purgeLinks(filter, null, null);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        ctx.status(202).json(job);
+    };
+
+    public Handler cancelPurge = ctx -> {
+        if (!isAdmin(ctx)) return;
+        PurgeJob job = findJob(ctx);
+        if (job == null) return;
+        if (!urlService.cancelPurge(job.getId())) {
+            ctx.status(409).result("La tarea ya terminó.");
+            return;
+        }
+        ctx.json(job);
+    };
+
+    private PurgeJob findJob(Context ctx) {
+        PurgeJob job = null;
+        try {
+            job = urlService.getPurgeJob(Long.parseLong(ctx.pathParam("id")));
+        } catch (NumberFormatException e) {
+            // cae en el 404
+        }
+        if (job == null) ctx.status(404).result("Tarea no encontrada.");
+        return job;
+    }
+}
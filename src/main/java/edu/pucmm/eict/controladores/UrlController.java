@@ -1,10 +1,18 @@
 package edu.pucmm.eict.controladores;
 
 import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ResolvedUrl;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.services.ClickBroadcaster;
 import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.util.DateParams;
+import edu.pucmm.eict.util.PageParams;
 import io.javalin.http.Handler;
+import io.javalin.http.sse.SseClient;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
 import com.google.zxing.qrcode.QRCodeWriter;
@@ -20,7 +28,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class UrlController {
 
@@ -111,15 +119,10 @@ public class UrlController {
 
     public Handler redirectToOriginalUrl = ctx -> {
         String shortUrl = ctx.pathParam("shortUrl");
-        Url url = urlService.getUrl(shortUrl);
+        // Solo se necesita id y destino: no cargar dueño ni historial de accesos
+        ResolvedUrl url = urlService.resolveUrl(shortUrl);
         if (url != null) {
-            String userAgent = ctx.header("User-Agent");
-            String ip = ctx.ip();
-            String clientDomain = ctx.header("Host");
-            String browser = parseBrowser(userAgent);
-            String platform = parsePlatform(userAgent);
-            AccessDetail detail = new AccessDetail(new Date(), browser, ip, clientDomain, platform);
-            urlService.recordAccess(url, detail);
+            urlService.recordAccess(url.getId(), describeAccess(ctx));
             ctx.redirect(url.getOriginalUrl());
         } else {
             ctx.status(404).result("Enlace no encontrado.");
@@ -138,15 +141,19 @@ public class UrlController {
             currentUser.setUsername("anon-" + sessionId);
             currentUser.setRole("anonymous");
         }
-        // Filtrar en el servidor
-        Collection<Url> allUrls = urlService.getAllUrls();
-        if (!"admin".equals(currentUser.getRole())) {
-            Usuario finalCurrentUser = currentUser;
-            allUrls = allUrls.stream()
-                    .filter(url -> url.getUser() != null && url.getUser().getUsername().equals(finalCurrentUser.getUsername()))
-                    .collect(Collectors.toList());
+        // Filtrado por dueño y paginado en la consulta (?limit=&cursor=); accesos solo con ?details=true
+        UrlPage page;
+        try {
+            page = urlService.listUrls("admin".equals(currentUser.getRole()) ? null : currentUser,
+                    ctx.queryParam("cursor"), PageParams.limit(ctx.queryParam("limit")),
+                    "true".equalsIgnoreCase(ctx.queryParam("details")), null, null);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
         }
-        ctx.json(allUrls);
+        // El cuerpo sigue siendo la lista; el cursor de la siguiente página va en la cabecera
+        if (page.getNextCursor() != null) ctx.header("X-Next-Cursor", page.getNextCursor());
+        ctx.json(page.getUrls());
     };
 
     public Handler updateUrlRandom = ctx -> {
@@ -179,7 +186,19 @@ public class UrlController {
 
         // 2. Obtener el recurso solicitado
         String shortUrl = ctx.pathParam("shortUrl");
-        Url url = urlService.getUrl(shortUrl);
+        // Rango opcional ?from=&to= (ISO-8601 o yyyy-MM-dd): solo se leen las particiones que lo cubren
+        Date from;
+        Date to;
+        try {
+            from = DateParams.parse(ctx.queryParam("from"));
+            to = DateParams.parse(ctx.queryParam("to"));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        // ?detail=false omite accessTimes/accessDetails: no se leen las particiones de detalle
+        boolean detail = !"false".equalsIgnoreCase(ctx.queryParam("detail"));
+        Url url = detail ? urlService.getUrl(shortUrl, from, to) : urlService.getUrlSummary(shortUrl);
         
         if (url == null) {
             ctx.status(404).result("Enlace no encontrado.");
@@ -187,48 +206,152 @@ public class UrlController {
         }
 
         // 3. AUTORIZACIÓN: Verificar que el usuario sea el propietario O admin
-        boolean isOwner = url.getUser() != null && 
-                          url.getUser().getUsername().equals(currentUser.getUsername());
-        boolean isAdmin = "admin".equals(currentUser.getRole());
-
-        if (!isOwner && !isAdmin) {
+        if (!canSeeStats(currentUser, url)) {
             // No revelar si el enlace existe - respuesta consistente
             ctx.status(403).result("No tienes permiso para acceder a estas estadísticas.");
             return;
         }
 
         // 4. Si pasa las validaciones, devolver las estadísticas
-        Map<String, Integer> browserStats = new HashMap<>();
-        url.getAccessDetails().forEach(detail -> {
-            String browser = detail.getBrowser();
-            browserStats.put(browser, browserStats.getOrDefault(browser, 0) + 1);
-        });
-        
-        List<String> accessTimesStr = url.getAccessDetails().stream()
-                .map(detail -> detail.getTimestamp().toInstant().toString())
-                .toList();
-        
-        List<Map<String, Object>> accessDetailsList = url.getAccessDetails().stream()
-                .map(detail -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("timestamp", detail.getTimestamp().toInstant().toString());
-                    map.put("ip", detail.getIp());
-                    map.put("browser", detail.getBrowser());
-                    map.put("platform", detail.getPlatform());
-                    return map;
-                })
-                .toList();
-        
-        ctx.json(Map.of(
-                "accessTimes", accessTimesStr,
-                "browserStats", browserStats,
-                "originalUrl", url.getOriginalUrl(),
-                "accessDetails", accessDetailsList
-        ));
+        // Conteos por navegador, plataforma y hora desde los rollups
+        AccessStats accessStats = urlService.getAccessStats(url, from, to);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("accessCount", url.getAccessCount());
+        response.put("browserStats", accessStats.getBrowsers());
+        response.put("platformStats", accessStats.getPlatforms());
+        response.put("hourlyStats", accessStats.getHourlyIso());
+        response.put("uniqueVisitors", accessStats.getUniqueVisitors());
+        response.put("dailyUniqueVisitors", accessStats.getDailyVisitors());
+        response.put("originalUrl", url.getOriginalUrl());
+        if (detail) {
+            response.put("accessTimes", url.getAccessDetails().stream()
+                    .map(d -> d.getTimestamp().toInstant().toString())
+                    .toList());
+            response.put("accessDetails", url.getAccessDetails().stream()
+                    .map(UrlController::detailMap)
+                    .toList());
+        }
+        ctx.json(response);
+    };
+
+    // Histograma de clicks (/stats/{shortUrl}/histogram?bucket=minute|hour|day|week&from=&to=&breakdown=true),
+    // con la misma autorización que getAccessStats
+    public Handler getHistogram = ctx -> {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        if (currentUser == null) {
+            ctx.status(401).result("No autorizado. Debes iniciar sesión para ver estadísticas.");
+            return;
+        }
+        Url url = urlService.getUrlSummary(ctx.pathParam("shortUrl"));
+        if (url == null) {
+            ctx.status(404).result("Enlace no encontrado.");
+            return;
+        }
+        if (!canSeeStats(currentUser, url)) {
+            ctx.status(403).result("No tienes permiso para acceder a estas estadísticas.");
+            return;
+        }
+        try {
+            ctx.json(urlService.getHistogram(url, ctx.queryParam("bucket"), DateParams.parse(ctx.queryParam("from")),
+                    DateParams.parse(ctx.queryParam("to")), "true".equalsIgnoreCase(ctx.queryParam("breakdown"))));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+        }
+    };
+
+    private static boolean canSeeStats(Usuario currentUser, Url url) {
+        boolean isOwner = url.getUser() != null &&
+                          url.getUser().getUsername().equals(currentUser.getUsername());
+        return isOwner || "admin".equals(currentUser.getRole());
+    }
+
+    private static Map<String, Object> detailMap(AccessDetail detail) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("timestamp", detail.getTimestamp().toInstant().toString());
+        map.put("ip", detail.getIp());
+        map.put("browser", detail.getBrowser());
+        map.put("platform", detail.getPlatform());
+        return map;
+    }
+
+    // Clicks en vivo (/stats/{shortUrl}/stream). Se autoriza en un before: cuando Javalin llama al
+    // consumidor SSE ya envió las cabeceras y no se puede responder 401/403.
+    public Handler authorizeStatsStream = ctx -> {
+        Usuario currentUser = ctx.sessionAttribute("user");
+        Url url = currentUser == null ? null : urlService.getUrlSummary(ctx.pathParam("shortUrl"));
+        if (currentUser == null) {
+            ctx.status(401).result("No autorizado. Debes iniciar sesión para ver estadísticas.");
+        } else if (url == null) {
+            ctx.status(404).result("Enlace no encontrado.");
+        } else if (!canSeeStats(currentUser, url)) {
+            ctx.status(403).result("No tienes permiso para acceder a estas estadísticas.");
+        } else if (!urlService.canWatchClicks()) {
+            ctx.status(503).result("Demasiados clientes mirando estadísticas en vivo; intenta más tarde.");
+        } else {
+            ctx.attribute("statsStreamUrl", url);
+            return;
+        }
+        ctx.skipRemainingHandlers();
+    };
+
+    // Eventos: "snapshot" (conteo al conectar), "click" (detalle y conteo acumulado) y "reset"
+    // (el cliente se atrasó y perdió clicks: debe volver a pedir /stats/{shortUrl})
+    public Consumer<SseClient> streamStats = client -> {
+        Url url = client.ctx().attribute("statsStreamUrl");
+        if (url == null) {
+            client.close();
+            return;
+        }
+        client.sendEvent("snapshot", Map.of("accessCount", url.getAccessCount()));
+        ClickBroadcaster.Subscription subscription = urlService.watchClicks(url.getId(), new StatsStreamSink(client, url.getAccessCount()));
+        if (subscription == null) {
+            client.sendEvent("reset", Map.of("reason", "Demasiados clientes mirando estadísticas en vivo."));
+            client.close();
+            return;
+        }
+        client.onClose(subscription::close);
+        client.keepAlive();
     };
 
+    /** Escribe los clicks de un enlace en una conexión SSE; lo usa solo el hilo de la suscripción. */
+    private static final class StatsStreamSink implements ClickBroadcaster.Sink {
+        private final SseClient client;
+        private long accessCount;
+
+        StatsStreamSink(SseClient client, long accessCount) {
+            this.client = client;
+            this.accessCount = accessCount;
+        }
+
+        @Override
+        public boolean clicks(List<ClickEvent> events) {
+            for (ClickEvent event : events) {
+                Map<String, Object> data = detailMap(event.getDetail());
+                data.put("accessCount", ++accessCount);
+                client.sendEvent("click", data);
+            }
+            return !client.terminated();
+        }
+
+        @Override
+        public boolean lagged(long missed) {
+            accessCount += missed;
+            client.sendEvent("reset", Map.of("missed", missed));
+            return !client.terminated();
+        }
 
+        @Override
+        public boolean heartbeat() {
+            client.sendComment("ping");
+            return !client.terminated();
+        }
 
+        @Override
+        public void closed() {
+            client.close();
+        }
+    }
 
     public Handler previewUrl = ctx -> {
         String originalUrl = ctx.queryParam("url");
@@ -276,7 +399,13 @@ public class UrlController {
         return Base64.getEncoder().encodeToString(baos.toByteArray());
     }
 
-    private String parseBrowser(String userAgent) {
+    // Datos del visitante que se guardan con cada acceso (también durante el arranque en caliente)
+    static AccessDetail describeAccess(io.javalin.http.Context ctx) {
+        String userAgent = ctx.header("User-Agent");
+        return new AccessDetail(new Date(), parseBrowser(userAgent), ctx.ip(), ctx.header("Host"), parsePlatform(userAgent));
+    }
+
+    private static String parseBrowser(String userAgent) {
         if (userAgent == null) return "Desconocido";
         if (userAgent.contains("Chrome")) return "Chrome";
         if (userAgent.contains("Firefox")) return "Firefox";
@@ -285,7 +414,7 @@ public class UrlController {
         return "Otro";
     }
 
-    private String parsePlatform(String userAgent) {
+    private static String parsePlatform(String userAgent) {
         if (userAgent == null) return "Desconocido";
         if (userAgent.contains("Windows")) return "Windows";
         if (userAgent.contains("Mac")) return "MacOS";
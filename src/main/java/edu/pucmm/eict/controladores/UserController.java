@@ -1,6 +1,8 @@
 package edu.pucmm.eict.controladores;
 
+import edu.pucmm.eict.modelos.PurgeJob;
 import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.services.UrlService;
 import edu.pucmm.eict.services.UserService;
 import io.javalin.http.Handler;
 
@@ -11,9 +13,11 @@ import java.util.stream.Collectors;
 public class UserController {
 
     private UserService userService;
+    private UrlService urlService;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, UrlService urlService) {
         this.userService = userService;
+        this.urlService = urlService;
     }
 
     public Handler listUsers = ctx -> {
@@ -56,10 +60,20 @@ public class UserController {
 
     public Handler deleteUser = ctx -> {
         String username = ctx.formParam("username");
-        if (userService.deleteUser(username)) {
-            ctx.redirect("/dashboard/users?success=User deleted successfully");
-        } else {
+        Usuario user = username != null ? userService.getUserByUsername(username) : null;
+        if (user == null || "admin".equals(user.getRole())) {
             ctx.redirect("/dashboard/users?error=Cannot delete admin user");
+            return;
+        }
+        // Primero se borran sus enlaces y accesos por lotes en segundo plano; el usuario, al terminar
+        // (antes la FK dejaba sus enlaces sin dueño)
+        PurgeJob job = urlService.purgeUserLinks(user, () -> userService.deleteUser(username));
+        if (job == null) {
+            ctx.redirect(userService.deleteUser(username)
+                    ? "/dashboard/users?success=User deleted successfully"
+                    : "/dashboard/users?error=Cannot delete admin user");
+            return;
         }
+        ctx.redirect("/dashboard/users?success=User deletion started (job " + job.getId() + ")");
     };
 }
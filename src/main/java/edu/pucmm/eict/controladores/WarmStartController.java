@@ -0,0 +1,135 @@
+package edu.pucmm.eict.controladores;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.services.LinkSnapshotter;
+import edu.pucmm.eict.services.UrlService;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.Database;
+import edu.pucmm.eict.util.LinkSnapshot;
+import io.javalin.http.Handler;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Arranque en caliente (APP_WARM_START): mientras H2 abre y los servicios arrancan,
+ * /go/{shortUrl} se sirve desde la última instantánea de enlaces mapeada en memoria y el resto
+ * de las rutas responde 503.
+ *
+ * La instantánea puede estar atrasada: un código que no está en ella también responde 503 (pudo
+ * crearse después) y uno borrado desde entonces todavía redirige hasta que el servicio queda listo.
+ * Los accesos de esa ventana se guardan en memoria (hasta APP_WARM_START_MAX_CLICKS) y se
+ * registran al quedar listo, resolviendo de nuevo cada código contra el almacenamiento.
+ */
+public class WarmStartController {
+
+    private final int maxPendingClicks = AppConfig.getInt("APP_WARM_START_MAX_CLICKS", 100_000);
+    private final List<PendingClick> pending = new ArrayList<>();
+    private final LongAdder servedFromSnapshot = new LongAdder();
+    private final LongAdder droppedClicks = new LongAdder();
+    private volatile LinkSnapshot snapshot;
+    private volatile UrlService urlService;
+    private volatile Handler redirect;
+    private boolean replayed; // protegido por pending
+
+    public WarmStartController(LinkSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /** Abre la instantánea más reciente si APP_WARM_START está activo y la base va en disco. */
+    public static WarmStartController create() {
+        Path dataDirectory = Database.configuredDataDirectory();
+        if (dataDirectory == null || !AppConfig.getBoolean("APP_WARM_START", true)) return new WarmStartController(null);
+        long start = System.currentTimeMillis();
+        LinkSnapshot snapshot = LinkSnapshot.openLatest(dataDirectory.resolve(LinkSnapshotter.DIRECTORY));
+        if (snapshot != null) {
+            System.out.println("[WARM] " + snapshot.size() + " enlaces de " + snapshot.getFile().getFileName()
+                    + " (de hace " + (start - snapshot.getCreatedAt()) / 1000 + " s) abiertos en "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        return new WarmStartController(snapshot);
+    }
+
+    public Handler redirectToOriginalUrl = ctx -> {
+        Handler ready = redirect;
+        if (ready != null) {
+            ready.handle(ctx);
+            return;
+        }
+        String shortUrl = ctx.pathParam("shortUrl");
+        LinkSnapshot current = snapshot;
+        ResolvedUrl url = current != null ? current.lookup(shortUrl) : null;
+        if (url == null || (url.getExpiresAt() != null && url.getExpiresAt().getTime() <= System.currentTimeMillis())) {
+            unavailable(ctx);
+            return;
+        }
+        remember(shortUrl, UrlController.describeAccess(ctx));
+        servedFromSnapshot.increment();
+        ctx.redirect(url.getOriginalUrl());
+    };
+
+    // Antes de cualquier otra ruta: hasta que el servicio esté listo solo responde /go/{shortUrl}
+    public Handler rejectUntilReady = ctx -> {
+        if (redirect == null && !ctx.path().startsWith("/go/")) {
+            unavailable(ctx);
+            ctx.skipRemainingHandlers();
+        }
+    };
+
+    private static void unavailable(io.javalin.http.Context ctx) {
+        ctx.status(503).header("Retry-After", "1").result("Servicio iniciando, intenta de nuevo en unos segundos.");
+    }
+
+    private void remember(String shortUrl, AccessDetail detail) {
+        synchronized (pending) {
+            if (replayed) {
+                // Llegó justo al quedar listo: ya se puede registrar directamente
+                replay(new PendingClick(shortUrl, detail));
+            } else if (pending.size() < maxPendingClicks) {
+                pending.add(new PendingClick(shortUrl, detail));
+            } else {
+                droppedClicks.increment();
+            }
+        }
+    }
+
+    /**
+     * Pasa las redirecciones al controlador normal, registra los accesos guardados y suelta la
+     * instantánea. Llamar cuando todas las rutas ya están registradas.
+     */
+    public void ready(UrlService urlService, Handler redirect) {
+        this.urlService = urlService;
+        this.redirect = redirect;
+        int replayedClicks;
+        synchronized (pending) {
+            replayedClicks = pending.size();
+            for (PendingClick click : pending) replay(click);
+            pending.clear();
+            replayed = true;
+        }
+        snapshot = null;
+        System.out.println("[WARM] Servicio listo a los " + ManagementFactory.getRuntimeMXBean().getUptime()
+                + " ms del arranque; " + servedFromSnapshot.sum() + " redirecciones desde la instantánea, "
+                + replayedClicks + " accesos registrados, " + droppedClicks.sum() + " descartados");
+    }
+
+    // El enlace pudo borrarse o renombrarse después de la instantánea: sin enlace, no hay acceso que guardar
+    private void replay(PendingClick click) {
+        ResolvedUrl resolved = urlService.resolveUrl(click.shortUrl);
+        if (resolved != null) urlService.recordAccess(resolved.getId(), click.detail);
+    }
+
+    private static final class PendingClick {
+        final String shortUrl;
+        final AccessDetail detail;
+
+        PendingClick(String shortUrl, AccessDetail detail) {
+            this.shortUrl = shortUrl;
+            this.detail = detail;
+        }
+    }
+}
@@ -59,7 +59,13 @@ public class GrpcClientController {
             ctx.redirect("/grpc-client/login?error=" + errorMsg);
             return;
         }
-        ListUrlsRequest request = ListUrlsRequest.newBuilder().setUsername(username).build();
+        // El tablero muestra los accesos de cada enlace: se piden explícitamente; ?cursor= pasa de página
+        String cursor = ctx.queryParam("cursor");
+        ListUrlsRequest request = ListUrlsRequest.newBuilder()
+                .setUsername(username)
+                .setCursor(cursor != null ? cursor : "")
+                .setIncludeDetails(true)
+                .build();
         ListUrlsResponse response = stub.listUrls(request);
         // Convertir la lista de UrlEntry en una lista de maps (sin los campos internos)
         List<Map<String, Object>> urls = response.getUrlsList().stream()
@@ -83,7 +89,9 @@ public class GrpcClientController {
                             "statistics", Map.of(
                                     "accessCount", entry.getStatistics().getAccessCount(),
                                     "accessTimes", entry.getStatistics().getAccessTimesList(),
-                                    "accessDetails", accessDetails
+                                    "accessDetails", accessDetails,
+                                    "uniqueVisitors", entry.getStatistics().getUniqueVisitors(),
+                                    "dailyUniqueVisitors", entry.getStatistics().getDailyUniqueVisitorsMap()
                             ),
                             "previewImage", entry.getPreviewImageBase64()
                     );
@@ -99,7 +107,8 @@ public class GrpcClientController {
         ctx.render("client-dashboard.html", Map.of(
                 "urlsJson", urlsJson,
                 "baseUrl", baseUrl,
-                "backend", "grpc"
+                "backend", "grpc",
+                "nextCursor", response.getNextCursor()
         ));
     };
 
@@ -1,20 +1,35 @@
 package edu.pucmm.eict.controladores.api.rest;
 
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.HotLink;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
 import edu.pucmm.eict.services.UrlService;
 import edu.pucmm.eict.services.UserService;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.DateParams;
+import edu.pucmm.eict.util.PageParams;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.http.Handler;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.stream.Collectors;
 
 public class ApiUrlController extends BaseUrlController {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private UrlService urlService;
     private UserService userService;
 
@@ -34,42 +49,56 @@ public class ApiUrlController extends BaseUrlController {
             ctx.status(401).result("No autorizado");
             return;
         }
-        // Obtiene todas las URLs y filtra las que pertenecen al usuario autenticado.
-        Collection<Url> allUrls = urlService.getAllUrls();
-        List<Map<String, Object>> userUrls = allUrls.stream()
-                .filter(url -> url.getUser() != null && username.equals(url.getUser().getUsername()))
+        // Rango opcional ?from=&to= para los accesos y las estadísticas; página con ?limit=&cursor=.
+        // accessTimes/accessDetails solo se cargan (y se incluyen) con ?details=true.
+        boolean details = "true".equalsIgnoreCase(ctx.queryParam("details"));
+        Date from;
+        Date to;
+        UrlPage page;
+        try {
+            from = DateParams.parse(ctx.queryParam("from"));
+            to = DateParams.parse(ctx.queryParam("to"));
+            Usuario owner = new Usuario();
+            owner.setUsername(username);
+            page = urlService.listUrls(owner, ctx.queryParam("cursor"), PageParams.limit(ctx.queryParam("limit")),
+                    details, from, to);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        List<Url> ownUrls = page.getUrls();
+        if (page.getNextCursor() != null) ctx.header("X-Next-Cursor", page.getNextCursor());
+        // Conteos por navegador/plataforma de todos los enlaces en una sola lectura de los rollups.
+        Map<Long, AccessStats> rollups = urlService.getAccessStats(ownUrls, from, to);
+        List<Map<String, Object>> userUrls = ownUrls.stream()
                 .map(url -> {
                     Date createdAt = (url.getCreatedAt() != null) ? url.getCreatedAt() : new Date();
-
-                    // Calculamos browserStats a partir de cada detalle de acceso.
-                    Map<String, Integer> browserStats = new HashMap<>();
-                    url.getAccessDetails().forEach(detail -> {
-                        String browser = detail.getBrowser();
-                        browserStats.put(browser, browserStats.getOrDefault(browser, 0) + 1);
-                    });
-
-                    // Extraer los accessTimes y mapear cada detalle a un objeto sencillo.
-                    List<String> accessTimes = url.getAccessDetails().stream()
-                            .map(detail -> detail.getTimestamp().toInstant().toString())
-                            .collect(java.util.stream.Collectors.toList());
-                    List<Map<String, Object>> accessDetails = url.getAccessDetails().stream()
-                            .map(detail -> {
-                                Map<String, Object> map = new HashMap<>();
-                                map.put("timestamp", detail.getTimestamp().toInstant().toString());
-                                map.put("ip", detail.getIp());
-                                map.put("browser", detail.getBrowser());
-                                map.put("platform", detail.getPlatform());
-                                return map;
-                            })
-                            .collect(java.util.stream.Collectors.toList());
+                    AccessStats accessStats = rollups.get(url.getId());
 
                     // Construir el objeto de estadísticas.
-                    Map<String, Object> stats = Map.of(
-                            "accessCount", url.getAccessCount(),
-                            "accessTimes", accessTimes,
-                            "accessDetails", accessDetails,
-                            "browserStats", browserStats
-                    );
+                    Map<String, Object> stats = new HashMap<>();
+                    stats.put("accessCount", url.getAccessCount());
+                    stats.put("browserStats", accessStats.getBrowsers());
+                    stats.put("platformStats", accessStats.getPlatforms());
+                    stats.put("hourlyStats", accessStats.getHourlyIso());
+                    stats.put("uniqueVisitors", accessStats.getUniqueVisitors());
+                    stats.put("dailyUniqueVisitors", accessStats.getDailyVisitors());
+                    if (details) {
+                        // Extraer los accessTimes y mapear cada detalle a un objeto sencillo.
+                        stats.put("accessTimes", url.getAccessDetails().stream()
+                                .map(detail -> detail.getTimestamp().toInstant().toString())
+                                .collect(Collectors.toList()));
+                        stats.put("accessDetails", url.getAccessDetails().stream()
+                                .map(detail -> {
+                                    Map<String, Object> map = new HashMap<>();
+                                    map.put("timestamp", detail.getTimestamp().toInstant().toString());
+                                    map.put("ip", detail.getIp());
+                                    map.put("browser", detail.getBrowser());
+                                    map.put("platform", detail.getPlatform());
+                                    return map;
+                                })
+                                .collect(Collectors.toList()));
+                    }
                     // Calcular la vista previa usando la URL original.
                     String previewImage = getPreviewImage(url.getOriginalUrl());
                     return Map.of(
@@ -84,6 +113,51 @@ public class ApiUrlController extends BaseUrlController {
         ctx.json(userUrls);
     };
 
+    /**
+     * Clicks de un enlace por bucket (?bucket=minute|hour|day|week, ?from=&to=, ?breakdown=true);
+     * solo el dueño o un administrador.
+     */
+    public Handler histogramApi = ctx -> {
+        String username = ctx.attribute("currentUser");
+        if (username == null) {
+            ctx.status(401).result("No autorizado");
+            return;
+        }
+        Url url = urlService.getUrlSummary(ctx.pathParam("shortUrl"));
+        if (url == null) {
+            ctx.status(404).result("Enlace no encontrado");
+            return;
+        }
+        boolean isOwner = url.getUser() != null && username.equals(url.getUser().getUsername());
+        if (!isOwner && !"admin".equals(ctx.attribute("currentRole"))) {
+            ctx.status(403).result("No tienes permiso para acceder a estas estadísticas");
+            return;
+        }
+        try {
+            ctx.json(urlService.getHistogram(url, ctx.queryParam("bucket"), DateParams.parse(ctx.queryParam("from")),
+                    DateParams.parse(ctx.queryParam("to")), "true".equalsIgnoreCase(ctx.queryParam("breakdown"))));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+        }
+    };
+
+    /** Enlaces más visitados (?window=1m|1h|24h, ?limit=); solo administradores. */
+    public Handler hotLinksApi = ctx -> {
+        if (!"admin".equals(ctx.attribute("currentRole"))) {
+            ctx.status(403).result("Solo un administrador puede ver los enlaces más visitados");
+            return;
+        }
+        String window = ctx.queryParam("window") != null ? ctx.queryParam("window") : "1h";
+        List<HotLink> links;
+        try {
+            links = urlService.getHotLinks(window, PageParams.limit(ctx.queryParam("limit")));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(e.getMessage());
+            return;
+        }
+        ctx.json(Map.of("window", window, "links", links));
+    };
+
     /**
      * Crea un registro de URL y retorna la estructura completa (URL original, URL acortada,
      * fecha de creación, estadísticas y vista previa).
@@ -106,16 +180,16 @@ public class ApiUrlController extends BaseUrlController {
             ctx.status(401).result("Usuario no encontrado");
             return;
         }
-        // Guarda la URL en la base de datos.
-        Url url = urlService.saveUrl(originalUrl, user);
+        // Guarda la URL en la base de datos ("dedupe": true reutiliza el enlace vigente al mismo destino).
+        Object dedupe = body.get("dedupe");
+        Url url = (dedupe != null)
+                ? urlService.saveUrl(originalUrl, user, Boolean.parseBoolean(dedupe.toString()))
+                : urlService.saveUrl(originalUrl, user);
         Date createdAt = (url.getCreatedAt() != null) ? url.getCreatedAt() : new Date();
         String previewImage = getPreviewImage(originalUrl);
 
-        Map<String, Integer> browserStats = new HashMap<>();
-        url.getAccessDetails().forEach(detail -> {
-            String browser = detail.getBrowser();
-            browserStats.put(browser, browserStats.getOrDefault(browser, 0) + 1);
-        });
+        // Con dedupe puede ser un enlace existente: sus conteos vienen de los rollups.
+        AccessStats accessStats = urlService.getAccessStats(url);
 
         List<String> accessTimes = url.getAccessDetails().stream()
                 .map(detail -> detail.getTimestamp().toInstant().toString())
@@ -135,7 +209,11 @@ public class ApiUrlController extends BaseUrlController {
                 "accessCount", url.getAccessCount(),
                 "accessTimes", accessTimes,
                 "accessDetails", accessDetails,
-                "browserStats", browserStats
+                "browserStats", accessStats.getBrowsers(),
+                "platformStats", accessStats.getPlatforms(),
+                "hourlyStats", accessStats.getHourlyIso(),
+                "uniqueVisitors", accessStats.getUniqueVisitors(),
+                "dailyUniqueVisitors", accessStats.getDailyVisitors()
         );
 
         Map<String, Object> response = Map.of(
@@ -147,4 +225,115 @@ public class ApiUrlController extends BaseUrlController {
         );
         ctx.json(response);
     };
+
+    /**
+     * Crea muchas URLs en una sola petición. Acepta {"urls": [...]} o un arreglo JSON
+     * y responde en NDJSON (una línea por URL, en el orden recibido) a medida que se
+     * inserta cada bloque. Un elemento inválido no hace fallar al resto.
+     * No se calcula la vista previa: sería una descarga bloqueante por enlace.
+     */
+    public Handler bulkCreateUrlsApi = ctx -> {
+        String username = ctx.attribute("currentUser");
+        if (username == null) {
+            ctx.status(401).result("No autorizado");
+            return;
+        }
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(ctx.body());
+        } catch (Exception e) {
+            ctx.status(400).result("JSON inválido");
+            return;
+        }
+        JsonNode items = (root != null && root.isObject()) ? root.get("urls") : root;
+        if (items == null || !items.isArray() || items.size() == 0) {
+            ctx.status(400).result("Debe proporcionar un arreglo de URLs");
+            return;
+        }
+        int maxUrls = AppConfig.getInt("APP_BULK_MAX_URLS", 10_000);
+        if (items.size() > maxUrls) {
+            ctx.status(413).result("Máximo " + maxUrls + " URLs por petición");
+            return;
+        }
+        // Se resuelve el usuario una sola vez para todo el lote
+        Usuario user = userService.getUserByUsername(username);
+        if (user == null) {
+            ctx.status(401).result("Usuario no encontrado");
+            return;
+        }
+        int chunkSize = Math.max(1, AppConfig.getInt("APP_BULK_CHUNK_SIZE", 500));
+
+        ctx.contentType("application/x-ndjson");
+        OutputStream out = ctx.outputStream();
+        List<Integer> indexes = new ArrayList<>(chunkSize);
+        List<String> chunk = new ArrayList<>(chunkSize);
+        for (int i = 0; i < items.size(); i++) {
+            JsonNode item = items.get(i);
+            String originalUrl = item.isTextual() ? item.asText().trim()
+                    : (item.hasNonNull("originalUrl") ? item.get("originalUrl").asText().trim() : "");
+            String error = validateUrl(originalUrl);
+            if (error != null) {
+                writeLine(out, bulkItem(i, originalUrl, null, error));
+                continue;
+            }
+            indexes.add(i);
+            chunk.add(originalUrl);
+            if (chunk.size() >= chunkSize) {
+                writeChunk(out, indexes, chunk, user);
+            }
+        }
+        if (!chunk.isEmpty()) writeChunk(out, indexes, chunk, user);
+        out.flush();
+    };
+
+    // Inserta el bloque y escribe sus resultados de inmediato
+    private void writeChunk(OutputStream out, List<Integer> indexes, List<String> chunk, Usuario user) throws IOException {
+        List<Url> saved;
+        try {
+            saved = urlService.saveUrls(chunk, user);
+        } catch (RuntimeException e) {
+            saved = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) saved.add(null);
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            Url url = saved.get(i);
+            writeLine(out, bulkItem(indexes.get(i), chunk.get(i), url, url == null ? "No se pudo crear la URL" : null));
+        }
+        out.flush();
+        indexes.clear();
+        chunk.clear();
+    }
+
+    private static String validateUrl(String originalUrl) {
+        if (originalUrl.isEmpty()) return "URL vacía";
+        if (originalUrl.length() > 2048) return "URL demasiado larga";
+        try {
+            URI uri = new URI(originalUrl);
+            String scheme = uri.getScheme();
+            if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) || uri.getHost() == null) {
+                return "URL inválida";
+            }
+        } catch (URISyntaxException e) {
+            return "URL inválida";
+        }
+        return null;
+    }
+
+    private static Map<String, Object> bulkItem(int index, String originalUrl, Url url, String error) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("index", index);
+        item.put("originalUrl", originalUrl);
+        if (url != null) {
+            item.put("shortUrl", url.getShortUrl());
+            item.put("createdAt", url.getCreatedAt() != null ? url.getCreatedAt().toInstant().toString() : null);
+        } else {
+            item.put("error", error);
+        }
+        return item;
+    }
+
+    private static void writeLine(OutputStream out, Map<String, Object> item) throws IOException {
+        out.write(MAPPER.writeValueAsBytes(item));
+        out.write('\n');
+    }
 }
@@ -0,0 +1,87 @@
+package edu.pucmm.eict.modelos;
+
+import edu.pucmm.eict.util.HyperLogLog;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Estadísticas agregadas de un enlace, armadas desde los rollups por hora
+ * (sin recorrer cada AccessDetail). Los visitantes únicos son aproximados (HyperLogLog por día):
+ * el total del rango une los sketches diarios, no suma los conteos de cada día.
+ */
+public class AccessStats {
+    public static final String BROWSER = "browser";
+    public static final String PLATFORM = "platform";
+    /** Etiqueta para los accesos sin navegador o plataforma conocidos. */
+    public static final String UNKNOWN = "Desconocido";
+
+    private long totalClicks;
+    private final Map<String, Long> browsers = new TreeMap<>();
+    private final Map<String, Long> platforms = new TreeMap<>();
+    private final SortedMap<Long, Long> hourly = new TreeMap<>(); // inicio de la hora (epoch ms) -> clicks
+    private final SortedMap<Long, HyperLogLog> dailyVisitors = new TreeMap<>(); // inicio del día UTC -> sketch
+
+    /** Suma una fila de rollup; el total y la serie por hora salen de la dimensión browser. */
+    public void add(long hourStart, String dimension, String value, long clicks) {
+        String label = (value == null || value.isEmpty()) ? UNKNOWN : value;
+        if (BROWSER.equals(dimension)) {
+            browsers.merge(label, clicks, Long::sum);
+            hourly.merge(hourStart, clicks, Long::sum);
+            totalClicks += clicks;
+        } else if (PLATFORM.equals(dimension)) {
+            platforms.merge(label, clicks, Long::sum);
+        }
+    }
+
+    /** Une el sketch de visitantes de un día. */
+    public void addVisitors(long dayStart, HyperLogLog sketch) {
+        HyperLogLog day = dailyVisitors.get(dayStart);
+        if (day == null) dailyVisitors.put(dayStart, sketch);
+        else day.merge(sketch);
+    }
+
+    public long getTotalClicks() {
+        return totalClicks;
+    }
+
+    public Map<String, Long> getBrowsers() {
+        return browsers;
+    }
+
+    public Map<String, Long> getPlatforms() {
+        return platforms;
+    }
+
+    public SortedMap<Long, Long> getHourly() {
+        return hourly;
+    }
+
+    /** Visitantes únicos estimados de todo el rango. */
+    public long getUniqueVisitors() {
+        if (dailyVisitors.isEmpty()) return 0;
+        HyperLogLog union = new HyperLogLog();
+        for (HyperLogLog day : dailyVisitors.values()) union.merge(day);
+        return union.estimate();
+    }
+
+    /** Visitantes únicos estimados por día (yyyy-MM-dd, UTC). */
+    public Map<String, Long> getDailyVisitors() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        dailyVisitors.forEach((day, sketch) ->
+                result.put(LocalDate.ofInstant(new Date(day).toInstant(), ZoneOffset.UTC).toString(), sketch.estimate()));
+        return result;
+    }
+
+    /** Serie por hora con la hora en ISO-8601, lista para serializar. */
+    public Map<String, Long> getHourlyIso() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        hourly.forEach((hour, clicks) -> result.put(new Date(hour).toInstant().toString(), clicks));
+        return result;
+    }
+}
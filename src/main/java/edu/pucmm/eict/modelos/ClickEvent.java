@@ -0,0 +1,31 @@
+package edu.pucmm.eict.modelos;
+
+/**
+ * Un acceso a un enlace pendiente de persistir en access_details.
+ */
+public class ClickEvent {
+    private final long urlId;
+    private final AccessDetail detail;
+    private long sequence;          // posición en el diario de accesos; 0 si no se registró en él
+
+    public ClickEvent(long urlId, AccessDetail detail) {
+        this.urlId = urlId;
+        this.detail = detail;
+    }
+
+    public long getUrlId() {
+        return urlId;
+    }
+
+    public AccessDetail getDetail() {
+        return detail;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+}
@@ -0,0 +1,158 @@
+package edu.pucmm.eict.modelos;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Clicks de un enlace agrupados en buckets de tiempo (minuto, hora, día o semana, en UTC),
+ * opcionalmente desglosados por navegador y plataforma. El rango se alinea a los bordes de
+ * los buckets y todos los buckets del rango aparecen, aunque tengan cero clicks.
+ */
+public class ClickHistogram {
+
+    public enum Bucket {
+        MINUTE(60_000L, 60),
+        HOUR(3_600_000L, 24),
+        DAY(86_400_000L, 30),
+        // Semanas ISO: empiezan el lunes (el 1970-01-01 fue jueves)
+        WEEK(7 * 86_400_000L, 12);
+
+        private static final long MONDAY_OFFSET = 4 * 86_400_000L;
+
+        private final long millis;
+        private final int defaultCount; // buckets hacia atrás cuando no se indica from
+
+        Bucket(long millis, int defaultCount) {
+            this.millis = millis;
+            this.defaultCount = defaultCount;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public int getDefaultCount() {
+            return defaultCount;
+        }
+
+        public long startOf(long timestamp) {
+            long offset = this == WEEK ? MONDAY_OFFSET : 0;
+            return Math.floorDiv(timestamp - offset, millis) * millis + offset;
+        }
+
+        /** Los de una hora o más se arman desde los rollups por hora; los de un minuto, desde el detalle. */
+        public boolean fromRollups() {
+            return millis >= HOUR.millis;
+        }
+
+        public static Bucket parse(String name) {
+            if (name == null || name.isEmpty()) return HOUR;
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Bucket inválido: " + name + " (válidos: minute, hour, day, week)");
+            }
+        }
+    }
+
+    private final Bucket bucket;
+    private final long from;
+    private final long to;
+    private final boolean breakdown;
+    private final SortedMap<Long, Counts> buckets = new TreeMap<>();
+    private long totalClicks;
+
+    /** Alinea [from, to) a los bordes de los buckets; no valida cuántos buckets resultan. */
+    public ClickHistogram(Bucket bucket, Date from, Date to, boolean breakdown) {
+        this.bucket = bucket;
+        this.from = bucket.startOf(from.getTime());
+        long end = bucket.startOf(to.getTime() - 1) + bucket.getMillis();
+        this.to = Math.max(end, this.from);
+        this.breakdown = breakdown;
+    }
+
+    public static long bucketCount(Bucket bucket, Date from, Date to) {
+        long start = bucket.startOf(from.getTime());
+        long end = bucket.startOf(to.getTime() - 1) + bucket.getMillis();
+        return Math.max(0, (end - start) / bucket.getMillis());
+    }
+
+    /** Suma una fila de rollup por hora; el total sale de la dimensión browser, como en AccessStats. */
+    public void add(long hourStart, String dimension, String value, long clicks) {
+        if (hourStart < from || hourStart >= to) return;
+        Counts counts = counts(hourStart);
+        if (AccessStats.BROWSER.equals(dimension)) {
+            counts.clicks += clicks;
+            totalClicks += clicks;
+            if (breakdown) counts.browsers.merge(label(value), clicks, Long::sum);
+        } else if (AccessStats.PLATFORM.equals(dimension) && breakdown) {
+            counts.platforms.merge(label(value), clicks, Long::sum);
+        }
+    }
+
+    /** Suma un acceso del detalle. */
+    public void add(AccessDetail detail) {
+        long timestamp = detail.getTimestamp().getTime();
+        if (timestamp < from || timestamp >= to) return;
+        Counts counts = counts(timestamp);
+        counts.clicks++;
+        totalClicks++;
+        if (breakdown) {
+            counts.browsers.merge(label(detail.getBrowser()), 1L, Long::sum);
+            counts.platforms.merge(label(detail.getPlatform()), 1L, Long::sum);
+        }
+    }
+
+    private static String label(String value) {
+        return (value == null || value.isEmpty()) ? AccessStats.UNKNOWN : value;
+    }
+
+    private Counts counts(long timestamp) {
+        return buckets.computeIfAbsent(bucket.startOf(timestamp), k -> new Counts());
+    }
+
+    public String getBucket() {
+        return bucket.name().toLowerCase(Locale.ROOT);
+    }
+
+    public Date getFrom() {
+        return new Date(from);
+    }
+
+    public Date getTo() {
+        return new Date(to);
+    }
+
+    public long getTotalClicks() {
+        return totalClicks;
+    }
+
+    /** Buckets en orden, con el inicio en ISO-8601, listos para serializar. */
+    public List<Map<String, Object>> getBuckets() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (long start = from; start < to; start += bucket.getMillis()) {
+            Counts counts = buckets.get(start);
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("start", new Date(start).toInstant().toString());
+            row.put("clicks", counts == null ? 0L : counts.clicks);
+            if (breakdown) {
+                row.put("browsers", counts == null ? Map.of() : counts.browsers);
+                row.put("platforms", counts == null ? Map.of() : counts.platforms);
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    private static final class Counts {
+        long clicks;
+        final Map<String, Long> browsers = new TreeMap<>();
+        final Map<String, Long> platforms = new TreeMap<>();
+    }
+}
@@ -0,0 +1,47 @@
+package edu.pucmm.eict.modelos;
+
+/**
+ * Un enlace del ranking de más visitados en una ventana de tiempo. Los clicks son una
+ * cota superior aproximada: pueden exceder los reales en a lo sumo maxError.
+ */
+public class HotLink {
+    private final long urlId;
+    private final long clicks;
+    private final long maxError;
+    private String shortUrl;
+    private String originalUrl;
+
+    public HotLink(long urlId, long clicks, long maxError) {
+        this.urlId = urlId;
+        this.clicks = clicks;
+        this.maxError = maxError;
+    }
+
+    public long getUrlId() {
+        return urlId;
+    }
+
+    public long getClicks() {
+        return clicks;
+    }
+
+    public long getMaxError() {
+        return maxError;
+    }
+
+    public String getShortUrl() {
+        return shortUrl;
+    }
+
+    public void setShortUrl(String shortUrl) {
+        this.shortUrl = shortUrl;
+    }
+
+    public String getOriginalUrl() {
+        return originalUrl;
+    }
+
+    public void setOriginalUrl(String originalUrl) {
+        this.originalUrl = originalUrl;
+    }
+}
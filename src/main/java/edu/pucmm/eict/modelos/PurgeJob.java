@@ -0,0 +1,101 @@
+package edu.pucmm.eict.modelos;
+
+import java.util.Date;
+
+/**
+ * Estado de un borrado masivo de enlaces que corre en segundo plano (ver LinkPurger).
+ * Lo actualiza un solo hilo; quien lo consulta ve el avance de a un lote.
+ */
+public class PurgeJob {
+    public static final String PENDING = "pending";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String CANCELLED = "cancelled";
+    public static final String FAILED = "failed";
+
+    private final long id;
+    private final String description;
+    private final Date createdAt = new Date();
+    private volatile String status = PENDING;
+    private volatile long deleted;
+    private volatile int chunks;
+    private volatile long lastId;   // los lotes avanzan por id ascendente
+    private volatile Date startedAt;
+    private volatile Date finishedAt;
+    private volatile String error;
+    private volatile boolean cancelRequested;
+
+    public PurgeJob(long id, String description) {
+        this.id = id;
+        this.description = description;
+    }
+
+    public void start() {
+        startedAt = new Date();
+        status = RUNNING;
+    }
+
+    public void progress(int deletedInChunk, long lastIdInChunk) {
+        deleted += deletedInChunk;
+        chunks++;
+        lastId = lastIdInChunk;
+    }
+
+    public void finish(String finalStatus, String error) {
+        this.error = error;
+        finishedAt = new Date();
+        status = finalStatus;
+    }
+
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
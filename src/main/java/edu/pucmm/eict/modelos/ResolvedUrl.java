@@ -0,0 +1,31 @@
+package edu.pucmm.eict.modelos;
+
+import java.util.Date;
+
+/**
+ * Vista mínima de un enlace para el camino de redirección:
+ * solo id, destino y expiración (sin dueño ni historial de accesos).
+ */
+public class ResolvedUrl {
+    private final long id;
+    private final String originalUrl;
+    private final Date expiresAt;   // null si el enlace no expira
+
+    public ResolvedUrl(long id, String originalUrl, Date expiresAt) {
+        this.id = id;
+        this.originalUrl = originalUrl;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getOriginalUrl() {
+        return originalUrl;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,69 @@
+package edu.pucmm.eict.modelos;
+
+import java.util.Date;
+
+/**
+ * Criterio para seleccionar enlaces en un borrado masivo. Los criterios presentes se combinan
+ * con AND; un filtro vacío no se acepta (borraría todo).
+ */
+public class UrlFilter {
+    private Long userId;              // enlaces de este dueño
+    private boolean orphaned;         // sin dueño ni vencimiento: su usuario se borró
+    private String originalUrlPrefix; // destino que empieza así
+    private Date createdBefore;
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public boolean isOrphaned() {
+        return orphaned;
+    }
+
+    public void setOrphaned(boolean orphaned) {
+        this.orphaned = orphaned;
+    }
+
+    public String getOriginalUrlPrefix() {
+        return originalUrlPrefix;
+    }
+
+    public void setOriginalUrlPrefix(String originalUrlPrefix) {
+        this.originalUrlPrefix = originalUrlPrefix;
+    }
+
+    public Date getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public void setCreatedBefore(Date createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+
+    public boolean isEmpty() {
+        return userId == null && !orphaned && (originalUrlPrefix == null || originalUrlPrefix.isEmpty()) && createdBefore == null;
+    }
+
+    /** Para los backends que filtran en memoria; H2 traduce el filtro a SQL. */
+    public boolean matches(Long ownerId, String originalUrl, Date createdAt, Date expiresAt) {
+        if (userId != null && !userId.equals(ownerId)) return false;
+        if (orphaned && (ownerId != null || expiresAt != null)) return false;
+        if (originalUrlPrefix != null && !originalUrlPrefix.isEmpty()
+                && (originalUrl == null || !originalUrl.startsWith(originalUrlPrefix))) return false;
+        return createdBefore == null || (createdAt != null && createdAt.before(createdBefore));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (userId != null) sb.append("dueño=").append(userId).append(' ');
+        if (orphaned) sb.append("huérfanos ");
+        if (originalUrlPrefix != null && !originalUrlPrefix.isEmpty()) sb.append("destino=").append(originalUrlPrefix).append("* ");
+        if (createdBefore != null) sb.append("antes de ").append(createdBefore.toInstant()).append(' ');
+        return sb.toString().trim();
+    }
+}
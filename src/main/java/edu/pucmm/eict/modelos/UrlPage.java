@@ -0,0 +1,24 @@
+package edu.pucmm.eict.modelos;
+
+import java.util.List;
+
+/**
+ * Página de un listado de enlaces (id descendente) y el cursor para pedir la siguiente.
+ */
+public class UrlPage {
+    private final List<Url> urls;
+    private final String nextCursor; // null si es la última página
+
+    public UrlPage(List<Url> urls, String nextCursor) {
+        this.urls = urls;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Url> getUrls() {
+        return urls;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,77 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+/**
+ * Almacenamiento de accesos: detalle por evento en particiones mensuales, rollups por
+ * hora/navegador/plataforma (mantenidos en la misma escritura que el detalle) y contador
+ * acumulado por enlace. Las consultas por rango solo tocan las particiones que se solapan.
+ *
+ * Los métodos de escritura reciben opcionalmente un checkpoint del diario de accesos
+ * (nombre + secuencia) que debe quedar guardado de forma atómica junto con los datos.
+ */
+public interface AccessEventRepository {
+
+    /** Inserta los eventos y suma sus rollups; con {@code checkpoint} != null guarda también su secuencia. */
+    void insertEvents(List<ClickEvent> events, String checkpoint, long sequence);
+
+    /** Suma los deltas a access_count (url_id -> delta, en orden de id). */
+    void addAccessCounts(SortedMap<Long, Long> deltas, String checkpoint, long sequence);
+
+    /** Accesos de un enlace en [from, to) ordenados por fecha; null = sin límite. */
+    List<AccessDetail> findByUrl(long urlId, Date from, Date to);
+
+    default List<AccessDetail> findByUrl(long urlId) {
+        return findByUrl(urlId, null, null);
+    }
+
+    /** Como findByUrl, pero entrega los accesos de a uno en orden de fecha, sin armar la lista completa. */
+    default void scanByUrl(long urlId, Date from, Date to, Consumer<AccessDetail> consumer) {
+        findByUrl(urlId, from, to).forEach(consumer);
+    }
+
+    /** Estadísticas por enlace leídas de los rollups en [from, to); los enlaces sin accesos no aparecen. */
+    Map<Long, AccessStats> loadAccessStats(Collection<Long> urlIds, Date from, Date to);
+
+    /** Fila de rollup: inicio de la hora (epoch ms), dimensión (browser/platform), valor y clicks. */
+    interface RollupConsumer {
+        void accept(long hourStart, String dimension, String value, long clicks);
+    }
+
+    /** Filas de rollup de un enlace en [from, to) con el mismo criterio de rango que loadAccessStats. */
+    void scanRollups(long urlId, Date from, Date to, RollupConsumer consumer);
+
+    default AccessStats loadAccessStats(long urlId) {
+        AccessStats stats = loadAccessStats(Collections.singletonList(urlId), null, null).get(urlId);
+        return stats != null ? stats : new AccessStats();
+    }
+
+    /**
+     * Elimina las particiones de detalle cuyo mes terminó antes de {@code cutoff}.
+     * Los rollups y access_count se conservan.
+     * @return nombres de las particiones eliminadas
+     */
+    List<String> dropPartitionsBefore(Date cutoff);
+
+    /** Particiones de detalle existentes, de la más antigua a la más reciente. */
+    List<String> listPartitions();
+
+    /** Recorre los accesos de una partición en orden (url_id, timestamp). */
+    void scanPartition(String partition, Consumer<ClickEvent> consumer);
+
+    /** Última secuencia guardada para el checkpoint, o 0. */
+    long loadCheckpoint(String checkpoint);
+
+    /** Si los datos sobreviven a un reinicio (solo así tiene sentido el diario de accesos). */
+    boolean isPersistent();
+}
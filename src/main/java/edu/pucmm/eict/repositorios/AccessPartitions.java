@@ -0,0 +1,55 @@
+package edu.pucmm.eict.repositorios;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.NavigableSet;
+
+/**
+ * Particiones mensuales de los accesos (yyyymm), comunes a todos los backends.
+ * Se usa la zona del sistema, igual que los TIMESTAMP sin zona de H2.
+ */
+final class AccessPartitions {
+    static final String PREFIX = "access_details_p";
+    static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private AccessPartitions() {
+    }
+
+    static int monthOf(long timestamp) {
+        ZonedDateTime time = Instant.ofEpochMilli(timestamp).atZone(ZONE);
+        return time.getYear() * 100 + time.getMonthValue();
+    }
+
+    static long monthStart(int month) {
+        return YearMonth.of(month / 100, month % 100).atDay(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+    }
+
+    static long monthEnd(int month) {
+        return YearMonth.of(month / 100, month % 100).plusMonths(1).atDay(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+    }
+
+    static String name(int month) {
+        return PREFIX + month;
+    }
+
+    static int monthOf(String name) {
+        return Integer.parseInt(name.substring(PREFIX.length()));
+    }
+
+    /** Meses de {@code months} que se solapan con [from, to); null = sin límite. */
+    static NavigableSet<Integer> overlapping(NavigableSet<Integer> months, Date from, Date to) {
+        if (months.isEmpty()) return months;
+        int first = from == null ? months.first() : monthOf(from.getTime());
+        int last = to == null ? months.last() : monthOf(to.getTime() - 1);
+        if (first > last) return months.subSet(first, false, first, false);
+        return months.subSet(first, true, last, true);
+    }
+
+    /** true si el mes terminó antes del corte (la partición completa quedó fuera de la retención). */
+    static boolean endsBefore(int month, Date cutoff) {
+        return monthEnd(month) <= cutoff.getTime();
+    }
+}
@@ -0,0 +1,228 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.util.ClickArchive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Accesos en dos niveles: las particiones recientes en el backend (caliente) y los meses
+ * viejos en segmentos columnares comprimidos ({@link ClickArchive}, frío).
+ *
+ * Todas las lecturas de detalle pasan por aquí y combinan ambos niveles, así que quien
+ * consulta no sabe dónde está cada fila. Los rollups y access_count quedan siempre en el
+ * backend. Un mes puede estar en ambos niveles a la vez (fila tardía o caída entre escribir
+ * el segmento y borrar la partición): la lectura une los dos y el siguiente archivado los fusiona.
+ * Los segmentos no se reescriben al borrar un enlace; como los ids no se reutilizan, sus filas
+ * archivadas quedan inalcanzables hasta que la retención elimina el mes.
+ */
+public class ArchivedAccessEventRepository implements AccessEventRepository {
+
+    private static final Comparator<ClickEvent> EVENT_ORDER = Comparator.comparingLong(ClickEvent::getUrlId)
+            .thenComparing(e -> e.getDetail().getTimestamp());
+
+    private final AccessEventRepository hot;
+    private final ClickArchive archive;
+
+    public ArchivedAccessEventRepository(AccessEventRepository hot, ClickArchive archive) {
+        this.hot = hot;
+        this.archive = archive;
+    }
+
+    public ClickArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+        hot.insertEvents(events, checkpoint, sequence);
+    }
+
+    @Override
+    public void addAccessCounts(SortedMap<Long, Long> deltas, String checkpoint, long sequence) {
+        hot.addAccessCounts(deltas, checkpoint, sequence);
+    }
+
+    @Override
+    public List<AccessDetail> findByUrl(long urlId, Date from, Date to) {
+        List<AccessDetail> details = new ArrayList<>();
+        for (int month : AccessPartitions.overlapping(archive.months(), from, to)) {
+            details.addAll(archive.read(month, urlId, from, to));
+        }
+        if (details.isEmpty()) return hot.findByUrl(urlId, from, to);
+        details.addAll(hot.findByUrl(urlId, from, to));
+        details.sort(Comparator.comparing(AccessDetail::getTimestamp));
+        return details;
+    }
+
+    // Los meses archivados se leen de a uno (un mes de un enlace) y el resto pasa en streaming al backend
+    @Override
+    public void scanByUrl(long urlId, Date from, Date to, Consumer<AccessDetail> consumer) {
+        NavigableSet<Integer> archived = AccessPartitions.overlapping(archive.months(), from, to);
+        if (archived.isEmpty()) {
+            hot.scanByUrl(urlId, from, to, consumer);
+            return;
+        }
+        Date next = from;
+        for (int month : new TreeSet<>(archived)) {
+            Date monthStart = new Date(AccessPartitions.monthStart(month));
+            if (next == null || next.before(monthStart)) hot.scanByUrl(urlId, next, monthStart, consumer);
+            Date lower = next == null || next.before(monthStart) ? monthStart : next;
+            Date upper = new Date(AccessPartitions.monthEnd(month));
+            if (to != null && to.before(upper)) upper = to;
+            List<AccessDetail> details = new ArrayList<>(archive.read(month, urlId, lower, upper));
+            details.addAll(hot.findByUrl(urlId, lower, upper));
+            details.sort(Comparator.comparing(AccessDetail::getTimestamp));
+            details.forEach(consumer);
+            next = upper;
+        }
+        if (to == null || next.before(to)) hot.scanByUrl(urlId, next, to, consumer);
+    }
+
+    @Override
+    public Map<Long, AccessStats> loadAccessStats(Collection<Long> urlIds, Date from, Date to) {
+        return hot.loadAccessStats(urlIds, from, to);
+    }
+
+    @Override
+    public void scanRollups(long urlId, Date from, Date to, RollupConsumer consumer) {
+        hot.scanRollups(urlId, from, to, consumer);
+    }
+
+    @Override
+    public List<String> dropPartitionsBefore(Date cutoff) {
+        List<String> dropped = hot.dropPartitionsBefore(cutoff);
+        for (int month : new ArrayList<>(archive.months())) {
+            if (!AccessPartitions.endsBefore(month, cutoff)) break;
+            try {
+                if (archive.delete(month)) dropped.add("archive/" + AccessPartitions.name(month));
+            } catch (IOException e) {
+                throw new RuntimeException("No se pudo eliminar el segmento " + month, e);
+            }
+        }
+        return dropped;
+    }
+
+    @Override
+    public List<String> listPartitions() {
+        TreeSet<String> names = new TreeSet<>(hot.listPartitions());
+        for (int month : archive.months()) names.add(AccessPartitions.name(month));
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<ClickEvent> consumer) {
+        int month = AccessPartitions.monthOf(partition);
+        if (!archive.contains(month)) {
+            hot.scanPartition(partition, consumer);
+            return;
+        }
+        List<ClickEvent> events = new ArrayList<>();
+        archive.forEach(month, events::add);
+        hot.scanPartition(partition, events::add);
+        events.sort(EVENT_ORDER);
+        events.forEach(consumer);
+    }
+
+    @Override
+    public long loadCheckpoint(String checkpoint) {
+        return hot.loadCheckpoint(checkpoint);
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return hot.isPersistent();
+    }
+
+    /**
+     * Pasa al archivo las particiones calientes cuyo mes terminó antes de {@code cutoff},
+     * de la más antigua a la más reciente. La partición se borra solo después de publicar el segmento.
+     * @return nombres de las particiones archivadas
+     */
+    public synchronized List<String> archivePartitionsBefore(Date cutoff) {
+        List<String> archived = new ArrayList<>();
+        for (String partition : hot.listPartitions()) {
+            int month = AccessPartitions.monthOf(partition);
+            if (!AccessPartitions.endsBefore(month, cutoff)) break;
+            try {
+                if (archive.contains(month)) {
+                    mergeIntoSegment(month, partition);
+                } else {
+                    archive.write(month, sink -> hot.scanPartition(partition, sink));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("No se pudo archivar " + partition, e);
+            }
+            hot.dropPartitionsBefore(new Date(AccessPartitions.monthEnd(month)));
+            archived.add(partition);
+        }
+        return archived;
+    }
+
+    // El mes ya tiene segmento: se agregan solo las filas calientes que aún no están en él
+    // (si la caída fue justo después de publicarlo, no hay nada que agregar). Los dos lados vienen
+    // en orden (url_id, timestamp) y se combinan en streaming: una pasada cuenta las filas nuevas
+    // y, solo si hay, otra reescribe el segmento.
+    private void mergeIntoSegment(int month, String partition) throws IOException {
+        if (merge(month, partition, e -> { }) == 0) return;
+        archive.write(month, sink -> {
+            try {
+                merge(month, partition, sink);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Entrega en orden las filas archivadas más las calientes que no estaban; devuelve cuántas de estas
+    private long merge(int month, String partition, Consumer<ClickEvent> sink) throws IOException {
+        long[] late = {0};
+        try (ClickArchive.SegmentReader archived = archive.open(month)) {
+            // Filas archivadas con la misma (url_id, timestamp) que la última caliente, aún sin emparejar
+            List<ClickEvent> tied = new ArrayList<>();
+            hot.scanPartition(partition, e -> {
+                if (!tied.isEmpty() && EVENT_ORDER.compare(tied.get(0), e) != 0) {
+                    tied.forEach(sink);
+                    tied.clear();
+                }
+                while (archived.hasNext() && EVENT_ORDER.compare(archived.peek(), e) < 0) sink.accept(archived.next());
+                while (archived.hasNext() && EVENT_ORDER.compare(archived.peek(), e) == 0) tied.add(archived.next());
+                List<Object> key = rowKey(e);
+                for (Iterator<ClickEvent> it = tied.iterator(); it.hasNext(); ) {
+                    ClickEvent candidate = it.next();
+                    if (rowKey(candidate).equals(key)) {
+                        it.remove();
+                        sink.accept(candidate);
+                        return;
+                    }
+                }
+                late[0]++;
+                sink.accept(e);
+            });
+            tied.forEach(sink);
+            archived.forEachRemaining(sink);
+        }
+        return late[0];
+    }
+
+    private static List<Object> rowKey(ClickEvent event) {
+        AccessDetail d = event.getDetail();
+        return Arrays.asList(event.getUrlId(), d.getTimestamp().getTime(),
+                d.getBrowser(), d.getIp(), d.getClientDomain(), d.getPlatform());
+    }
+}
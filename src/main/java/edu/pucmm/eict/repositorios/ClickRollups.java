@@ -0,0 +1,102 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.util.HyperLogLog;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Agregación de accesos en filas de rollup (url, hora, dimensión, valor) -> clicks,
+ * común a todos los backends. Un lote de eventos se reduce a una fila por combinación
+ * antes de escribir, así el costo de escritura depende de los buckets y no de los clicks.
+ * Los visitantes únicos (por IP) van aparte: un sketch HyperLogLog por enlace y día UTC.
+ */
+final class ClickRollups {
+    static final long HOUR_MILLIS = 3_600_000L;
+    static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    static final int MAX_VALUE_LENGTH = 100; // igual que access_details.browser/platform
+
+    private ClickRollups() {
+    }
+
+    static long hourOf(long timestamp) {
+        return Math.floorDiv(timestamp, HOUR_MILLIS) * HOUR_MILLIS;
+    }
+
+    static long dayOf(long timestamp) {
+        return Math.floorDiv(timestamp, DAY_MILLIS) * DAY_MILLIS;
+    }
+
+    /** Sketches de visitantes del lote: url_id -> inicio del día -> IPs vistas. */
+    static SortedMap<Long, SortedMap<Long, HyperLogLog>> visitors(List<ClickEvent> events) {
+        SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches = new TreeMap<>();
+        for (ClickEvent event : events) addVisitor(sketches, event.getUrlId(), event.getDetail());
+        return sketches;
+    }
+
+    static void addVisitor(SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches, long urlId, AccessDetail detail) {
+        if (detail.getIp() == null || detail.getIp().isEmpty()) return;
+        sketches.computeIfAbsent(urlId, k -> new TreeMap<>())
+                .computeIfAbsent(dayOf(detail.getTimestamp().getTime()), k -> new HyperLogLog())
+                .add(detail.getIp());
+    }
+
+    /** Agrega los eventos por clave, en orden (url, hora, dimensión, valor). */
+    static SortedMap<Key, Long> aggregate(List<ClickEvent> events) {
+        SortedMap<Key, Long> rollups = new TreeMap<>();
+        for (ClickEvent event : events) add(rollups, event.getUrlId(), event.getDetail());
+        return rollups;
+    }
+
+    static void add(SortedMap<Key, Long> rollups, long urlId, AccessDetail detail) {
+        long hour = hourOf(detail.getTimestamp().getTime());
+        rollups.merge(new Key(urlId, hour, AccessStats.BROWSER, value(detail.getBrowser())), 1L, Long::sum);
+        rollups.merge(new Key(urlId, hour, AccessStats.PLATFORM, value(detail.getPlatform())), 1L, Long::sum);
+    }
+
+    // null se guarda como "" (forma parte de la clave primaria)
+    private static String value(String raw) {
+        if (raw == null) return "";
+        return raw.length() > MAX_VALUE_LENGTH ? raw.substring(0, MAX_VALUE_LENGTH) : raw;
+    }
+
+    static final class Key implements Comparable<Key> {
+        final long urlId;
+        final long hour;
+        final String dimension;
+        final String value;
+
+        Key(long urlId, long hour, String dimension, String value) {
+            this.urlId = urlId;
+            this.hour = hour;
+            this.dimension = dimension;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = Long.compare(urlId, o.urlId);
+            if (c == 0) c = Long.compare(hour, o.hour);
+            if (c == 0) c = dimension.compareTo(o.dimension);
+            if (c == 0) c = value.compareTo(o.value);
+            return c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return urlId == k.urlId && hour == k.hour && dimension.equals(k.dimension) && value.equals(k.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(urlId, hour, dimension, value);
+        }
+    }
+}
@@ -0,0 +1,1026 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.util.HyperLogLog;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Backend por defecto: tablas urls y access_rollups en H2, y los accesos en una tabla por mes
+ * (access_details_pYYYYMM). La retención elimina particiones completas con DROP TABLE en vez
+ * de DELETE fila por fila; access_details queda solo como origen de la migración inicial.
+ */
+public class H2Repository implements UrlRepository, AccessEventRepository {
+
+    private static final String INSERT_URL = "INSERT INTO urls(original_url, short_url, access_count, user_id, created_at, expires_at, original_url_hash) VALUES(?,?,?,?,?,?,?)";
+    private static final String SELECT_URL = "SELECT u.id, u.original_url, u.short_url, u.access_count, u.created_at, u.expires_at, u.user_id, uu.username, uu.password, uu.role " +
+            "FROM urls u LEFT JOIN usuarios uu ON u.user_id = uu.id";
+    private static final String INSERT_DETAIL = "INSERT INTO %s(url_id, timestamp, browser, ip, client_domain, platform) VALUES(?,?,?,?,?,?)";
+    private static final int DELETE_CHUNK = 1000; // ids por sentencia DELETE ... IN
+    private static final int CHILD_DELETE_BATCH = 5000; // filas hijas por transacción al borrar enlaces
+    private static final int SCAN_PAGE = 1000; // filas por página de scanByUrl
+    private static final String DETAIL_COLUMNS = "timestamp, browser, ip, client_domain, platform";
+    private static final String INCREMENT_COUNT = "UPDATE urls SET access_count = access_count + ? WHERE id = ?";
+    private static final String MERGE_ROLLUP = "MERGE INTO access_rollups r USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), " +
+            "CAST(? AS VARCHAR(16)), CAST(? AS VARCHAR(100)), CAST(? AS BIGINT))) s(url_id, hour_start, dimension, dim_value, clicks) " +
+            "ON r.url_id = s.url_id AND r.hour_start = s.hour_start AND r.dimension = s.dimension AND r.dim_value = s.dim_value " +
+            "WHEN MATCHED THEN UPDATE SET clicks = r.clicks + s.clicks " +
+            "WHEN NOT MATCHED THEN INSERT (url_id, hour_start, dimension, dim_value, clicks) VALUES (s.url_id, s.hour_start, s.dimension, s.dim_value, s.clicks)";
+
+    private static final String SELECT_VISITORS = "SELECT sketch FROM access_visitors WHERE url_id = ? AND day_start = ? FOR UPDATE";
+    private static final String INSERT_VISITORS = "INSERT INTO access_visitors(url_id, day_start, sketch) VALUES(?, ?, ?)";
+    private static final String UPDATE_VISITORS = "UPDATE access_visitors SET sketch = ? WHERE url_id = ? AND day_start = ?";
+    private static final String VISITORS_BACKFILL = "visitors-backfill"; // checkpoint: último mes con sketches generados
+    private static final long BACKFILL_DONE = Long.MAX_VALUE;
+    private static final String LEGACY_MIGRATION = "legacy-details"; // checkpoint: último mes copiado desde access_details
+
+    private final DataSource ds;
+    private final boolean persistent; // false con la base en memoria
+    // Meses (yyyymm) con tabla creada
+    private final ConcurrentSkipListSet<Integer> partitions = new ConcurrentSkipListSet<>();
+    // Escrituras y lecturas de detalle comparten; DROP de particiones es exclusivo
+    private final ReentrantReadWriteLock partitionLock = new ReentrantReadWriteLock();
+
+    public H2Repository(DataSource ds, boolean persistent) {
+        this.ds = ds;
+        this.persistent = persistent;
+        backfillRollups();
+        loadPartitions();
+        migrateLegacyDetails();
+        backfillVisitors();
+    }
+
+    private void loadPartitions() {
+        String q = "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME LIKE ?";
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(q)) {
+            ps.setString(1, AccessPartitions.PREFIX.toUpperCase() + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String suffix = rs.getString(1).substring(AccessPartitions.PREFIX.length());
+                    if (suffix.matches("\\d{6}")) partitions.add(Integer.parseInt(suffix));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error leyendo particiones de accesos", e);
+        }
+    }
+
+    // DDL fuera de la transacción de datos: en H2 un CREATE confirma la transacción en curso
+    private void ensurePartition(int month) throws SQLException {
+        if (partitions.contains(month)) return;
+        synchronized (partitions) {
+            if (partitions.contains(month)) return;
+            String table = AccessPartitions.name(month);
+            try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + " (\n" +
+                        "  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,\n" +
+                        "  url_id BIGINT NOT NULL,\n" +
+                        "  timestamp TIMESTAMP NOT NULL,\n" +
+                        "  browser VARCHAR(100),\n" +
+                        "  ip VARCHAR(64),\n" +
+                        "  client_domain VARCHAR(255),\n" +
+                        "  platform VARCHAR(100),\n" +
+                        "  CONSTRAINT fk_access_url_p" + month + " FOREIGN KEY (url_id) REFERENCES urls(id) ON DELETE CASCADE\n" +
+                        ")");
+                st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_access_p" + month + "_url ON " + table + "(url_id, timestamp)");
+            }
+            partitions.add(month);
+        }
+    }
+
+    // Una sola vez: reparte las filas de la tabla única access_details en particiones mensuales.
+    // Cada mes se copia en su propia transacción junto con el checkpoint LEGACY_MIGRATION, así que
+    // una caída retoma desde el mes siguiente; al final TRUNCATE vacía la tabla sin borrar fila por fila
+    private void migrateLegacyDetails() {
+        try (Connection c = ds.getConnection()) {
+            List<Integer> months = new ArrayList<>();
+            try (Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT DISTINCT YEAR(timestamp) * 100 + MONTH(timestamp) AS m FROM access_details ORDER BY m")) {
+                while (rs.next()) months.add(rs.getInt(1));
+            }
+            if (months.isEmpty()) return;
+            long done = loadCheckpoint(LEGACY_MIGRATION);
+            for (int month : months) ensurePartition(month);
+            long moved = 0;
+            c.setAutoCommit(false);
+            try {
+                for (int month : months) {
+                    if (month <= done) continue;
+                    String sql = "INSERT INTO " + AccessPartitions.name(month) + "(url_id, " + DETAIL_COLUMNS + ") " +
+                            "SELECT url_id, " + DETAIL_COLUMNS + " FROM access_details WHERE timestamp >= ? AND timestamp < ?";
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        ps.setTimestamp(1, new Timestamp(AccessPartitions.monthStart(month)));
+                        ps.setTimestamp(2, new Timestamp(AccessPartitions.monthEnd(month)));
+                        moved += ps.executeUpdate();
+                    }
+                    saveCheckpoint(c, LEGACY_MIGRATION, month);
+                    c.commit();
+                }
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            try (Statement st = c.createStatement()) {
+                st.executeUpdate("TRUNCATE TABLE access_details");
+            }
+            System.out.println("[PARTITIONS] Migrados " + moved + " accesos a " + months.size() + " particiones mensuales");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error migrando access_details a particiones", e);
+        }
+    }
+
+    // Una sola vez: arma los rollups de los accesos registrados antes de existir la tabla
+    private void backfillRollups() {
+        try (Connection c = ds.getConnection()) {
+            try (Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT (SELECT COUNT(*) FROM access_rollups), (SELECT COUNT(*) FROM access_details)")) {
+                rs.next();
+                if (rs.getLong(1) > 0 || rs.getLong(2) == 0) return;
+            }
+            SortedMap<ClickRollups.Key, Long> rollups = new TreeMap<>();
+            try (Statement st = c.createStatement()) {
+                st.setFetchSize(1000);
+                try (ResultSet rs = st.executeQuery("SELECT url_id, timestamp, browser, platform FROM access_details")) {
+                    while (rs.next()) {
+                        AccessDetail d = new AccessDetail(new Date(rs.getTimestamp(2).getTime()), rs.getString(3), null, null, rs.getString(4));
+                        ClickRollups.add(rollups, rs.getLong(1), d);
+                    }
+                }
+            }
+            c.setAutoCommit(false);
+            try {
+                mergeRollups(c, rollups);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            System.out.println("[ROLLUPS] Generadas " + rollups.size() + " filas de rollup desde access_details");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error generando rollups de accesos", e);
+        }
+    }
+
+    @Override
+    public boolean insert(Url url, Long userId, long originalUrlHash) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(INSERT_URL, Statement.RETURN_GENERATED_KEYS)) {
+            bindUrl(ps, url, userId, originalUrlHash);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) url.setId(keys.getLong(1));
+            }
+            return true;
+        } catch (SQLIntegrityConstraintViolationException dup) {
+            return false;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean insertAll(List<Url> urls, Long userId, long[] originalUrlHashes) {
+        if (urls.isEmpty()) return true;
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(INSERT_URL, Statement.RETURN_GENERATED_KEYS)) {
+                for (int i = 0; i < urls.size(); i++) {
+                    bindUrl(ps, urls.get(i), userId, originalUrlHashes[i]);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                int assigned = 0;
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    while (assigned < urls.size() && keys.next()) {
+                        urls.get(assigned++).setId(keys.getLong(1));
+                    }
+                }
+                if (assigned != urls.size()) {
+                    throw new SQLException("El batch devolvió " + assigned + " claves para " + urls.size() + " filas");
+                }
+                c.commit();
+                return true;
+            } catch (BatchUpdateException | SQLIntegrityConstraintViolationException dup) {
+                c.rollback();
+                for (Url url : urls) url.setId(null);
+                return false;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void bindUrl(PreparedStatement ps, Url url, Long userId, long originalUrlHash) throws SQLException {
+        ps.setString(1, url.getOriginalUrl());
+        ps.setString(2, url.getShortUrl());
+        ps.setInt(3, 0);
+        if (userId == null) ps.setNull(4, Types.BIGINT); else ps.setLong(4, userId);
+        ps.setTimestamp(5, new Timestamp(url.getCreatedAt().getTime()));
+        if (url.getExpiresAt() == null) ps.setNull(6, Types.TIMESTAMP); else ps.setTimestamp(6, new Timestamp(url.getExpiresAt().getTime()));
+        ps.setLong(7, originalUrlHash);
+    }
+
+    @Override
+    public ResolvedUrl resolve(String shortUrl) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id, original_url, expires_at FROM urls WHERE short_url = ?")) {
+            ps.setString(1, shortUrl);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    Timestamp eat = rs.getTimestamp("expires_at");
+                    return new ResolvedUrl(rs.getLong("id"), rs.getString("original_url"),
+                            eat != null ? new Date(eat.getTime()) : null);
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Url findByShortUrl(String shortUrl) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(SELECT_URL + " WHERE u.short_url = ?")) {
+            ps.setString(1, shortUrl);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapUrl(rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Url> findAll() {
+        List<Url> list = new ArrayList<>();
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(SELECT_URL + " ORDER BY u.id DESC");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) list.add(mapUrl(rs));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    @Override
+    public List<Url> findPage(Long userId, Long beforeId, int limit) {
+        // Con dueño se recorre idx_urls_user_page (user_id, id) hacia atrás: el ORDER BY repite user_id
+        // (constante) para coincidir con el índice y evitar ordenar todos sus enlaces. Sin dueño, la clave primaria.
+        StringBuilder sql = new StringBuilder(SELECT_URL).append(" WHERE 1 = 1");
+        if (userId != null) sql.append(" AND u.user_id = ?");
+        if (beforeId != null) sql.append(" AND u.id < ?");
+        sql.append(userId != null ? " ORDER BY u.user_id DESC, u.id DESC LIMIT ?" : " ORDER BY u.id DESC LIMIT ?");
+        List<Url> list = new ArrayList<>();
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int i = 1;
+            if (userId != null) ps.setLong(i++, userId);
+            if (beforeId != null) ps.setLong(i++, beforeId);
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapUrl(rs));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    private Url mapUrl(ResultSet rs) throws SQLException {
+        Url url = new Url(rs.getString("original_url"), rs.getString("short_url"));
+        url.setId(rs.getLong("id"));
+        url.setAccessCount(rs.getInt("access_count"));
+        Timestamp cat = rs.getTimestamp("created_at");
+        if (cat != null) url.setCreatedAt(new Date(cat.getTime()));
+        Timestamp eat = rs.getTimestamp("expires_at");
+        if (eat != null) url.setExpiresAt(new Date(eat.getTime()));
+        Long userId = (Long) rs.getObject("user_id");
+        if (userId != null) {
+            Usuario u = new Usuario(rs.getString("username"), rs.getString("password"), rs.getString("role"));
+            u.setId(userId);
+            url.setUser(u);
+        }
+        return url;
+    }
+
+    @Override
+    public List<Url> findLiveByUserAndHash(long userId, long originalUrlHash, Date now) {
+        List<Url> list = new ArrayList<>();
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(SELECT_URL +
+                     " WHERE u.user_id = ? AND u.original_url_hash = ? AND (u.expires_at IS NULL OR u.expires_at > ?)")) {
+            ps.setLong(1, userId);
+            ps.setLong(2, originalUrlHash);
+            ps.setTimestamp(3, new Timestamp(now.getTime()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapUrl(rs));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return list;
+    }
+
+    @Override
+    public Map<Long, String> findShortCodes(Collection<Long> ids) {
+        Map<Long, String> codes = new HashMap<>();
+        if (ids.isEmpty()) return codes;
+        StringBuilder sql = new StringBuilder("SELECT id, short_url FROM urls WHERE id IN (");
+        for (int i = 0; i < ids.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(')');
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Long id : ids) ps.setLong(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) codes.put(rs.getLong(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return codes;
+    }
+
+    @Override
+    public Set<String> findExistingShortCodes(Collection<String> shortUrls) {
+        Set<String> existing = new HashSet<>();
+        if (shortUrls.isEmpty()) return existing;
+        List<String> values = new ArrayList<>(shortUrls);
+        StringBuilder sql = new StringBuilder("SELECT short_url FROM urls WHERE short_url IN (");
+        for (int i = 0; i < values.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(')');
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < values.size(); i++) ps.setString(i + 1, values.get(i));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) existing.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return existing;
+    }
+
+    @Override
+    public long count() {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM urls");
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void forEachShortCode(long afterId, BiConsumer<Long, String> consumer) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id, short_url FROM urls WHERE id > ? ORDER BY id")) {
+            ps.setLong(1, afterId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) consumer.accept(rs.getLong(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void forEachLink(BiConsumer<String, ResolvedUrl> consumer) {
+        // Una sola sentencia: MVCC la lee en un instante sin bloquear escrituras
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id, short_url, original_url, expires_at FROM urls")) {
+            ps.setFetchSize(1000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp eat = rs.getTimestamp(4);
+                    consumer.accept(rs.getString(2), new ResolvedUrl(rs.getLong(1), rs.getString(3),
+                            eat != null ? new Date(eat.getTime()) : null));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Map<Long, String> findMatching(UrlFilter filter, long afterId, int limit) {
+        // Con dueño, (user_id, id) del índice idx_urls_user_page; si no, la clave primaria desde afterId
+        StringBuilder sql = new StringBuilder("SELECT id, short_url FROM urls WHERE id > ?");
+        List<Object> params = new ArrayList<>();
+        params.add(afterId);
+        if (filter.getUserId() != null) {
+            sql.append(" AND user_id = ?");
+            params.add(filter.getUserId());
+        }
+        if (filter.isOrphaned()) sql.append(" AND user_id IS NULL AND expires_at IS NULL");
+        if (filter.getOriginalUrlPrefix() != null && !filter.getOriginalUrlPrefix().isEmpty()) {
+            sql.append(" AND original_url LIKE ? ESCAPE '\\'");
+            params.add(filter.getOriginalUrlPrefix().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (filter.getCreatedBefore() != null) {
+            sql.append(" AND created_at < ?");
+            params.add(new Timestamp(filter.getCreatedBefore().getTime()));
+        }
+        sql.append(" ORDER BY id LIMIT ?");
+        params.add(limit);
+        Map<Long, String> matching = new LinkedHashMap<>();
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) matching.put(rs.getLong(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return matching;
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        return deleteByIds(List.of(id)) > 0;
+    }
+
+    @Override
+    public int deleteByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return 0;
+        List<Long> list = new ArrayList<>(ids);
+        try {
+            deleteChildren(list);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        // Lo que quede (clicks llegados mientras tanto) cae por ON DELETE CASCADE.
+        // Una sentencia por cada DELETE_CHUNK ids, todas en la misma transacción
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                int deleted = 0;
+                for (int from = 0; from < list.size(); from += DELETE_CHUNK) {
+                    List<Long> chunk = list.subList(from, Math.min(list.size(), from + DELETE_CHUNK));
+                    StringBuilder sql = new StringBuilder("DELETE FROM urls WHERE id IN (");
+                    for (int i = 0; i < chunk.size(); i++) sql.append(i == 0 ? "?" : ",?");
+                    sql.append(')');
+                    try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
+                        for (int i = 0; i < chunk.size(); i++) ps.setLong(i + 1, chunk.get(i));
+                        deleted += ps.executeUpdate();
+                    }
+                }
+                c.commit();
+                return deleted;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Accesos de cada partición, rollups y visitantes de a CHILD_DELETE_BATCH filas, cada lote en su
+    // propia transacción: el ON DELETE CASCADE de enlaces con millones de accesos sería una sola
+    // transacción enorme. Cada partición se recorre con el lock de lectura (la retención no la quita a medias)
+    private void deleteChildren(List<Long> ids) throws SQLException {
+        for (int from = 0; from < ids.size(); from += DELETE_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + DELETE_CHUNK));
+            for (int month : new ArrayList<>(partitions)) {
+                partitionLock.readLock().lock();
+                try {
+                    if (partitions.contains(month)) deleteInBatches(AccessPartitions.name(month), chunk);
+                } finally {
+                    partitionLock.readLock().unlock();
+                }
+            }
+            deleteInBatches("access_rollups", chunk);
+            deleteInBatches("access_visitors", chunk);
+        }
+    }
+
+    private void deleteInBatches(String table, List<Long> ids) throws SQLException {
+        StringBuilder sql = new StringBuilder("DELETE FROM ").append(table).append(" WHERE url_id IN (");
+        for (int i = 0; i < ids.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(") FETCH FIRST ").append(CHILD_DELETE_BATCH).append(" ROWS ONLY");
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.size(); i++) ps.setLong(i + 1, ids.get(i));
+            while (ps.executeUpdate() == CHILD_DELETE_BATCH) {
+                // siguiente lote
+            }
+        }
+    }
+
+    @Override
+    public List<Long> findExpiredIds(Date now, int limit) {
+        List<Long> ids = new ArrayList<>();
+        // Rango sobre idx_urls_expires_at: solo se leen las filas vencidas
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id FROM urls WHERE expires_at <= ? ORDER BY expires_at LIMIT ?")) {
+            ps.setTimestamp(1, new Timestamp(now.getTime()));
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) ids.add(rs.getLong(1));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return ids;
+    }
+
+    @Override
+    public void forEachExpiringBefore(Date until, BiConsumer<Long, Date> consumer) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id, expires_at FROM urls WHERE expires_at < ? ORDER BY expires_at")) {
+            ps.setTimestamp(1, new Timestamp(until.getTime()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) consumer.accept(rs.getLong(1), new Date(rs.getTimestamp(2).getTime()));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean updateShortUrl(String originalShort, String newShort) {
+        try (Connection c = ds.getConnection()) {
+            // verificar colisión
+            try (PreparedStatement chk = c.prepareStatement("SELECT 1 FROM urls WHERE short_url = ?")) {
+                chk.setString(1, newShort);
+                try (ResultSet rs = chk.executeQuery()) {
+                    if (rs.next()) return false; // ya existe
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement("UPDATE urls SET short_url = ? WHERE short_url = ?")) {
+                ps.setString(1, newShort);
+                ps.setString(2, originalShort);
+                return ps.executeUpdate() > 0;
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Una sola vez: sketches de visitantes de los accesos que siguen en las particiones. Cada
+    // partición se confirma en su propia transacción junto con el checkpoint VISITORS_BACKFILL (el
+    // último mes hecho), así que una caída retoma desde el mes siguiente
+    private void backfillVisitors() {
+        long done = loadCheckpoint(VISITORS_BACKFILL);
+        if (done == BACKFILL_DONE) return;
+        try (Connection c = ds.getConnection()) {
+            if (done == 0) {
+                try (Statement st = c.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM access_visitors")) {
+                    rs.next();
+                    if (rs.getLong(1) > 0) return;
+                }
+            }
+            long[] written = {0};
+            c.setAutoCommit(false);
+            try {
+                for (String partition : listPartitions()) {
+                    int month = AccessPartitions.monthOf(partition);
+                    if (month <= done) continue;
+                    // scanPartition entrega por (url_id, timestamp): se escribe al cambiar de enlace
+                    SortedMap<Long, SortedMap<Long, HyperLogLog>> current = new TreeMap<>();
+                    SQLException[] failure = {null};
+                    scanPartition(partition, event -> {
+                        if (failure[0] != null) return;
+                        if (!current.isEmpty() && !current.containsKey(event.getUrlId())) {
+                            try {
+                                written[0] += mergeVisitors(c, current);
+                            } catch (SQLException e) {
+                                failure[0] = e;
+                            }
+                            current.clear();
+                        }
+                        ClickRollups.addVisitor(current, event.getUrlId(), event.getDetail());
+                    });
+                    if (failure[0] != null) throw failure[0];
+                    written[0] += mergeVisitors(c, current);
+                    saveCheckpoint(c, VISITORS_BACKFILL, month);
+                    c.commit();
+                }
+                saveCheckpoint(c, VISITORS_BACKFILL, BACKFILL_DONE);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            if (written[0] > 0) System.out.println("[VISITORS] Generados " + written[0] + " sketches de visitantes desde las particiones");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error generando sketches de visitantes", e);
+        }
+    }
+
+    @Override
+    public void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+        SortedMap<Integer, List<ClickEvent>> byMonth = new TreeMap<>();
+        for (ClickEvent event : events) {
+            byMonth.computeIfAbsent(AccessPartitions.monthOf(event.getDetail().getTimestamp().getTime()), k -> new ArrayList<>()).add(event);
+        }
+        partitionLock.readLock().lock();
+        try {
+            for (int month : byMonth.keySet()) ensurePartition(month);
+            writeEvents(events, byMonth, checkpoint, sequence);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+    }
+
+    private void writeEvents(List<ClickEvent> events, SortedMap<Integer, List<ClickEvent>> byMonth,
+                             String checkpoint, long sequence) throws SQLException {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                for (Map.Entry<Integer, List<ClickEvent>> entry : byMonth.entrySet()) {
+                    try (PreparedStatement ps = c.prepareStatement(String.format(INSERT_DETAIL, AccessPartitions.name(entry.getKey())))) {
+                        for (ClickEvent event : entry.getValue()) {
+                            AccessDetail d = event.getDetail();
+                            ps.setLong(1, event.getUrlId());
+                            ps.setTimestamp(2, new Timestamp(d.getTimestamp().getTime()));
+                            ps.setString(3, d.getBrowser());
+                            ps.setString(4, d.getIp());
+                            ps.setString(5, d.getClientDomain());
+                            ps.setString(6, d.getPlatform());
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                mergeRollups(c, ClickRollups.aggregate(events));
+                mergeVisitors(c, ClickRollups.visitors(events));
+                if (checkpoint != null) saveCheckpoint(c, checkpoint, sequence);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public void addAccessCounts(SortedMap<Long, Long> deltas, String checkpoint, long sequence) {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                if (!deltas.isEmpty()) {
+                    try (PreparedStatement ps = c.prepareStatement(INCREMENT_COUNT)) {
+                        for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                            ps.setLong(1, entry.getValue());
+                            ps.setLong(2, entry.getKey());
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                if (checkpoint != null) saveCheckpoint(c, checkpoint, sequence);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<AccessDetail> findByUrl(long urlId, Date from, Date to) {
+        List<AccessDetail> details = new ArrayList<>();
+        partitionLock.readLock().lock();
+        try {
+            // Solo las particiones que se solapan con el rango
+            NavigableSet<Integer> months = AccessPartitions.overlapping(partitions, from, to);
+            if (months.isEmpty()) return details;
+            StringBuilder q = new StringBuilder();
+            for (int month : months) {
+                if (q.length() > 0) q.append(" UNION ALL ");
+                q.append("SELECT ").append(DETAIL_COLUMNS).append(" FROM ").append(AccessPartitions.name(month))
+                        .append(" WHERE url_id = ? AND timestamp >= ? AND timestamp < ?");
+            }
+            q.append(" ORDER BY timestamp");
+            Timestamp lower = new Timestamp(from == null ? AccessPartitions.monthStart(months.first()) : from.getTime());
+            Timestamp upper = new Timestamp(to == null ? AccessPartitions.monthEnd(months.last()) : to.getTime());
+            try (Connection c = ds.getConnection();
+                 PreparedStatement ps = c.prepareStatement(q.toString())) {
+                int i = 1;
+                for (int n = 0; n < months.size(); n++) {
+                    ps.setLong(i++, urlId);
+                    ps.setTimestamp(i++, lower);
+                    ps.setTimestamp(i++, upper);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp ts = rs.getTimestamp("timestamp");
+                        details.add(new AccessDetail(new Date(ts.getTime()), rs.getString("browser"), rs.getString("ip"),
+                                rs.getString("client_domain"), rs.getString("platform")));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+        return details;
+    }
+
+    // Mes por mes con el índice (url_id, timestamp): las filas salen en orden sin ordenar en memoria;
+    // el id desempata las de la misma fecha para que el orden no cambie entre lecturas (exportación)
+    @Override
+    public void scanByUrl(long urlId, Date from, Date to, Consumer<AccessDetail> consumer) {
+        // Por páginas de SCAN_PAGE filas con clave (timestamp, id): el lock y la conexión se sueltan
+        // antes de entregar cada página, así un consumidor lento (un cliente HTTP) no frena a la
+        // retención ni a la escritura de clicks, ni se queda con una conexión del pool
+        List<AccessDetail> page = new ArrayList<>(SCAN_PAGE);
+        for (int month : new TreeSet<>(AccessPartitions.overlapping(partitions, from, to))) {
+            long lastTs = from == null ? AccessPartitions.monthStart(month) : from.getTime();
+            long lastId = Long.MIN_VALUE;
+            Timestamp upper = new Timestamp(to == null ? AccessPartitions.monthEnd(month) : to.getTime());
+            while (true) {
+                page.clear();
+                partitionLock.readLock().lock();
+                try {
+                    if (!partitions.contains(month)) break; // la retención la borró mientras tanto
+                    try (Connection c = ds.getConnection();
+                         PreparedStatement ps = c.prepareStatement("SELECT id, " + DETAIL_COLUMNS + " FROM " + AccessPartitions.name(month) +
+                                 " WHERE url_id = ? AND timestamp >= ? AND timestamp < ? AND (timestamp > ? OR (timestamp = ? AND id > ?))" +
+                                 " ORDER BY timestamp, id FETCH FIRST " + SCAN_PAGE + " ROWS ONLY")) {
+                        Timestamp last = new Timestamp(lastTs);
+                        ps.setLong(1, urlId);
+                        ps.setTimestamp(2, last);
+                        ps.setTimestamp(3, upper);
+                        ps.setTimestamp(4, last);
+                        ps.setTimestamp(5, last);
+                        ps.setLong(6, lastId);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                lastId = rs.getLong("id");
+                                lastTs = rs.getTimestamp("timestamp").getTime();
+                                page.add(new AccessDetail(new Date(lastTs), rs.getString("browser"),
+                                        rs.getString("ip"), rs.getString("client_domain"), rs.getString("platform")));
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    partitionLock.readLock().unlock();
+                }
+                page.forEach(consumer);
+                if (page.size() < SCAN_PAGE) break;
+            }
+        }
+    }
+
+    @Override
+    public List<String> dropPartitionsBefore(Date cutoff) {
+        List<String> dropped = new ArrayList<>();
+        partitionLock.writeLock().lock();
+        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            for (int month : new ArrayList<>(partitions)) {
+                if (!AccessPartitions.endsBefore(month, cutoff)) break;
+                st.executeUpdate("DROP TABLE IF EXISTS " + AccessPartitions.name(month));
+                partitions.remove(month);
+                dropped.add(AccessPartitions.name(month));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error eliminando particiones de accesos", e);
+        } finally {
+            partitionLock.writeLock().unlock();
+        }
+        return dropped;
+    }
+
+    @Override
+    public List<String> listPartitions() {
+        List<String> names = new ArrayList<>();
+        for (int month : partitions) names.add(AccessPartitions.name(month));
+        return names;
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<ClickEvent> consumer) {
+        int month = AccessPartitions.monthOf(partition);
+        partitionLock.readLock().lock();
+        try {
+            if (!partitions.contains(month)) return;
+            try (Connection c = ds.getConnection();
+                 Statement st = c.createStatement()) {
+                st.setFetchSize(1000);
+                try (ResultSet rs = st.executeQuery("SELECT url_id, " + DETAIL_COLUMNS + " FROM " + AccessPartitions.name(month) +
+                        " ORDER BY url_id, timestamp")) {
+                    while (rs.next()) {
+                        consumer.accept(new ClickEvent(rs.getLong("url_id"), new AccessDetail(new Date(rs.getTimestamp("timestamp").getTime()),
+                                rs.getString("browser"), rs.getString("ip"), rs.getString("client_domain"), rs.getString("platform"))));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            partitionLock.readLock().unlock();
+        }
+    }
+
+    // Ya agregadas: una sentencia por bucket, en orden de clave
+    private static void mergeRollups(Connection c, SortedMap<ClickRollups.Key, Long> rollups) throws SQLException {
+        if (rollups.isEmpty()) return;
+        try (PreparedStatement ps = c.prepareStatement(MERGE_ROLLUP)) {
+            for (Map.Entry<ClickRollups.Key, Long> entry : rollups.entrySet()) {
+                ClickRollups.Key key = entry.getKey();
+                ps.setLong(1, key.urlId);
+                ps.setLong(2, key.hour);
+                ps.setString(3, key.dimension);
+                ps.setString(4, key.value);
+                ps.setLong(5, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // Lee cada sketch con bloqueo de fila, lo une con el del lote y lo reescribe; devuelve cuántos
+    // escribió. Si la fila no existe no hay nada que bloquear: se inserta, y si otra transacción la
+    // insertó a la vez (clave duplicada, ya confirmada) se vuelve a leer con bloqueo y se une
+    private static int mergeVisitors(Connection c, SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches) throws SQLException {
+        if (sketches.isEmpty()) return 0;
+        int written = 0;
+        try (PreparedStatement select = c.prepareStatement(SELECT_VISITORS);
+             PreparedStatement insert = c.prepareStatement(INSERT_VISITORS);
+             PreparedStatement update = c.prepareStatement(UPDATE_VISITORS)) {
+            for (Map.Entry<Long, SortedMap<Long, HyperLogLog>> entry : sketches.entrySet()) {
+                for (Map.Entry<Long, HyperLogLog> day : entry.getValue().entrySet()) {
+                    HyperLogLog sketch = day.getValue();
+                    boolean exists = lockVisitors(select, entry.getKey(), day.getKey(), sketch);
+                    if (!exists) {
+                        insert.setLong(1, entry.getKey());
+                        insert.setLong(2, day.getKey());
+                        insert.setBytes(3, sketch.toBytes());
+                        try {
+                            insert.executeUpdate();
+                            written++;
+                            continue;
+                        } catch (SQLException e) {
+                            if (!"23505".equals(e.getSQLState())) throw e;
+                            if (!lockVisitors(select, entry.getKey(), day.getKey(), sketch)) throw e;
+                        }
+                    }
+                    update.setBytes(1, sketch.toBytes());
+                    update.setLong(2, entry.getKey());
+                    update.setLong(3, day.getKey());
+                    update.addBatch();
+                    written++;
+                }
+            }
+            update.executeBatch();
+        }
+        return written;
+    }
+
+    // SELECT ... FOR UPDATE del sketch guardado; si existe lo une a sketch
+    private static boolean lockVisitors(PreparedStatement select, long urlId, long day, HyperLogLog sketch) throws SQLException {
+        select.setLong(1, urlId);
+        select.setLong(2, day);
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) return false;
+            sketch.merge(HyperLogLog.fromBytes(rs.getBytes(1)));
+            return true;
+        }
+    }
+
+    @Override
+    public Map<Long, AccessStats> loadAccessStats(Collection<Long> urlIds, Date from, Date to) {
+        Map<Long, AccessStats> result = new HashMap<>();
+        if (urlIds.isEmpty()) return result;
+        StringBuilder sql = new StringBuilder("SELECT url_id, hour_start, dimension, dim_value, clicks FROM access_rollups WHERE url_id IN (");
+        for (int i = 0; i < urlIds.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(") AND hour_start >= ? AND hour_start < ?");
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Long id : urlIds) ps.setLong(i++, id);
+            // Buckets de una hora: se incluye la hora en la que cae from
+            ps.setLong(i++, from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime()));
+            ps.setLong(i, to == null ? Long.MAX_VALUE : to.getTime());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.computeIfAbsent(rs.getLong(1), k -> new AccessStats())
+                            .add(rs.getLong(2), rs.getString(3), rs.getString(4), rs.getLong(5));
+                }
+            }
+            loadVisitors(c, urlIds, from, to, result);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void scanRollups(long urlId, Date from, Date to, RollupConsumer consumer) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT hour_start, dimension, dim_value, clicks FROM access_rollups " +
+                     "WHERE url_id = ? AND hour_start >= ? AND hour_start < ? ORDER BY hour_start")) {
+            ps.setLong(1, urlId);
+            ps.setLong(2, from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime()));
+            ps.setLong(3, to == null ? Long.MAX_VALUE : to.getTime());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) consumer.accept(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Sketches diarios: se incluye el día en el que cae from
+    private static void loadVisitors(Connection c, Collection<Long> urlIds, Date from, Date to,
+                                     Map<Long, AccessStats> result) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT url_id, day_start, sketch FROM access_visitors WHERE url_id IN (");
+        for (int i = 0; i < urlIds.size(); i++) sql.append(i == 0 ? "?" : ",?");
+        sql.append(") AND day_start >= ? AND day_start < ?");
+        try (PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Long id : urlIds) ps.setLong(i++, id);
+            ps.setLong(i++, from == null ? Long.MIN_VALUE : ClickRollups.dayOf(from.getTime()));
+            ps.setLong(i, to == null ? Long.MAX_VALUE : to.getTime());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    result.computeIfAbsent(rs.getLong(1), k -> new AccessStats())
+                            .addVisitors(rs.getLong(2), HyperLogLog.fromBytes(rs.getBytes(3)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public long loadCheckpoint(String checkpoint) {
+        try (Connection c = ds.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT seq FROM click_journal_checkpoints WHERE name = ?")) {
+            ps.setString(1, checkpoint);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void saveCheckpoint(Connection c, String checkpoint, long sequence) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("MERGE INTO click_journal_checkpoints(name, seq) KEY(name) VALUES(?, ?)")) {
+            ps.setString(1, checkpoint);
+            ps.setLong(2, sequence);
+            ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return persistent;
+    }
+}
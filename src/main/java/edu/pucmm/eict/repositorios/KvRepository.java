@@ -0,0 +1,853 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.HyperLogLog;
+import edu.pucmm.eict.util.LogStructuredStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Backend sobre LogStructuredStore, pensado para la búsqueda puntual por short code:
+ * la clave del enlace es el propio código, así que resolver es una sola lectura.
+ *
+ * Claves: s:{código} -> enlace, d:{url_id}:{mes}:{n} -> bloque de accesos, c:{nombre} -> checkpoint,
+ * r:{url_id}:{hora}:{dimensión}:{valor} -> clicks, v:{url_id}:{día} -> sketch de visitantes,
+ * m:next_id -> próximo id. Los índices secundarios (id, dueño, usuario+hash, vencimiento,
+ * bloques por mes y enlace, rollups y días con visitantes por enlace) se reconstruyen en memoria
+ * al abrir leyendo solo las claves, salvo las de los enlaces.
+ *
+ * Cada lote agrega los accesos de un enlace en un mes como bloques nuevos (hasta
+ * APP_KV_DETAIL_CHUNK filas cada uno), sin reescribir los anteriores; cada MERGE_CHUNKS lotes
+ * los bloques chicos del final se funden en bloques llenos. El índice crece con enlaces por mes,
+ * no con clicks. Quitar una partición mensual borra sus bloques en un solo lote; el espacio se
+ * recupera en la siguiente compactación.
+ */
+public class KvRepository implements UrlRepository, AccessEventRepository, AutoCloseable {
+
+    private static final String URL_PREFIX = "s:";
+    private static final String DETAIL_PREFIX = "d:";
+    private static final String CHECKPOINT_PREFIX = "c:";
+    private static final String ROLLUP_PREFIX = "r:";
+    private static final String VISITORS_PREFIX = "v:";
+    private static final String NEXT_ID_KEY = "m:next_id";
+    // Lotes agregados a un enlace en un mes antes de fundir sus bloques chicos
+    private static final int MERGE_CHUNKS = 16;
+
+    private final LogStructuredStore store;
+    private final ConcurrentSkipListMap<Long, String> shortUrlById = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Set<String>> byUserAndHash = new ConcurrentHashMap<>();
+    // Dueño -> ids de sus enlaces, para listar por usuario sin recorrer todo
+    private final ConcurrentHashMap<Long, ConcurrentSkipListSet<Long>> idsByUser = new ConcurrentHashMap<>();
+    // expires_at (ms) -> ids de enlaces que vencen
+    private final ConcurrentSkipListMap<Long, Set<Long>> idsByExpiry = new ConcurrentSkipListMap<>();
+    // Mes (yyyymm) -> url_id -> bloques de accesos (d:{url_id}:{mes}:{0..n-1})
+    private final ConcurrentSkipListMap<Integer, ConcurrentHashMap<Long, Chunks>> detailChunks = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, Set<String>> rollupKeysByUrl = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ConcurrentSkipListSet<Long>> visitorDaysByUrl = new ConcurrentHashMap<>();
+    private final int detailChunkRows;
+    private long nextId = 1; // protegido por this
+
+    public KvRepository(Path directory) throws IOException {
+        this.store = new LogStructuredStore(directory);
+        this.detailChunkRows = Math.max(1, AppConfig.getInt("APP_KV_DETAIL_CHUNK", 1024));
+        List<String> legacyDetails = new ArrayList<>();
+        store.forEachKey(key -> {
+            if (key.startsWith(URL_PREFIX)) {
+                byte[] value = store.get(key);
+                if (value == null) return;
+                Row row = decodeRow(value);
+                shortUrlById.put(row.id, row.shortUrl);
+                if (row.userId != null) userHashSet(row.userId, row.originalUrlHash).add(row.shortUrl);
+                indexOwner(row);
+                indexExpiry(row);
+            } else if (key.startsWith(DETAIL_PREFIX)) {
+                String[] parts = key.split(":");
+                if (parts.length == 3) {
+                    legacyDetails.add(key);
+                } else {
+                    int count = Integer.parseInt(parts[3]) + 1;
+                    detailChunks.computeIfAbsent(Integer.parseInt(parts[2]), k -> new ConcurrentHashMap<>())
+                            .merge(Long.parseLong(parts[1]), new Chunks(count, count, 0), (a, b) -> a.count >= b.count ? a : b);
+                }
+            } else if (key.startsWith(ROLLUP_PREFIX)) {
+                rollupKeysByUrl.computeIfAbsent(parseRollupKey(key).urlId, k -> ConcurrentHashMap.newKeySet()).add(key);
+            } else if (key.startsWith(VISITORS_PREFIX)) {
+                String[] parts = key.split(":");
+                indexVisitorDay(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            }
+        });
+        byte[] storedNextId = store.get(NEXT_ID_KEY);
+        if (storedNextId != null) nextId = ByteBuffer.wrap(storedNextId).getLong();
+        if (!shortUrlById.isEmpty()) nextId = Math.max(nextId, shortUrlById.lastKey() + 1);
+        if (!legacyDetails.isEmpty()) migrateLegacyDetails(legacyDetails);
+        if (rollupKeysByUrl.isEmpty() && !detailChunks.isEmpty()) backfillRollups();
+        if (visitorDaysByUrl.isEmpty() && !detailChunks.isEmpty()) backfillVisitors();
+    }
+
+    // Almacenes de antes de los bloques, con una clave por acceso (d:{url_id}:{n}): se pasan a
+    // bloques de a un enlace por lote y se borran las claves viejas
+    private void migrateLegacyDetails(List<String> keys) {
+        SortedMap<Long, List<String>> byUrl = new TreeMap<>();
+        for (String key : keys) byUrl.computeIfAbsent(Long.parseLong(key.split(":")[1]), k -> new ArrayList<>()).add(key);
+        for (Map.Entry<Long, List<String>> entry : byUrl.entrySet()) {
+            long urlId = entry.getKey();
+            SortedMap<Integer, List<AccessDetail>> byMonth = new TreeMap<>();
+            LogStructuredStore.Batch batch = store.batch();
+            for (String key : entry.getValue()) {
+                byte[] value = store.get(key);
+                batch.delete(key);
+                if (value == null || !shortUrlById.containsKey(urlId)) continue;
+                AccessDetail detail = decodeDetail(value);
+                byMonth.computeIfAbsent(AccessPartitions.monthOf(detail.getTimestamp().getTime()), k -> new ArrayList<>()).add(detail);
+            }
+            Map<Integer, Chunks> counts = new HashMap<>();
+            byMonth.forEach((month, details) -> {
+                details.sort(Comparator.comparing(AccessDetail::getTimestamp));
+                counts.put(month, appendDetails(batch, urlId, month, details));
+            });
+            store.commit(batch);
+            counts.forEach((month, count) -> detailChunks.computeIfAbsent(month, k -> new ConcurrentHashMap<>()).put(urlId, count));
+        }
+        System.out.println("[KV] " + keys.size() + " accesos pasados a bloques por enlace y mes");
+    }
+
+    // Almacenes creados antes de los rollups: se arman una vez desde los accesos guardados
+    private void backfillRollups() {
+        SortedMap<ClickRollups.Key, Long> rollups = new TreeMap<>();
+        for (Map.Entry<Integer, ConcurrentHashMap<Long, Chunks>> partition : detailChunks.entrySet()) {
+            partition.getValue().forEach((urlId, chunks) ->
+                    forEachDetail(urlId, partition.getKey(), chunks.count, detail -> ClickRollups.add(rollups, urlId, detail)));
+        }
+        LogStructuredStore.Batch batch = store.batch();
+        addRollups(batch, rollups);
+        store.commit(batch);
+        indexRollups(rollups);
+    }
+
+    // Igual para los visitantes: un lote por mes; los días no se repiten entre meses
+    private void backfillVisitors() {
+        for (Map.Entry<Integer, ConcurrentHashMap<Long, Chunks>> partition : detailChunks.entrySet()) {
+            SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches = new TreeMap<>();
+            partition.getValue().forEach((urlId, chunks) ->
+                    forEachDetail(urlId, partition.getKey(), chunks.count, detail -> ClickRollups.addVisitor(sketches, urlId, detail)));
+            LogStructuredStore.Batch batch = store.batch();
+            addVisitors(batch, sketches);
+            if (batch.isEmpty()) continue;
+            store.commit(batch);
+            indexVisitors(sketches);
+        }
+    }
+
+    @Override
+    public synchronized boolean insert(Url url, Long userId, long originalUrlHash) {
+        List<Url> single = new ArrayList<>(1);
+        single.add(url);
+        return insertAll(single, userId, new long[]{originalUrlHash});
+    }
+
+    @Override
+    public synchronized boolean insertAll(List<Url> urls, Long userId, long[] originalUrlHashes) {
+        Set<String> codes = new HashSet<>();
+        for (Url url : urls) {
+            if (store.containsKey(URL_PREFIX + url.getShortUrl()) || !codes.add(url.getShortUrl())) return false;
+        }
+        LogStructuredStore.Batch batch = store.batch();
+        List<Row> rows = new ArrayList<>(urls.size());
+        long id = nextId;
+        for (int i = 0; i < urls.size(); i++) {
+            Url url = urls.get(i);
+            Row row = new Row(id++, url.getOriginalUrl(), url.getShortUrl(), 0, userId,
+                    url.getCreatedAt(), url.getExpiresAt(), originalUrlHashes[i]);
+            rows.add(row);
+            batch.put(URL_PREFIX + row.shortUrl, encodeRow(row));
+        }
+        batch.put(NEXT_ID_KEY, ByteBuffer.allocate(8).putLong(id).array());
+        store.commit(batch);
+        nextId = id;
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            urls.get(i).setId(row.id);
+            shortUrlById.put(row.id, row.shortUrl);
+            if (userId != null) userHashSet(userId, row.originalUrlHash).add(row.shortUrl);
+            indexOwner(row);
+            indexExpiry(row);
+        }
+        return true;
+    }
+
+    @Override
+    public ResolvedUrl resolve(String shortUrl) {
+        Row row = load(shortUrl);
+        return row == null ? null : new ResolvedUrl(row.id, row.originalUrl, row.expiresAt);
+    }
+
+    @Override
+    public Url findByShortUrl(String shortUrl) {
+        Row row = load(shortUrl);
+        return row == null ? null : row.toUrl();
+    }
+
+    @Override
+    public List<Url> findAll() {
+        List<Url> list = new ArrayList<>();
+        for (String shortUrl : shortUrlById.descendingMap().values()) {
+            Row row = load(shortUrl);
+            if (row != null) list.add(row.toUrl());
+        }
+        return list;
+    }
+
+    @Override
+    public List<Url> findPage(Long userId, Long beforeId, int limit) {
+        NavigableSet<Long> ids;
+        if (userId == null) {
+            ids = shortUrlById.navigableKeySet();
+        } else {
+            ids = idsByUser.get(userId);
+            if (ids == null) return new ArrayList<>();
+        }
+        if (beforeId != null) ids = ids.headSet(beforeId, false);
+        List<Url> list = new ArrayList<>();
+        for (long id : ids.descendingSet()) {
+            if (list.size() >= limit) break;
+            String shortUrl = shortUrlById.get(id);
+            Row row = shortUrl == null ? null : load(shortUrl);
+            if (row != null) list.add(row.toUrl());
+        }
+        return list;
+    }
+
+    @Override
+    public List<Url> findLiveByUserAndHash(long userId, long originalUrlHash, Date now) {
+        List<Url> list = new ArrayList<>();
+        Set<String> codes = byUserAndHash.get(userId + ":" + originalUrlHash);
+        if (codes == null) return list;
+        for (String shortUrl : new ArrayList<>(codes)) {
+            Row row = load(shortUrl);
+            if (row != null && (row.expiresAt == null || row.expiresAt.after(now))) list.add(row.toUrl());
+        }
+        return list;
+    }
+
+    @Override
+    public Set<String> findExistingShortCodes(Collection<String> shortUrls) {
+        Set<String> existing = new HashSet<>();
+        for (String code : shortUrls) {
+            if (store.containsKey(URL_PREFIX + code)) existing.add(code);
+        }
+        return existing;
+    }
+
+    @Override
+    public Map<Long, String> findShortCodes(Collection<Long> ids) {
+        Map<Long, String> codes = new HashMap<>();
+        for (Long id : ids) {
+            String shortUrl = shortUrlById.get(id);
+            if (shortUrl != null) codes.put(id, shortUrl);
+        }
+        return codes;
+    }
+
+    @Override
+    public long count() {
+        return shortUrlById.size();
+    }
+
+    @Override
+    public void forEachShortCode(long afterId, BiConsumer<Long, String> consumer) {
+        for (Map.Entry<Long, String> entry : shortUrlById.tailMap(afterId, false).entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void forEachLink(BiConsumer<String, ResolvedUrl> consumer) {
+        // Sin tomar el lock: un enlace borrado o renombrado durante el recorrido simplemente no aparece
+        for (String shortUrl : shortUrlById.values()) {
+            ResolvedUrl resolved = resolve(shortUrl);
+            if (resolved != null) consumer.accept(shortUrl, resolved);
+        }
+    }
+
+    @Override
+    public Map<Long, String> findMatching(UrlFilter filter, long afterId, int limit) {
+        NavigableSet<Long> ids;
+        if (filter.getUserId() == null) {
+            ids = shortUrlById.navigableKeySet();
+        } else {
+            ids = idsByUser.get(filter.getUserId());
+            if (ids == null) return new LinkedHashMap<>();
+        }
+        Map<Long, String> matching = new LinkedHashMap<>();
+        for (long id : ids.tailSet(afterId, false)) {
+            if (matching.size() >= limit) break;
+            String shortUrl = shortUrlById.get(id);
+            Row row = shortUrl == null ? null : load(shortUrl);
+            if (row != null && filter.matches(row.userId, row.originalUrl, row.createdAt, row.expiresAt)) matching.put(id, shortUrl);
+        }
+        return matching;
+    }
+
+    @Override
+    public synchronized boolean deleteById(long id) {
+        List<Long> single = new ArrayList<>(1);
+        single.add(id);
+        return deleteByIds(single) > 0;
+    }
+
+    @Override
+    public synchronized int deleteByIds(Collection<Long> ids) {
+        LogStructuredStore.Batch batch = store.batch();
+        List<Row> rows = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            String shortUrl = shortUrlById.get(id);
+            if (shortUrl == null) continue;
+            Row row = load(shortUrl);
+            if (row != null) rows.add(row);
+            batch.delete(URL_PREFIX + shortUrl);
+            for (Map.Entry<Integer, ConcurrentHashMap<Long, Chunks>> partition : detailChunks.entrySet()) {
+                Chunks chunks = partition.getValue().get(id);
+                if (chunks == null) continue;
+                for (int n = 0; n < chunks.count; n++) batch.delete(chunkKey(id, partition.getKey(), n));
+            }
+            Set<String> rollupKeys = rollupKeysByUrl.get(id);
+            if (rollupKeys != null) {
+                for (String key : rollupKeys) batch.delete(key);
+            }
+            Set<Long> visitorDays = visitorDaysByUrl.get(id);
+            if (visitorDays != null) {
+                for (long day : visitorDays) batch.delete(visitorsKey(id, day));
+            }
+        }
+        if (batch.isEmpty()) return 0;
+        store.commit(batch);
+        int deleted = 0;
+        for (long id : ids) {
+            if (shortUrlById.remove(id) == null) continue;
+            deleted++;
+            for (Map<Long, Chunks> partition : detailChunks.values()) partition.remove(id);
+            rollupKeysByUrl.remove(id);
+            visitorDaysByUrl.remove(id);
+        }
+        for (Row row : rows) {
+            if (row.userId != null) {
+                userHashSet(row.userId, row.originalUrlHash).remove(row.shortUrl);
+                Set<Long> owned = idsByUser.get(row.userId);
+                if (owned != null) owned.remove(row.id);
+            }
+            if (row.expiresAt != null) {
+                Set<Long> expiring = idsByExpiry.get(row.expiresAt.getTime());
+                if (expiring != null && expiring.remove(row.id) && expiring.isEmpty()) idsByExpiry.remove(row.expiresAt.getTime());
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<Long> findExpiredIds(Date now, int limit) {
+        List<Long> expired = new ArrayList<>();
+        for (Set<Long> ids : idsByExpiry.headMap(now.getTime(), true).values()) {
+            for (long id : ids) {
+                if (expired.size() >= limit) return expired;
+                expired.add(id);
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public void forEachExpiringBefore(Date until, BiConsumer<Long, Date> consumer) {
+        for (Map.Entry<Long, Set<Long>> entry : idsByExpiry.headMap(until.getTime(), false).entrySet()) {
+            Date expiresAt = new Date(entry.getKey());
+            for (long id : entry.getValue()) consumer.accept(id, expiresAt);
+        }
+    }
+
+    @Override
+    public synchronized boolean updateShortUrl(String originalShort, String newShort) {
+        if (store.containsKey(URL_PREFIX + newShort)) return false;
+        Row row = load(originalShort);
+        if (row == null) return false;
+        Row renamed = new Row(row.id, row.originalUrl, newShort, row.accessCount, row.userId,
+                row.createdAt, row.expiresAt, row.originalUrlHash);
+        store.commit(store.batch()
+                .delete(URL_PREFIX + originalShort)
+                .put(URL_PREFIX + newShort, encodeRow(renamed)));
+        shortUrlById.put(row.id, newShort);
+        if (row.userId != null) {
+            Set<String> codes = userHashSet(row.userId, row.originalUrlHash);
+            codes.remove(originalShort);
+            codes.add(newShort);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+        LogStructuredStore.Batch batch = store.batch();
+        // Mes -> url_id -> accesos nuevos, en orden de llegada
+        SortedMap<Integer, SortedMap<Long, List<AccessDetail>>> added = new TreeMap<>();
+        SortedMap<ClickRollups.Key, Long> rollups = new TreeMap<>();
+        SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches = new TreeMap<>();
+        for (ClickEvent event : events) {
+            // El enlace pudo borrarse mientras el evento estaba en cola
+            if (!shortUrlById.containsKey(event.getUrlId())) continue;
+            added.computeIfAbsent(AccessPartitions.monthOf(event.getDetail().getTimestamp().getTime()), k -> new TreeMap<>())
+                    .computeIfAbsent(event.getUrlId(), k -> new ArrayList<>()).add(event.getDetail());
+            ClickRollups.add(rollups, event.getUrlId(), event.getDetail());
+            ClickRollups.addVisitor(sketches, event.getUrlId(), event.getDetail());
+        }
+        SortedMap<Integer, Map<Long, Chunks>> counts = new TreeMap<>();
+        added.forEach((month, byUrl) -> byUrl.forEach((urlId, details) ->
+                counts.computeIfAbsent(month, k -> new HashMap<>()).put(urlId, appendDetails(batch, urlId, month, details))));
+        addRollups(batch, rollups);
+        addVisitors(batch, sketches);
+        if (checkpoint != null) batch.put(CHECKPOINT_PREFIX + checkpoint, ByteBuffer.allocate(8).putLong(sequence).array());
+        store.commit(batch);
+        counts.forEach((month, byUrl) -> detailChunks.computeIfAbsent(month, k -> new ConcurrentHashMap<>()).putAll(byUrl));
+        indexRollups(rollups);
+        indexVisitors(sketches);
+    }
+
+    @Override
+    public synchronized void addAccessCounts(SortedMap<Long, Long> deltas, String checkpoint, long sequence) {
+        LogStructuredStore.Batch batch = store.batch();
+        for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+            String shortUrl = shortUrlById.get(entry.getKey());
+            Row row = shortUrl == null ? null : load(shortUrl);
+            if (row == null) continue;
+            Row updated = new Row(row.id, row.originalUrl, row.shortUrl, row.accessCount + entry.getValue(), row.userId,
+                    row.createdAt, row.expiresAt, row.originalUrlHash);
+            batch.put(URL_PREFIX + row.shortUrl, encodeRow(updated));
+        }
+        if (checkpoint != null) batch.put(CHECKPOINT_PREFIX + checkpoint, ByteBuffer.allocate(8).putLong(sequence).array());
+        store.commit(batch);
+    }
+
+    @Override
+    public List<AccessDetail> findByUrl(long urlId, Date from, Date to) {
+        SortedMap<Integer, Chunks> chunks = new TreeMap<>();
+        synchronized (this) {
+            NavigableSet<Integer> months = AccessPartitions.overlapping(detailChunks.navigableKeySet(), from, to);
+            for (int month : months) {
+                Chunks stored = detailChunks.get(month).get(urlId);
+                if (stored != null) chunks.put(month, stored);
+            }
+        }
+        List<AccessDetail> details = new ArrayList<>();
+        chunks.forEach((month, stored) -> readDetails(urlId, month, stored, detail -> {
+            long ts = detail.getTimestamp().getTime();
+            if ((from == null || ts >= from.getTime()) && (to == null || ts < to.getTime())) details.add(detail);
+        }));
+        details.sort(Comparator.comparing(AccessDetail::getTimestamp));
+        return details;
+    }
+
+    @Override
+    public synchronized List<String> dropPartitionsBefore(Date cutoff) {
+        List<String> dropped = new ArrayList<>();
+        while (!detailChunks.isEmpty() && AccessPartitions.endsBefore(detailChunks.firstKey(), cutoff)) {
+            int month = detailChunks.firstKey();
+            LogStructuredStore.Batch batch = store.batch();
+            detailChunks.firstEntry().getValue().forEach((urlId, chunks) -> {
+                for (int n = 0; n < chunks.count; n++) batch.delete(chunkKey(urlId, month, n));
+            });
+            store.commit(batch);
+            dropped.add(AccessPartitions.name(detailChunks.pollFirstEntry().getKey()));
+        }
+        return dropped;
+    }
+
+    @Override
+    public List<String> listPartitions() {
+        List<String> names = new ArrayList<>();
+        for (int month : detailChunks.keySet()) names.add(AccessPartitions.name(month));
+        return names;
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<ClickEvent> consumer) {
+        int month = AccessPartitions.monthOf(partition);
+        Map<Long, Chunks> chunksByUrl;
+        synchronized (this) {
+            Map<Long, Chunks> stored = detailChunks.get(month);
+            if (stored == null) return;
+            chunksByUrl = new TreeMap<>(stored);
+        }
+        // Un enlace a la vez: solo sus accesos se ordenan en memoria
+        for (Map.Entry<Long, Chunks> entry : chunksByUrl.entrySet()) {
+            List<AccessDetail> details = new ArrayList<>();
+            readDetails(entry.getKey(), month, entry.getValue(), details::add);
+            details.sort(Comparator.comparing(AccessDetail::getTimestamp));
+            for (AccessDetail detail : details) consumer.accept(new ClickEvent(entry.getKey(), detail));
+        }
+    }
+
+    /**
+     * Agrega los accesos como bloques nuevos del enlace en el mes, sin leer ni reescribir los
+     * anteriores. Cada MERGE_CHUNKS lotes los bloques chicos del final (los agregados desde la
+     * fusión anterior y su resto) se reescriben junto con los nuevos en bloques llenos, así que cada
+     * acceso se reescribe pocas veces y la cantidad de claves no crece con los lotes.
+     * Las escrituras están serializadas.
+     * @return los bloques una vez aplicado el lote
+     */
+    private Chunks appendDetails(LogStructuredStore.Batch batch, long urlId, int month, List<AccessDetail> details) {
+        Map<Long, Chunks> stored = detailChunks.get(month);
+        Chunks current = stored == null ? null : stored.get(urlId);
+        if (current == null) current = new Chunks(0, 0, 0);
+        if (current.count - current.tailStart < MERGE_CHUNKS - 1) {
+            int count = current.count;
+            for (int from = 0; from < details.size(); from += detailChunkRows) {
+                List<AccessDetail> part = details.subList(from, Math.min(details.size(), from + detailChunkRows));
+                batch.put(chunkKey(urlId, month, count++), chunkValue(part));
+            }
+            return new Chunks(count, current.tailStart, current.merges);
+        }
+        List<AccessDetail> tail = new ArrayList<>();
+        for (int n = current.tailStart; n < current.count; n++) {
+            byte[] value = store.get(chunkKey(urlId, month, n));
+            if (value != null) decodeChunk(value, tail::add);
+        }
+        tail.addAll(details);
+        int count = current.tailStart;
+        int tailStart = count;
+        for (int from = 0; from < tail.size(); from += detailChunkRows) {
+            List<AccessDetail> part = tail.subList(from, Math.min(tail.size(), from + detailChunkRows));
+            batch.put(chunkKey(urlId, month, count++), chunkValue(part));
+            // Un resto incompleto queda como inicio de la próxima fusión
+            if (part.size() == detailChunkRows) tailStart = count;
+        }
+        for (int n = count; n < current.count; n++) batch.delete(chunkKey(urlId, month, n));
+        return new Chunks(count, tailStart, current.merges + 1);
+    }
+
+    // Bloque: int filas | accesos codificados uno tras otro
+    private static byte[] chunkValue(List<AccessDetail> details) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 * details.size() + 4);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(details.size());
+            for (AccessDetail detail : details) writeDetail(out, detail);
+            return body.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void decodeChunk(byte[] value, Consumer<AccessDetail> consumer) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+            int rows = in.readInt();
+            for (int i = 0; i < rows; i++) consumer.accept(readDetail(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void forEachDetail(long urlId, int month, int chunks, Consumer<AccessDetail> consumer) {
+        for (int n = 0; n < chunks; n++) {
+            byte[] value = store.get(chunkKey(urlId, month, n));
+            if (value != null) decodeChunk(value, consumer);
+        }
+    }
+
+    // Lectura sin el monitor: si una fusión movió los bloques mientras se leían, se vuelve a leer
+    private void readDetails(long urlId, int month, Chunks chunks, Consumer<AccessDetail> consumer) {
+        while (true) {
+            List<AccessDetail> read = new ArrayList<>();
+            forEachDetail(urlId, month, chunks.count, read::add);
+            Chunks now;
+            synchronized (this) {
+                Map<Long, Chunks> stored = detailChunks.get(month);
+                now = stored == null ? null : stored.get(urlId);
+            }
+            if (now == null || now.merges == chunks.merges) {
+                read.forEach(consumer);
+                return;
+            }
+            chunks = now;
+        }
+    }
+
+    // Lee cada contador actual y escribe la suma en el mismo lote (las escrituras están serializadas)
+    private void addRollups(LogStructuredStore.Batch batch, SortedMap<ClickRollups.Key, Long> rollups) {
+        for (Map.Entry<ClickRollups.Key, Long> entry : rollups.entrySet()) {
+            String key = rollupKey(entry.getKey());
+            byte[] current = store.get(key);
+            long clicks = (current == null ? 0 : ByteBuffer.wrap(current).getLong()) + entry.getValue();
+            batch.put(key, ByteBuffer.allocate(8).putLong(clicks).array());
+        }
+    }
+
+    private void indexRollups(SortedMap<ClickRollups.Key, Long> rollups) {
+        for (ClickRollups.Key key : rollups.keySet()) {
+            rollupKeysByUrl.computeIfAbsent(key.urlId, k -> ConcurrentHashMap.newKeySet()).add(rollupKey(key));
+        }
+    }
+
+    // Une cada sketch del lote con el guardado y lo reescribe entero (unos cientos de bytes)
+    private void addVisitors(LogStructuredStore.Batch batch, SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches) {
+        sketches.forEach((urlId, days) -> days.forEach((day, sketch) -> {
+            String key = visitorsKey(urlId, day);
+            byte[] current = store.get(key);
+            if (current != null) sketch.merge(HyperLogLog.fromBytes(current));
+            batch.put(key, sketch.toBytes());
+        }));
+    }
+
+    private void indexVisitors(SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches) {
+        sketches.forEach((urlId, days) -> {
+            for (long day : days.keySet()) indexVisitorDay(urlId, day);
+        });
+    }
+
+    private void indexVisitorDay(long urlId, long day) {
+        visitorDaysByUrl.computeIfAbsent(urlId, k -> new ConcurrentSkipListSet<>()).add(day);
+    }
+
+    @Override
+    public Map<Long, AccessStats> loadAccessStats(Collection<Long> urlIds, Date from, Date to) {
+        Map<Long, AccessStats> result = new HashMap<>();
+        long lower = from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime());
+        long upper = to == null ? Long.MAX_VALUE : to.getTime();
+        for (Long urlId : urlIds) {
+            Set<String> keys = rollupKeysByUrl.get(urlId);
+            if (keys == null) continue;
+            AccessStats stats = new AccessStats();
+            for (String key : new ArrayList<>(keys)) {
+                byte[] value = store.get(key);
+                if (value == null) continue;
+                ClickRollups.Key parsed = parseRollupKey(key);
+                if (parsed.hour < lower || parsed.hour >= upper) continue;
+                stats.add(parsed.hour, parsed.dimension, parsed.value, ByteBuffer.wrap(value).getLong());
+            }
+            ConcurrentSkipListSet<Long> days = visitorDaysByUrl.get(urlId);
+            if (days != null) {
+                long firstDay = from == null ? Long.MIN_VALUE : ClickRollups.dayOf(from.getTime());
+                for (long day : days.subSet(firstDay, true, upper, false)) {
+                    byte[] value = store.get(visitorsKey(urlId, day));
+                    if (value != null) stats.addVisitors(day, HyperLogLog.fromBytes(value));
+                }
+            }
+            result.put(urlId, stats);
+        }
+        return result;
+    }
+
+    @Override
+    public void scanRollups(long urlId, Date from, Date to, RollupConsumer consumer) {
+        Set<String> keys = rollupKeysByUrl.get(urlId);
+        if (keys == null) return;
+        long lower = from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime());
+        long upper = to == null ? Long.MAX_VALUE : to.getTime();
+        for (String key : new ArrayList<>(keys)) {
+            byte[] value = store.get(key);
+            if (value == null) continue;
+            ClickRollups.Key parsed = parseRollupKey(key);
+            if (parsed.hour < lower || parsed.hour >= upper) continue;
+            consumer.accept(parsed.hour, parsed.dimension, parsed.value, ByteBuffer.wrap(value).getLong());
+        }
+    }
+
+    @Override
+    public long loadCheckpoint(String checkpoint) {
+        byte[] value = store.get(CHECKPOINT_PREFIX + checkpoint);
+        return value == null ? 0 : ByteBuffer.wrap(value).getLong();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        return store.stats();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private Row load(String shortUrl) {
+        byte[] value = store.get(URL_PREFIX + shortUrl);
+        return value == null ? null : decodeRow(value);
+    }
+
+    private void indexOwner(Row row) {
+        if (row.userId != null) idsByUser.computeIfAbsent(row.userId, k -> new ConcurrentSkipListSet<>()).add(row.id);
+    }
+
+    private void indexExpiry(Row row) {
+        if (row.expiresAt != null) {
+            idsByExpiry.computeIfAbsent(row.expiresAt.getTime(), k -> ConcurrentHashMap.newKeySet()).add(row.id);
+        }
+    }
+
+    private Set<String> userHashSet(long userId, long originalUrlHash) {
+        return byUserAndHash.computeIfAbsent(userId + ":" + originalUrlHash, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static String chunkKey(long urlId, int month, int n) {
+        return DETAIL_PREFIX + urlId + ":" + month + ":" + n;
+    }
+
+    private static String visitorsKey(long urlId, long day) {
+        return VISITORS_PREFIX + urlId + ":" + day;
+    }
+
+    private static String rollupKey(ClickRollups.Key key) {
+        return ROLLUP_PREFIX + key.urlId + ":" + key.hour + ":" + key.dimension + ":" + key.value;
+    }
+
+    // El valor va al final y puede contener ':'
+    private static ClickRollups.Key parseRollupKey(String key) {
+        String[] parts = key.split(":", 5);
+        return new ClickRollups.Key(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[4]);
+    }
+
+    private static byte[] encodeRow(Row row) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(row.id);
+            out.writeUTF(row.shortUrl);
+            out.writeUTF(row.originalUrl);
+            out.writeLong(row.accessCount);
+            out.writeLong(row.userId == null ? -1 : row.userId);
+            out.writeLong(row.createdAt == null ? -1 : row.createdAt.getTime());
+            out.writeLong(row.expiresAt == null ? -1 : row.expiresAt.getTime());
+            out.writeLong(row.originalUrlHash);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Row decodeRow(byte[] value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+            long id = in.readLong();
+            String shortUrl = in.readUTF();
+            String originalUrl = in.readUTF();
+            long accessCount = in.readLong();
+            long userId = in.readLong();
+            long createdAt = in.readLong();
+            long expiresAt = in.readLong();
+            long hash = in.readLong();
+            return new Row(id, originalUrl, shortUrl, accessCount, userId < 0 ? null : userId,
+                    createdAt < 0 ? null : new Date(createdAt), expiresAt < 0 ? null : new Date(expiresAt), hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeDetail(DataOutputStream out, AccessDetail detail) throws IOException {
+        out.writeLong(detail.getTimestamp().getTime());
+        for (String field : new String[]{detail.getBrowser(), detail.getIp(), detail.getClientDomain(), detail.getPlatform()}) {
+            out.writeBoolean(field != null);
+            if (field != null) out.writeUTF(field);
+        }
+    }
+
+    private static AccessDetail readDetail(DataInputStream in) throws IOException {
+        Date timestamp = new Date(in.readLong());
+        String[] fields = new String[4];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = in.readBoolean() ? in.readUTF() : null;
+        }
+        return new AccessDetail(timestamp, fields[0], fields[1], fields[2], fields[3]);
+    }
+
+    // Formato anterior a los bloques: un acceso por valor
+    private static AccessDetail decodeDetail(byte[] value) {
+        try {
+            return readDetail(new DataInputStream(new ByteArrayInputStream(value)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Bloques de un enlace en un mes: [tailStart, count) son los chicos que entran en la próxima
+    // fusión; merges cambia con cada fusión para que los lectores sin monitor detecten el cambio
+    private static final class Chunks {
+        final int count;
+        final int tailStart;
+        final int merges;
+
+        Chunks(int count, int tailStart, int merges) {
+            this.count = count;
+            this.tailStart = tailStart;
+            this.merges = merges;
+        }
+    }
+
+    private static final class Row {
+        final long id;
+        final String originalUrl;
+        final String shortUrl;
+        final long accessCount;
+        final Long userId;
+        final Date createdAt;
+        final Date expiresAt;
+        final long originalUrlHash;
+
+        Row(long id, String originalUrl, String shortUrl, long accessCount, Long userId,
+            Date createdAt, Date expiresAt, long originalUrlHash) {
+            this.id = id;
+            this.originalUrl = originalUrl;
+            this.shortUrl = shortUrl;
+            this.accessCount = accessCount;
+            this.userId = userId;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.originalUrlHash = originalUrlHash;
+        }
+
+        Url toUrl() {
+            Url url = new Url(originalUrl, shortUrl);
+            url.setId(id);
+            url.setAccessCount((int) accessCount);
+            url.setCreatedAt(createdAt);
+            url.setExpiresAt(expiresAt);
+            if (userId != null) {
+                Usuario owner = new Usuario();
+                owner.setId(userId);
+                url.setUser(owner);
+            }
+            return url;
+        }
+    }
+}
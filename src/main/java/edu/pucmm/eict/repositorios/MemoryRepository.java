@@ -0,0 +1,381 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.util.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Backend en memoria (ConcurrentHashMap) para pruebas y mediciones; no persiste nada.
+ * Las lecturas no bloquean; las escrituras que tocan varios índices se serializan.
+ */
+public class MemoryRepository implements UrlRepository, AccessEventRepository {
+
+    private final ConcurrentHashMap<String, Row> byShortUrl = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Row> byId = new ConcurrentSkipListMap<>();
+    // expires_at (ms) -> ids, para barrer vencidos sin recorrer todo
+    private final ConcurrentSkipListMap<Long, Set<Long>> idsByExpiry = new ConcurrentSkipListMap<>();
+    // Mes (yyyymm) -> url_id -> accesos
+    private final ConcurrentSkipListMap<Integer, Map<Long, List<AccessDetail>>> details = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, SortedMap<ClickRollups.Key, Long>> rollups = new ConcurrentHashMap<>();
+    // url_id -> inicio del día -> sketch serializado, igual que lo guardan los backends persistentes
+    private final ConcurrentHashMap<Long, SortedMap<Long, byte[]>> visitors = new ConcurrentHashMap<>();
+    private final Map<String, Long> checkpoints = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    @Override
+    public synchronized boolean insert(Url url, Long userId, long originalUrlHash) {
+        if (byShortUrl.containsKey(url.getShortUrl())) return false;
+        store(url, userId, originalUrlHash);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean insertAll(List<Url> urls, Long userId, long[] originalUrlHashes) {
+        Set<String> codes = new HashSet<>();
+        for (Url url : urls) {
+            if (byShortUrl.containsKey(url.getShortUrl()) || !codes.add(url.getShortUrl())) return false;
+        }
+        for (int i = 0; i < urls.size(); i++) store(urls.get(i), userId, originalUrlHashes[i]);
+        return true;
+    }
+
+    private void store(Url url, Long userId, long originalUrlHash) {
+        Row row = new Row(nextId.getAndIncrement(), url.getOriginalUrl(), url.getShortUrl(), userId,
+                url.getCreatedAt(), url.getExpiresAt(), originalUrlHash);
+        url.setId(row.id);
+        byShortUrl.put(row.shortUrl, row);
+        byId.put(row.id, row);
+        if (row.expiresAt != null) {
+            idsByExpiry.computeIfAbsent(row.expiresAt.getTime(), k -> ConcurrentHashMap.newKeySet()).add(row.id);
+        }
+    }
+
+    @Override
+    public ResolvedUrl resolve(String shortUrl) {
+        Row row = byShortUrl.get(shortUrl);
+        return row == null ? null : new ResolvedUrl(row.id, row.originalUrl, row.expiresAt);
+    }
+
+    @Override
+    public Url findByShortUrl(String shortUrl) {
+        Row row = byShortUrl.get(shortUrl);
+        return row == null ? null : row.toUrl();
+    }
+
+    @Override
+    public List<Url> findAll() {
+        List<Url> list = new ArrayList<>();
+        for (Row row : byId.descendingMap().values()) list.add(row.toUrl());
+        return list;
+    }
+
+    @Override
+    public List<Url> findPage(Long userId, Long beforeId, int limit) {
+        List<Url> list = new ArrayList<>();
+        Map<Long, Row> rows = beforeId == null ? byId.descendingMap() : byId.headMap(beforeId, false).descendingMap();
+        for (Row row : rows.values()) {
+            if (list.size() >= limit) break;
+            if (userId == null || userId.equals(row.userId)) list.add(row.toUrl());
+        }
+        return list;
+    }
+
+    @Override
+    public List<Url> findLiveByUserAndHash(long userId, long originalUrlHash, Date now) {
+        List<Url> list = new ArrayList<>();
+        for (Row row : byId.values()) {
+            if (row.userId != null && row.userId == userId && row.originalUrlHash == originalUrlHash
+                    && (row.expiresAt == null || row.expiresAt.after(now))) {
+                list.add(row.toUrl());
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public Set<String> findExistingShortCodes(Collection<String> shortUrls) {
+        Set<String> existing = new HashSet<>();
+        for (String code : shortUrls) {
+            if (byShortUrl.containsKey(code)) existing.add(code);
+        }
+        return existing;
+    }
+
+    @Override
+    public Map<Long, String> findShortCodes(Collection<Long> ids) {
+        Map<Long, String> codes = new HashMap<>();
+        for (Long id : ids) {
+            Row row = byId.get(id);
+            if (row != null) codes.put(id, row.shortUrl);
+        }
+        return codes;
+    }
+
+    @Override
+    public long count() {
+        return byId.size();
+    }
+
+    @Override
+    public void forEachShortCode(long afterId, BiConsumer<Long, String> consumer) {
+        for (Row row : byId.tailMap(afterId, false).values()) consumer.accept(row.id, row.shortUrl);
+    }
+
+    @Override
+    public void forEachLink(BiConsumer<String, ResolvedUrl> consumer) {
+        for (Row row : byId.values()) consumer.accept(row.shortUrl, new ResolvedUrl(row.id, row.originalUrl, row.expiresAt));
+    }
+
+    @Override
+    public Map<Long, String> findMatching(UrlFilter filter, long afterId, int limit) {
+        Map<Long, String> matching = new LinkedHashMap<>();
+        for (Row row : byId.tailMap(afterId, false).values()) {
+            if (matching.size() >= limit) break;
+            if (filter.matches(row.userId, row.originalUrl, row.createdAt, row.expiresAt)) matching.put(row.id, row.shortUrl);
+        }
+        return matching;
+    }
+
+    @Override
+    public synchronized boolean deleteById(long id) {
+        Row row = byId.remove(id);
+        if (row == null) return false;
+        byShortUrl.remove(row.shortUrl);
+        if (row.expiresAt != null) {
+            Set<Long> ids = idsByExpiry.get(row.expiresAt.getTime());
+            if (ids != null && ids.remove(id) && ids.isEmpty()) idsByExpiry.remove(row.expiresAt.getTime());
+        }
+        for (Map<Long, List<AccessDetail>> partition : details.values()) partition.remove(id);
+        rollups.remove(id);
+        visitors.remove(id);
+        return true;
+    }
+
+    @Override
+    public synchronized int deleteByIds(Collection<Long> ids) {
+        int deleted = 0;
+        for (long id : ids) {
+            if (deleteById(id)) deleted++;
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<Long> findExpiredIds(Date now, int limit) {
+        List<Long> expired = new ArrayList<>();
+        for (Set<Long> ids : idsByExpiry.headMap(now.getTime(), true).values()) {
+            for (long id : ids) {
+                if (expired.size() >= limit) return expired;
+                expired.add(id);
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public void forEachExpiringBefore(Date until, BiConsumer<Long, Date> consumer) {
+        for (Map.Entry<Long, Set<Long>> entry : idsByExpiry.headMap(until.getTime(), false).entrySet()) {
+            Date expiresAt = new Date(entry.getKey());
+            for (long id : entry.getValue()) consumer.accept(id, expiresAt);
+        }
+    }
+
+    @Override
+    public synchronized boolean updateShortUrl(String originalShort, String newShort) {
+        if (byShortUrl.containsKey(newShort)) return false;
+        Row row = byShortUrl.remove(originalShort);
+        if (row == null) return false;
+        Row renamed = row.withShortUrl(newShort);
+        byShortUrl.put(newShort, renamed);
+        byId.put(renamed.id, renamed);
+        return true;
+    }
+
+    @Override
+    public synchronized void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+        SortedMap<Long, SortedMap<Long, HyperLogLog>> sketches = new TreeMap<>();
+        for (ClickEvent event : events) {
+            // Igual que la FK en H2 pero sin fallar: el enlace pudo borrarse mientras el evento estaba en cola
+            if (!byId.containsKey(event.getUrlId())) continue;
+            int month = AccessPartitions.monthOf(event.getDetail().getTimestamp().getTime());
+            details.computeIfAbsent(month, k -> new HashMap<>())
+                    .computeIfAbsent(event.getUrlId(), k -> new ArrayList<>()).add(event.getDetail());
+            ClickRollups.add(rollups.computeIfAbsent(event.getUrlId(), k -> new TreeMap<>()), event.getUrlId(), event.getDetail());
+            ClickRollups.addVisitor(sketches, event.getUrlId(), event.getDetail());
+        }
+        sketches.forEach((urlId, days) -> {
+            SortedMap<Long, byte[]> stored = visitors.computeIfAbsent(urlId, k -> new TreeMap<>());
+            days.forEach((day, sketch) -> {
+                byte[] current = stored.get(day);
+                if (current != null) sketch.merge(HyperLogLog.fromBytes(current));
+                stored.put(day, sketch.toBytes());
+            });
+        });
+        if (checkpoint != null) checkpoints.merge(checkpoint, sequence, Math::max);
+    }
+
+    @Override
+    public synchronized void addAccessCounts(SortedMap<Long, Long> deltas, String checkpoint, long sequence) {
+        for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+            Row row = byId.get(entry.getKey());
+            if (row != null) row.accessCount += entry.getValue();
+        }
+        if (checkpoint != null) checkpoints.merge(checkpoint, sequence, Math::max);
+    }
+
+    @Override
+    public List<AccessDetail> findByUrl(long urlId, Date from, Date to) {
+        List<AccessDetail> list = new ArrayList<>();
+        synchronized (this) {
+            NavigableSet<Integer> months = AccessPartitions.overlapping(details.navigableKeySet(), from, to);
+            for (int month : months) {
+                List<AccessDetail> stored = details.get(month).get(urlId);
+                if (stored == null) continue;
+                for (AccessDetail d : stored) {
+                    long ts = d.getTimestamp().getTime();
+                    if ((from == null || ts >= from.getTime()) && (to == null || ts < to.getTime())) list.add(d);
+                }
+            }
+        }
+        list.sort(Comparator.comparing(AccessDetail::getTimestamp));
+        return list;
+    }
+
+    @Override
+    public synchronized List<String> dropPartitionsBefore(Date cutoff) {
+        List<String> dropped = new ArrayList<>();
+        while (!details.isEmpty() && AccessPartitions.endsBefore(details.firstKey(), cutoff)) {
+            dropped.add(AccessPartitions.name(details.pollFirstEntry().getKey()));
+        }
+        return dropped;
+    }
+
+    @Override
+    public List<String> listPartitions() {
+        List<String> names = new ArrayList<>();
+        for (int month : details.keySet()) names.add(AccessPartitions.name(month));
+        return names;
+    }
+
+    @Override
+    public void scanPartition(String partition, Consumer<ClickEvent> consumer) {
+        List<ClickEvent> events = new ArrayList<>();
+        synchronized (this) {
+            Map<Long, List<AccessDetail>> stored = details.get(AccessPartitions.monthOf(partition));
+            if (stored == null) return;
+            stored.forEach((urlId, list) -> list.forEach(d -> events.add(new ClickEvent(urlId, d))));
+        }
+        events.sort(Comparator.comparingLong(ClickEvent::getUrlId).thenComparing(e -> e.getDetail().getTimestamp()));
+        events.forEach(consumer);
+    }
+
+    @Override
+    public synchronized Map<Long, AccessStats> loadAccessStats(Collection<Long> urlIds, Date from, Date to) {
+        Map<Long, AccessStats> result = new HashMap<>();
+        long lower = from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime());
+        long upper = to == null ? Long.MAX_VALUE : to.getTime();
+        for (Long urlId : urlIds) {
+            SortedMap<ClickRollups.Key, Long> rows = rollups.get(urlId);
+            if (rows == null) continue;
+            AccessStats stats = new AccessStats();
+            rows.forEach((key, clicks) -> {
+                if (key.hour >= lower && key.hour < upper) stats.add(key.hour, key.dimension, key.value, clicks);
+            });
+            SortedMap<Long, byte[]> days = visitors.get(urlId);
+            if (days != null) {
+                long firstDay = from == null ? Long.MIN_VALUE : ClickRollups.dayOf(from.getTime());
+                days.forEach((day, sketch) -> {
+                    if (day >= firstDay && day < upper) stats.addVisitors(day, HyperLogLog.fromBytes(sketch));
+                });
+            }
+            result.put(urlId, stats);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void scanRollups(long urlId, Date from, Date to, RollupConsumer consumer) {
+        SortedMap<ClickRollups.Key, Long> rows = rollups.get(urlId);
+        if (rows == null) return;
+        long lower = from == null ? Long.MIN_VALUE : ClickRollups.hourOf(from.getTime());
+        long upper = to == null ? Long.MAX_VALUE : to.getTime();
+        rows.forEach((key, clicks) -> {
+            if (key.hour >= lower && key.hour < upper) consumer.accept(key.hour, key.dimension, key.value, clicks);
+        });
+    }
+
+    @Override
+    public long loadCheckpoint(String checkpoint) {
+        return checkpoints.getOrDefault(checkpoint, 0L);
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    private static final class Row {
+        final long id;
+        final String originalUrl;
+        final String shortUrl;
+        final Long userId;
+        final Date createdAt;
+        final Date expiresAt;
+        final long originalUrlHash;
+        volatile long accessCount;
+
+        Row(long id, String originalUrl, String shortUrl, Long userId, Date createdAt, Date expiresAt, long originalUrlHash) {
+            this.id = id;
+            this.originalUrl = originalUrl;
+            this.shortUrl = shortUrl;
+            this.userId = userId;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.originalUrlHash = originalUrlHash;
+        }
+
+        Row withShortUrl(String newShortUrl) {
+            Row row = new Row(id, originalUrl, newShortUrl, userId, createdAt, expiresAt, originalUrlHash);
+            row.accessCount = accessCount;
+            return row;
+        }
+
+        Url toUrl() {
+            Url url = new Url(originalUrl, shortUrl);
+            url.setId(id);
+            url.setAccessCount((int) accessCount);
+            url.setCreatedAt(createdAt);
+            url.setExpiresAt(expiresAt);
+            if (userId != null) {
+                Usuario owner = new Usuario();
+                owner.setId(userId);
+                url.setUser(owner);
+            }
+            return url;
+        }
+    }
+}
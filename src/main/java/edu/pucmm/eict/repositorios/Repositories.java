@@ -0,0 +1,108 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.ClickArchive;
+import edu.pucmm.eict.util.Database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Backend de almacenamiento de enlaces y accesos, elegido con APP_STORAGE igual que APP_DB_MODE:
+ * h2 (por defecto), memory o kv. Los usuarios siguen siempre en H2. Con base en disco, los
+ * accesos pasan por {@link ArchivedAccessEventRepository} (APP_ARCHIVE=false lo desactiva).
+ */
+public class Repositories {
+    private static UrlRepository urls;
+    private static AccessEventRepository accessEvents;
+    private static String backend;
+
+    private Repositories() {
+    }
+
+    public static synchronized void init() {
+        if (urls != null) return;
+        String mode = AppConfig.getString("APP_STORAGE", "h2").toLowerCase();
+        switch (mode) {
+            case "memory":
+                MemoryRepository memory = new MemoryRepository();
+                urls = memory;
+                accessEvents = memory;
+                break;
+            case "kv":
+                KvRepository kv = openKv();
+                urls = kv;
+                accessEvents = kv;
+                break;
+            default:
+                if (!"h2".equals(mode)) {
+                    System.err.println("[CONFIG] APP_STORAGE desconocido: " + mode + " (se usa h2)");
+                    mode = "h2";
+                }
+                H2Repository h2 = new H2Repository(Database.getDataSource(), Database.getDataDirectory() != null);
+                urls = h2;
+                accessEvents = h2;
+        }
+        backend = mode;
+        accessEvents = withArchive(accessEvents);
+    }
+
+    // Con base en disco y APP_ARCHIVE (por defecto), los meses viejos pasan a data/archive
+    private static AccessEventRepository withArchive(AccessEventRepository hot) {
+        Path dataDirectory = Database.getDataDirectory();
+        if (dataDirectory == null || !hot.isPersistent() || !AppConfig.getBoolean("APP_ARCHIVE", true)) return hot;
+        try {
+            return new ArchivedAccessEventRepository(hot, new ClickArchive(dataDirectory.resolve("archive")));
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir el archivo de accesos", e);
+        }
+    }
+
+    // data/kv junto a la base H2; con la base en memoria, APP_KV_DIR o un directorio temporal
+    private static KvRepository openKv() {
+        try {
+            Path dataDirectory = Database.getDataDirectory();
+            String configured = AppConfig.getString("APP_KV_DIR", null);
+            Path directory = configured != null ? Paths.get(configured)
+                    : dataDirectory != null ? dataDirectory.resolve("kv")
+                    : Files.createTempDirectory("acortador-kv");
+            return new KvRepository(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir el almacén clave-valor", e);
+        }
+    }
+
+    public static UrlRepository urls() {
+        if (urls == null) init();
+        return urls;
+    }
+
+    public static AccessEventRepository accessEvents() {
+        if (accessEvents == null) init();
+        return accessEvents;
+    }
+
+    public static String backend() {
+        if (backend == null) init();
+        return backend;
+    }
+
+    public static Map<String, Object> stats() {
+        if (urls instanceof KvRepository) return ((KvRepository) urls).stats();
+        return null;
+    }
+
+    /** Cierra el backend si tiene archivos propios; llamar después de detener a quienes escriben. */
+    public static synchronized void close() {
+        if (urls instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) urls).close();
+            } catch (Exception e) {
+                System.err.println("[STORAGE] Error cerrando el almacenamiento: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Almacenamiento de enlaces (short code -> destino).
+ *
+ * Las Url devueltas no incluyen accesos (ver AccessEventRepository). El dueño puede venir
+ * solo con su id: los usuarios viven en H2 y UrlService completa el resto.
+ */
+public interface UrlRepository {
+
+    /** Inserta la URL y le asigna id; false si el short code ya existe. */
+    boolean insert(Url url, Long userId, long originalUrlHash);
+
+    /** Inserta todas o ninguna; false si algún short code ya existe. */
+    boolean insertAll(List<Url> urls, Long userId, long[] originalUrlHashes);
+
+    /** Datos mínimos para redirigir, o null si el código no existe. */
+    ResolvedUrl resolve(String shortUrl);
+
+    Url findByShortUrl(String shortUrl);
+
+    /** Todas las URLs, de la más reciente a la más antigua. */
+    List<Url> findAll();
+
+    /**
+     * Hasta {@code limit} URLs en orden de id descendente con id < {@code beforeId} (null = desde la
+     * más reciente), solo las de {@code userId} (null = de todos). Keyset: cada página es un rango del índice.
+     */
+    List<Url> findPage(Long userId, Long beforeId, int limit);
+
+    /** Enlaces vigentes en {@code now} del usuario cuyo hash de destino coincide. */
+    List<Url> findLiveByUserAndHash(long userId, long originalUrlHash, Date now);
+
+    /** Cuáles de los códigos dados ya están ocupados. */
+    Set<String> findExistingShortCodes(Collection<String> shortUrls);
+
+    /** Short code de cada id que todavía existe (id -> código). */
+    Map<Long, String> findShortCodes(Collection<Long> ids);
+
+    long count();
+
+    /** Recorre (id, short code) con id mayor a {@code afterId}, en orden de id. */
+    void forEachShortCode(long afterId, BiConsumer<Long, String> consumer);
+
+    /**
+     * Recorre (short code, datos de redirección) de todos los enlaces sin bloquear a quien escribe.
+     * En H2 es una sola consulta y ve la base en un instante; en los demás cada enlace es válido
+     * en algún momento del recorrido.
+     */
+    void forEachLink(BiConsumer<String, ResolvedUrl> consumer);
+
+    /** Hasta {@code limit} enlaces (id -> short code) que cumplen el filtro con id > {@code afterId}, en orden de id. */
+    Map<Long, String> findMatching(UrlFilter filter, long afterId, int limit);
+
+    /** Borra la URL y sus accesos. */
+    boolean deleteById(long id);
+
+    /** Borra las URLs y sus accesos; devuelve cuántas existían. Los accesos pueden borrarse antes, en varios lotes. */
+    int deleteByIds(Collection<Long> ids);
+
+    /** Hasta {@code limit} ids con expires_at <= now, los que vencieron primero. */
+    List<Long> findExpiredIds(Date now, int limit);
+
+    /** Recorre (id, expires_at) de los enlaces que vencen antes de {@code until}. */
+    void forEachExpiringBefore(Date until, BiConsumer<Long, Date> consumer);
+
+    /** false si el código nuevo ya existe o el original no. */
+    boolean updateShortUrl(String originalShort, String newShort);
+}
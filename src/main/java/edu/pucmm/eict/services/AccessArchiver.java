@@ -0,0 +1,91 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.repositorios.ArchivedAccessEventRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Archivado en frío: mueve a data/archive las particiones mensuales de detalle que quedaron
+ * completas antes de APP_ARCHIVE_AFTER_DAYS (0 = no archivar). Se revisa al arrancar y cada
+ * APP_ARCHIVE_CHECK_MINUTES. Solo actúa si el backend está envuelto en el archivo (APP_ARCHIVE).
+ */
+public class AccessArchiver implements AutoCloseable {
+
+    private final ArchivedAccessEventRepository repository;
+    private final long afterDays;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closing;
+    private final LongAdder archivedPartitions = new LongAdder();
+    private volatile List<String> lastArchived = new ArrayList<>();
+    private volatile long lastRunMillis;
+
+    public AccessArchiver(AccessEventRepository accessEvents) {
+        this.repository = accessEvents instanceof ArchivedAccessEventRepository
+                ? (ArchivedAccessEventRepository) accessEvents : null;
+        this.afterDays = AppConfig.getLong("APP_ARCHIVE_AFTER_DAYS", 90);
+        if (repository == null || afterDays <= 0) {
+            this.scheduler = null;
+            return;
+        }
+        long checkMinutes = Math.max(1, AppConfig.getLong("APP_ARCHIVE_CHECK_MINUTES", 60));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "access-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, checkMinutes, TimeUnit.MINUTES);
+    }
+
+    /** Archiva ahora las particiones vencidas; devuelve sus nombres. */
+    public List<String> runOnce() {
+        if (repository == null || afterDays <= 0) return new ArrayList<>();
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays));
+        List<String> archived = repository.archivePartitionsBefore(cutoff);
+        lastRunMillis = System.currentTimeMillis();
+        if (!archived.isEmpty()) {
+            archivedPartitions.add(archived.size());
+            lastArchived = archived;
+            System.out.println("[ARCHIVE] Particiones archivadas: " + archived);
+        }
+        return archived;
+    }
+
+    private void runQuietly() {
+        if (closing) return;
+        try {
+            runOnce();
+        } catch (RuntimeException e) {
+            System.err.println("[ARCHIVE] Error archivando accesos: " + e.getMessage());
+        }
+    }
+
+    /** null si el archivo no está habilitado. */
+    public Map<String, Object> stats() {
+        if (repository == null) return null;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("afterDays", afterDays);
+        stats.put("archivedPartitions", archivedPartitions.sum());
+        stats.put("lastArchived", lastArchived);
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("segments", repository.getArchive().stats());
+        return stats;
+    }
+
+    // La partición que se está archivando termina; las siguientes ya no empiezan
+    @Override
+    public void close() {
+        closing = true;
+        BackgroundTasks.stop(scheduler, "ARCHIVE", 60);
+    }
+}
@@ -0,0 +1,231 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+import edu.pucmm.eict.util.ClickJournal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de accesos en memoria que se vuelcan periódicamente a urls.access_count.
+ *
+ * Cada enlace acumula su delta en un LongAdder en memoria, de modo que los enlaces
+ * populares no compiten por el bloqueo de su fila en H2. El incremento no toma ningún
+ * bloqueo: el volcado retira los contadores en cero y, durante dos intervalos más, devuelve
+ * al mapa cualquier incremento que haya caído en ellos.
+ * Una tarea programada aplica los deltas de todos los enlaces sucios en una sola escritura;
+ * las lecturas suman el delta pendiente para que el conteo sea exacto.
+ *
+ * Con diario de accesos (ClickJournal), cada volcado guarda en su misma escritura la
+ * secuencia hasta la que los deltas están incluidos; al arrancar se suman los accesos
+ * del diario posteriores a esa marca.
+ */
+public class AccessCounter implements AutoCloseable {
+
+    static final String JOURNAL_CONSUMER = "counters";
+
+    private final AccessEventRepository accessEvents;
+    private final ClickJournal journal; // null si no hay diario (base en memoria)
+    private final ConcurrentHashMap<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long flushIntervalMillis;
+    private final Object flushLock = new Object();
+
+    // Métricas
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder rowsUpdated = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private volatile int lastFlushUrls;
+    private volatile long lastFlushNanos;
+    private long checkpointedSequence; // protegido por flushLock
+    // Contadores quitados del mapa que aún se vigilan; protegido por flushLock
+    private final List<Counted> retired = new ArrayList<>();
+
+    public AccessCounter(AccessEventRepository accessEvents, ClickJournal journal) {
+        this.accessEvents = accessEvents;
+        this.journal = journal;
+        if (journal != null) recover();
+        this.flushIntervalMillis = Math.max(10, AppConfig.getLong("APP_COUNTER_FLUSH_MILLIS", 1000));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "access-counter-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Sin bloqueos: si el contador se retira justo después del get, un volcado posterior recupera
+    // el incremento desde la lista de retirados
+    public void increment(long urlId) {
+        LongAdder adder = pending.get(urlId);
+        if (adder == null) adder = pending.computeIfAbsent(urlId, k -> new LongAdder());
+        adder.increment();
+    }
+
+    /** Accesos registrados en memoria que aún no llegan a la base de datos. */
+    public long pending(long urlId) {
+        LongAdder adder = pending.get(urlId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("[COUNTERS] Error al volcar contadores: " + e.getMessage());
+        }
+    }
+
+    /** Vuelca todos los deltas pendientes en una sola escritura. */
+    public void flush() {
+        synchronized (flushLock) {
+            long start = System.nanoTime();
+            List<Counted> snapshot;
+            long sequence;
+            if (journal != null) {
+                // Los deltas y la secuencia se leen juntos: todo acceso hasta esa secuencia está incluido.
+                // Bajo el bloqueo solo se copian; el orden y el retiro se hacen fuera.
+                synchronized (journal.publishLock()) {
+                    sequence = journal.lastSequence();
+                    snapshot = snapshot();
+                }
+            } else {
+                sequence = 0;
+                snapshot = snapshot();
+            }
+            // En orden de id para que dos escritores nunca bloqueen filas en orden inverso
+            SortedMap<Long, Long> deltas = new TreeMap<>();
+            for (Counted counted : snapshot) {
+                if (counted.delta != 0) {
+                    deltas.put(counted.urlId, counted.delta);
+                } else if (pending.remove(counted.urlId, counted.adder)) {
+                    // Sin actividad: se quita para que el mapa no crezca indefinidamente
+                    counted.retiredAt = start;
+                    retired.add(counted);
+                }
+            }
+            boolean advanceCheckpoint = journal != null && sequence > checkpointedSequence;
+            if (deltas.isEmpty() && !advanceCheckpoint) return;
+
+            try {
+                accessEvents.addAccessCounts(deltas, advanceCheckpoint ? JOURNAL_CONSUMER : null, sequence);
+            } catch (RuntimeException e) {
+                // Los deltas siguen en memoria y se reintentan en el próximo ciclo
+                failedFlushes.increment();
+                throw e;
+            }
+            // Se descuenta exactamente lo aplicado; los incrementos concurrentes quedan para el próximo ciclo
+            for (Counted counted : snapshot) {
+                if (counted.delta != 0) counted.adder.add(-counted.delta);
+            }
+            if (advanceCheckpoint) {
+                checkpointedSequence = sequence;
+                journal.checkpoint(JOURNAL_CONSUMER, sequence);
+            }
+            if (deltas.isEmpty()) return;
+            flushes.increment();
+            rowsUpdated.add(deltas.size());
+            lastFlushUrls = deltas.size();
+            lastFlushNanos = System.nanoTime() - start;
+        }
+    }
+
+    // Copia el delta de cada contador, después de devolver al mapa lo que cayó en los retirados.
+    // Un retirado se suelta tras dos intervalos sin incrementos tardíos: el hilo que lo obtuvo con
+    // get() ya tuvo tiempo de sumar. Con diario los incrementos ocurren bajo publishLock, así que
+    // al tomarlo no queda ninguno en curso.
+    private List<Counted> snapshot() {
+        long now = System.nanoTime();
+        long grace = TimeUnit.MILLISECONDS.toNanos(2 * flushIntervalMillis);
+        Iterator<Counted> it = retired.iterator();
+        while (it.hasNext()) {
+            Counted counted = it.next();
+            long late = counted.adder.sum();
+            if (late == 0) {
+                if (now - counted.retiredAt >= grace) it.remove();
+                continue;
+            }
+            // Lineal: lo que se descuenta aquí es exactamente lo que se devuelve al mapa
+            counted.adder.add(-late);
+            counted.retiredAt = now;
+            pending.computeIfAbsent(counted.urlId, k -> new LongAdder()).add(late);
+        }
+        List<Counted> snapshot = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+            snapshot.add(new Counted(entry.getKey(), entry.getValue()));
+        }
+        return snapshot;
+    }
+
+    // Suma los accesos del diario posteriores al último volcado confirmado y los aplica de una vez
+    private void recover() {
+        try {
+            long committed = accessEvents.loadCheckpoint(JOURNAL_CONSUMER);
+            journal.registerConsumer(JOURNAL_CONSUMER, committed);
+            SortedMap<Long, Long> counts = new TreeMap<>();
+            journal.replay(committed, event -> counts.merge(event.getUrlId(), 1L, Long::sum));
+            long last = journal.lastSequence();
+            accessEvents.addAccessCounts(counts, JOURNAL_CONSUMER, last);
+            checkpointedSequence = last;
+            journal.checkpoint(JOURNAL_CONSUMER, last);
+        } catch (IOException e) {
+            throw new RuntimeException("Error recuperando contadores del diario", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long total = 0;
+        int dirty = 0;
+        for (LongAdder adder : pending.values()) {
+            long value = adder.sum();
+            if (value != 0) {
+                dirty++;
+                total += value;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("flushIntervalMillis", flushIntervalMillis);
+        stats.put("dirtyUrls", dirty);
+        stats.put("pendingIncrements", total);
+        stats.put("flushes", flushes.sum());
+        stats.put("rowsUpdated", rowsUpdated.sum());
+        stats.put("failedFlushes", failedFlushes.sum());
+        stats.put("lastFlushUrls", lastFlushUrls);
+        stats.put("lastFlushMillis", lastFlushNanos / 1_000_000.0);
+        return stats;
+    }
+
+    // Detiene la tarea programada y vuelca los deltas pendientes
+    @Override
+    public void close() {
+        BackgroundTasks.stop(scheduler, "COUNTERS", 10);
+        flushQuietly();
+    }
+
+    // Contador de un enlace con el delta leído al tomar la foto
+    private static final class Counted {
+        final long urlId;
+        final LongAdder adder;
+        final long delta;
+        long retiredAt;
+
+        Counted(long urlId, LongAdder adder) {
+            this.urlId = urlId;
+            this.adder = adder;
+            this.delta = adder.sum();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retención de accesos: elimina las particiones mensuales de detalle que quedaron completas
+ * fuera de APP_ACCESS_RETENTION_DAYS (0 = conservar todo). Se revisa al arrancar y cada
+ * APP_ACCESS_RETENTION_CHECK_MINUTES. Los rollups y access_count no se tocan.
+ */
+public class AccessRetention implements AutoCloseable {
+
+    private final AccessEventRepository accessEvents;
+    private final long retentionDays;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closing;
+    private final LongAdder droppedPartitions = new LongAdder();
+    private volatile List<String> lastDropped = new ArrayList<>();
+    private volatile long lastRunMillis;
+
+    public AccessRetention(AccessEventRepository accessEvents) {
+        this.accessEvents = accessEvents;
+        this.retentionDays = AppConfig.getLong("APP_ACCESS_RETENTION_DAYS", 0);
+        if (retentionDays <= 0) {
+            this.scheduler = null;
+            return;
+        }
+        long checkMinutes = Math.max(1, AppConfig.getLong("APP_ACCESS_RETENTION_CHECK_MINUTES", 60));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "access-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, checkMinutes, TimeUnit.MINUTES);
+    }
+
+    /** Inicio de la ventana retenida, o null si no hay retención. */
+    public Date windowStart() {
+        if (retentionDays <= 0) return null;
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+    }
+
+    /** Elimina ahora las particiones vencidas; devuelve sus nombres. */
+    public List<String> runOnce() {
+        Date cutoff = windowStart();
+        if (cutoff == null) return new ArrayList<>();
+        List<String> dropped = accessEvents.dropPartitionsBefore(cutoff);
+        lastRunMillis = System.currentTimeMillis();
+        if (!dropped.isEmpty()) {
+            droppedPartitions.add(dropped.size());
+            lastDropped = dropped;
+            System.out.println("[RETENTION] Particiones eliminadas: " + dropped);
+        }
+        return dropped;
+    }
+
+    private void runQuietly() {
+        if (closing) return;
+        try {
+            runOnce();
+        } catch (RuntimeException e) {
+            System.err.println("[RETENTION] Error aplicando la retención: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retentionDays", retentionDays);
+        stats.put("droppedPartitions", droppedPartitions.sum());
+        stats.put("lastDropped", lastDropped);
+        stats.put("lastRunMillis", lastRunMillis);
+        return stats;
+    }
+
+    // El borrado de particiones en curso termina; el siguiente ya no empieza
+    @Override
+    public void close() {
+        closing = true;
+        BackgroundTasks.stop(scheduler, "RETENTION", 30);
+    }
+}
@@ -0,0 +1,211 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.util.AppConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reparte los clicks en vivo a quienes miran las estadísticas de un enlace (SSE).
+ *
+ * La redirección solo consulta si el enlace tiene suscriptores y, si los tiene, encola el evento
+ * (APP_STATS_STREAM_QUEUE posiciones; lleno = se descarta). Un único hilo lo copia a la cola de
+ * cada suscripción (APP_STATS_STREAM_CLIENT_QUEUE) y cada suscripción escribe desde su propio
+ * hilo virtual, así un cliente lento solo se atrasa a sí mismo: si su cola se llena pierde
+ * eventos y se le avisa para que recargue. Sin clicks se envía un latido cada
+ * APP_STATS_STREAM_HEARTBEAT_MILLIS, que además detecta los clientes desconectados.
+ */
+public class ClickBroadcaster implements AutoCloseable {
+
+    /** Destino de una suscripción; se llama siempre desde el mismo hilo. false = cliente desconectado. */
+    public interface Sink {
+        boolean clicks(List<ClickEvent> events);
+
+        /** Se perdieron {@code missed} eventos desde la última entrega. */
+        boolean lagged(long missed);
+
+        boolean heartbeat();
+
+        /** La suscripción terminó (desconexión o cierre del servicio). */
+        void closed();
+    }
+
+    private final Map<Long, Set<Subscription>> byUrl = new ConcurrentHashMap<>();
+    private final BlockingQueue<ClickEvent> queue;
+    private final int clientQueueSize;
+    private final long heartbeatMillis;
+    private final int maxSubscribers;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ExecutorService dispatcher;
+    private volatile boolean closed;
+
+    // Métricas
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder lagged = new LongAdder();
+
+    public ClickBroadcaster() {
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, AppConfig.getInt("APP_STATS_STREAM_QUEUE", 65_536)));
+        this.clientQueueSize = Math.max(16, AppConfig.getInt("APP_STATS_STREAM_CLIENT_QUEUE", 256));
+        this.heartbeatMillis = Math.max(1000, AppConfig.getLong("APP_STATS_STREAM_HEARTBEAT_MILLIS", 15_000));
+        this.maxSubscribers = Math.max(1, AppConfig.getInt("APP_STATS_STREAM_MAX_SUBSCRIBERS", 10_000));
+        this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "click-broadcaster");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher.execute(this::dispatch);
+    }
+
+    /** Camino de la redirección: sin suscriptores para el enlace cuesta una búsqueda en un mapa. */
+    public void publish(ClickEvent event) {
+        if (!byUrl.containsKey(event.getUrlId())) return;
+        if (queue.offer(event)) published.increment();
+        else dropped.increment();
+    }
+
+    public boolean hasCapacity() {
+        return !closed && subscribers.get() < maxSubscribers;
+    }
+
+    /** @return la suscripción, o null si se alcanzó APP_STATS_STREAM_MAX_SUBSCRIBERS */
+    public Subscription subscribe(long urlId, Sink sink) {
+        if (closed) return null;
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            return null;
+        }
+        Subscription subscription = new Subscription(nextId.getAndIncrement(), urlId, sink);
+        byUrl.computeIfAbsent(urlId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        Thread.ofVirtual().name("stats-stream-" + subscription.id).start(subscription::run);
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        byUrl.computeIfPresent(subscription.urlId, (id, set) -> {
+            if (set.remove(subscription)) subscribers.decrementAndGet();
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void dispatch() {
+        List<ClickEvent> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, 1023);
+                for (ClickEvent event : batch) {
+                    Set<Subscription> set = byUrl.get(event.getUrlId());
+                    if (set == null) continue;
+                    for (Subscription subscription : set) subscription.offer(event);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscribers", subscribers.get());
+        stats.put("maxSubscribers", maxSubscribers);
+        stats.put("watchedLinks", byUrl.size());
+        stats.put("queued", queue.size());
+        stats.put("published", published.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("delivered", delivered.sum());
+        stats.put("lagged", lagged.sum());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.shutdownNow();
+        for (Set<Subscription> set : byUrl.values()) {
+            for (Subscription subscription : set) subscription.close();
+        }
+    }
+
+    /** Un cliente mirando un enlace; su hilo vacía la cola y escribe en el Sink. */
+    public final class Subscription implements AutoCloseable {
+        private final long id;
+        private final long urlId;
+        private final Sink sink;
+        private final BlockingQueue<ClickEvent> pending = new ArrayBlockingQueue<>(clientQueueSize);
+        private final AtomicLong missed = new AtomicLong();
+        private volatile boolean open = true;
+        private volatile Thread thread;
+
+        private Subscription(long id, long urlId, Sink sink) {
+            this.id = id;
+            this.urlId = urlId;
+            this.sink = sink;
+        }
+
+        private void offer(ClickEvent event) {
+            if (!pending.offer(event)) missed.incrementAndGet();
+        }
+
+        private void run() {
+            thread = Thread.currentThread();
+            List<ClickEvent> batch = new ArrayList<>();
+            try {
+                while (open) {
+                    ClickEvent first = pending.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (!sink.heartbeat()) break;
+                        continue;
+                    }
+                    long lost = missed.getAndSet(0);
+                    if (lost > 0) {
+                        lagged.add(lost);
+                        if (!sink.lagged(lost)) break;
+                    }
+                    batch.add(first);
+                    pending.drainTo(batch, 255);
+                    if (!sink.clicks(batch)) break;
+                    delivered.add(batch.size());
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // cierre del servicio o de la suscripción
+            } catch (RuntimeException e) {
+                System.err.println("[STATS-STREAM] Error al enviar clicks: " + e.getMessage());
+            } finally {
+                open = false;
+                unsubscribe(this);
+                sink.closed();
+            }
+        }
+
+        public long getUrlId() {
+            return urlId;
+        }
+
+        /** Idempotente; el Sink recibe closed() desde el hilo de la suscripción. */
+        @Override
+        public void close() {
+            open = false;
+            Thread t = thread;
+            if (t != null) t.interrupt();
+            else unsubscribe(this);
+        }
+    }
+}
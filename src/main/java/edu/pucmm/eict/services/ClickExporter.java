@@ -0,0 +1,287 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exporta el detalle de clicks como CSV o NDJSON directo a un stream, sin armar listas.
+ *
+ * Los enlaces se recorren por id en lotes de APP_EXPORT_LINK_CHUNK (como el borrado masivo) y
+ * los accesos de cada uno con {@link AccessEventRepository#scanByUrl}, en orden de fecha: la
+ * memoria usada no depende de cuántas filas salgan. Cada fila lleva su token de reanudación
+ * (enlace, fecha y cuántas filas de ese enlace con esa misma fecha ya salieron); pasarlo como
+ * {@code resume} continúa justo después de esa fila. Los clicks que aún están en cola de
+ * escritura no aparecen hasta que se guardan.
+ */
+public class ClickExporter {
+
+    public enum Format {
+        CSV("text/csv; charset=utf-8", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format parse(String name) {
+            if (name == null || name.isEmpty()) return CSV;
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Formato inválido: " + name + " (válidos: csv, ndjson)");
+            }
+        }
+    }
+
+    /** Posición en la exportación: la última fila entregada. */
+    public static final class Cursor {
+        private final long urlId;
+        private final long timestamp;
+        private final long seen; // filas del enlace con esta fecha ya entregadas
+
+        private Cursor(long urlId, long timestamp, long seen) {
+            this.urlId = urlId;
+            this.timestamp = timestamp;
+            this.seen = seen;
+        }
+
+        /** null si no viene; IllegalArgumentException si no es un token de esta exportación. */
+        public static Cursor parse(String token) {
+            if (token == null || token.isBlank()) return null;
+            String[] parts = token.trim().split("-");
+            try {
+                if (parts.length == 3) {
+                    Cursor cursor = new Cursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    if (cursor.urlId > 0 && cursor.seen > 0) return cursor;
+                }
+            } catch (NumberFormatException e) {
+                // cae en el error de abajo
+            }
+            throw new IllegalArgumentException("Token de reanudación inválido: " + token);
+        }
+
+        public long getUrlId() {
+            return urlId;
+        }
+
+        static String format(long urlId, long timestamp, long seen) {
+            return urlId + "-" + timestamp + "-" + seen;
+        }
+    }
+
+    private static final String CSV_HEADER = "resume,short_url,timestamp,ip,browser,platform,client_domain\n";
+
+    private final UrlRepository urls;
+    private final AccessEventRepository accessEvents;
+    private final int linkChunk;
+    private final AtomicInteger running = new AtomicInteger();
+
+    // Métricas
+    private final LongAdder exports = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    public ClickExporter(UrlRepository urls, AccessEventRepository accessEvents) {
+        this.urls = urls;
+        this.accessEvents = accessEvents;
+        this.linkChunk = Math.max(1, AppConfig.getInt("APP_EXPORT_LINK_CHUNK", 500));
+    }
+
+    /** Accesos de un enlace en [from, to) (null = sin límite). @return filas escritas */
+    public long exportLink(long urlId, String shortUrl, Date from, Date to, Cursor resume, Format format, OutputStream out) throws IOException {
+        if (resume != null && resume.urlId != urlId) throw new IllegalArgumentException("El token de reanudación es de otro enlace");
+        return run(resume, format, out, writer -> writer.link(urlId, shortUrl, from, to, resume));
+    }
+
+    /** Accesos en [from, to) de los enlaces que cumplen el filtro (vacío = todos), por id de enlace. */
+    public long exportLinks(UrlFilter filter, Date from, Date to, Cursor resume, Format format, OutputStream out) throws IOException {
+        return run(resume, format, out, writer -> {
+            long afterId = resume != null ? resume.urlId - 1 : 0;
+            while (true) {
+                Map<Long, String> chunk = urls.findMatching(filter, afterId, linkChunk);
+                for (Map.Entry<Long, String> link : chunk.entrySet()) {
+                    long urlId = link.getKey();
+                    writer.link(urlId, link.getValue(), from, to, resume != null && resume.urlId == urlId ? resume : null);
+                    afterId = urlId;
+                }
+                if (chunk.size() < linkChunk) break;
+            }
+        });
+    }
+
+    private interface Body {
+        void write(RowWriter writer) throws IOException;
+    }
+
+    private long run(Cursor resume, Format format, OutputStream out, Body body) throws IOException {
+        exports.increment();
+        if (resume != null) resumed.increment();
+        running.incrementAndGet();
+        RowWriter writer = new RowWriter(format, out);
+        try {
+            if (format == Format.CSV) writer.out.write(CSV_HEADER);
+            body.write(writer);
+            writer.out.flush();
+            return writer.written;
+        } catch (UncheckedIOException e) {
+            failed.increment();
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            throw e;
+        } finally {
+            rows.add(writer.written);
+            running.decrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running.get());
+        stats.put("exports", exports.sum());
+        stats.put("resumed", resumed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rows", rows.sum());
+        return stats;
+    }
+
+    private final class RowWriter {
+        private final Format format;
+        private final Writer out;
+        private long written;
+
+        RowWriter(Format format, OutputStream stream) {
+            this.format = format;
+            this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        // Las filas de la fecha del cursor salen primero: se saltan las que ya se entregaron
+        void link(long urlId, String shortUrl, Date from, Date to, Cursor resume) {
+            Date lower = from;
+            if (resume != null && (lower == null || lower.getTime() < resume.timestamp)) lower = new Date(resume.timestamp);
+            long[] tie = {Long.MIN_VALUE, 0}; // fecha de la última fila y cuántas van con esa fecha
+            long[] skip = {resume != null ? resume.seen : 0};
+            long skipTimestamp = resume != null ? resume.timestamp : 0;
+            accessEvents.scanByUrl(urlId, lower, to, detail -> {
+                long timestamp = detail.getTimestamp().getTime();
+                if (timestamp == tie[0]) tie[1]++;
+                else {
+                    tie[0] = timestamp;
+                    tie[1] = 1;
+                }
+                if (skip[0] > 0 && timestamp == skipTimestamp) {
+                    skip[0]--;
+                    return;
+                }
+                try {
+                    row(Cursor.format(urlId, timestamp, tie[1]), shortUrl, detail);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        private void row(String token, String shortUrl, AccessDetail detail) throws IOException {
+            String timestamp = detail.getTimestamp().toInstant().toString();
+            if (format == Format.CSV) {
+                out.write(token);
+                csv(shortUrl);
+                csv(timestamp);
+                csv(detail.getIp());
+                csv(detail.getBrowser());
+                csv(detail.getPlatform());
+                csv(detail.getClientDomain());
+            } else {
+                out.write("{\"resume\":\"");
+                out.write(token);
+                out.write('"');
+                json("shortUrl", shortUrl);
+                json("timestamp", timestamp);
+                json("ip", detail.getIp());
+                json("browser", detail.getBrowser());
+                json("platform", detail.getPlatform());
+                json("clientDomain", detail.getClientDomain());
+                out.write('}');
+            }
+            out.write('\n');
+            written++;
+        }
+
+        // Comillas solo si hacen falta; lo que empieza como fórmula se antepone con ' para las hojas de cálculo
+        private void csv(String value) throws IOException {
+            out.write(',');
+            if (value == null || value.isEmpty()) return;
+            char first = value.charAt(0);
+            boolean formula = first == '=' || first == '+' || first == '-' || first == '@';
+            boolean quote = formula;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            if (formula) out.write('\'');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        private void json(String name, String value) throws IOException {
+            out.write(",\"");
+            out.write(name);
+            out.write("\":");
+            if (value == null) {
+                out.write("null");
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> out.write("\\\"");
+                    case '\\' -> out.write("\\\\");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\t' -> out.write("\\t");
+                    default -> {
+                        if (c < 0x20) out.write(String.format("\\u%04x", (int) c));
+                        else out.write(c);
+                    }
+                }
+            }
+            out.write('"');
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.ClickJournal;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingesta asíncrona de accesos.
+ *
+ * El hilo de la petición nunca espera a la base: un hilo escritor agrupa los eventos
+ * (hasta APP_CLICK_BATCH_SIZE o APP_CLICK_FLUSH_MILLIS desde el primero) y los
+ * persiste con una sola escritura en lote en el AccessEventRepository configurado.
+ * access_count no se toca aquí: lo lleva AccessCounter.
+ *
+ * Con diario de accesos (ClickJournal), el evento ya está en disco al llegar aquí: el escritor
+ * sigue el diario en orden de secuencia en vez de usar la cola, así que una base lenta solo
+ * atrasa el diario (journalLag) y no a la redirección. Cada lote guarda en su misma escritura
+ * la última secuencia aplicada; al arrancar se reinsertan los eventos posteriores a esa marca.
+ *
+ * Sin diario (o si no se pudo escribir en él) el evento va a una cola acotada; si está llena
+ * se intenta una sola escritura en el hilo actual, sin reintentos.
+ *
+ * Solo se descartan los eventos que fallan de forma permanente (violación de restricción o dato
+ * inválido, p.ej. el enlace se borró mientras estaban en cola). En el escritor, un error pasajero
+ * (pool agotado, timeout de bloqueo, E/S) se reintenta con espera creciente hasta
+ * APP_CLICK_RETRY_MAX_MILLIS sin avanzar el checkpoint; si la aplicación se cierra antes,
+ * lo pendiente queda en el diario.
+ */
+public class ClickIngestor implements AutoCloseable {
+
+    static final String JOURNAL_CONSUMER = "details";
+    private static final int RECOVERY_BATCH_SIZE = 1000;
+    private static final long RETRY_INITIAL_MILLIS = 50;
+
+    private final AccessEventRepository accessEvents;
+    private final ClickJournal journal; // null si no hay diario (base en memoria)
+    private final ClickJournal.Tail tail;
+    private final BlockingQueue<ClickEvent> queue;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long flushIntervalNanos;
+    private final long retryMaxMillis;
+    private final Thread writer;
+    private volatile boolean running = true;
+    // Se cerró con eventos del diario sin escribir: desde ahí no se confirma ninguna secuencia posterior
+    private volatile boolean abandoned;
+    // eventos tomados de la cola que aún no terminan de escribirse
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // última secuencia del diario que el escritor ya procesó (escrita, descartada o diferida)
+    private volatile long processed;
+
+    // Métricas
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder syncFallbacks = new LongAdder();
+    private final LongAdder failedEvents = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deferredEvents = new LongAdder();
+    private final LongAdder totalFlushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastFlushNanos;
+
+    public ClickIngestor(AccessEventRepository accessEvents, ClickJournal journal) {
+        this.accessEvents = accessEvents;
+        this.journal = journal;
+        this.queueCapacity = AppConfig.getInt("APP_CLICK_QUEUE_CAPACITY", 10_000);
+        this.batchSize = Math.max(1, AppConfig.getInt("APP_CLICK_BATCH_SIZE", 500));
+        this.flushIntervalMillis = Math.max(1, AppConfig.getLong("APP_CLICK_FLUSH_MILLIS", 200));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.retryMaxMillis = Math.max(RETRY_INITIAL_MILLIS, AppConfig.getLong("APP_CLICK_RETRY_MAX_MILLIS", 5000));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        if (journal != null) {
+            recover();
+            this.processed = journal.lastSequence();
+            this.tail = journal.tail(processed);
+        } else {
+            this.tail = null;
+        }
+        this.writer = new Thread(this::runWriter, "click-ingestor");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void submit(ClickEvent event) {
+        if (event.getSequence() > 0 && tail != null) {
+            // Ya está en el diario: el escritor lo lee de ahí; si ya se cerró, se reaplica al arrancar
+            enqueued.increment();
+            LockSupport.unpark(writer);
+            return;
+        }
+        if (running && queue.offer(event)) {
+            enqueued.increment();
+            LockSupport.unpark(writer);
+            return;
+        }
+        // Cola llena (o apagándose): un solo intento en el hilo actual; la petición no reintenta
+        syncFallbacks.increment();
+        List<ClickEvent> single = new ArrayList<>(1);
+        single.add(event);
+        try {
+            writeInTransaction(single);
+            written.increment();
+        } catch (RuntimeException e) {
+            if (isPermanent(e)) failedEvents.increment();
+            else deferredEvents.increment();
+            System.err.println("[CLICKS] No se pudo registrar acceso para url_id=" + event.getUrlId() + ": " + e.getMessage());
+        }
+    }
+
+    private void runWriter() {
+        List<ClickEvent> journaled = new ArrayList<>(batchSize);
+        List<ClickEvent> queued = new ArrayList<>(batchSize);
+        while (running || hasPending()) {
+            try {
+                collectBatch(journaled, queued);
+            } catch (IOException e) {
+                System.err.println("[CLICKS] Error leyendo el diario de accesos: " + e.getMessage());
+                if (!running) return;
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            if (!journaled.isEmpty()) {
+                try {
+                    writeBatch(journaled);
+                } catch (RuntimeException e) {
+                    System.err.println("[CLICKS] Error inesperado en el escritor: " + e.getMessage());
+                } finally {
+                    processed = journaled.get(journaled.size() - 1).getSequence();
+                    journaled.clear();
+                }
+            }
+            if (!queued.isEmpty()) {
+                try {
+                    writeBatch(queued);
+                } catch (RuntimeException e) {
+                    System.err.println("[CLICKS] Error inesperado en el escritor: " + e.getMessage());
+                } finally {
+                    inFlight.addAndGet(-queued.size());
+                    queued.clear();
+                }
+            }
+        }
+    }
+
+    private boolean hasPending() {
+        return (tail != null && tail.behind()) || !queue.isEmpty();
+    }
+
+    // Group commit: se acumula hasta llenar un lote o vencer el intervalo desde el primer evento.
+    // Los eventos del diario y los de la cola van en lotes separados: solo los primeros llevan checkpoint.
+    private void collectBatch(List<ClickEvent> journaled, List<ClickEvent> queued) throws IOException {
+        long deadline = 0;
+        while (true) {
+            if (tail != null) tail.read(journaled, batchSize - journaled.size());
+            int before = queued.size();
+            queue.drainTo(queued, batchSize - queued.size());
+            inFlight.addAndGet(queued.size() - before);
+            if (!running || journaled.size() >= batchSize || queued.size() >= batchSize) return;
+            if (journaled.isEmpty() && queued.isEmpty()) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0) deadline = now + flushIntervalNanos;
+            if (now - deadline >= 0) return;
+            LockSupport.parkNanos(this, deadline - now);
+        }
+    }
+
+    private void writeBatch(List<ClickEvent> batch) {
+        long start = System.nanoTime();
+        if (abandoned) {
+            defer(batch, null);
+        } else {
+            RuntimeException failure = writeRetrying(batch);
+            if (failure == null) {
+                written.add(batch.size());
+            } else if (isPermanent(failure)) {
+                // Un evento inválido (p.ej. enlace borrado mientras estaba en cola) no debe tumbar el lote
+                writeIndividually(batch);
+            } else {
+                defer(batch, failure);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        batches.increment();
+        lastBatchSize = batch.size();
+        lastFlushNanos = elapsed;
+        totalFlushNanos.add(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    private void writeInTransaction(List<ClickEvent> batch) {
+        long sequence = batch.get(batch.size() - 1).getSequence();
+        boolean journaled = journal != null && sequence > 0;
+        accessEvents.insertEvents(batch, journaled ? JOURNAL_CONSUMER : null, sequence);
+        if (journaled) {
+            journal.checkpoint(JOURNAL_CONSUMER, sequence);
+        }
+    }
+
+    // null si se escribió; si no, el error permanente o el pasajero con el que se dejó de reintentar
+    // (la aplicación se está cerrando). Solo lo usan el escritor y la recuperación, nunca una petición.
+    private RuntimeException writeRetrying(List<ClickEvent> events) {
+        long backoff = RETRY_INITIAL_MILLIS;
+        while (true) {
+            try {
+                writeInTransaction(events);
+                return null;
+            } catch (RuntimeException e) {
+                if (isPermanent(e) || !running) return e;
+                retries.increment();
+                System.err.println("[CLICKS] Error pasajero escribiendo " + events.size() + " accesos, reintento en "
+                        + backoff + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return e;
+                }
+                backoff = Math.min(backoff * 2, retryMaxMillis);
+            }
+        }
+    }
+
+    // Solo una violación de restricción (23xxx, la FK de un enlace borrado) o un dato inválido (22xxx)
+    // vuelven a fallar igual; el resto (sin conexiones, timeout de bloqueo, E/S) se reintenta
+    static boolean isPermanent(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                return state != null && (state.startsWith("23") || state.startsWith("22"));
+            }
+        }
+        return false;
+    }
+
+    private void writeIndividually(List<ClickEvent> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            ClickEvent event = batch.get(i);
+            List<ClickEvent> single = new ArrayList<>(1);
+            single.add(event);
+            RuntimeException failure = writeRetrying(single);
+            if (failure == null) {
+                written.increment();
+            } else if (isPermanent(failure)) {
+                failedEvents.increment();
+                System.err.println("[CLICKS] No se pudo registrar acceso para url_id=" + event.getUrlId() + ": " + failure.getMessage());
+            } else {
+                defer(batch.subList(i, batch.size()), failure);
+                return;
+            }
+        }
+    }
+
+    // Se dejó de reintentar sin escribir: si los eventos están en el diario se reaplican al arrancar,
+    // siempre que ningún lote posterior confirme una secuencia mayor
+    private void defer(List<ClickEvent> events, RuntimeException failure) {
+        boolean journaled = false;
+        for (ClickEvent event : events) journaled |= event.getSequence() > 0;
+        if (journaled && journal != null) abandoned = true;
+        deferredEvents.add(events.size());
+        if (failure != null) {
+            System.err.println("[CLICKS] " + events.size() + " accesos sin escribir" + (abandoned ? " (quedan en el diario)" : "")
+                    + ": " + failure.getMessage());
+        }
+    }
+
+    // Reaplica los eventos del diario que no alcanzaron a confirmarse en access_details
+    private void recover() {
+        try {
+            long committed = accessEvents.loadCheckpoint(JOURNAL_CONSUMER);
+            journal.registerConsumer(JOURNAL_CONSUMER, committed);
+            List<ClickEvent> pendingBatch = new ArrayList<>(RECOVERY_BATCH_SIZE);
+            long[] replayed = {0};
+            journal.replay(committed, event -> {
+                pendingBatch.add(event);
+                replayed[0]++;
+                if (pendingBatch.size() >= RECOVERY_BATCH_SIZE) {
+                    writeBatch(pendingBatch);
+                    pendingBatch.clear();
+                }
+            });
+            if (!pendingBatch.isEmpty()) writeBatch(pendingBatch);
+            if (abandoned) throw new RuntimeException("Se interrumpió la recuperación de accesos; el diario conserva lo pendiente");
+            // Todo quedó escrito salvo lo que falló de forma permanente (enlace borrado), que no se reintenta
+            long last = journal.lastSequence();
+            accessEvents.insertEvents(new ArrayList<>(), JOURNAL_CONSUMER, last);
+            journal.checkpoint(JOURNAL_CONSUMER, last);
+            if (replayed[0] > 0) {
+                System.out.println("[CLICKS] Recuperados " + replayed[0] + " accesos desde el diario");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error recuperando accesos del diario", e);
+        }
+    }
+
+    /**
+     * Espera a que todo lo encolado hasta ahora quede escrito.
+     * @return true si se vació antes del tiempo límite
+     */
+    public boolean awaitFlushed(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long target = journal == null ? 0 : journal.lastSequence();
+        while (processed < target || !queue.isEmpty() || inFlight.get() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        long batchCount = batches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        if (journal != null) stats.put("journalLag", Math.max(0, journal.lastSequence() - processed));
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("batchSize", batchSize);
+        stats.put("flushIntervalMillis", flushIntervalMillis);
+        stats.put("enqueued", enqueued.sum());
+        stats.put("written", written.sum());
+        stats.put("batches", batchCount);
+        stats.put("lastBatchSize", lastBatchSize);
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) written.sum() / batchCount);
+        stats.put("lastFlushMillis", lastFlushNanos / 1_000_000.0);
+        stats.put("avgFlushMillis", batchCount == 0 ? 0.0 : totalFlushNanos.sum() / 1_000_000.0 / batchCount);
+        stats.put("maxFlushMillis", maxFlushNanos.get() / 1_000_000.0);
+        stats.put("syncFallbacks", syncFallbacks.sum());
+        stats.put("failedEvents", failedEvents.sum());
+        stats.put("retries", retries.sum());
+        stats.put("deferredEvents", deferredEvents.sum());
+        return stats;
+    }
+
+    // Detiene el escritor después de persistir lo que quede en la cola y en el diario.
+    // No se interrumpe el hilo: el lote en curso termina de escribirse.
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
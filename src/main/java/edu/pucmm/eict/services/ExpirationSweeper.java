@@ -0,0 +1,132 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+import edu.pucmm.eict.util.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Borrado en segundo plano de los enlaces vencidos (anónimos) y sus accesos.
+ *
+ * Los enlaces que vencen pronto van a una rueda de tiempo jerárquica (tick de
+ * APP_EXPIRY_TICK_SECONDS, horizonte de 64^3 ticks): se cargan al arrancar y se agregan al
+ * crearlos, así que se borran segundos después de vencer sin consultar la base. Cada
+ * APP_EXPIRY_SWEEP_MINUTES un barrido por idx_urls_expires_at recoge lo que la rueda no
+ * conoce (enlaces de otros nodos o de más allá del horizonte). Todo se borra en lotes de
+ * APP_EXPIRY_BATCH. APP_EXPIRY_SWEEP=false lo desactiva.
+ */
+public class ExpirationSweeper implements AutoCloseable {
+
+    private final UrlRepository urls;
+    private final IntConsumer onDeleted;
+    private final int batchSize;
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closing;
+    private final LongAdder deletedByWheel = new LongAdder();
+    private final LongAdder deletedBySweep = new LongAdder();
+    private volatile long lastSweepMillis;
+
+    /** @param onDeleted recibe cuántos enlaces se borraron en cada lote */
+    public ExpirationSweeper(UrlRepository urls, IntConsumer onDeleted) {
+        this.urls = urls;
+        this.onDeleted = onDeleted;
+        this.batchSize = Math.max(1, AppConfig.getInt("APP_EXPIRY_BATCH", 500));
+        long tickMillis = Math.max(1, AppConfig.getLong("APP_EXPIRY_TICK_SECONDS", 1)) * 1000L;
+        this.wheel = new TimingWheel(tickMillis, 3, System.currentTimeMillis());
+        if (!AppConfig.getBoolean("APP_EXPIRY_SWEEP", true)) {
+            this.scheduler = null;
+            return;
+        }
+        long sweepMinutes = Math.max(1, AppConfig.getLong("APP_EXPIRY_SWEEP_MINUTES", 5));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expiration-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(() -> quietly(this::loadWheel));
+        scheduler.scheduleWithFixedDelay(() -> quietly(this::sweepOnce), 0, sweepMinutes, TimeUnit.MINUTES);
+        scheduler.scheduleWithFixedDelay(() -> quietly(this::tick), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Agrega un enlace recién creado a la rueda; si vence más allá del horizonte lo recoge el barrido. */
+    public void schedule(long id, Date expiresAt) {
+        if (scheduler != null && expiresAt != null) wheel.schedule(id, expiresAt.getTime());
+    }
+
+    private void loadWheel() {
+        Date until = new Date(System.currentTimeMillis() + wheel.horizonMillis());
+        urls.forEachExpiringBefore(until, (id, expiresAt) -> wheel.schedule(id, expiresAt.getTime()));
+    }
+
+    /** Borra los vencidos según la rueda; devuelve cuántos existían. */
+    public int tick() {
+        List<Long> due = new ArrayList<>();
+        wheel.advance(System.currentTimeMillis(), due::add);
+        int deleted = 0;
+        for (int from = 0; from < due.size() && !closing; from += batchSize) {
+            deleted += delete(due.subList(from, Math.min(due.size(), from + batchSize)));
+        }
+        deletedByWheel.add(deleted);
+        return deleted;
+    }
+
+    /** Borra por la base todos los enlaces ya vencidos, lote por lote; devuelve cuántos. */
+    public int sweepOnce() {
+        int deleted = 0;
+        while (!closing) {
+            List<Long> expired = urls.findExpiredIds(new Date(), batchSize);
+            if (expired.isEmpty()) break;
+            int batch = delete(expired);
+            deleted += batch;
+            if (expired.size() < batchSize || batch == 0) break;
+        }
+        deletedBySweep.add(deleted);
+        lastSweepMillis = System.currentTimeMillis();
+        if (deleted > 0) System.out.println("[EXPIRY] Enlaces vencidos eliminados por barrido: " + deleted);
+        return deleted;
+    }
+
+    private int delete(List<Long> ids) {
+        int deleted = urls.deleteByIds(ids);
+        if (deleted > 0) onDeleted.accept(deleted);
+        return deleted;
+    }
+
+    private void quietly(Runnable task) {
+        if (closing) return;
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("[EXPIRY] Error borrando enlaces vencidos: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", scheduler != null);
+        stats.put("scheduled", wheel.size());
+        stats.put("deletedByWheel", deletedByWheel.sum());
+        stats.put("deletedBySweep", deletedBySweep.sum());
+        stats.put("lastSweepMillis", lastSweepMillis);
+        return stats;
+    }
+
+    // El lote de borrado en curso termina y los siguientes ya no empiezan
+    @Override
+    public void close() {
+        closing = true;
+        BackgroundTasks.stop(scheduler, "EXPIRY", 10);
+    }
+}
@@ -0,0 +1,176 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.HotLink;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.SpaceSaving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enlaces más visitados en ventanas deslizantes de 1 minuto, 1 hora y 24 horas.
+ *
+ * La redirección solo deja el id en un anillo de APP_HOT_LINKS_BUFFER posiciones (un
+ * getAndIncrement y un compareAndSet: sin bloqueos ni asignaciones). Un hilo lo vacía cada
+ * APP_HOT_LINKS_DRAIN_MILLIS y alimenta cada ventana, que es un anillo de buckets de tiempo con
+ * un resumen Space-Saving de APP_HOT_LINKS_CAPACITY contadores (O(1) por click). Si el anillo
+ * se llena antes de vaciarse, los clicks sobrantes se descartan y se cuentan en "dropped".
+ * Las ventanas incluyen el bucket en curso, que está a medio llenar: "1m" abarca entre 50 y 60 segundos.
+ */
+public class HotLinks implements AutoCloseable {
+
+    private final AtomicLongArray buffer;
+    private final int mask;
+    private final AtomicLong writeIndex = new AtomicLong();
+    private long readIndex; // solo lo usa el hilo de vaciado
+    private final int capacity;
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    // Métricas
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+
+    public HotLinks() {
+        int size = Integer.highestOneBit(Math.max(1024, AppConfig.getInt("APP_HOT_LINKS_BUFFER", 16_384)));
+        this.buffer = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.capacity = Math.max(10, AppConfig.getInt("APP_HOT_LINKS_CAPACITY", 100));
+        windows.put("1m", new Window(6, 10_000L, capacity));
+        windows.put("1h", new Window(60, 60_000L, capacity));
+        windows.put("24h", new Window(96, 900_000L, capacity));
+        long drainMillis = Math.max(10, AppConfig.getLong("APP_HOT_LINKS_DRAIN_MILLIS", 100));
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hot-links");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::drainQuietly, drainMillis, drainMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Camino de la redirección: O(1) y sin bloqueos. Los ids válidos son positivos (0 marca una posición libre). */
+    public void record(long urlId) {
+        long index = writeIndex.getAndIncrement();
+        if (!buffer.compareAndSet((int) (index & mask), 0, urlId)) dropped.increment();
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            System.err.println("[HOT-LINKS] Error al procesar clicks: " + e.getMessage());
+        }
+    }
+
+    // Una posición reservada cuyo id aún no se ha escrito detiene el vaciado: se retoma desde ella en
+    // la próxima pasada. Solo se salta si el escritor se quedó atrás una vuelta completa del anillo.
+    private void drain() {
+        long now = System.currentTimeMillis();
+        long end = writeIndex.get();
+        long i = Math.max(readIndex, end - buffer.length());
+        for (; i < end; i++) {
+            long urlId = buffer.getAndSet((int) (i & mask), 0);
+            if (urlId == 0) break;
+            for (Window window : windows.values()) window.bucket(now).offer(urlId);
+            drained.increment();
+        }
+        readIndex = i;
+    }
+
+    /** Nombres de las ventanas disponibles, de la más corta a la más larga. */
+    public List<String> windows() {
+        return new ArrayList<>(windows.keySet());
+    }
+
+    /**
+     * Hasta {@code limit} enlaces con más clicks en la ventana, de mayor a menor. Se calcula en el
+     * hilo de vaciado (después de procesar lo pendiente), así los resúmenes no necesitan bloqueos.
+     */
+    public List<HotLink> top(String window, int limit) {
+        Window selected = windows.get(window);
+        if (selected == null) {
+            throw new IllegalArgumentException("Ventana desconocida: " + window + " (válidas: " + String.join(", ", windows.keySet()) + ")");
+        }
+        try {
+            return executor.submit(() -> {
+                drain();
+                return selected.top(System.currentTimeMillis(), limit);
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrumpido esperando el ranking de enlaces", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windows", windows());
+        stats.put("countersPerBucket", capacity);
+        stats.put("bufferSize", buffer.length());
+        stats.put("recorded", writeIndex.get());
+        stats.put("drained", drained.sum());
+        stats.put("dropped", dropped.sum());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /** Anillo de buckets de tiempo; cada bucket se reinicia al reutilizarse para un período nuevo. */
+    private static final class Window {
+        final long bucketMillis;
+        final SpaceSaving[] buckets;
+        final long[] periods;
+
+        Window(int count, long bucketMillis, int capacity) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = new SpaceSaving[count];
+            this.periods = new long[count];
+            for (int i = 0; i < count; i++) buckets[i] = new SpaceSaving(capacity);
+            Arrays.fill(periods, -1);
+        }
+
+        SpaceSaving bucket(long now) {
+            long period = now / bucketMillis;
+            int slot = (int) (period % buckets.length);
+            if (periods[slot] != period) {
+                buckets[slot].clear();
+                periods[slot] = period;
+            }
+            return buckets[slot];
+        }
+
+        // Suma conteos y errores de los buckets vigentes; un id ausente de un bucket cuenta 0 allí
+        List<HotLink> top(long now, int limit) {
+            long current = now / bucketMillis;
+            Map<Long, long[]> totals = new HashMap<>();
+            for (int i = 0; i < buckets.length; i++) {
+                if (periods[i] <= current - buckets.length || periods[i] > current) continue;
+                buckets[i].forEach((key, count, error) -> {
+                    long[] total = totals.computeIfAbsent(key, k -> new long[2]);
+                    total[0] += count;
+                    total[1] += error;
+                });
+            }
+            List<HotLink> ranking = new ArrayList<>(totals.size());
+            totals.forEach((urlId, total) -> ranking.add(new HotLink(urlId, total[0], total[1])));
+            ranking.sort((a, b) -> Long.compare(b.getClicks(), a.getClicks()));
+            return ranking.size() > limit ? new ArrayList<>(ranking.subList(0, limit)) : ranking;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.PurgeJob;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Borrados masivos de enlaces (y, por cascada, sus accesos y rollups) en segundo plano.
+ *
+ * Cada tarea avanza por id en lotes de APP_PURGE_CHUNK: busca los ids que cumplen el filtro y
+ * los borra con {@link UrlRepository#deleteByIds}, con una pausa de APP_PURGE_PAUSE_MILLIS entre
+ * lotes. En H2 los accesos, rollups y visitantes del lote se borran antes en transacciones de a
+ * lo sumo unos miles de filas, así que ninguna transacción crece con los clicks de los enlaces.
+ * Las tareas corren de a una, en orden; se conservan las últimas APP_PURGE_HISTORY para
+ * consultar su avance.
+ */
+public class LinkPurger implements AutoCloseable {
+
+    private final UrlRepository urls;
+    private final ObjIntConsumer<Collection<String>> onDeleted;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final int history;
+    private final ExecutorService executor;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentSkipListMap<Long, PurgeJob> jobs = new ConcurrentSkipListMap<>();
+    private final LongAdder deletedTotal = new LongAdder();
+
+    /** @param onDeleted recibe los short codes de cada lote y cuántos enlaces existían */
+    public LinkPurger(UrlRepository urls, ObjIntConsumer<Collection<String>> onDeleted) {
+        this.urls = urls;
+        this.onDeleted = onDeleted;
+        this.chunkSize = Math.max(1, AppConfig.getInt("APP_PURGE_CHUNK", 500));
+        this.pauseMillis = Math.max(0, AppConfig.getLong("APP_PURGE_PAUSE_MILLIS", 20));
+        this.history = Math.max(1, AppConfig.getInt("APP_PURGE_HISTORY", 50));
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "link-purger");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Encola el borrado de los enlaces que cumplen el filtro.
+     * @param onComplete se ejecuta en el hilo de la tarea si termina sin cancelarse ni fallar (puede ser null)
+     */
+    public PurgeJob submit(UrlFilter filter, String description, Runnable onComplete) {
+        if (filter == null || filter.isEmpty()) throw new IllegalArgumentException("El filtro de borrado no puede estar vacío");
+        PurgeJob job = new PurgeJob(nextId.getAndIncrement(), description != null ? description : filter.toString());
+        jobs.put(job.getId(), job);
+        trimHistory();
+        executor.execute(() -> run(job, filter, onComplete));
+        return job;
+    }
+
+    private void run(PurgeJob job, UrlFilter filter, Runnable onComplete) {
+        if (job.isCancelRequested()) {
+            job.finish(PurgeJob.CANCELLED, null);
+            return;
+        }
+        job.start();
+        try {
+            long afterId = 0;
+            while (!job.isCancelRequested()) {
+                Map<Long, String> chunk = urls.findMatching(filter, afterId, chunkSize);
+                if (chunk.isEmpty()) break;
+                int deleted = urls.deleteByIds(chunk.keySet());
+                for (long id : chunk.keySet()) afterId = id;
+                job.progress(deleted, afterId);
+                deletedTotal.add(deleted);
+                onDeleted.accept(chunk.values(), deleted);
+                if (chunk.size() < chunkSize) break;
+                if (pauseMillis > 0) Thread.sleep(pauseMillis);
+            }
+            if (job.isCancelRequested()) {
+                job.finish(PurgeJob.CANCELLED, null);
+                return;
+            }
+            if (onComplete != null) onComplete.run();
+            job.finish(PurgeJob.DONE, null);
+            System.out.println("[PURGE] Tarea " + job.getId() + " (" + job.getDescription() + "): "
+                    + job.getDeleted() + " enlaces borrados en " + job.getChunks() + " lotes");
+        } catch (InterruptedException e) {
+            job.finish(PurgeJob.CANCELLED, "Interrumpida al cerrar");
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            job.finish(PurgeJob.FAILED, e.getMessage());
+            System.err.println("[PURGE] Error en la tarea " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Se descartan las tareas terminadas más viejas; las pendientes o en curso nunca
+    private void trimHistory() {
+        int excess = jobs.size() - history;
+        for (PurgeJob job : jobs.values()) {
+            if (excess <= 0) break;
+            if (job.isFinished() && jobs.remove(job.getId(), job)) excess--;
+        }
+    }
+
+    public PurgeJob get(long id) {
+        return jobs.get(id);
+    }
+
+    /** Tareas conocidas, de la más reciente a la más antigua. */
+    public List<PurgeJob> list() {
+        return new ArrayList<>(jobs.descendingMap().values());
+    }
+
+    /** false si la tarea no existe o ya terminó; si está en curso se detiene al final del lote actual. */
+    public boolean cancel(long id) {
+        PurgeJob job = jobs.get(id);
+        if (job == null || job.isFinished()) return false;
+        job.requestCancel();
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        int pending = 0;
+        int running = 0;
+        for (PurgeJob job : jobs.values()) {
+            if (PurgeJob.PENDING.equals(job.getStatus())) pending++;
+            else if (PurgeJob.RUNNING.equals(job.getStatus())) running++;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending);
+        stats.put("running", running);
+        stats.put("deleted", deletedTotal.sum());
+        stats.put("chunkSize", chunkSize);
+        return stats;
+    }
+
+    // Las tareas se cancelan: la que está en curso termina su lote y las pendientes ni empiezan
+    @Override
+    public void close() {
+        for (PurgeJob job : jobs.values()) job.requestCancel();
+        BackgroundTasks.stop(executor, "PURGE", 30);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BackgroundTasks;
+import edu.pucmm.eict.util.LinkSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instantáneas de los enlaces en data/snapshots para el arranque en caliente (ver WarmStartController).
+ *
+ * Se toma una cada APP_SNAPSHOT_MINUTES (0 = nunca) y otra al cerrar el servicio
+ * (APP_SNAPSHOT_ON_SHUTDOWN), recorriendo el repositorio sin bloquear escrituras; se conservan
+ * las APP_SNAPSHOT_KEEP más recientes. Solo con base en disco y backend persistente.
+ */
+public class LinkSnapshotter implements AutoCloseable {
+
+    /** Subdirectorio de data/ con las instantáneas. */
+    public static final String DIRECTORY = "snapshots";
+
+    private final UrlRepository urls;
+    private final Path directory;
+    private final int keep;
+    private final boolean onShutdown;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closing;
+    private volatile long lastSnapshotMillis;
+    private volatile long lastDurationMillis;
+    private volatile int lastLinks;
+    private volatile long lastBytes;
+
+    /** @param directory null si no corresponde tomar instantáneas */
+    public LinkSnapshotter(UrlRepository urls, Path directory) {
+        this.urls = urls;
+        this.directory = directory;
+        this.keep = Math.max(1, AppConfig.getInt("APP_SNAPSHOT_KEEP", 2));
+        this.onShutdown = directory != null && AppConfig.getBoolean("APP_SNAPSHOT_ON_SHUTDOWN", true);
+        long minutes = AppConfig.getLong("APP_SNAPSHOT_MINUTES", 30);
+        if (directory == null || minutes <= 0) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "link-snapshotter");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (!closing) runQuietly();
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    /** Escribe una instantánea ahora y poda las viejas; devuelve su archivo, o null si están deshabilitadas. */
+    public synchronized Path snapshotNow() throws IOException {
+        if (directory == null) return null;
+        long start = System.currentTimeMillis();
+        int[] links = {0};
+        Path file = LinkSnapshot.write(directory, start, consumer -> urls.forEachLink((shortUrl, resolved) -> {
+            consumer.accept(shortUrl, resolved);
+            links[0]++;
+        }));
+        LinkSnapshot.prune(directory, keep);
+        lastSnapshotMillis = start;
+        lastDurationMillis = System.currentTimeMillis() - start;
+        lastLinks = links[0];
+        lastBytes = file.toFile().length();
+        System.out.println("[SNAPSHOT] " + lastLinks + " enlaces en " + file.getFileName() + " (" + lastDurationMillis + " ms)");
+        return file;
+    }
+
+    private void runQuietly() {
+        try {
+            snapshotNow();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[SNAPSHOT] Error escribiendo la instantánea: " + e.getMessage());
+        }
+    }
+
+    /** null si las instantáneas no están habilitadas. */
+    public Map<String, Object> stats() {
+        if (directory == null) return null;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("periodic", scheduler != null);
+        stats.put("onShutdown", onShutdown);
+        stats.put("lastSnapshotMillis", lastSnapshotMillis);
+        stats.put("lastDurationMillis", lastDurationMillis);
+        stats.put("links", lastLinks);
+        stats.put("bytes", lastBytes);
+        return stats;
+    }
+
+    // Llamar antes de cerrar el repositorio: la instantánea final es la que usa el próximo arranque,
+    // así que primero se espera a que termine la programada que esté en curso
+    @Override
+    public void close() {
+        closing = true;
+        BackgroundTasks.stop(scheduler, "SNAPSHOT", 30);
+        if (onShutdown) runQuietly();
+    }
+}
@@ -0,0 +1,178 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.Base62;
+
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Short codes aleatorios tomados de un pool llenado en segundo plano.
+ *
+ * Un hilo genera candidatos, descarta los que marca el filtro de Bloom y verifica el resto
+ * contra el repositorio de urls con una sola consulta por lote; la petición solo saca un código del pool.
+ * La fracción de candidatos ocupados estima la densidad del espacio: si supera
+ * APP_SHORTCODE_MAX_DENSITY se pasa a códigos de un símbolo más.
+ */
+public class RandomPoolShortCodeStrategy implements ShortCodeStrategy {
+
+    private static final int VERIFY_BATCH = 200;
+
+    private final UrlRepository urls;
+    private final Predicate<String> mightExist;
+    private final SecureRandom random = new SecureRandom();
+    private final BlockingQueue<String> pool;
+    private final int poolSize;
+    private final double maxDensity;
+    private final Thread filler;
+    private final Object refillSignal = new Object();
+    private volatile int length;
+    private volatile boolean running = true;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder poolMisses = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private volatile double lastDensity;
+
+    public RandomPoolShortCodeStrategy(UrlRepository urls, Predicate<String> mightExist) {
+        this.urls = urls;
+        this.mightExist = mightExist;
+        this.length = Math.min(Base62.MAX_LENGTH, Math.max(1, AppConfig.getInt("APP_SHORTCODE_LENGTH", 6)));
+        this.poolSize = Math.max(VERIFY_BATCH, AppConfig.getInt("APP_SHORTCODE_POOL_SIZE", 10_000));
+        this.maxDensity = AppConfig.getDouble("APP_SHORTCODE_MAX_DENSITY", 0.25);
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        this.filler = new Thread(this::runFiller, "short-code-pool");
+        this.filler.setDaemon(true);
+        this.filler.start();
+    }
+
+    @Override
+    public String nextCode() {
+        String code = pool.poll();
+        if (pool.size() < poolSize / 2) {
+            synchronized (refillSignal) {
+                refillSignal.notify();
+            }
+        }
+        if (code != null) {
+            issued.increment();
+            return code;
+        }
+        // Pool vacío (arranque o ráfaga): candidato sin verificar; el UNIQUE del INSERT cubre el choque
+        poolMisses.increment();
+        String candidate;
+        do {
+            candidate = randomCode(length);
+        } while (mightExist.test(candidate));
+        return candidate;
+    }
+
+    @Override
+    public void reportCollision(String code) {
+        collisions.increment();
+    }
+
+    private void runFiller() {
+        while (running) {
+            try {
+                while (running && pool.remainingCapacity() >= VERIFY_BATCH) {
+                    fillBatch();
+                }
+                synchronized (refillSignal) {
+                    refillSignal.wait(1000);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[SHORTCODES] Error llenando el pool: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void fillBatch() {
+        int currentLength = length;
+        Set<String> candidates = new HashSet<>();
+        int drawn = 0;
+        int filtered = 0;
+        while (candidates.size() < VERIFY_BATCH) {
+            String candidate = randomCode(currentLength);
+            drawn++;
+            if (mightExist.test(candidate)) {
+                filtered++;
+                continue;
+            }
+            candidates.add(candidate);
+        }
+        Set<String> taken = findExisting(candidates);
+        generated.add(drawn);
+        rejected.add(filtered + taken.size());
+        for (String candidate : candidates) {
+            if (!taken.contains(candidate) && !pool.offer(candidate)) break;
+        }
+        // Un candidato al azar está ocupado con probabilidad ~ densidad del espacio (descontando falsos positivos del filtro)
+        double density = (double) (filtered + taken.size()) / drawn;
+        lastDensity = density;
+        if (density > maxDensity && currentLength < Base62.MAX_LENGTH) {
+            length = currentLength + 1;
+            System.out.println("[SHORTCODES] Densidad " + String.format("%.2f", density) + ": los códigos nuevos pasan a " + length + " símbolos");
+        }
+    }
+
+    private Set<String> findExisting(Set<String> candidates) {
+        return urls.findExistingShortCodes(candidates);
+    }
+
+    private String randomCode(int codeLength) {
+        StringBuilder sb = new StringBuilder(codeLength);
+        for (int i = 0; i < codeLength; i++) {
+            sb.append(Base62.ALPHABET.charAt(random.nextInt(Base62.ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("strategy", "pool");
+        stats.put("length", length);
+        stats.put("poolSize", pool.size());
+        stats.put("poolCapacity", poolSize);
+        stats.put("issued", issued.sum());
+        stats.put("poolMisses", poolMisses.sum());
+        stats.put("generated", generated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("estimatedDensity", lastDensity);
+        stats.put("maxDensity", maxDensity);
+        stats.put("collisions", collisions.sum());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (refillSignal) {
+            refillSignal.notifyAll();
+        }
+        try {
+            filler.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
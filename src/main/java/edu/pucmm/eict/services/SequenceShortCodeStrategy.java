@@ -0,0 +1,169 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.Base62;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Short codes a partir de un contador global codificado en base62.
+ *
+ * Cada nodo reserva bloques de APP_SHORTCODE_BLOCK_SIZE valores en short_code_sequences,
+ * así que varios procesos sobre la misma base nunca generan el mismo valor y solo se toca
+ * la base una vez por bloque. El valor se permuta dentro del espacio de su longitud
+ * (multiplicación por una constante coprima con 62^n) para que los códigos consecutivos
+ * no sean adivinables. La longitud crece sola cuando el contador agota 62^n.
+ */
+public class SequenceShortCodeStrategy implements ShortCodeStrategy {
+
+    private static final String SEQUENCE_NAME = "short_codes";
+    // Impar y no múltiplo de 31: coprima con 62^n, por lo que la permutación es biyectiva
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+
+    private final DataSource ds;
+    private final Predicate<String> mightExist;
+    private final int minLength;
+    private final int blockSize;
+    private long next;
+    private long blockEnd; // exclusivo
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder leases = new LongAdder();
+
+    /**
+     * @param mightExist descarta valores que podrían chocar con códigos antiguos (filtro de Bloom)
+     */
+    public SequenceShortCodeStrategy(DataSource ds, Predicate<String> mightExist) {
+        this.ds = ds;
+        this.mightExist = mightExist;
+        this.minLength = Math.min(Base62.MAX_LENGTH, Math.max(1, AppConfig.getInt("APP_SHORTCODE_LENGTH", 6)));
+        this.blockSize = Math.max(1, AppConfig.getInt("APP_SHORTCODE_BLOCK_SIZE", 1000));
+    }
+
+    @Override
+    public synchronized String nextCode() {
+        while (true) {
+            if (next >= blockEnd) leaseBlock();
+            String code = encode(next++);
+            // Códigos aleatorios de versiones anteriores (o personalizados) pueden ocupar el valor
+            if (mightExist.test(code)) {
+                skipped.increment();
+                continue;
+            }
+            issued.increment();
+            return code;
+        }
+    }
+
+    // Un solo bloqueo para todo el lote
+    @Override
+    public synchronized List<String> nextCodes(int count) {
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) codes.add(nextCode());
+        return codes;
+    }
+
+    @Override
+    public void reportCollision(String code) {
+        collisions.increment();
+    }
+
+    String encode(long value) {
+        int length = minLength;
+        long offset = 0;
+        long space = Base62.spaceSize(length);
+        // Los primeros 62^min valores usan la longitud mínima, los siguientes 62^(min+1) un símbolo más, etc.
+        while (value - offset >= space) {
+            offset += space;
+            length++;
+            space = Base62.spaceSize(length);
+        }
+        return Base62.encode(multiplyMod(value - offset, MULTIPLIER % space, space), length);
+    }
+
+    private void leaseBlock() {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                long start = reserve(c);
+                c.commit();
+                next = start;
+                blockEnd = start + blockSize;
+                leases.increment();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("No se pudo reservar un bloque de short codes", e);
+        }
+    }
+
+    private long reserve(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT next_value FROM short_code_sequences WHERE name = ? FOR UPDATE")) {
+            ps.setString(1, SEQUENCE_NAME);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    long start = rs.getLong(1);
+                    try (PreparedStatement up = c.prepareStatement("UPDATE short_code_sequences SET next_value = ? WHERE name = ?")) {
+                        up.setLong(1, start + blockSize);
+                        up.setString(2, SEQUENCE_NAME);
+                        up.executeUpdate();
+                    }
+                    return start;
+                }
+            }
+        }
+        try (PreparedStatement ins = c.prepareStatement("INSERT INTO short_code_sequences(name, next_value) VALUES(?, ?)")) {
+            ins.setString(1, SEQUENCE_NAME);
+            ins.setLong(2, blockSize);
+            ins.executeUpdate();
+            return 0;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // Otro nodo creó la fila al mismo tiempo: se vuelve a leer
+            return reserve(c);
+        }
+    }
+
+    // (a * b) mod m sin desbordar: m < 2^63
+    private static long multiplyMod(long a, long b, long m) {
+        long result = 0;
+        a %= m;
+        while (b > 0) {
+            if ((b & 1) == 1) result = (result + a) % m;
+            a = (a << 1) % m;
+            b >>= 1;
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("strategy", "sequence");
+        stats.put("minLength", minLength);
+        stats.put("blockSize", blockSize);
+        stats.put("nextValue", next);
+        stats.put("remainingInBlock", Math.max(0, blockEnd - next));
+        stats.put("leases", leases.sum());
+        stats.put("issued", issued.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("collisions", collisions.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,32 @@
+package edu.pucmm.eict.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Asignación de short codes para enlaces nuevos.
+ *
+ * El código devuelto no se verifica contra la tabla urls antes del INSERT: la restricción
+ * UNIQUE resuelve el caso raro de choque y UrlService pide otro código con reportCollision().
+ */
+public interface ShortCodeStrategy extends AutoCloseable {
+
+    String nextCode();
+
+    /** Varios códigos de una vez (creación masiva). */
+    default List<String> nextCodes(int count) {
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) codes.add(nextCode());
+        return codes;
+    }
+
+    /** El INSERT con este código chocó con uno existente. */
+    void reportCollision(String code);
+
+    Map<String, Object> stats();
+
+    @Override
+    default void close() {
+    }
+}
@@ -1,99 +1,359 @@
 package edu.pucmm.eict.services;
 
 import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ClickHistogram;
+import edu.pucmm.eict.modelos.HotLink;
+import edu.pucmm.eict.modelos.PurgeJob;
+import edu.pucmm.eict.modelos.ResolvedUrl;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.repositorios.AccessEventRepository;
+import edu.pucmm.eict.repositorios.Repositories;
+import edu.pucmm.eict.repositorios.UrlRepository;
+import edu.pucmm.eict.util.AppConfig;
+import edu.pucmm.eict.util.BloomFilter;
+import edu.pucmm.eict.util.ClickJournal;
 import edu.pucmm.eict.util.Database;
+import edu.pucmm.eict.util.PageParams;
+import edu.pucmm.eict.util.TinyLfuCache;
+import edu.pucmm.eict.util.UrlNormalizer;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
-public class UrlService {
-    private final DataSource ds;
+public class UrlService implements AutoCloseable {
+    private final DataSource ds; // usuarios y secuencias de short codes (siempre en H2)
+    private final UrlRepository urls;
+    private final AccessEventRepository accessEvents;
     private static final int ANONYMOUS_TTL_SECONDS = 3600; // 1 hora
+    // Caché short code -> destino delante de /go/{shortUrl}
+    private final TinyLfuCache<String, ResolvedUrl> resolveCache;
+    private final long resolveCacheTtlMillis;
+
+    // Filtro de Bloom con todos los short codes existentes: descarta códigos inexistentes sin consultar H2
+    private static final double SHORT_CODE_FILTER_FPP = 0.01;
+    private static final long SHORT_CODE_FILTER_SYNC_MILLIS = 1000;
+    private final Object shortCodeFilterLock = new Object();
+    private volatile BloomFilter shortCodeFilter;
+    private volatile long shortCodeFilterMaxId;
+    private volatile long shortCodeFilterLastSync;
+    private final LongAdder shortCodeFilterRejections = new LongAdder();
+    private final LongAdder shortCodeFilterStale = new LongAdder(); // códigos borrados que siguen marcados
+
+    // Registro asíncrono de accesos (fuera del hilo de la redirección)
+    private final ClickIngestor clickIngestor;
+    // Deltas de access_count acumulados en memoria y volcados periódicamente
+    private final AccessCounter accessCounter;
+    // Diario en disco de los accesos aún no confirmados (null si el backend no persiste)
+    private final ClickJournal clickJournal;
+    // Asignación de short codes (APP_SHORTCODE_STRATEGY: sequence | pool)
+    private final ShortCodeStrategy shortCodeStrategy;
+    // Eliminación de particiones de accesos fuera de la ventana retenida
+    private final AccessRetention accessRetention;
+    // Paso de particiones viejas al archivo comprimido (data/archive)
+    private final AccessArchiver accessArchiver;
+    // Borrado en segundo plano de los enlaces anónimos vencidos
+    private final ExpirationSweeper expirationSweeper;
+    // Instantáneas de los enlaces para el arranque en caliente (data/snapshots)
+    private final LinkSnapshotter linkSnapshotter;
+    // Borrados masivos por lotes en segundo plano
+    private final LinkPurger linkPurger;
+    // Ranking de enlaces más visitados por ventana (null con APP_HOT_LINKS=false)
+    private final HotLinks hotLinks;
+    // Clicks en vivo para quienes miran las estadísticas de un enlace (SSE)
+    private final ClickBroadcaster clickBroadcaster;
+    // Exportación del detalle de clicks en CSV/NDJSON
+    private final ClickExporter clickExporter;
+    // Reutilizar el enlace existente del usuario hacia el mismo destino (APP_URL_DEDUPE)
+    private final boolean dedupeByDefault = AppConfig.getBoolean("APP_URL_DEDUPE", false);
+    // Tope de buckets por consulta de histograma (el de minutos lee el detalle)
+    private final int histogramMaxBuckets = Math.max(1, AppConfig.getInt("APP_HISTOGRAM_MAX_BUCKETS", 10_000));
 
     public UrlService() {
+        this(Repositories.urls(), Repositories.accessEvents());
+    }
+
+    public UrlService(UrlRepository urls, AccessEventRepository accessEvents) {
         this.ds = Database.getDataSource();
+        this.urls = urls;
+        this.accessEvents = accessEvents;
+        this.clickJournal = openClickJournal(accessEvents);
+        this.accessCounter = new AccessCounter(accessEvents, clickJournal);
+        this.clickIngestor = new ClickIngestor(accessEvents, clickJournal);
+        this.accessRetention = new AccessRetention(accessEvents);
+        this.accessArchiver = new AccessArchiver(accessEvents);
+        this.resolveCache = new TinyLfuCache<>(AppConfig.getInt("APP_URL_CACHE_SIZE", 10_000));
+        this.resolveCacheTtlMillis = AppConfig.getLong("APP_URL_CACHE_TTL_SECONDS", 600) * 1000L;
+        rebuildShortCodeFilter();
+        this.shortCodeStrategy = createShortCodeStrategy();
+        this.expirationSweeper = new ExpirationSweeper(urls, this::unregisterShortCodes);
+        Path dataDirectory = Database.getDataDirectory();
+        this.linkSnapshotter = new LinkSnapshotter(urls, dataDirectory != null && accessEvents.isPersistent()
+                ? dataDirectory.resolve(LinkSnapshotter.DIRECTORY) : null);
+        this.linkPurger = new LinkPurger(urls, this::forgetShortCodes);
+        this.hotLinks = AppConfig.getBoolean("APP_HOT_LINKS", true) ? new HotLinks() : null;
+        this.clickBroadcaster = new ClickBroadcaster();
+        this.clickExporter = new ClickExporter(urls, accessEvents);
     }
 
-    private String generateShortUrl() {
-        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-        Random rand = new Random();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 6; i++) {
-            sb.append(chars.charAt(rand.nextInt(chars.length())));
+    private static ClickJournal openClickJournal(AccessEventRepository accessEvents) {
+        Path dataDirectory = Database.getDataDirectory();
+        if (dataDirectory == null || !accessEvents.isPersistent() || !AppConfig.getBoolean("APP_CLICK_JOURNAL", true)) return null;
+        try {
+            return new ClickJournal(dataDirectory.resolve("journal"),
+                    AccessCounter.JOURNAL_CONSUMER, ClickIngestor.JOURNAL_CONSUMER);
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir el diario de accesos", e);
         }
-        return sb.toString();
     }
 
-    private String generateUniqueShortCode(Connection c) throws SQLException {
-        for (int attempts = 0; attempts < 10; attempts++) {
-            String candidate = generateShortUrl();
-            try (PreparedStatement ps = c.prepareStatement("SELECT 1 FROM urls WHERE short_url = ?")) {
-                ps.setString(1, candidate);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) return candidate;
-                }
+    // Reconstruye el filtro desde el almacenamiento, dimensionado al doble de los códigos actuales
+    private void rebuildShortCodeFilter() {
+        synchronized (shortCodeFilterLock) {
+            long count = urls.count();
+            long minimum = AppConfig.getLong("APP_SHORTCODE_FILTER_MIN", 100_000);
+            BloomFilter filter = new BloomFilter(Math.max(minimum, count * 2), SHORT_CODE_FILTER_FPP);
+            long[] maxId = {0};
+            urls.forEachShortCode(0, (id, shortUrl) -> {
+                filter.put(shortUrl);
+                maxId[0] = Math.max(maxId[0], id);
+            });
+            shortCodeFilter = filter;
+            shortCodeFilterStale.reset();
+            shortCodeFilterMaxId = maxId[0];
+            shortCodeFilterLastSync = System.currentTimeMillis();
+        }
+    }
+
+    private void registerShortCode(String shortCode) {
+        synchronized (shortCodeFilterLock) {
+            BloomFilter filter = shortCodeFilter;
+            filter.put(shortCode);
+            if (filter.insertions() > filter.expectedInsertions()) {
+                // Lleno: la tasa de falsos positivos se degradaría, se reconstruye con más capacidad
+                rebuildShortCodeFilter();
             }
         }
-        throw new SQLException("No se pudo generar short_url único tras varios intentos");
+    }
+
+    // Un Bloom no permite borrar: se cuentan los códigos obsoletos y se reconstruye cuando pesan demasiado
+    private void unregisterShortCode() {
+        unregisterShortCodes(1);
+    }
+
+    private void unregisterShortCodes(int count) {
+        shortCodeFilterStale.add(count);
+        BloomFilter filter = shortCodeFilter;
+        if (shortCodeFilterStale.sum() > filter.insertions() / 4 + 1000) {
+            rebuildShortCodeFilter();
+        }
+    }
+
+    // Enlaces borrados en lote: fuera de la caché de resolución y contados como obsoletos en el filtro
+    private void forgetShortCodes(Collection<String> shortCodes, int deleted) {
+        for (String shortCode : shortCodes) resolveCache.invalidate(shortCode);
+        if (deleted > 0) unregisterShortCodes(deleted);
+    }
+
+    /**
+     * false solo si el código seguro no existe. Ante un rechazo se incorporan, a lo sumo una vez
+     * por segundo, las filas creadas por otras instancias (otro proceso con AUTO_SERVER, gRPC).
+     */
+    private boolean shortCodeMightExist(String shortCode) {
+        if (shortCodeFilter.mightContain(shortCode)) return true;
+        long now = System.currentTimeMillis();
+        if (now - shortCodeFilterLastSync >= SHORT_CODE_FILTER_SYNC_MILLIS) {
+            syncNewShortCodes(now);
+            if (shortCodeFilter.mightContain(shortCode)) return true;
+        }
+        shortCodeFilterRejections.increment();
+        return false;
+    }
+
+    private void syncNewShortCodes(long now) {
+        synchronized (shortCodeFilterLock) {
+            if (now - shortCodeFilterLastSync < SHORT_CODE_FILTER_SYNC_MILLIS) return;
+            shortCodeFilterLastSync = now;
+            urls.forEachShortCode(shortCodeFilterMaxId, (id, shortUrl) -> {
+                shortCodeFilter.put(shortUrl);
+                shortCodeFilterMaxId = id;
+            });
+        }
+    }
+
+    public Map<String, Object> getShortCodeFilterStats() {
+        Map<String, Object> stats = shortCodeFilter.stats();
+        stats.put("rejections", shortCodeFilterRejections.sum());
+        stats.put("staleCodes", shortCodeFilterStale.sum());
+        return stats;
+    }
+
+    private ShortCodeStrategy createShortCodeStrategy() {
+        // Se consulta el filtro vigente en cada llamada: puede reconstruirse
+        Predicate<String> mightExist = code -> shortCodeFilter.mightContain(code);
+        String name = AppConfig.getString("APP_SHORTCODE_STRATEGY", "sequence");
+        if ("pool".equalsIgnoreCase(name)) {
+            return new RandomPoolShortCodeStrategy(urls, mightExist);
+        }
+        if (!"sequence".equalsIgnoreCase(name)) {
+            System.err.println("[CONFIG] APP_SHORTCODE_STRATEGY desconocida: " + name + " (se usa sequence)");
+        }
+        return new SequenceShortCodeStrategy(ds, mightExist);
+    }
+
+    public Map<String, Object> getShortCodeStats() {
+        return shortCodeStrategy.stats();
     }
 
     // Guarda y devuelve Url con datos básicos; si user es anónimo, setea expires_at
     public Url saveUrl(String originalUrl, Usuario user) {
-        try (Connection c = ds.getConnection()) {
-            Timestamp now = new Timestamp(System.currentTimeMillis());
-            Timestamp expires = null;
-            if (user != null && "anonymous".equals(user.getRole())) {
-                expires = new Timestamp(System.currentTimeMillis() + ANONYMOUS_TTL_SECONDS * 1000L);
-            }
+        return saveUrl(originalUrl, user, dedupeByDefault);
+    }
 
-            Long userId = null;
-            if (user != null && user.getId() != null) {
-                userId = user.getId();
-            } else if (user != null && user.getUsername() != null && !user.getUsername().startsWith("anon-")) {
-                // intentar resolver id por username
-                try (PreparedStatement us = c.prepareStatement("SELECT id FROM usuarios WHERE username = ?")) {
-                    us.setString(1, user.getUsername());
-                    try (ResultSet rs = us.executeQuery()) {
-                        if (rs.next()) userId = rs.getLong(1);
-                    }
-                }
+    /**
+     * Igual que saveUrl, pero con dedupe=true devuelve el enlace vigente que el mismo usuario
+     * ya tiene hacia la misma URL normalizada en vez de crear otra fila.
+     */
+    public Url saveUrl(String originalUrl, Usuario user, boolean dedupe) {
+        long urlHash = UrlNormalizer.hash(originalUrl);
+        Date now = new Date();
+        Date expires = expirationFor(user, now);
+        Long userId = resolveUserId(user);
+        if (dedupe && userId != null) {
+            Url existing = findLiveDuplicate(userId, urlHash, originalUrl, now);
+            if (existing != null) {
+                existing.setUser(user);
+                return existing;
             }
+        }
+        for (int attempt = 0; attempt < 5; attempt++) {
+            String shortCode = shortCodeStrategy.nextCode();
+            Url url = new Url(originalUrl, shortCode);
+            url.setUser(user);
+            url.setCreatedAt(now);
+            url.setExpiresAt(expires);
+            if (urls.insert(url, userId, urlHash)) {
+                registerShortCode(shortCode);
+                expirationSweeper.schedule(url.getId(), expires);
+                return url;
+            }
+            // colisión por unique: reintentar con otro código
+            shortCodeStrategy.reportCollision(shortCode);
+        }
+        throw new RuntimeException("No se pudo insertar URL por colisiones");
+    }
+
+    public List<Url> saveUrls(List<String> originalUrls, Usuario user) {
+        return saveUrls(originalUrls, user, dedupeByDefault);
+    }
 
-            String sql = "INSERT INTO urls(original_url, short_url, access_count, user_id, created_at, expires_at) VALUES(?,?,?,?,?,?)";
-
-            for (int attempt = 0; attempt < 5; attempt++) {
-                String shortCode = generateUniqueShortCode(c);
-                try (PreparedStatement ps = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                    ps.setString(1, originalUrl);
-                    ps.setString(2, shortCode);
-                    ps.setInt(3, 0);
-                    if (userId == null) ps.setNull(4, Types.BIGINT); else ps.setLong(4, userId);
-                    ps.setTimestamp(5, now);
-                    if (expires == null) ps.setNull(6, Types.TIMESTAMP); else ps.setTimestamp(6, expires);
-                    ps.executeUpdate();
-                    try (ResultSet keys = ps.getGeneratedKeys()) {
-                        if (keys.next()) {
-                            long id = keys.getLong(1);
-                            Url url = new Url(originalUrl, shortCode);
-                            url.setId(id);
-                            url.setUser(user);
-                            url.setCreatedAt(new java.util.Date(now.getTime()));
-                            url.setExpiresAt(expires != null ? new java.util.Date(expires.getTime()) : null);
-                            return url;
-                        }
-                    }
-                } catch (SQLIntegrityConstraintViolationException dup) {
-                    // colisión por unique: reintentar
+    /**
+     * Crea varias URLs en una sola escritura (un batch JDBC en H2) y códigos asignados en bloque.
+     * Con dedupe=true, igual que saveUrl: se reutiliza el enlace vigente del usuario hacia el mismo
+     * destino, también entre elementos repetidos del mismo lote.
+     * El resultado conserva el orden de entrada; un elemento que no se pudo crear queda en null.
+     */
+    public List<Url> saveUrls(List<String> originalUrls, Usuario user, boolean dedupe) {
+        List<Url> result = new ArrayList<>(originalUrls.size());
+        if (originalUrls.isEmpty()) return result;
+        Date now = new Date();
+        Date expires = expirationFor(user, now);
+        Long userId = resolveUserId(user);
+        boolean dedupeItems = dedupe && userId != null;
+        // Destino normalizado -> posición del primer elemento nuevo que lo crea
+        Map<String, Integer> firstNew = new HashMap<>();
+        List<Url> created = new ArrayList<>(originalUrls.size());
+        List<Long> createdHashes = new ArrayList<>(originalUrls.size());
+        for (String originalUrl : originalUrls) {
+            long urlHash = UrlNormalizer.hash(originalUrl);
+            if (dedupeItems) {
+                String normalized = UrlNormalizer.normalize(originalUrl);
+                Integer first = firstNew.get(normalized);
+                Url existing = first != null ? result.get(first) : findLiveDuplicate(userId, urlHash, originalUrl, now);
+                if (existing != null) {
+                    existing.setUser(user);
+                    result.add(existing);
                     continue;
                 }
+                firstNew.put(normalized, result.size());
+            }
+            Url url = new Url(originalUrl, null);
+            url.setUser(user);
+            url.setCreatedAt(now);
+            url.setExpiresAt(expires);
+            result.add(url);
+            created.add(url);
+            createdHashes.add(urlHash);
+        }
+        if (created.isEmpty()) return result;
+        List<String> codes = shortCodeStrategy.nextCodes(created.size());
+        long[] hashes = new long[created.size()];
+        for (int i = 0; i < created.size(); i++) {
+            created.get(i).setShortUrl(codes.get(i));
+            hashes[i] = createdHashes.get(i);
+        }
+        if (urls.insertAll(created, userId, hashes)) {
+            for (Url url : created) {
+                registerShortCode(url.getShortUrl());
+                expirationSweeper.schedule(url.getId(), expires);
+            }
+            return result;
+        }
+        // Algún elemento falló (p.ej. colisión de código): se reintenta uno por uno para aislarlo,
+        // con la misma decisión de dedupe que el lote
+        result.clear();
+        for (String originalUrl : originalUrls) {
+            try {
+                result.add(saveUrl(originalUrl, user, dedupe));
+            } catch (RuntimeException e) {
+                result.add(null);
+            }
+        }
+        return result;
+    }
+
+    private static Date expirationFor(Usuario user, Date now) {
+        if (user != null && "anonymous".equals(user.getRole())) {
+            return new Date(now.getTime() + ANONYMOUS_TTL_SECONDS * 1000L);
+        }
+        return null;
+    }
+
+    // Una sola búsqueda por el índice (user_id, original_url_hash); se compara la URL por si el hash choca
+    private Url findLiveDuplicate(long userId, long urlHash, String originalUrl, Date now) {
+        String normalized = UrlNormalizer.normalize(originalUrl);
+        for (Url candidate : urls.findLiveByUserAndHash(userId, urlHash, now)) {
+            if (normalized.equals(UrlNormalizer.normalize(candidate.getOriginalUrl()))) return candidate;
+        }
+        return null;
+    }
+
+    // id del dueño: el que trae el usuario o, si no, el que corresponde a su username
+    private Long resolveUserId(Usuario user) {
+        if (user == null) return null;
+        if (user.getId() != null) return user.getId();
+        if (user.getUsername() == null || user.getUsername().startsWith("anon-")) return null;
+        try (Connection c = ds.getConnection();
+             PreparedStatement us = c.prepareStatement("SELECT id FROM usuarios WHERE username = ?")) {
+            us.setString(1, user.getUsername());
+            try (ResultSet rs = us.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
             }
-            throw new SQLException("No se pudo insertar URL por colisiones");
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -101,189 +361,415 @@ public class UrlService {
 
     public String getOriginalUrl(String shortUrl) {
         // Devuelve original y actualiza métricas básicas (access_count y accessTimes)
-        try (Connection c = ds.getConnection()) {
-            // Chequear expiración
-            String q = "SELECT id, original_url, expires_at FROM urls WHERE short_url = ?";
-            try (PreparedStatement ps = c.prepareStatement(q)) {
-                ps.setString(1, shortUrl);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        long id = rs.getLong("id");
-                        Timestamp exp = rs.getTimestamp("expires_at");
-                        if (exp != null && exp.before(new Timestamp(System.currentTimeMillis()))) {
-                            // expirado: eliminar registro
-                            deleteById(c, id);
-                            return null;
-                        }
-                        String original = rs.getString("original_url");
-                        // incrementar access_count
-                        try (PreparedStatement up = c.prepareStatement("UPDATE urls SET access_count = access_count + 1 WHERE id = ?")) {
-                            up.setLong(1, id);
-                            up.executeUpdate();
-                        }
-                        // registrar marca de tiempo simple en access_details como evento sin otros datos
-                        try (PreparedStatement ins = c.prepareStatement("INSERT INTO access_details(url_id, timestamp) VALUES(?,?)")) {
-                            ins.setLong(1, id);
-                            ins.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-                            ins.executeUpdate();
-                        }
-                        return original;
-                    }
-                }
-            }
+        ResolvedUrl resolved = urls.resolve(shortUrl);
+        if (resolved == null) return null;
+        // Chequear expiración
+        if (resolved.getExpiresAt() != null && resolved.getExpiresAt().before(new Date())) {
+            // expirado: eliminar registro
+            urls.deleteById(resolved.getId());
+            resolveCache.invalidate(shortUrl);
+            unregisterShortCode();
             return null;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
+        // registrar marca de tiempo simple como evento sin otros datos (incrementa access_count)
+        recordAccess(resolved.getId(), new AccessDetail(new Date(), null, null, null, null));
+        return resolved.getOriginalUrl();
     }
 
-    public Url getUrl(String shortUrl) {
-        try (Connection c = ds.getConnection()) {
-            String q = "SELECT u.id, u.original_url, u.short_url, u.access_count, u.created_at, u.expires_at, u.user_id, uu.username, uu.password, uu.role " +
-                    "FROM urls u LEFT JOIN usuarios uu ON u.user_id = uu.id WHERE u.short_url = ?";
-            try (PreparedStatement ps = c.prepareStatement(q)) {
-                ps.setString(1, shortUrl);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        Url url = new Url(rs.getString("original_url"), rs.getString("short_url"));
-                        url.setId(rs.getLong("id"));
-                        url.setAccessCount(rs.getInt("access_count"));
-                        Timestamp cat = rs.getTimestamp("created_at");
-                        if (cat != null) url.setCreatedAt(new java.util.Date(cat.getTime()));
-                        Timestamp eat = rs.getTimestamp("expires_at");
-                        if (eat != null) url.setExpiresAt(new java.util.Date(eat.getTime()));
-                        Long userId = (Long) rs.getObject("user_id");
-                        if (userId != null) {
-                            Usuario u = new Usuario(rs.getString("username"), rs.getString("password"), rs.getString("role"));
-                            u.setId(userId);
-                            url.setUser(u);
-                        }
-                        // cargar access details
-                        loadAccessData(c, url);
-                        return url;
-                    }
-                }
-            }
+    // Resolución ligera para redirecciones: no une usuarios ni carga access_details
+    public ResolvedUrl resolveUrl(String shortUrl) {
+        ResolvedUrl cached = resolveCache.get(shortUrl);
+        if (cached != null) return cached;
+        if (!shortCodeMightExist(shortUrl)) return null;
+        long version = resolveCache.version();
+        ResolvedUrl resolved = urls.resolve(shortUrl);
+        // Vencido pero aún no barrido: no redirige (el borrado queda para ExpirationSweeper)
+        if (resolved != null && resolved.getExpiresAt() != null && resolved.getExpiresAt().getTime() <= System.currentTimeMillis()) {
             return null;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
+        if (resolved != null) {
+            // Nunca se sirve desde caché más allá de expires_at (enlaces anónimos)
+            long deadline = System.currentTimeMillis() + resolveCacheTtlMillis;
+            if (resolved.getExpiresAt() != null) {
+                deadline = Math.min(deadline, resolved.getExpiresAt().getTime());
+            }
+            resolveCache.put(shortUrl, resolved, deadline, version);
+        }
+        return resolved;
+    }
+
+    // Métricas de la caché de resolución (hits/misses) para dimensionarla
+    public Map<String, Object> getResolveCacheStats() {
+        return resolveCache.stats();
+    }
+
+    public Url getUrl(String shortUrl) {
+        return getUrl(shortUrl, null, null);
+    }
+
+    /** Enlace con los accesos de [from, to) (null = sin límite): solo se leen las particiones de ese rango. */
+    public Url getUrl(String shortUrl, Date from, Date to) {
+        Url url = urls.findByShortUrl(shortUrl);
+        if (url == null) return null;
+        List<Url> single = new ArrayList<>(1);
+        single.add(url);
+        completeUrls(single, from, to);
+        return url;
+    }
+
+    /** Enlace con su conteo de accesos y dueño, sin leer access_details. */
+    public Url getUrlSummary(String shortUrl) {
+        Url url = urls.findByShortUrl(shortUrl);
+        if (url == null) return null;
+        url.setAccessCount(url.getAccessCount() + (int) accessCounter.pending(url.getId()));
+        List<Url> single = new ArrayList<>(1);
+        single.add(url);
+        loadOwners(single);
+        return url;
     }
 
     public Collection<Url> getAllUrls() {
-        List<Url> list = new ArrayList<>();
+        return getAllUrls(null, null);
+    }
+
+    public Collection<Url> getAllUrls(Date from, Date to) {
+        List<Url> list = urls.findAll();
+        completeUrls(list, from, to);
+        return list;
+    }
+
+    /**
+     * Página de enlaces, del más reciente al más antiguo, filtrada por dueño en la consulta.
+     * @param owner dueño de los enlaces, o null para todos (admin); un usuario sin fila en la base no tiene enlaces
+     * @param cursor valor de {@link UrlPage#getNextCursor()} de la página anterior, o null
+     * @param withAccessDetails si se cargan los accesos de [from, to); sin ellos no se leen particiones
+     */
+    public UrlPage listUrls(Usuario owner, String cursor, int limit, boolean withAccessDetails, Date from, Date to) {
+        Long beforeId = PageParams.cursor(cursor);
+        Long userId = null;
+        if (owner != null) {
+            userId = resolveUserId(owner);
+            if (userId == null) return new UrlPage(new ArrayList<>(), null);
+        }
+        // Se pide una fila de más para saber si hay otra página
+        List<Url> list = urls.findPage(userId, beforeId, limit + 1);
+        String nextCursor = null;
+        if (list.size() > limit) {
+            list = new ArrayList<>(list.subList(0, limit));
+            nextCursor = PageParams.cursorOf(list.get(limit - 1));
+        }
+        if (withAccessDetails) {
+            completeUrls(list, from, to);
+        } else {
+            for (Url url : list) url.setAccessCount(url.getAccessCount() + (int) accessCounter.pending(url.getId()));
+            loadOwners(list);
+        }
+        return new UrlPage(list, nextCursor);
+    }
+
+    // Suma los accesos aún en memoria, carga los detalles y completa los dueños
+    private void completeUrls(List<Url> list, Date from, Date to) {
+        // Sin rango explícito se parte de la ventana retenida: las particiones anteriores ya no existen
+        Date lower = from != null ? from : accessRetention.windowStart();
+        for (Url url : list) {
+            url.setAccessCount(url.getAccessCount() + (int) accessCounter.pending(url.getId()));
+            loadAccessData(url, lower, to);
+        }
+        loadOwners(list);
+    }
+
+    private void loadAccessData(Url url, Date from, Date to) {
+        for (AccessDetail d : accessEvents.findByUrl(url.getId(), from, to)) {
+            url.getAccessDetails().add(d);
+            url.getAccessTimes().add(new Date(d.getTimestamp().getTime()));
+        }
+    }
+
+    // Los backends que no son H2 solo guardan el id del dueño; el resto se lee de usuarios
+    private void loadOwners(List<Url> list) {
+        Map<Long, Usuario> owners = new HashMap<>();
+        for (Url url : list) {
+            if (url.getUser() != null && url.getUser().getUsername() == null) owners.put(url.getUser().getId(), null);
+        }
+        if (owners.isEmpty()) return;
+        StringBuilder sql = new StringBuilder("SELECT id, username, password, role FROM usuarios WHERE id IN (");
+        int i = 0;
+        for (Long id : owners.keySet()) sql.append(i++ == 0 ? "?" : ",?");
+        sql.append(')');
         try (Connection c = ds.getConnection();
-             PreparedStatement ps = c.prepareStatement("SELECT u.id, u.original_url, u.short_url, u.access_count, u.created_at, u.expires_at, u.user_id, uu.username, uu.password, uu.role FROM urls u LEFT JOIN usuarios uu ON u.user_id = uu.id ORDER BY u.id DESC");
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                Url url = new Url(rs.getString("original_url"), rs.getString("short_url"));
-                url.setId(rs.getLong("id"));
-                url.setAccessCount(rs.getInt("access_count"));
-                Timestamp cat = rs.getTimestamp("created_at");
-                if (cat != null) url.setCreatedAt(new java.util.Date(cat.getTime()));
-                Timestamp eat = rs.getTimestamp("expires_at");
-                if (eat != null) url.setExpiresAt(new java.util.Date(eat.getTime()));
-                Long userId = (Long) rs.getObject("user_id");
-                if (userId != null) {
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            i = 1;
+            for (Long id : owners.keySet()) ps.setLong(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
                     Usuario u = new Usuario(rs.getString("username"), rs.getString("password"), rs.getString("role"));
-                    u.setId(userId);
-                    url.setUser(u);
+                    u.setId(rs.getLong("id"));
+                    owners.put(u.getId(), u);
                 }
-                loadAccessData(c, url);
-                list.add(url);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return list;
+        for (Url url : list) {
+            // Usuario borrado: igual que ON DELETE SET NULL en H2
+            if (url.getUser() != null && url.getUser().getUsername() == null) url.setUser(owners.get(url.getUser().getId()));
+        }
     }
 
-    private void loadAccessData(Connection c, Url url) throws SQLException {
-        String q = "SELECT timestamp, browser, ip, client_domain, platform FROM access_details WHERE url_id = ? ORDER BY timestamp";
-        try (PreparedStatement ps = c.prepareStatement(q)) {
-            ps.setLong(1, url.getId());
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    Timestamp ts = rs.getTimestamp("timestamp");
-                    String browser = rs.getString("browser");
-                    String ip = rs.getString("ip");
-                    String client = rs.getString("client_domain");
-                    String platform = rs.getString("platform");
-                    AccessDetail d = new AccessDetail(new java.util.Date(ts.getTime()), browser, ip, client, platform);
-                    url.getAccessDetails().add(d);
-                    url.getAccessTimes().add(new java.util.Date(ts.getTime()));
-                }
-            }
+    /** Estadísticas desde los rollups por hora: el costo depende de los buckets, no de los clicks. */
+    public AccessStats getAccessStats(Url url) {
+        return accessEvents.loadAccessStats(url.getId());
+    }
+
+    public AccessStats getAccessStats(Url url, Date from, Date to) {
+        List<Url> single = new ArrayList<>(1);
+        single.add(url);
+        return getAccessStats(single, from, to).get(url.getId());
+    }
+
+    /** Estadísticas de [from, to) (null = sin límite) para varios enlaces en una sola consulta. */
+    public Map<Long, AccessStats> getAccessStats(Collection<Url> list, Date from, Date to) {
+        List<Long> ids = new ArrayList<>(list.size());
+        for (Url url : list) ids.add(url.getId());
+        Map<Long, AccessStats> stats = accessEvents.loadAccessStats(ids, from, to);
+        for (Long id : ids) stats.putIfAbsent(id, new AccessStats());
+        return stats;
+    }
+
+    /**
+     * Clicks del enlace por bucket (minute, hour, day o week) en [from, to); sin to se usa ahora y
+     * sin from, la cantidad de buckets por defecto hacia atrás. Hora, día y semana salen de los
+     * rollups por hora en una lectura por índice; minuto recorre el detalle en streaming.
+     * @throws IllegalArgumentException si el bucket no existe, el rango está vacío o pasa de APP_HISTOGRAM_MAX_BUCKETS buckets
+     */
+    public ClickHistogram getHistogram(Url url, String bucketName, Date from, Date to, boolean breakdown) {
+        ClickHistogram.Bucket bucket = ClickHistogram.Bucket.parse(bucketName);
+        Date end = to != null ? to : new Date();
+        Date start = from != null ? from : new Date(end.getTime() - bucket.getDefaultCount() * bucket.getMillis());
+        if (!start.before(end)) throw new IllegalArgumentException("Rango vacío: from debe ser anterior a to");
+        long count = ClickHistogram.bucketCount(bucket, start, end);
+        if (count > histogramMaxBuckets) {
+            throw new IllegalArgumentException("El rango pide " + count + " buckets; el máximo es " + histogramMaxBuckets
+                    + " (usa un bucket más grande o un rango más corto)");
         }
+        ClickHistogram histogram = new ClickHistogram(bucket, start, end, breakdown);
+        if (bucket.fromRollups()) {
+            accessEvents.scanRollups(url.getId(), histogram.getFrom(), histogram.getTo(), histogram::add);
+        } else {
+            accessEvents.scanByUrl(url.getId(), histogram.getFrom(), histogram.getTo(), histogram::add);
+        }
+        return histogram;
     }
 
     public void recordAccess(Url url, AccessDetail detail) {
-        try (Connection c = ds.getConnection()) {
-            try (PreparedStatement up = c.prepareStatement("UPDATE urls SET access_count = access_count + 1 WHERE id = ?")) {
-                up.setLong(1, url.getId());
-                up.executeUpdate();
-            }
-            String ins = "INSERT INTO access_details(url_id, timestamp, browser, ip, client_domain, platform) VALUES(?,?,?,?,?,?)";
-            try (PreparedStatement ps = c.prepareStatement(ins)) {
-                ps.setLong(1, url.getId());
-                ps.setTimestamp(2, new Timestamp(detail.getTimestamp().getTime()));
-                ps.setString(3, detail.getBrowser());
-                ps.setString(4, detail.getIp());
-                ps.setString(5, detail.getClientDomain());
-                ps.setString(6, detail.getPlatform());
-                ps.executeUpdate();
+        recordAccess(url.getId(), detail);
+    }
+
+    // Solo cuenta en memoria y encola el evento; ClickIngestor persiste access_details en lote.
+    // Con diario, el evento se escribe primero en disco y el escritor lo lee de ahí: nada en este
+    // camino espera a la base de datos.
+    public void recordAccess(long urlId, AccessDetail detail) {
+        if (hotLinks != null) hotLinks.record(urlId);
+        ClickEvent event = new ClickEvent(urlId, detail);
+        clickBroadcaster.publish(event);
+        boolean journaled = false;
+        if (clickJournal != null) {
+            synchronized (clickJournal.publishLock()) {
+                try {
+                    clickJournal.append(event);
+                    accessCounter.increment(urlId);
+                    journaled = true;
+                } catch (IOException e) {
+                    System.err.println("[JOURNAL] No se pudo escribir en el diario: " + e.getMessage());
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
+        if (!journaled) accessCounter.increment(urlId);
+        clickIngestor.submit(event);
+    }
+
+    /**
+     * Espera a que los accesos encolados y los contadores pendientes queden persistidos.
+     * @return true si se completó antes del tiempo límite
+     */
+    public boolean flushPendingClicks(long timeoutMillis) {
+        boolean drained = clickIngestor.awaitFlushed(timeoutMillis);
+        accessCounter.flush();
+        return drained;
+    }
+
+    public Map<String, Object> getClickIngestionStats() {
+        return clickIngestor.stats();
+    }
+
+    public Map<String, Object> getAccessCounterStats() {
+        return accessCounter.stats();
+    }
+
+    public Map<String, Object> getAccessRetentionStats() {
+        return accessRetention.stats();
+    }
+
+    public Map<String, Object> getClickArchiveStats() {
+        return accessArchiver.stats();
+    }
+
+    public Map<String, Object> getExpirationStats() {
+        return expirationSweeper.stats();
+    }
+
+    public Map<String, Object> getLinkSnapshotStats() {
+        return linkSnapshotter.stats();
+    }
+
+    public Map<String, Object> getClickJournalStats() {
+        return clickJournal != null ? clickJournal.stats() : null;
     }
 
     public boolean deleteUrl(String shortUrl) {
-        try (Connection c = ds.getConnection()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT id FROM urls WHERE short_url = ?")) {
-                ps.setString(1, shortUrl);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        long id = rs.getLong(1);
-                        deleteById(c, id);
-                        return true;
-                    }
-                }
+        ResolvedUrl resolved = urls.resolve(shortUrl);
+        if (resolved == null) return false;
+        urls.deleteById(resolved.getId());
+        resolveCache.invalidate(shortUrl);
+        unregisterShortCode();
+        return true;
+    }
+
+    /**
+     * Encola el borrado de los enlaces que cumplen el filtro, con sus accesos, por lotes en segundo plano.
+     * @param onComplete se ejecuta al terminar sin cancelarse ni fallar (puede ser null)
+     * @throws IllegalArgumentException si el filtro está vacío
+     */
+    public PurgeJob purgeLinks(UrlFilter filter, String description, Runnable onComplete) {
+        return linkPurger.submit(filter, description, onComplete);
+    }
+
+    /** Encola el borrado de todos los enlaces del usuario; null si el usuario no existe en la base. */
+    public PurgeJob purgeUserLinks(Usuario owner, Runnable onComplete) {
+        Long userId = resolveUserId(owner);
+        if (userId == null) return null;
+        UrlFilter filter = new UrlFilter();
+        filter.setUserId(userId);
+        return linkPurger.submit(filter, "enlaces de " + owner.getUsername(), onComplete);
+    }
+
+    public PurgeJob getPurgeJob(long id) {
+        return linkPurger.get(id);
+    }
+
+    public List<PurgeJob> getPurgeJobs() {
+        return linkPurger.list();
+    }
+
+    public boolean cancelPurge(long id) {
+        return linkPurger.cancel(id);
+    }
+
+    public Map<String, Object> getLinkPurgeStats() {
+        return linkPurger.stats();
+    }
+
+    /** Ventanas del ranking de enlaces más visitados (vacío si está desactivado). */
+    public List<String> getHotLinkWindows() {
+        return hotLinks == null ? new ArrayList<>() : hotLinks.windows();
+    }
+
+    /**
+     * Enlaces más visitados de la ventana (1m, 1h o 24h) con su short code y destino;
+     * los que se borraron o vencieron desde entonces se omiten.
+     */
+    public List<HotLink> getHotLinks(String window, int limit) {
+        List<HotLink> result = new ArrayList<>();
+        if (hotLinks == null) return result;
+        // Los borrados siguen contando en la ventana: si dejan huecos se pide un ranking más largo
+        for (int want = limit; ; want *= 2) {
+            result.clear();
+            List<HotLink> top = hotLinks.top(window, want);
+            List<Long> ids = new ArrayList<>(top.size());
+            for (HotLink link : top) ids.add(link.getUrlId());
+            Map<Long, String> codes = urls.findShortCodes(ids);
+            for (HotLink link : top) {
+                String shortUrl = codes.get(link.getUrlId());
+                ResolvedUrl resolved = shortUrl == null ? null : resolveUrl(shortUrl);
+                if (resolved == null) continue;
+                link.setShortUrl(shortUrl);
+                link.setOriginalUrl(resolved.getOriginalUrl());
+                result.add(link);
+                if (result.size() == limit) return result;
             }
-            return false;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            if (top.size() < want) return result;
         }
     }
 
-    private void deleteById(Connection c, long id) throws SQLException {
-        try (PreparedStatement ps1 = c.prepareStatement("DELETE FROM access_details WHERE url_id = ?")) {
-            ps1.setLong(1, id);
-            ps1.executeUpdate();
-        }
-        try (PreparedStatement ps = c.prepareStatement("DELETE FROM urls WHERE id = ?")) {
-            ps.setLong(1, id);
-            ps.executeUpdate();
-        }
+    public Map<String, Object> getHotLinkStats() {
+        return hotLinks == null ? null : hotLinks.stats();
+    }
+
+    /** false si ya se alcanzó el máximo de clientes mirando clicks en vivo. */
+    public boolean canWatchClicks() {
+        return clickBroadcaster.hasCapacity();
+    }
+
+    /**
+     * Suscribe al sink a los clicks del enlace desde ahora (no repite los anteriores).
+     * @return null si se alcanzó APP_STATS_STREAM_MAX_SUBSCRIBERS
+     */
+    public ClickBroadcaster.Subscription watchClicks(long urlId, ClickBroadcaster.Sink sink) {
+        return clickBroadcaster.subscribe(urlId, sink);
+    }
+
+    public Map<String, Object> getStatsStreamStats() {
+        return clickBroadcaster.stats();
+    }
+
+    /**
+     * Escribe los accesos del enlace en [from, to) (null = sin límite) en el formato pedido, en orden de fecha.
+     * @param resume posición de la última fila recibida ({@link ClickExporter.Cursor#parse}), o null para empezar desde el principio
+     * @throws IllegalArgumentException si el cursor es de otro enlace (antes de escribir nada)
+     * @return filas escritas
+     */
+    public long exportClicks(Url url, Date from, Date to, ClickExporter.Cursor resume, ClickExporter.Format format, OutputStream out) throws IOException {
+        return clickExporter.exportLink(url.getId(), url.getShortUrl(), from, to, resume, format, out);
+    }
+
+    /** Como la anterior, para los enlaces que cumplen el filtro (vacío = todos), uno tras otro por id. */
+    public long exportClicks(UrlFilter links, Date from, Date to, ClickExporter.Cursor resume, ClickExporter.Format format, OutputStream out) throws IOException {
+        return clickExporter.exportLinks(links, from, to, resume, format, out);
+    }
+
+    public Map<String, Object> getClickExportStats() {
+        return clickExporter.stats();
     }
 
     public boolean updateShortUrl(String originalShort, String newShort) {
-        try (Connection c = ds.getConnection()) {
-            // verificar colisión
-            try (PreparedStatement chk = c.prepareStatement("SELECT 1 FROM urls WHERE short_url = ?")) {
-                chk.setString(1, newShort);
-                try (ResultSet rs = chk.executeQuery()) {
-                    if (rs.next()) return false; // ya existe
-                }
-            }
-            try (PreparedStatement ps = c.prepareStatement("UPDATE urls SET short_url = ? WHERE short_url = ?")) {
-                ps.setString(1, newShort);
-                ps.setString(2, originalShort);
-                return ps.executeUpdate() > 0;
-            }
-        } catch (SQLException e) {
+        boolean updated;
+        try {
+            updated = urls.updateShortUrl(originalShort, newShort);
+        } catch (RuntimeException e) {
             return false;
         }
+        if (updated) {
+            registerShortCode(newShort);
+            unregisterShortCode();
+            resolveCache.invalidate(originalShort);
+            resolveCache.invalidate(newShort);
+        }
+        return updated;
     }
 
+    // Persiste los accesos pendientes y detiene los hilos de fondo
+    @Override
+    public void close() {
+        clickBroadcaster.close();
+        if (hotLinks != null) hotLinks.close();
+        linkPurger.close();
+        accessRetention.close();
+        accessArchiver.close();
+        expirationSweeper.close();
+        linkSnapshotter.close();
+        shortCodeStrategy.close();
+        clickIngestor.close();
+        accessCounter.close();
+        if (clickJournal != null) clickJournal.close();
+    }
 }
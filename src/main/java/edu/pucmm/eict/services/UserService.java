@@ -129,6 +129,7 @@ public class UserService {
         }
     }
 
+    // Sus enlaces quedan sin dueño por la FK (ON DELETE SET NULL): borrarlos antes con UrlService.purgeUserLinks
     public boolean deleteUser(String username) {
         // evitar borrar admin
         String check = "SELECT role FROM usuarios WHERE username = ?";
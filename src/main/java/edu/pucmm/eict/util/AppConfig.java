@@ -0,0 +1,56 @@
+package edu.pucmm.eict.util;
+
+/**
+ * Lectura de parámetros de configuración.
+ * Se busca primero la propiedad del sistema (-DNOMBRE=valor) y luego la variable de ambiente,
+ * igual que APP_DB_MODE. Un valor vacío o inválido se trata como ausente.
+ */
+public class AppConfig {
+
+    private AppConfig() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name, System.getenv(name));
+        return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Valor inválido para " + name + ": " + value + " (se usa " + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Valor inválido para " + name + ": " + value + " (se usa " + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("[CONFIG] Valor inválido para " + name + ": " + value + " (se usa " + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        if (value == null) return defaultValue;
+        return "true".equalsIgnoreCase(value) || "1".equals(value) || "yes".equalsIgnoreCase(value);
+    }
+}
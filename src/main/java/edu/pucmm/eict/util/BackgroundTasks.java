@@ -0,0 +1,31 @@
+package edu.pucmm.eict.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cierre ordenado de los hilos de fondo (barrido, archivado, retención, purga, instantáneas...).
+ */
+public class BackgroundTasks {
+
+    private BackgroundTasks() {
+    }
+
+    /**
+     * Detiene el ejecutor sin interrumpir la tarea en curso: las pendientes ya no empiezan y la
+     * actual termina su lote (cada servicio revisa su propia bandera de cierre entre lotes), así
+     * ninguna escritura queda a medias en la base de datos.
+     * @return true si terminó dentro del plazo
+     */
+    public static boolean stop(ExecutorService executor, String name, long timeoutSeconds) {
+        if (executor == null) return true;
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) return true;
+            System.err.println("[" + name + "] La tarea en curso no terminó en " + timeoutSeconds + " s; se abandona");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
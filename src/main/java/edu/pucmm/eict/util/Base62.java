@@ -0,0 +1,32 @@
+package edu.pucmm.eict.util;
+
+/**
+ * Codificación base62 de longitud fija con el mismo alfabeto de los short codes.
+ */
+public class Base62 {
+
+    public static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    public static final int MAX_LENGTH = 10; // 62^10 < 2^63
+
+    private Base62() {
+    }
+
+    /** Cantidad de códigos distintos de la longitud dada (62^length). */
+    public static long spaceSize(int length) {
+        if (length < 1 || length > MAX_LENGTH) throw new IllegalArgumentException("Longitud fuera de rango: " + length);
+        long size = 1;
+        for (int i = 0; i < length; i++) size *= ALPHABET.length();
+        return size;
+    }
+
+    /** Codifica {@code value} (0 <= value < 62^length) rellenando con el primer símbolo. */
+    public static String encode(long value, int length) {
+        if (value < 0 || value >= spaceSize(length)) throw new IllegalArgumentException("Valor fuera de rango: " + value);
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt((int) (value % ALPHABET.length()));
+            value /= ALPHABET.length();
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.pucmm.eict.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro de Bloom para cadenas, seguro para uso concurrente.
+ *
+ * mightContain() == false garantiza que la cadena nunca fue agregada;
+ * true puede ser un falso positivo con probabilidad cercana a la configurada
+ * mientras no se supere la cantidad de inserciones esperada.
+ * No soporta eliminación: para olvidar elementos hay que reconstruirlo.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashFunctions;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final LongAdder insertions = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        this.falsePositiveRate = falsePositiveRate;
+        // m = -n ln p / (ln 2)^2 ; k = m/n ln 2
+        long m = (long) Math.ceil(-this.expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (m + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / this.expectedInsertions * Math.log(2)));
+    }
+
+    public void put(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = indexFor(h1 + i * h2);
+            setBit(bit);
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long bit = indexFor(h1 + i * h2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long insertions() {
+        return insertions.sum();
+    }
+
+    public long expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /** Probabilidad de falso positivo estimada con la cantidad actual de inserciones. */
+    public double estimatedFalsePositiveRate() {
+        double fill = 1 - Math.exp(-(double) hashFunctions * insertions() / bitCount);
+        return Math.pow(fill, hashFunctions);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("bits", bitCount);
+        stats.put("hashFunctions", hashFunctions);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("insertions", insertions());
+        stats.put("targetFpp", falsePositiveRate);
+        stats.put("estimatedFpp", estimatedFalsePositiveRate());
+        return stats;
+    }
+
+    private long indexFor(int combinedHash) {
+        long positive = combinedHash & 0xffffffffL;
+        return positive % bitCount;
+    }
+
+    private void setBit(long bit) {
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) return;
+        } while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    // Variante de 64 bits de FNV-1a con mezcla final (fmix64 de MurmurHash3); la usa también HyperLogLog
+    static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
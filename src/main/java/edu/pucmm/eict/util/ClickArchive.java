@@ -0,0 +1,598 @@
+package edu.pucmm.eict.util;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Archivo frío de accesos: un segmento columnar comprimido por mes (clicks-YYYYMM.seg).
+ *
+ * Las filas se guardan ordenadas por (url_id, timestamp) en bloques de hasta
+ * APP_ARCHIVE_BLOCK_ROWS filas, y dentro de cada bloque cada columna va en su propio flujo
+ * Deflate: url_id y timestamp codificados como deltas en varint (zigzag para el timestamp), y
+ * browser/platform/ip/dominio con diccionario (códigos varint + lista de valores). El pie trae
+ * el índice url_id -> (primera fila, filas) y la posición de cada bloque, y se mantiene en
+ * memoria: leer un enlace solo abre los segmentos donde aparece y solo descomprime los bloques
+ * que tienen sus filas.
+ *
+ * Formato: int magic | int versión | bloques | pie | long posición del pie. Bloque: int columnas |
+ * columnas x (UTF nombre, int largo) | datos. Pie: int mes | int filas | int enlaces | enlaces x
+ * (long url_id, int primera fila, int filas) | int bloques | bloques x (long posición, int largo,
+ * int filas). Un segmento se escribe en un .tmp bloque a bloque y se publica con un rename
+ * atómico; los de la versión 1 (una sola tanda de columnas) se reescriben al abrir el archivo.
+ */
+public class ClickArchive {
+
+    private static final int MAGIC = 0x434C4B53; // "CLKS"
+    private static final int VERSION = 2;
+    private static final int LEGACY_VERSION = 1;
+    private static final String PREFIX = "clicks-";
+    private static final String SUFFIX = ".seg";
+    private static final String[] TEXT_COLUMNS = {"browser", "ip", "client_domain", "platform"};
+
+    private final Path directory;
+    private final int blockRows;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    public ClickArchive(Path directory) throws IOException {
+        this.directory = directory;
+        this.blockRows = Math.max(1, AppConfig.getInt("APP_ARCHIVE_BLOCK_ROWS", 4096));
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path file : leftovers) Files.deleteIfExists(file); // escritura interrumpida
+        }
+        List<Path> legacy = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (readVersion(file) == LEGACY_VERSION) {
+                    legacy.add(file);
+                    continue;
+                }
+                Segment segment = readFooter(file);
+                segments.put(segment.month, segment);
+            }
+        }
+        for (Path file : legacy) {
+            int month = readLegacyMonth(file);
+            write(month, sink -> forEachLegacy(file, sink));
+            System.out.println("[ARCHIVE] Segmento " + file.getFileName() + " reescrito en bloques");
+        }
+    }
+
+    /** Meses (yyyymm) archivados, del más antiguo al más reciente. */
+    public NavigableSet<Integer> months() {
+        return segments.navigableKeySet();
+    }
+
+    public boolean contains(int month) {
+        return segments.containsKey(month);
+    }
+
+    public int rowCount(int month) {
+        Segment segment = segments.get(month);
+        return segment == null ? 0 : segment.rows;
+    }
+
+    /**
+     * Escribe (o reemplaza) el segmento del mes. Puede leer el segmento anterior del mismo mes
+     * mientras escribe: el nuevo se publica al terminar.
+     * @param source entrega las filas en orden (url_id, timestamp)
+     */
+    public synchronized void write(int month, Consumer<Consumer<ClickEvent>> source) throws IOException {
+        Path target = directory.resolve(fileName(month));
+        Path temp = directory.resolve(fileName(month) + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            SegmentWriter writer = new SegmentWriter(out, blockRows);
+            source.accept(writer::add);
+            writer.finish(month);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segments.put(month, readFooter(target));
+    }
+
+    /** Accesos archivados de un enlace en [from, to) (null = sin límite), ordenados por fecha. */
+    public List<AccessDetail> read(int month, long urlId, Date from, Date to) {
+        List<AccessDetail> details = new ArrayList<>();
+        Segment segment = segments.get(month);
+        if (segment == null) return details;
+        int[] range = segment.urls.get(urlId);
+        if (range == null) return details;
+        scan(segment, range[0], range[1], (id, detail) -> {
+            long ts = detail.getTimestamp().getTime();
+            if ((from == null || ts >= from.getTime()) && (to == null || ts < to.getTime())) details.add(detail);
+        });
+        return details;
+    }
+
+    /** Recorre todo el segmento en orden (url_id, timestamp). */
+    public void forEach(int month, Consumer<ClickEvent> consumer) {
+        Segment segment = segments.get(month);
+        if (segment == null) return;
+        scan(segment, 0, segment.rows, (id, detail) -> consumer.accept(new ClickEvent(id, detail)));
+    }
+
+    /**
+     * Cursor sobre todo el segmento en orden (url_id, timestamp), para combinarlo con otra fuente
+     * ordenada; en memoria hay un bloque a la vez. Vacío si el mes no está archivado.
+     */
+    public SegmentReader open(int month) throws IOException {
+        return new SegmentReader(segments.get(month));
+    }
+
+    public synchronized boolean delete(int month) throws IOException {
+        Segment segment = segments.remove(month);
+        return segment != null && Files.deleteIfExists(segment.file);
+    }
+
+    public Map<String, Object> stats() {
+        long rows = 0;
+        long bytes = 0;
+        long blocks = 0;
+        for (Segment segment : segments.values()) {
+            rows += segment.rows;
+            bytes += segment.bytes;
+            blocks += segment.blockOffsets.length;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("segments", segments.size());
+        stats.put("blocks", blocks);
+        stats.put("rows", rows);
+        stats.put("bytes", bytes);
+        stats.put("bytesPerRow", rows == 0 ? 0.0 : (double) bytes / rows);
+        return stats;
+    }
+
+    private static String fileName(int month) {
+        return PREFIX + month + SUFFIX;
+    }
+
+    private static int readVersion(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) throw new IOException("Segmento inválido: " + file);
+            int version = in.readInt();
+            if (version != VERSION && version != LEGACY_VERSION) throw new IOException("Versión de segmento desconocida: " + file);
+            return version;
+        }
+    }
+
+    private static Segment readFooter(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long footer = ByteBuffer.wrap(readAt(channel, size - 8, 8)).getLong();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(readAt(channel, footer, (int) (size - 8 - footer))));
+            int month = in.readInt();
+            int rows = in.readInt();
+            int urlCount = in.readInt();
+            Map<Long, int[]> urls = new HashMap<>(urlCount * 2);
+            for (int i = 0; i < urlCount; i++) {
+                urls.put(in.readLong(), new int[]{in.readInt(), in.readInt()});
+            }
+            int blockCount = in.readInt();
+            long[] offsets = new long[blockCount];
+            int[] lengths = new int[blockCount];
+            int[] firstRows = new int[blockCount];
+            int[] blockSizes = new int[blockCount];
+            int first = 0;
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                blockSizes[i] = in.readInt();
+                firstRows[i] = first;
+                first += blockSizes[i];
+            }
+            return new Segment(file, month, rows, urls, offsets, lengths, firstRows, blockSizes, size);
+        }
+    }
+
+    private static byte[] readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Segmento truncado");
+        }
+        return buffer.array();
+    }
+
+    // Entrega las filas [first, first + count); solo se leen y descomprimen los bloques que las contienen
+    private void scan(Segment segment, int first, int count, RowConsumer consumer) {
+        if (count <= 0) return;
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            int block = segment.blockOf(first);
+            int end = first + count;
+            for (; block < segment.blockOffsets.length && segment.firstRows[block] < end; block++) {
+                int blockFirst = segment.firstRows[block];
+                int skip = Math.max(0, first - blockFirst);
+                int take = Math.min(segment.blockSizes[block], end - blockFirst) - skip;
+                byte[] data = readAt(channel, segment.blockOffsets[block], segment.blockLengths[block]);
+                decodeBlock(data, skip, take, consumer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error leyendo el segmento " + segment.file, e);
+        }
+    }
+
+    // Decodifica las filas [skip, skip + take) de un bloque; las columnas se recorren desde el inicio del bloque por ser deltas/varint
+    private static void decodeBlock(byte[] block, int skip, int take, RowConsumer consumer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        decodeColumns(readColumns(in), skip, take, consumer);
+    }
+
+    private static void decodeColumns(Map<String, byte[]> columns, int skip, int take, RowConsumer consumer) throws IOException {
+        InputStream urlColumn = inflate(columns.get("url_id"));
+        InputStream tsColumn = inflate(columns.get("timestamp"));
+        InputStream[] codes = new InputStream[TEXT_COLUMNS.length];
+        List<List<String>> dictionaries = new ArrayList<>();
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            codes[c] = inflate(columns.get(TEXT_COLUMNS[c]));
+            dictionaries.add(readDictionary(inflate(columns.get(TEXT_COLUMNS[c] + ".dict"))));
+        }
+        long urlId = 0;
+        long ts = 0;
+        String[] values = new String[TEXT_COLUMNS.length];
+        for (int row = 0; row < skip + take; row++) {
+            urlId += readVarLong(urlColumn);
+            ts += zigzagDecode(readVarLong(tsColumn));
+            for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+                int code = (int) readVarLong(codes[c]);
+                values[c] = code == 0 ? null : dictionaries.get(c).get(code - 1);
+            }
+            if (row >= skip) {
+                consumer.accept(urlId, new AccessDetail(new Date(ts), values[0], values[1], values[2], values[3]));
+            }
+        }
+    }
+
+    private static Map<String, byte[]> readColumns(DataInputStream in) throws IOException {
+        int columnCount = in.readInt();
+        String[] names = new String[columnCount];
+        int[] lengths = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = in.readUTF();
+            lengths[i] = in.readInt();
+        }
+        Map<String, byte[]> columns = new HashMap<>();
+        for (int i = 0; i < columnCount; i++) {
+            byte[] data = new byte[lengths[i]];
+            in.readFully(data);
+            columns.put(names[i], data);
+        }
+        return columns;
+    }
+
+    // Versión 1: cabecera con el índice y una sola tanda de columnas para todo el mes
+    private static int readLegacyMonth(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.skipNBytes(8);
+            return in.readInt();
+        }
+    }
+
+    private static void forEachLegacy(Path file, Consumer<ClickEvent> consumer) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.skipNBytes(12);
+            int rows = in.readInt();
+            int urlCount = in.readInt();
+            in.skipNBytes(urlCount * 16L);
+            decodeColumns(readColumns(in), 0, rows, (id, detail) -> consumer.accept(new ClickEvent(id, detail)));
+        } catch (IOException e) {
+            throw new RuntimeException("Error leyendo el segmento " + file, e);
+        }
+    }
+
+    private static InputStream inflate(byte[] data) {
+        return new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static List<String> readDictionary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int size = data.readInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) values.add(data.readUTF());
+        return values;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) throw new IOException("Columna truncada");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private interface RowConsumer {
+        void accept(long urlId, AccessDetail detail);
+    }
+
+    /** Filas de un segmento en orden, bloque a bloque. */
+    public static final class SegmentReader implements Iterator<ClickEvent>, Closeable {
+        private final Segment segment;
+        private final FileChannel channel;
+        private final ArrayDeque<ClickEvent> buffered = new ArrayDeque<>();
+        private int nextBlock;
+
+        private SegmentReader(Segment segment) throws IOException {
+            this.segment = segment;
+            this.channel = segment == null ? null : FileChannel.open(segment.file, StandardOpenOption.READ);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (buffered.isEmpty() && segment != null && nextBlock < segment.blockOffsets.length) {
+                try {
+                    byte[] data = readAt(channel, segment.blockOffsets[nextBlock], segment.blockLengths[nextBlock]);
+                    decodeBlock(data, 0, segment.blockSizes[nextBlock], (id, detail) -> buffered.add(new ClickEvent(id, detail)));
+                } catch (IOException e) {
+                    throw new RuntimeException("Error leyendo el segmento " + segment.file, e);
+                }
+                nextBlock++;
+            }
+            return !buffered.isEmpty();
+        }
+
+        /** La próxima fila sin consumirla, o null si no hay más. */
+        public ClickEvent peek() {
+            return hasNext() ? buffered.peek() : null;
+        }
+
+        @Override
+        public ClickEvent next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return buffered.poll();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+        }
+    }
+
+    // Comprime un bloque a la vez y lo escribe al terminarlo: en memoria quedan un bloque y el índice
+    private static final class SegmentWriter {
+        private final DataOutputStream out;
+        private final int blockRows;
+        private final LinkedHashMap<Long, int[]> urls = new LinkedHashMap<>();
+        private final ByteArrayOutputStream blockIndex = new ByteArrayOutputStream();
+        private final DataOutputStream blockIndexOut = new DataOutputStream(blockIndex);
+        private Column urlColumn;
+        private Column tsColumn;
+        private DictionaryColumn[] textColumns;
+        private long position;
+        private int blocks;
+        private int rows;
+        private int blockSize;
+        private long previousUrl;
+        private long lastUrl;
+        private long lastTs;
+
+        SegmentWriter(OutputStream target, int blockRows) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+            this.blockRows = blockRows;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = 8;
+            startBlock();
+        }
+
+        private void startBlock() {
+            urlColumn = new Column();
+            tsColumn = new Column();
+            textColumns = new DictionaryColumn[TEXT_COLUMNS.length];
+            for (int c = 0; c < textColumns.length; c++) textColumns[c] = new DictionaryColumn();
+            blockSize = 0;
+            lastUrl = 0;
+            lastTs = 0;
+        }
+
+        void add(ClickEvent event) {
+            long urlId = event.getUrlId();
+            long ts = event.getDetail().getTimestamp().getTime();
+            if (urlId < previousUrl) throw new IllegalArgumentException("Filas fuera de orden (url_id)");
+            try {
+                writeVarLong(urlColumn.out, urlId - lastUrl);
+                writeVarLong(tsColumn.out, zigzagEncode(ts - lastTs));
+                AccessDetail d = event.getDetail();
+                String[] values = {d.getBrowser(), d.getIp(), d.getClientDomain(), d.getPlatform()};
+                for (int c = 0; c < textColumns.length; c++) textColumns[c].add(values[c]);
+                int[] range = urls.get(urlId);
+                if (range == null) urls.put(urlId, new int[]{rows, 1});
+                else range[1]++;
+                previousUrl = urlId;
+                lastUrl = urlId;
+                lastTs = ts;
+                rows++;
+                if (++blockSize == blockRows) {
+                    flushBlock();
+                    startBlock();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            Map<String, byte[]> columns = new LinkedHashMap<>();
+            columns.put("url_id", urlColumn.finish());
+            columns.put("timestamp", tsColumn.finish());
+            for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+                columns.put(TEXT_COLUMNS[c], textColumns[c].codes.finish());
+                columns.put(TEXT_COLUMNS[c] + ".dict", textColumns[c].dictionary());
+            }
+            long start = position;
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream tableOut = new DataOutputStream(table);
+            tableOut.writeInt(columns.size());
+            for (Map.Entry<String, byte[]> column : columns.entrySet()) {
+                tableOut.writeUTF(column.getKey());
+                tableOut.writeInt(column.getValue().length);
+            }
+            table.writeTo(out);
+            position += table.size();
+            for (byte[] data : columns.values()) {
+                out.write(data);
+                position += data.length;
+            }
+            blockIndexOut.writeLong(start);
+            blockIndexOut.writeInt((int) (position - start));
+            blockIndexOut.writeInt(blockSize);
+            blocks++;
+        }
+
+        void finish(int month) throws IOException {
+            if (blockSize > 0) {
+                flushBlock();
+            } else {
+                // Bloque vacío al final: no se escribe
+                urlColumn.end();
+                tsColumn.end();
+                for (DictionaryColumn text : textColumns) text.codes.end();
+            }
+            long footer = position;
+            out.writeInt(month);
+            out.writeInt(rows);
+            out.writeInt(urls.size());
+            for (Map.Entry<Long, int[]> entry : urls.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue()[0]);
+                out.writeInt(entry.getValue()[1]);
+            }
+            out.writeInt(blocks);
+            blockIndex.writeTo(out);
+            out.writeLong(footer);
+            out.flush();
+        }
+    }
+
+    // El Deflater se libera al terminar: hay uno por columna y por bloque
+    private static final class Column {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, 8192);
+
+        byte[] finish() throws IOException {
+            out.finish();
+            end();
+            return bytes.toByteArray();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    // Código 0 = null; el resto es la posición en el diccionario + 1
+    private static final class DictionaryColumn {
+        private final Column codes = new Column();
+        private final LinkedHashMap<String, Integer> values = new LinkedHashMap<>();
+
+        void add(String value) throws IOException {
+            int code = 0;
+            if (value != null) {
+                Integer existing = values.get(value);
+                if (existing == null) {
+                    existing = values.size() + 1;
+                    values.put(value, existing);
+                }
+                code = existing;
+            }
+            writeVarLong(codes.out, code);
+        }
+
+        byte[] dictionary() throws IOException {
+            Column column = new Column();
+            DataOutputStream out = new DataOutputStream(column.out);
+            out.writeInt(values.size());
+            for (String value : values.keySet()) out.writeUTF(value);
+            out.flush();
+            return column.finish();
+        }
+    }
+
+    private static final class Segment {
+        final Path file;
+        final int month;
+        final int rows;
+        final Map<Long, int[]> urls; // url_id -> {primera fila, filas}
+        final long[] blockOffsets;
+        final int[] blockLengths;
+        final int[] firstRows;
+        final int[] blockSizes;
+        final long bytes;
+
+        Segment(Path file, int month, int rows, Map<Long, int[]> urls, long[] blockOffsets, int[] blockLengths,
+                int[] firstRows, int[] blockSizes, long bytes) {
+            this.file = file;
+            this.month = month;
+            this.rows = rows;
+            this.urls = urls;
+            this.blockOffsets = blockOffsets;
+            this.blockLengths = blockLengths;
+            this.firstRows = firstRows;
+            this.blockSizes = blockSizes;
+            this.bytes = bytes;
+        }
+
+        // Bloque que contiene la fila
+        int blockOf(int row) {
+            int i = Arrays.binarySearch(firstRows, row);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+}
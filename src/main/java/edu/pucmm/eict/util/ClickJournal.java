@@ -0,0 +1,412 @@
+package edu.pucmm.eict.util;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de accesos en disco: solo se agrega al final, en segmentos mapeados en memoria.
+ *
+ * Cada acceso se escribe aquí antes de encolarse para el almacenamiento, con un número de
+ * secuencia creciente. Los consumidores (inserción en access_details y volcado de access_count)
+ * confirman en el repositorio, dentro de su misma escritura, la última secuencia
+ * aplicada; al arrancar se reaplica lo que quedó después de esa marca.
+ * Un segmento se borra cuando todos los consumidores pasaron su último registro.
+ *
+ * Formato de registro (big endian):
+ *   int largo | int crc32 | long secuencia | long url_id | long timestamp | 4 x (short largo + UTF-8)
+ * Un largo 0 marca el final de los datos escritos en el segmento.
+ *
+ * Las páginas mapeadas sobreviven a la caída del proceso; ante una caída del sistema operativo
+ * se puede perder lo escrito desde el último force() (APP_JOURNAL_SYNC_MILLIS).
+ */
+public class ClickJournal implements AutoCloseable {
+
+    private static final String PREFIX = "clicks-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;       // largo + crc
+    private static final int MAX_STRING_BYTES = 1024;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<Segment> sealed = new ArrayList<>();
+    private final Set<String> consumers;
+    private final Map<String, Long> checkpoints = new ConcurrentHashMap<>();
+    // Serializa "agregar al diario + publicar a los consumidores" para que el orden de secuencia
+    // sea el mismo que ven ellos. Es distinto del monitor del diario: quien lo tiene puede
+    // bloquearse esperando a un consumidor, y los consumidores sí usan el monitor al hacer checkpoint.
+    private final Object publishLock = new Object();
+    private final ScheduledExecutorService syncer;
+    private Segment active;
+    private long lastSequence;
+    private volatile boolean closed;
+
+    /**
+     * @param consumers nombres de todos los consumidores; no se borra ningún segmento hasta que
+     *                  cada uno haya registrado su checkpoint
+     */
+    public ClickJournal(Path directory, String... consumers) throws IOException {
+        this.directory = directory;
+        this.consumers = Set.of(consumers);
+        this.segmentBytes = AppConfig.getInt("APP_JOURNAL_SEGMENT_BYTES", 64 * 1024 * 1024);
+        Files.createDirectories(directory);
+        for (Path file : listSegmentFiles()) {
+            Segment segment = new Segment(file, firstSequenceOf(file));
+            long last = scan(segment, record -> { });
+            if (last < segment.firstSequence) {
+                // Segmento sin registros (p.ej. recién creado al caer el proceso)
+                Files.deleteIfExists(file);
+                continue;
+            }
+            segment.lastSequence = last;
+            sealed.add(segment);
+            lastSequence = Math.max(lastSequence, last);
+        }
+        long syncMillis = Math.max(10, AppConfig.getLong("APP_JOURNAL_SYNC_MILLIS", 1000));
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "click-journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::force, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Última secuencia asignada (o encontrada en disco al abrir). */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /** Candado bajo el cual se agrega un evento y se entrega a los consumidores (ver UrlService.recordAccess). */
+    public Object publishLock() {
+        return publishLock;
+    }
+
+    /** Agrega el evento y le asigna su secuencia. */
+    public synchronized long append(ClickEvent event) throws IOException {
+        if (closed) throw new IOException("Diario cerrado");
+        byte[] record = encode(lastSequence + 1, event);
+        if (active == null || active.buffer.remaining() < record.length + 4) {
+            roll(lastSequence + 1, record.length + 4);
+        }
+        active.buffer.put(record);
+        lastSequence++;
+        active.lastSequence = lastSequence;
+        event.setSequence(lastSequence);
+        return lastSequence;
+    }
+
+    /**
+     * Recorre, en orden, los registros con secuencia mayor a {@code afterSequence}.
+     * Debe llamarse al arrancar, antes de aceptar nuevos accesos.
+     */
+    public synchronized void replay(long afterSequence, Consumer<ClickEvent> consumer) throws IOException {
+        // Copia: el consumidor puede hacer checkpoint (y liberar segmentos) durante el recorrido
+        for (Segment segment : new ArrayList<>(sealed)) {
+            if (segment.lastSequence <= afterSequence) continue;
+            scan(segment, event -> {
+                if (event.getSequence() > afterSequence) consumer.accept(event);
+            });
+        }
+    }
+
+    /** Lector en vivo desde la secuencia siguiente a {@code afterSequence}. */
+    public synchronized Tail tail(long afterSequence) {
+        return new Tail(afterSequence + 1);
+    }
+
+    /**
+     * Declara un consumidor con la última secuencia que tiene confirmada en la base de datos.
+     * Si los segmentos ya se borraron, la numeración continúa después de esa marca.
+     */
+    public synchronized void registerConsumer(String consumer, long committedSequence) {
+        checkpoints.merge(consumer, committedSequence, Math::max);
+        lastSequence = Math.max(lastSequence, committedSequence);
+    }
+
+    /**
+     * Registra hasta qué secuencia un consumidor tiene todo confirmado en la base de datos
+     * y borra los segmentos que ya no necesita ningún consumidor registrado.
+     */
+    public void checkpoint(String consumer, long sequence) {
+        if (!checkpoints.containsKey(consumer)) {
+            throw new IllegalStateException("Consumidor no registrado: " + consumer);
+        }
+        checkpoints.merge(consumer, sequence, Math::max);
+        if (!checkpoints.keySet().containsAll(consumers)) return;
+        long safe = Long.MAX_VALUE;
+        for (long value : checkpoints.values()) safe = Math.min(safe, value);
+        releaseUpTo(safe);
+    }
+
+    private synchronized void releaseUpTo(long sequence) {
+        List<Segment> released = new ArrayList<>();
+        for (Segment segment : sealed) {
+            if (segment.lastSequence <= sequence) released.add(segment);
+        }
+        for (Segment segment : released) {
+            segment.buffer = null;
+            try {
+                Files.deleteIfExists(segment.file);
+                sealed.remove(segment);
+            } catch (IOException e) {
+                // En Windows un archivo aún mapeado no se puede borrar; se reintenta en el próximo checkpoint
+            }
+        }
+    }
+
+    private void roll(long firstSequence, int needed) throws IOException {
+        if (active != null) {
+            active.buffer.force();
+            active.buffer = null; // se deja de mapear; la relectura (replay) abre su propio mapeo
+            sealed.add(active);
+        }
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+        int size = Math.max(segmentBytes, needed);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel()) {
+            Segment segment = new Segment(file, firstSequence);
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            segment.lastSequence = firstSequence - 1;
+            active = segment;
+        }
+    }
+
+    /** Fuerza a disco lo escrito en el segmento activo. */
+    public synchronized void force() {
+        if (active != null && active.buffer != null) {
+            active.buffer.force();
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("directory", directory.toString());
+        stats.put("lastSequence", lastSequence);
+        stats.put("segments", sealed.size() + (active != null ? 1 : 0));
+        stats.put("activeSegmentBytesUsed", active != null ? active.buffer.position() : 0);
+        stats.put("checkpoints", new LinkedHashMap<>(checkpoints));
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        syncer.shutdown();
+        if (active != null) active.buffer.force();
+    }
+
+    // Lee registros válidos de un segmento; se detiene en el primer hueco o registro corrupto
+    private long scan(Segment segment, Consumer<ClickEvent> consumer) throws IOException {
+        long last = segment.firstSequence - 1;
+        MappedByteBuffer buffer = mapReadOnly(segment.file);
+        ClickEvent event;
+        while ((event = readRecord(buffer, segment.file)) != null) {
+            last = event.getSequence();
+            consumer.accept(event);
+        }
+        return last;
+    }
+
+    private static MappedByteBuffer mapReadOnly(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Siguiente registro desde la posición del buffer; null al final de lo escrito o si está corrupto
+    private static ClickEvent readRecord(ByteBuffer buffer, Path file) {
+        if (buffer.remaining() < HEADER_BYTES) return null;
+        int start = buffer.position();
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - 4) {
+            buffer.position(start);
+            return null;
+        }
+        int crc = buffer.getInt();
+        byte[] body = new byte[length];
+        buffer.get(body);
+        CRC32 check = new CRC32();
+        check.update(body);
+        if ((int) check.getValue() != crc) {
+            System.err.println("[JOURNAL] Registro corrupto en " + file.getFileName() + "; se ignora el resto del segmento");
+            return null;
+        }
+        return decode(body);
+    }
+
+    /**
+     * Lector que sigue el diario en vivo, en orden de secuencia. El escritor de accesos lo usa en
+     * vez de una cola: quien publica un evento solo lo agrega al diario y nunca espera a la base.
+     * Cada lector mapea por su cuenta el segmento que recorre.
+     */
+    public final class Tail {
+        private long nextSequence;
+        private Segment segment;
+        private MappedByteBuffer buffer;
+
+        private Tail(long nextSequence) {
+            this.nextSequence = nextSequence;
+        }
+
+        /** Última secuencia entregada. */
+        public long position() {
+            return nextSequence - 1;
+        }
+
+        /** Agrega a {@code out} hasta {@code max} eventos ya escritos; devuelve cuántos agregó. */
+        public int read(List<ClickEvent> out, int max) throws IOException {
+            synchronized (ClickJournal.this) {
+                int added = 0;
+                while (added < max && nextSequence <= lastSequence) {
+                    if (segment == null || segment.lastSequence < nextSequence) {
+                        if (!open()) break;
+                        continue;
+                    }
+                    ClickEvent event = readRecord(buffer, segment.file);
+                    if (event == null) {
+                        // Corrupto: el resto del segmento no se puede leer
+                        nextSequence = segment.lastSequence + 1;
+                        continue;
+                    }
+                    if (event.getSequence() < nextSequence) continue;
+                    out.add(event);
+                    nextSequence = event.getSequence() + 1;
+                    added++;
+                }
+                return added;
+            }
+        }
+
+        /** true si hay eventos escritos que este lector aún no entregó. */
+        public boolean behind() {
+            synchronized (ClickJournal.this) {
+                return nextSequence <= lastSequence;
+            }
+        }
+
+        // Mapea el segmento que contiene nextSequence (o el siguiente, si ese ya no existe)
+        private boolean open() throws IOException {
+            List<Segment> all = new ArrayList<>(sealed);
+            if (active != null) all.add(active);
+            for (Segment candidate : all) {
+                if (candidate.lastSequence < nextSequence) continue;
+                segment = candidate;
+                buffer = mapReadOnly(candidate.file);
+                nextSequence = Math.max(nextSequence, candidate.firstSequence);
+                return true;
+            }
+            segment = null;
+            buffer = null;
+            return false;
+        }
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        files.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return files;
+    }
+
+    private static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static byte[] encode(long sequence, ClickEvent event) {
+        AccessDetail d = event.getDetail();
+        byte[][] strings = {
+                utf8(d.getBrowser()), utf8(d.getIp()), utf8(d.getClientDomain()), utf8(d.getPlatform())
+        };
+        int bodyLength = 24;
+        for (byte[] s : strings) bodyLength += 2 + (s == null ? 0 : s.length);
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putLong(sequence);
+        body.putLong(event.getUrlId());
+        body.putLong(d.getTimestamp().getTime());
+        for (byte[] s : strings) {
+            if (s == null) {
+                body.putShort((short) -1);
+            } else {
+                body.putShort((short) s.length);
+                body.put(s);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        record.putInt(bodyLength);
+        record.putInt((int) crc.getValue());
+        record.put(body.array());
+        return record.array();
+    }
+
+    private static ClickEvent decode(byte[] bytes) {
+        ByteBuffer body = ByteBuffer.wrap(bytes);
+        long sequence = body.getLong();
+        long urlId = body.getLong();
+        long timestamp = body.getLong();
+        String[] strings = new String[4];
+        for (int i = 0; i < strings.length; i++) {
+            short length = body.getShort();
+            if (length >= 0) {
+                byte[] s = new byte[length];
+                body.get(s);
+                strings[i] = new String(s, StandardCharsets.UTF_8);
+            }
+        }
+        AccessDetail detail = new AccessDetail(new Date(timestamp), strings[0], strings[1], strings[2], strings[3]);
+        ClickEvent event = new ClickEvent(urlId, detail);
+        event.setSequence(sequence);
+        return event;
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) return null;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_STRING_BYTES) return bytes;
+        // Recortar sin partir un carácter multibyte
+        int end = MAX_STRING_BYTES;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) end--;
+        byte[] cut = new byte[end];
+        System.arraycopy(bytes, 0, cut, 0, end);
+        return cut;
+    }
+
+    private static final class Segment {
+        final Path file;
+        final long firstSequence;
+        long lastSequence;
+        MappedByteBuffer buffer; // solo el segmento activo lo mantiene mapeado
+
+        Segment(Path file, long firstSequence) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+        }
+    }
+}
@@ -0,0 +1,567 @@
+package edu.pucmm.eict.util;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Pool de conexiones JDBC sobre un DataSource físico (H2).
+ *
+ * getConnection() entrega un proxy cuyo close() devuelve la conexión física al pool.
+ * Las conexiones libres se reutilizan en orden LIFO (la más reciente está "caliente") y
+ * las que llevan más de APP_DB_POOL_IDLE_MILLIS sin uso se cierran mientras haya más de
+ * APP_DB_POOL_MIN. Si no hay capacidad se espera hasta APP_DB_POOL_TIMEOUT_MILLIS.
+ * Con APP_DB_POOL_LEAK_MILLIS > 0 (apagado por defecto: capturar la traza en cada préstamo
+ * cuesta en cada consulta), una conexión prestada por más de ese tiempo se reporta como
+ * posible fuga con la traza de quien la pidió.
+ *
+ * Cada conexión física guarda sus PreparedStatement por texto SQL (LRU de hasta
+ * APP_DB_STMT_CACHE, 0 lo desactiva): prepareStatement() reutiliza la sentencia ya
+ * compilada y su close() solo limpia parámetros, así el código de servicios no cambia.
+ * Solo se guardan las de texto fijo: una lista IN de varios parámetros o un UNION (una
+ * rama por partición) cambia de texto con cada llamada y solo desplazaría a las sentencias
+ * calientes, así que esas se preparan y cierran como siempre.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    // IN (?, ?, ...) armado según la cantidad de valores, o UNION armado según las particiones
+    private static final Pattern VARIABLE_TEXT = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?\\s*,|\\bUNION\\b");
+
+    private final DataSource physical;
+    private final int minSize;
+    private final int maxSize;
+    private final long timeoutMillis;
+    private final long idleMillis;
+    private final long validateAfterMillis;
+    private final long leakMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private volatile StatementListener statementListener;
+
+    // Métricas
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaksDetected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+    private final LongAdder statementsUncached = new LongAdder();
+    private final AtomicInteger statementsCached = new AtomicInteger();
+
+    public ConnectionPool(DataSource physical) {
+        this.physical = physical;
+        this.maxSize = Math.max(1, AppConfig.getInt("APP_DB_POOL_MAX", 20));
+        this.minSize = Math.min(maxSize, Math.max(0, AppConfig.getInt("APP_DB_POOL_MIN", 2)));
+        this.timeoutMillis = Math.max(0, AppConfig.getLong("APP_DB_POOL_TIMEOUT_MILLIS", 5000));
+        this.idleMillis = Math.max(1000, AppConfig.getLong("APP_DB_POOL_IDLE_MILLIS", 300_000));
+        this.validateAfterMillis = Math.max(0, AppConfig.getLong("APP_DB_POOL_VALIDATE_MILLIS", 5000));
+        this.leakMillis = Math.max(0, AppConfig.getLong("APP_DB_POOL_LEAK_MILLIS", 0));
+        this.statementCacheSize = Math.max(0, AppConfig.getInt("APP_DB_STMT_CACHE", 64));
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Pool de conexiones cerrado");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No hay conexiones disponibles tras " + timeoutMillis + " ms"
+                        + " (activas=" + leased.size() + ", máximo=" + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrumpido esperando una conexión", e);
+        }
+        try {
+            PooledConnection pooled = takeIdleOrCreate();
+            long waited = System.nanoTime() - start;
+            acquisitions.increment();
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowedBy = leakMillis > 0 ? new Throwable("Conexión obtenida aquí") : null;
+            pooled.leakReported = false;
+            leased.add(pooled);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Toma la conexión libre más reciente; si lleva tiempo sin uso se valida antes de entregarla
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            boolean stale = System.currentTimeMillis() - pooled.lastUsed > validateAfterMillis;
+            if (!stale || isValid(pooled)) return pooled;
+            validationFailures.increment();
+            destroy(pooled);
+        }
+        return create();
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection connection = physical.getConnection();
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(connection);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        destroyed.increment();
+        // cerrar la conexión física cierra también sus sentencias
+        statementsCached.addAndGet(-pooled.statements.size());
+        pooled.statements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // ya no se usará
+        }
+    }
+
+    // Llamado por el proxy al cerrarse: deja la conexión limpia y la devuelve
+    private void release(PooledConnection pooled, boolean broken) {
+        leased.remove(pooled);
+        try {
+            if (!broken && !closed) {
+                try {
+                    if (!pooled.connection.getAutoCommit()) {
+                        // Transacción abandonada sin commit: no debe verla el próximo usuario
+                        pooled.connection.rollback();
+                        pooled.connection.setAutoCommit(true);
+                    }
+                    pooled.lastUsed = System.currentTimeMillis();
+                    idle.offerFirst(pooled);
+                    return;
+                } catch (SQLException e) {
+                    // se descarta abajo
+                }
+            }
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            // Cierra primero las más antiguas (final de la cola) sin bajar del mínimo
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && total.get() > minSize) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastUsed > idleMillis && idle.removeFirstOccurrence(pooled)) {
+                    destroy(pooled);
+                }
+            }
+            while (!closed && total.get() < minSize && permits.tryAcquire()) {
+                try {
+                    PooledConnection pooled = create();
+                    pooled.lastUsed = now;
+                    idle.offerLast(pooled);
+                } finally {
+                    permits.release();
+                }
+            }
+            if (leakMillis > 0) {
+                for (PooledConnection pooled : leased) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakMillis) {
+                        pooled.leakReported = true;
+                        leaksDetected.increment();
+                        System.err.println("[DB-POOL] Posible fuga: conexión prestada hace " + (now - pooled.borrowedAt) + " ms");
+                        if (pooled.borrowedBy != null) pooled.borrowedBy.printStackTrace();
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("[DB-POOL] Error en mantenimiento del pool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Observa cada sentencia ejecutada por las conexiones que se entreguen desde ahora
+     * (SQL y parámetros ligados); null lo quita. Pensado para diagnóstico y pruebas, no para producción.
+     */
+    public void setStatementListener(StatementListener listener) {
+        this.statementListener = listener;
+    }
+
+    /** Recibe el SQL de cada ejecución (o addBatch) con sus parámetros, indexados desde 1. */
+    public interface StatementListener {
+        void executed(String sql, Map<Integer, Object> parameters);
+    }
+
+    public Map<String, Object> stats() {
+        long count = acquisitions.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("minSize", minSize);
+        stats.put("maxSize", maxSize);
+        stats.put("total", total.get());
+        stats.put("active", leased.size());
+        stats.put("idle", idle.size());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("acquisitions", count);
+        stats.put("timeouts", timeouts.sum());
+        stats.put("avgWaitMillis", count == 0 ? 0.0 : totalWaitNanos.sum() / 1_000_000.0 / count);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1_000_000.0);
+        stats.put("created", created.sum());
+        stats.put("destroyed", destroyed.sum());
+        stats.put("validationFailures", validationFailures.sum());
+        stats.put("leaksDetected", leaksDetected.sum());
+        long hits = statementHits.sum();
+        long lookups = hits + statementMisses.sum();
+        stats.put("statementCacheSize", statementCacheSize);
+        stats.put("statementsCached", statementsCached.get());
+        stats.put("statementHits", hits);
+        stats.put("statementMisses", statementMisses.sum());
+        stats.put("statementHitRate", lookups == 0 ? 0.0 : (double) hits / lookups);
+        stats.put("statementEvictions", statementEvictions.sum());
+        stats.put("statementsUncached", statementsUncached.sum());
+        return stats;
+    }
+
+    /** Cierra las conexiones libres; las prestadas se cierran al devolverse. */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdown();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) destroy(pooled);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("El pool usa las credenciales configuradas");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return physical.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        physical.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        physical.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return physical.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return physical.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        return physical.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || physical.isWrapperFor(iface);
+    }
+
+    /** Conexión física y datos de su préstamo actual. */
+    private final class PooledConnection {
+        final Connection connection;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Throwable borrowedBy;
+        volatile boolean leakReported;
+        // Solo la usa el hilo que tiene la conexión prestada (o el pool cuando nadie la tiene)
+        final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) return false;
+                statementEvictions.increment();
+                statementsCached.decrementAndGet();
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        // prepareStatement(sql) y prepareStatement(sql, autoGeneratedKeys) pasan por la caché
+        PreparedStatement prepare(Object[] args) throws SQLException {
+            String sql = (String) args[0];
+            String key = args.length == 1 ? sql : sql + '\u0000' + args[1];
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+                return cached.lease();
+            }
+            statementMisses.increment();
+            PreparedStatement statement = args.length == 1 ? connection.prepareStatement(sql)
+                    : connection.prepareStatement(sql, (Integer) args[1]);
+            // La misma SQL abierta dos veces a la vez: la segunda no se guarda
+            if (cached != null) return statement;
+            cached = new CachedStatement(this, key, statement);
+            statements.put(key, cached);
+            statementsCached.incrementAndGet();
+            return cached.lease();
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+    }
+
+    /** Proxy entregado al usuario: se invalida al cerrarse para que no se use una conexión ya devuelta. */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released;
+        private boolean broken;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.connection + "]";
+                default:
+                    break;
+            }
+            if (released) throw new SQLException("La conexión ya fue devuelta al pool");
+            try {
+                Object result = statementCacheSize > 0 && isCacheable(method, args)
+                        ? pooled.prepare(args) : method.invoke(pooled.connection, args);
+                StatementListener listener = statementListener;
+                if (listener != null && result instanceof Statement) return observe((Statement) result, args, listener);
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                // Errores de conexión (clase SQLState 08) invalidan la conexión física
+                if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                        && ((SQLException) cause).getSQLState().startsWith("08")) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+
+    private boolean isCacheable(Method method, Object[] args) {
+        if (!method.getName().equals("prepareStatement") || args == null || !(args[0] instanceof String)
+                || !(args.length == 1 || (args.length == 2 && args[1] instanceof Integer))) {
+            return false;
+        }
+        if (VARIABLE_TEXT.matcher((String) args[0]).find()) {
+            statementsUncached.increment();
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Sentencia guardada en la caché de una conexión. Se presta como un proxy cuyo close()
+     * la deja lista para el siguiente uso; si falló o salió de la caché se cierra de verdad.
+     */
+    private final class CachedStatement {
+        private final PooledConnection owner;
+        private final String key;
+        private final PreparedStatement statement;
+        private final int fetchSize;
+        private final int maxRows;
+        private final int queryTimeout;
+        private boolean inUse;
+        private boolean evicted;
+        private boolean dirty;   // cambió fetchSize, maxRows o queryTimeout
+        private boolean failed;
+
+        CachedStatement(PooledConnection owner, String key, PreparedStatement statement) throws SQLException {
+            this.owner = owner;
+            this.key = key;
+            this.statement = statement;
+            this.fetchSize = statement.getFetchSize();
+            this.maxRows = statement.getMaxRows();
+            this.queryTimeout = statement.getQueryTimeout();
+        }
+
+        PreparedStatement lease() {
+            inUse = true;
+            boolean[] closed = {false};
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!closed[0]) {
+                                    closed[0] = true;
+                                    giveBack();
+                                }
+                                return null;
+                            case "isClosed":
+                                return closed[0] || statement.isClosed();
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "CachedStatement[" + statement + "]";
+                            case "setFetchSize":
+                            case "setMaxRows":
+                            case "setQueryTimeout":
+                                dirty = true;
+                                break;
+                            default:
+                                break;
+                        }
+                        if (closed[0]) throw new SQLException("La sentencia ya fue cerrada");
+                        try {
+                            return method.invoke(statement, args);
+                        } catch (InvocationTargetException e) {
+                            if (e.getCause() instanceof SQLException) failed = true;
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) closeQuietly();
+        }
+
+        // Deja la sentencia como recién preparada; ante cualquier duda se descarta
+        private void giveBack() {
+            inUse = false;
+            if (!evicted && !failed) {
+                try {
+                    ResultSet rs = statement.getResultSet();
+                    if (rs != null) rs.close();
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    if (dirty) {
+                        statement.setFetchSize(fetchSize);
+                        statement.setMaxRows(maxRows);
+                        statement.setQueryTimeout(queryTimeout);
+                        dirty = false;
+                    }
+                    return;
+                } catch (SQLException e) {
+                    // se descarta abajo
+                }
+            }
+            if (!evicted && owner.statements.remove(key, this)) statementsCached.decrementAndGet();
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // la conexión puede estar rota
+            }
+        }
+    }
+
+    // Envuelve la sentencia para reportar su SQL y parámetros en cada ejecución
+    private static Statement observe(Statement statement, Object[] args, StatementListener listener) {
+        String prepared = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        Map<Integer, Object> parameters = new TreeMap<>();
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, margs) -> {
+            String name = method.getName();
+            if (prepared != null && name.startsWith("set") && margs != null && margs.length >= 2 && margs[0] instanceof Integer) {
+                parameters.put((Integer) margs[0], name.equals("setNull") ? null : margs[1]);
+            } else if (name.startsWith("execute") || name.equals("addBatch")) {
+                if (margs != null && margs.length > 0 && margs[0] instanceof String) {
+                    listener.executed((String) margs[0], new TreeMap<>());
+                } else if (prepared != null) {
+                    listener.executed(prepared, new TreeMap<>(parameters));
+                }
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            try {
+                return method.invoke(statement, margs);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
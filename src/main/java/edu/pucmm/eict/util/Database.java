@@ -3,32 +3,42 @@ package edu.pucmm.eict.util;
 import org.h2.jdbcx.JdbcDataSource;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class Database {
-    private static JdbcDataSource dataSource;
+    private static ConnectionPool dataSource;
+    private static Path dataDirectory; // null cuando la base es en memoria
 
     public static synchronized void init() {
         if (dataSource != null) return;
-        String mode = System.getProperty("APP_DB_MODE", System.getenv("APP_DB_MODE"));
-        if (mode == null || mode.isEmpty()) mode = "file"; // dev por defecto en archivo
+        Path configuredDirectory = configuredDataDirectory();
         String jdbcUrl;
-        if ("mem".equalsIgnoreCase(mode)) {
+        if (configuredDirectory == null) {
             jdbcUrl = "jdbc:h2:mem:acortador;DB_CLOSE_DELAY=-1";
         } else {
-            String baseDir = System.getProperty("user.dir");
-            String path = baseDir + "/data/acortador";
-            jdbcUrl = "jdbc:h2:file:" + path + ";AUTO_SERVER=TRUE";
+            String path = configuredDirectory.resolve("acortador").toString();
+            // APP_DB_AUTO_SERVER=true permite abrir la misma base desde otro proceso (p.ej. la consola
+            // de H2), a costa de pasar por TCP cuando otro proceso es el dueño del archivo; por defecto
+            // el archivo se abre en modo embebido
+            jdbcUrl = "jdbc:h2:file:" + path + (AppConfig.getBoolean("APP_DB_AUTO_SERVER", false) ? ";AUTO_SERVER=TRUE" : "");
+            dataDirectory = configuredDirectory;
         }
-        dataSource = new JdbcDataSource();
-        dataSource.setURL(jdbcUrl);
-        dataSource.setUser("sa");
-        dataSource.setPassword("");
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL(jdbcUrl);
+        h2.setUser("sa");
+        h2.setPassword("");
 
         // Crear esquema si no existe
-        try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+        try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
             st.executeUpdate("CREATE TABLE IF NOT EXISTS usuarios (\n" +
                     "  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,\n" +
                     "  username VARCHAR(100) NOT NULL UNIQUE,\n" +
@@ -47,6 +57,7 @@ public class Database {
                     "  CONSTRAINT fk_url_user FOREIGN KEY (user_id) REFERENCES usuarios(id) ON DELETE SET NULL\n" +
                     ")");
 
+            // Tabla única original: H2Repository mueve sus filas a access_details_pYYYYMM al arrancar
             st.executeUpdate("CREATE TABLE IF NOT EXISTS access_details (\n" +
                     "  id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,\n" +
                     "  url_id BIGINT NOT NULL,\n" +
@@ -58,17 +69,111 @@ public class Database {
                     "  CONSTRAINT fk_access_url FOREIGN KEY (url_id) REFERENCES urls(id) ON DELETE CASCADE\n" +
                     ")");
 
+            // Hash de ancho fijo de la URL normalizada: original_url es demasiado ancha para indexarla
+            st.executeUpdate("ALTER TABLE urls ADD COLUMN IF NOT EXISTS original_url_hash BIGINT");
+            backfillUrlHashes(c);
+
+            // Clicks agregados por enlace, hora (inicio en epoch ms) y navegador/plataforma
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS access_rollups (\n" +
+                    "  url_id BIGINT NOT NULL,\n" +
+                    "  hour_start BIGINT NOT NULL,\n" +
+                    "  dimension VARCHAR(16) NOT NULL,\n" +
+                    "  dim_value VARCHAR(100) NOT NULL,\n" +
+                    "  clicks BIGINT NOT NULL,\n" +
+                    "  PRIMARY KEY (url_id, hour_start, dimension, dim_value),\n" +
+                    "  CONSTRAINT fk_rollup_url FOREIGN KEY (url_id) REFERENCES urls(id) ON DELETE CASCADE\n" +
+                    ")");
+
+            // Visitantes únicos: un sketch HyperLogLog por enlace y día UTC (como máximo ~1.5 KB)
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS access_visitors (\n" +
+                    "  url_id BIGINT NOT NULL,\n" +
+                    "  day_start BIGINT NOT NULL,\n" +
+                    "  sketch VARBINARY(2048) NOT NULL,\n" +
+                    "  PRIMARY KEY (url_id, day_start),\n" +
+                    "  CONSTRAINT fk_visitors_url FOREIGN KEY (url_id) REFERENCES urls(id) ON DELETE CASCADE\n" +
+                    ")");
+
+            // Última secuencia del diario de accesos aplicada por cada consumidor
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS click_journal_checkpoints (\n" +
+                    "  name VARCHAR(32) PRIMARY KEY,\n" +
+                    "  seq BIGINT NOT NULL\n" +
+                    ")");
+
+            // Contadores compartidos de los que cada nodo reserva bloques de valores (short codes)
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS short_code_sequences (\n" +
+                    "  name VARCHAR(32) PRIMARY KEY,\n" +
+                    "  next_value BIGINT NOT NULL\n" +
+                    ")");
+
             // índices
             st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_urls_expires_at ON urls(expires_at)");
             st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_urls_user_id ON urls(user_id)");
             st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_access_url_id ON access_details(url_id)");
+            st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_urls_user_hash ON urls(user_id, original_url_hash)");
+            // Listado paginado por dueño (keyset sobre id): sin este índice H2 ordena todos los enlaces del usuario
+            st.executeUpdate("CREATE INDEX IF NOT EXISTS idx_urls_user_page ON urls(user_id, id)");
         } catch (SQLException e) {
             throw new RuntimeException("Error initializing database schema", e);
         }
+        dataSource = new ConnectionPool(h2);
+    }
+
+    // Calcula el hash de las filas creadas antes de existir la columna
+    private static void backfillUrlHashes(Connection c) throws SQLException {
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<Long> hashes = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement("SELECT id, original_url FROM urls WHERE original_url_hash IS NULL LIMIT 1000");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    hashes.add(UrlNormalizer.hash(rs.getString(2)));
+                }
+            }
+            if (ids.isEmpty()) return;
+            try (PreparedStatement ps = c.prepareStatement("UPDATE urls SET original_url_hash = ? WHERE id = ?")) {
+                for (int i = 0; i < ids.size(); i++) {
+                    ps.setLong(1, hashes.get(i));
+                    ps.setLong(2, ids.get(i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /** Directorio data/ que usará la base según APP_DB_MODE, sin abrirla; null si va en memoria. */
+    public static Path configuredDataDirectory() {
+        String mode = System.getProperty("APP_DB_MODE", System.getenv("APP_DB_MODE"));
+        if (mode == null || mode.isEmpty()) mode = "file"; // dev por defecto en archivo
+        if ("mem".equalsIgnoreCase(mode)) return null;
+        return Paths.get(System.getProperty("user.dir"), "data");
+    }
+
+    /** Directorio data/ junto al archivo H2, o null si la base está en memoria. */
+    public static Path getDataDirectory() {
+        if (dataSource == null) init();
+        return dataDirectory;
     }
 
     public static DataSource getDataSource() {
         if (dataSource == null) init();
         return dataSource;
     }
+
+    public static Map<String, Object> getPoolStats() {
+        if (dataSource == null) init();
+        return dataSource.stats();
+    }
+
+    /** Ver {@link ConnectionPool#setStatementListener}. */
+    public static void setStatementListener(ConnectionPool.StatementListener listener) {
+        if (dataSource == null) init();
+        dataSource.setStatementListener(listener);
+    }
+
+    /** Cierra el pool; llamar después de detener a quienes escriben en la base. */
+    public static synchronized void close() {
+        if (dataSource != null) dataSource.close();
+    }
 }
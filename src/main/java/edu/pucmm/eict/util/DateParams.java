@@ -0,0 +1,30 @@
+package edu.pucmm.eict.util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Fechas recibidas como parámetro (?from=&to=): ISO-8601 completo o solo el día (yyyy-MM-dd).
+ */
+public class DateParams {
+
+    private DateParams() {
+    }
+
+    /** null si no viene el parámetro; IllegalArgumentException si no se entiende. */
+    public static Date parse(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Date.from(Instant.parse(value.trim()));
+        } catch (DateTimeParseException e) {
+            try {
+                return Date.from(LocalDate.parse(value.trim()).atStartOfDay(ZoneId.systemDefault()).toInstant());
+            } catch (DateTimeParseException e2) {
+                throw new IllegalArgumentException("Fecha inválida: " + value);
+            }
+        }
+    }
+}
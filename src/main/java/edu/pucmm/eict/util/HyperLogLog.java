@@ -0,0 +1,112 @@
+package edu.pucmm.eict.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Sketch HyperLogLog para contar elementos distintos (visitantes únicos) con memoria fija.
+ *
+ * 2^11 registros: error estándar ~2.3%. Dos sketches se combinan tomando el máximo de cada
+ * registro, así que unir días o volver a aplicar un lote da el mismo resultado. Serializado
+ * ocupa 3 bytes por registro usado mientras hay pocos (formato disperso) y como máximo
+ * 2 + 1536 bytes (6 bits por registro). No es seguro para uso concurrente.
+ */
+public final class HyperLogLog {
+    public static final int PRECISION = 11;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final int DENSE_BYTES = REGISTERS * 6 / 8;
+    private static final byte SPARSE = 1;
+    private static final byte DENSE = 2;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    public void add(String value) {
+        long hash = BloomFilter.hash64(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Ceros a la izquierda del resto del hash + 1; el bit centinela acota el rango a 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    public boolean isEmpty() {
+        for (byte register : registers) {
+            if (register != 0) return false;
+        }
+        return true;
+    }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        // Rango bajo: conteo lineal sobre los registros vacíos. Con hash de 64 bits no hace falta corregir el alto
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(estimate);
+    }
+
+    /** Formato compacto: disperso (índice de 2 bytes + rango) si ocupa menos que los registros empaquetados. */
+    public byte[] toBytes() {
+        int used = 0;
+        for (byte register : registers) {
+            if (register != 0) used++;
+        }
+        if (used * 3 < DENSE_BYTES) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2 + used * 3);
+            out.write(SPARSE);
+            out.write(PRECISION);
+            for (int i = 0; i < REGISTERS; i++) {
+                if (registers[i] == 0) continue;
+                out.write(i >>> 8);
+                out.write(i);
+                out.write(registers[i]);
+            }
+            return out.toByteArray();
+        }
+        byte[] bytes = new byte[2 + DENSE_BYTES];
+        bytes[0] = DENSE;
+        bytes[1] = PRECISION;
+        // Cuatro registros de 6 bits por cada 3 bytes
+        for (int i = 0, o = 2; i < REGISTERS; i += 4, o += 3) {
+            int packed = registers[i] << 18 | registers[i + 1] << 12 | registers[i + 2] << 6 | registers[i + 3];
+            bytes[o] = (byte) (packed >>> 16);
+            bytes[o + 1] = (byte) (packed >>> 8);
+            bytes[o + 2] = (byte) packed;
+        }
+        return bytes;
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < 2 || bytes[1] != PRECISION) {
+            throw new IllegalArgumentException("Sketch HyperLogLog inválido");
+        }
+        HyperLogLog sketch = new HyperLogLog();
+        if (bytes[0] == SPARSE && (bytes.length - 2) % 3 == 0) {
+            for (int o = 2; o < bytes.length; o += 3) {
+                int index = (bytes[o] & 0xff) << 8 | (bytes[o + 1] & 0xff);
+                if (index >= REGISTERS) throw new IllegalArgumentException("Sketch HyperLogLog inválido");
+                sketch.registers[index] = bytes[o + 2];
+            }
+        } else if (bytes[0] == DENSE && bytes.length == 2 + DENSE_BYTES) {
+            for (int i = 0, o = 2; i < REGISTERS; i += 4, o += 3) {
+                int packed = (bytes[o] & 0xff) << 16 | (bytes[o + 1] & 0xff) << 8 | (bytes[o + 2] & 0xff);
+                sketch.registers[i] = (byte) (packed >>> 18 & 0x3f);
+                sketch.registers[i + 1] = (byte) (packed >>> 12 & 0x3f);
+                sketch.registers[i + 2] = (byte) (packed >>> 6 & 0x3f);
+                sketch.registers[i + 3] = (byte) (packed & 0x3f);
+            }
+        } else {
+            throw new IllegalArgumentException("Sketch HyperLogLog inválido");
+        }
+        return sketch;
+    }
+}
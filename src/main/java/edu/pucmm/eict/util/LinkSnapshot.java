@@ -0,0 +1,309 @@
+package edu.pucmm.eict.util;
+
+import edu.pucmm.eict.modelos.ResolvedUrl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Instantánea binaria de los enlaces (short code -> destino) para redirigir sin abrir H2.
+ *
+ * Se lee mapeada en memoria y sin deserializar al abrir: las entradas van seguidas, y detrás una
+ * tabla hash de sondeo lineal con ranuras de 8 bytes (32 bits altos del hash | posición + 1), así
+ * que buscar un código toca una o dos páginas del archivo.
+ *
+ * Formato: entradas x (varint id | varint expires_at en ms, 0 = no vence | varint largo | código |
+ * varint largo | destino, en UTF-8) | ranuras x long | long posición de la tabla | long creada |
+ * int enlaces | int ranuras | int versión | int magic | long CRC32C de todo lo anterior.
+ * Se escribe en un .tmp y se publica con un rename atómico; como se mapea de una vez, no puede pasar de 2 GB.
+ */
+public final class LinkSnapshot {
+
+    private static final int MAGIC = 0x4C4E4B53; // "LNKS"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "links-";
+    private static final String SUFFIX = ".snap";
+    private static final int FOOTER_BYTES = 40;
+
+    private final Path file;
+    private final MappedByteBuffer buffer; // solo lecturas absolutas: se comparte entre hilos
+    private final int tableOffset;
+    private final long createdAt;
+    private final int size;
+    private final int slots;
+
+    private LinkSnapshot(Path file, MappedByteBuffer buffer, int tableOffset, long createdAt, int size, int slots) {
+        this.file = file;
+        this.buffer = buffer;
+        this.tableOffset = tableOffset;
+        this.createdAt = createdAt;
+        this.size = size;
+        this.slots = slots;
+    }
+
+    /**
+     * Escribe la instantánea links-{createdAt}.snap en {@code directory}.
+     * @param source entrega (short code, enlace) de todos los enlaces, en cualquier orden
+     */
+    public static Path write(Path directory, long createdAt, Consumer<BiConsumer<String, ResolvedUrl>> source) throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(PREFIX + createdAt + SUFFIX);
+        Path temp = directory.resolve(PREFIX + createdAt + SUFFIX + ".tmp");
+        CRC32C crc = new CRC32C();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16), crc))) {
+                EntryWriter entries = new EntryWriter(out);
+                try {
+                    source.accept(entries::add);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                long[] table = entries.table();
+                long tableOffset = entries.position;
+                if (tableOffset + table.length * 8L + FOOTER_BYTES > Integer.MAX_VALUE) {
+                    throw new IOException("La instantánea supera 2 GB (" + entries.count + " enlaces)");
+                }
+                for (long slot : table) out.writeLong(slot);
+                out.writeLong(tableOffset);
+                out.writeLong(createdAt);
+                out.writeInt(entries.count);
+                out.writeInt(table.length);
+                out.writeInt(VERSION);
+                out.writeInt(MAGIC);
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
+
+    /** Mapea la instantánea y verifica su CRC (lo que además trae sus páginas a memoria). */
+    public static LinkSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < FOOTER_BYTES || length > Integer.MAX_VALUE) throw new IOException("Instantánea inválida: " + file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int footer = (int) length - FOOTER_BYTES;
+            if (buffer.getInt(footer + 28) != MAGIC || buffer.getInt(footer + 24) != VERSION) {
+                throw new IOException("Instantánea inválida: " + file);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().position(0).limit((int) length - 8));
+            if (crc.getValue() != buffer.getLong((int) length - 8)) throw new IOException("Instantánea corrupta: " + file);
+            return new LinkSnapshot(file, buffer, (int) buffer.getLong(footer), buffer.getLong(footer + 8),
+                    buffer.getInt(footer + 16), buffer.getInt(footer + 20));
+        }
+    }
+
+    /** La instantánea válida más reciente del directorio, o null si no hay ninguna. */
+    public static LinkSnapshot openLatest(Path directory) {
+        for (Path file : list(directory)) {
+            try {
+                return open(file);
+            } catch (IOException e) {
+                System.err.println("[SNAPSHOT] Se ignora " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /** Instantáneas del directorio, de la más reciente a la más antigua. */
+    public static List<Path> list(Path directory) {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return files;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                if (createdAtOf(file) >= 0) files.add(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        files.sort(Comparator.comparingLong(LinkSnapshot::createdAtOf).reversed());
+        return files;
+    }
+
+    /** Deja solo las {@code keep} más recientes (y borra escrituras interrumpidas); devuelve cuántas borró. */
+    public static int prune(Path directory, int keep) throws IOException {
+        int deleted = 0;
+        List<Path> files = list(directory);
+        for (Path file : files.subList(Math.min(keep, files.size()), files.size())) {
+            if (Files.deleteIfExists(file)) deleted++;
+        }
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + SUFFIX + ".tmp")) {
+                for (Path file : leftovers) Files.deleteIfExists(file);
+            }
+        }
+        return deleted;
+    }
+
+    private static long createdAtOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** El enlace del código según la instantánea (puede estar vencido), o null si no estaba. */
+    public ResolvedUrl lookup(String shortCode) {
+        byte[] key = shortCode.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        int mask = slots - 1;
+        int fingerprint = (int) (hash >>> 32);
+        for (int i = (int) hash & mask, probes = 0; probes < slots; i = (i + 1) & mask, probes++) {
+            long slot = buffer.getLong(tableOffset + i * 8);
+            if (slot == 0) return null;
+            if ((int) (slot >>> 32) != fingerprint) continue;
+            int[] position = {(int) slot - 1};
+            long id = readVarLong(position);
+            long expiresAt = readVarLong(position);
+            int codeLength = (int) readVarLong(position);
+            if (codeLength != key.length || !matches(position[0], key)) continue;
+            position[0] += codeLength;
+            byte[] url = new byte[(int) readVarLong(position)];
+            buffer.get(position[0], url);
+            return new ResolvedUrl(id, new String(url, StandardCharsets.UTF_8), expiresAt == 0 ? null : new Date(expiresAt));
+        }
+        return null;
+    }
+
+    private boolean matches(int position, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(position + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private long readVarLong(int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long bytes() {
+        return buffer.capacity();
+    }
+
+    // FNV-1a de 64 bits con la mezcla final de MurmurHash3: los bits bajos eligen la ranura
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Devuelve cuántos bytes escribió
+    private static int writeVarLong(OutputStream out, long value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            written++;
+        }
+        out.write((int) value);
+        return written;
+    }
+
+    // Escribe las entradas y guarda (hash, posición) de cada una para armar la tabla al final
+    private static final class EntryWriter {
+        private final DataOutputStream out;
+        private long[] hashes = new long[1024];
+        private int[] positions = new int[1024];
+        private int count;
+        private long position;
+
+        EntryWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void add(String shortCode, ResolvedUrl url) {
+            if (position >= Integer.MAX_VALUE) throw new UncheckedIOException(new IOException("La instantánea supera 2 GB"));
+            byte[] code = shortCode.getBytes(StandardCharsets.UTF_8);
+            byte[] destination = url.getOriginalUrl().getBytes(StandardCharsets.UTF_8);
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            hashes[count] = hash(code);
+            positions[count] = (int) position;
+            count++;
+            try {
+                position += writeVarLong(out, url.getId());
+                position += writeVarLong(out, url.getExpiresAt() == null ? 0 : url.getExpiresAt().getTime());
+                position += writeVarLong(out, code.length);
+                out.write(code);
+                position += writeVarLong(out, destination.length);
+                out.write(destination);
+                position += code.length + destination.length;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Carga máxima de 1/2: en promedio menos de dos ranuras por búsqueda
+        long[] table() {
+            int slots = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+            long[] table = new long[slots];
+            int mask = slots - 1;
+            for (int e = 0; e < count; e++) {
+                int i = (int) hashes[e] & mask;
+                while (table[i] != 0) i = (i + 1) & mask;
+                table[i] = (hashes[e] & 0xFFFFFFFF00000000L) | (positions[e] + 1L);
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package edu.pucmm.eict.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Almacén clave-valor embebido, estructurado como un log (estilo Bitcask).
+ *
+ * Toda escritura se agrega al final de un único archivo; un índice en memoria guarda, por
+ * clave, la posición de su último valor. Una lectura puntual es un hash lookup más una sola
+ * lectura posicional del archivo. Las escrituras se agrupan en lotes que terminan con un
+ * registro COMMIT: al abrir, un lote sin COMMIT (caída a mitad de escritura) se descarta.
+ * Cuando los bytes obsoletos superan a los vigentes se reescribe el archivo (compactación) en un
+ * hilo aparte: copia los valores vigentes sin bloquear a nadie y solo toma el bloqueo de
+ * escritura al final, para agregar lo confirmado mientras tanto e intercambiar los archivos.
+ *
+ * FileChannel se cierra para todos los hilos si se interrumpe a uno en medio de una E/S
+ * (ClosedByInterruptException): el almacén reabre el archivo, el hilo interrumpido recibe el
+ * error y los demás reintentan su operación, así que interrumpir a un hilo nunca lo deja cerrado.
+ *
+ * Registro: int largo | int crc32 | byte tipo | short largo clave | clave | valor
+ */
+public class LogStructuredStore implements AutoCloseable {
+
+    private static final String FILE_NAME = "store.log";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte COMMIT = 3;
+    private static final int HEADER_BYTES = 8; // largo + crc
+
+    private final Path directory;
+    private final boolean fsync;
+    private final long compactMinBytes;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    // Lecturas concurrentes; escrituras y el intercambio final de la compactación exclusivos
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile FileChannel channel;
+    private final Object reopenLock = new Object();
+    private volatile boolean closed;
+    private long reopens; // protegido por reopenLock
+    private long size;
+    private long liveBytes;
+    private long compactions;
+
+    public LogStructuredStore(Path directory) throws IOException {
+        this.directory = directory;
+        this.fsync = AppConfig.getBoolean("APP_KV_FSYNC", false);
+        this.compactMinBytes = AppConfig.getLong("APP_KV_COMPACT_MIN_BYTES", 8L * 1024 * 1024);
+        Files.createDirectories(directory);
+        this.channel = FileChannel.open(directory.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "kv-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Último valor de la clave, o null. */
+    public byte[] get(String key) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) return null;
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            readFully(buffer, location.offset);
+            return buffer.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Error leyendo " + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return index.containsKey(key);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /** Recorre las claves vigentes sin leer sus valores (en orden arbitrario). */
+    public void forEachKey(Consumer<String> consumer) {
+        for (String key : new ArrayList<>(index.keySet())) consumer.accept(key);
+    }
+
+    /** Recorre todas las claves vigentes con su valor (en orden arbitrario). */
+    public void forEach(BiConsumer<String, byte[]> consumer) {
+        for (String key : new ArrayList<>(index.keySet())) {
+            byte[] value = get(key);
+            if (value != null) consumer.accept(key, value);
+        }
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /** Escribe el lote de forma atómica: o se aplica completo o, tras una caída, nada. */
+    public void commit(Batch batch) {
+        if (batch.operations.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            List<byte[]> records = new ArrayList<>(batch.operations.size() + 1);
+            for (Map.Entry<String, byte[]> op : batch.operations.entrySet()) {
+                records.add(encode(op.getValue() == null ? DELETE : PUT, op.getKey(), op.getValue()));
+            }
+            records.add(encode(COMMIT, "", null));
+            int total = 0;
+            for (byte[] record : records) total += record.length;
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            for (byte[] record : records) buffer.put(record);
+            buffer.flip();
+            long start = size;
+            withChannel(current -> writeFully(current, buffer, start + buffer.position()));
+            size = start + total;
+            if (fsync) withChannel(current -> current.force(false));
+            // Índice actualizado solo después de escribir todo el lote
+            long position = start;
+            int i = 0;
+            for (Map.Entry<String, byte[]> op : batch.operations.entrySet()) {
+                int recordLength = records.get(i++).length;
+                apply(op.getKey(), op.getValue(), position, recordLength);
+                position += recordLength;
+            }
+            if (size - liveBytes > Math.max(liveBytes, compactMinBytes) && compacting.compareAndSet(false, true)) {
+                compactor.execute(this::compactQuietly);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error escribiendo en el almacén", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(String key, byte[] value, long recordOffset, int recordLength) {
+        Location previous;
+        if (value == null) {
+            previous = index.remove(key);
+        } else {
+            int valueOffset = recordLength - value.length;
+            previous = index.put(key, new Location(recordOffset + valueOffset, value.length, recordLength));
+            liveBytes += recordLength;
+        }
+        if (previous != null) liveBytes -= previous.recordLength;
+    }
+
+    private static byte[] encode(byte type, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Clave demasiado larga");
+        int bodyLength = 1 + 2 + keyBytes.length + (value == null ? 0 : value.length);
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.put(type).putShort((short) keyBytes.length).put(keyBytes);
+        if (value != null) body.put(value);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        record.putInt(bodyLength).putInt((int) crc.getValue()).put(body.array());
+        return record.array();
+    }
+
+    // Reconstruye el índice; descarta (y trunca) lo escrito después del último COMMIT válido
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        long committedEnd = 0;
+        List<Object[]> pending = new ArrayList<>(); // {key, value, offset, recordLength}
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int bodyLength = header.getInt();
+            int crc = header.getInt();
+            if (bodyLength < 3 || position + HEADER_BYTES + bodyLength > fileSize) break;
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(body, position + HEADER_BYTES);
+            CRC32 check = new CRC32();
+            check.update(body.array());
+            if ((int) check.getValue() != crc) break;
+            body.flip();
+            byte type = body.get();
+            byte[] keyBytes = new byte[body.getShort()];
+            body.get(keyBytes);
+            int recordLength = HEADER_BYTES + bodyLength;
+            if (type == COMMIT) {
+                for (Object[] op : pending) {
+                    apply((String) op[0], (byte[]) op[1], (Long) op[2], (Integer) op[3]);
+                }
+                pending.clear();
+                committedEnd = position + recordLength;
+            } else {
+                byte[] value = null;
+                if (type == PUT) {
+                    value = new byte[body.remaining()];
+                    body.get(value);
+                }
+                pending.add(new Object[]{new String(keyBytes, StandardCharsets.UTF_8), value, position, recordLength});
+            }
+            position += recordLength;
+        }
+        if (committedEnd < fileSize) {
+            System.err.println("[KV] Se descartan " + (fileSize - committedEnd) + " bytes sin confirmar al final de " + FILE_NAME);
+            channel.truncate(committedEnd);
+        }
+        size = committedEnd;
+    }
+
+    // Una sola lectura posicional puede devolver menos bytes de los pedidos. Si se reintenta tras
+    // reabrir, sigue desde lo que ya se leyó.
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        withChannel(current -> {
+            while (buffer.hasRemaining()) {
+                if (current.read(buffer, position + buffer.position() - start) < 0) {
+                    throw new EOFException("Fin de archivo inesperado");
+                }
+            }
+        });
+    }
+
+    // Operación sobre el canal vigente. Si otro hilo lo cerró al ser interrumpido, se reabre y se
+    // reintenta; si el interrumpido es este hilo, se reabre para los demás y se informa el error.
+    private void withChannel(ChannelOperation operation) throws IOException {
+        while (true) {
+            FileChannel current = channel;
+            try {
+                operation.run(current);
+                return;
+            } catch (ClosedByInterruptException e) {
+                reopen(current);
+                throw e;
+            } catch (ClosedChannelException e) {
+                reopen(current);
+            }
+        }
+    }
+
+    private void reopen(FileChannel broken) throws IOException {
+        synchronized (reopenLock) {
+            if (closed) throw new ClosedChannelException();
+            if (channel != broken) return; // ya lo reabrió otro hilo (o lo cambió una compactación)
+            channel = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            reopens++;
+            System.err.println("[KV] Se reabrió " + FILE_NAME + " después de una interrupción");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[KV] Error compactando el almacén: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    // Reescribe los valores vigentes en un archivo nuevo y lo intercambia de forma atómica.
+    // Lo anterior a "sealed" no cambia (el archivo solo crece), así que se copia sin bloqueo;
+    // bajo el bloqueo de escritura se agregan tal cual los lotes confirmados mientras tanto.
+    // El canal nuevo se abre sobre el temporal antes de moverlo: si algo falla se sigue usando
+    // el archivo actual sin cambios.
+    private void compact() throws IOException {
+        Map<String, Location> snapshot;
+        long sealed;
+        lock.readLock().lock();
+        try {
+            snapshot = new HashMap<>(index);
+            sealed = size;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Path target = directory.resolve(FILE_NAME);
+        Path temp = directory.resolve(FILE_NAME + ".compact");
+        Map<String, Location> relocated = new HashMap<>(snapshot.size());
+        FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long position = 0;
+            for (Map.Entry<String, Location> entry : snapshot.entrySet()) {
+                Location location = entry.getValue();
+                ByteBuffer value = ByteBuffer.allocate(location.length);
+                readFully(value, location.offset);
+                byte[] record = encode(PUT, entry.getKey(), value.array());
+                writeFully(out, ByteBuffer.wrap(record), position);
+                relocated.put(entry.getKey(), new Location(position + record.length - location.length, location.length, record.length));
+                position += record.length;
+            }
+            byte[] commit = encode(COMMIT, "", null);
+            writeFully(out, ByteBuffer.wrap(commit), position);
+            position += commit.length;
+
+            lock.writeLock().lock();
+            try {
+                long tailStart = position;
+                ByteBuffer tail = ByteBuffer.allocate((int) Math.min(1 << 20, Math.max(1, size - sealed)));
+                for (long from = sealed; from < size; ) {
+                    tail.clear();
+                    if (tail.capacity() > size - from) tail.limit((int) (size - from));
+                    readFully(tail, from);
+                    tail.flip();
+                    int length = tail.remaining();
+                    writeFully(out, tail, position);
+                    position += length;
+                    from += length;
+                }
+                out.force(true);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                FileChannel previous;
+                synchronized (reopenLock) {
+                    previous = channel;
+                    channel = out;
+                }
+                // Lo escrito después de sealed se corrió junto con su lote; lo anterior seguía igual
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    index.put(entry.getKey(), location.offset >= sealed
+                            ? new Location(location.offset - sealed + tailStart, location.length, location.recordLength)
+                            : relocated.get(entry.getKey()));
+                }
+                size = position;
+                compactions++;
+                try {
+                    previous.close();
+                } catch (IOException e) {
+                    System.err.println("[KV] Error cerrando el archivo anterior a la compactación: " + e.getMessage());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel != out) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("keys", index.size());
+            stats.put("fileBytes", size);
+            stats.put("liveBytes", liveBytes);
+            stats.put("compactions", compactions);
+            stats.put("compacting", compacting.get());
+            synchronized (reopenLock) {
+                stats.put("reopens", reopens);
+            }
+            stats.put("fsync", fsync);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        // La compactación en curso termina antes de cerrar el canal
+        BackgroundTasks.stop(compactor, "KV", 60);
+        lock.writeLock().lock();
+        try {
+            withChannel(current -> current.force(true));
+        } catch (IOException e) {
+            System.err.println("[KV] Error cerrando el almacén: " + e.getMessage());
+        }
+        try {
+            synchronized (reopenLock) {
+                closed = true;
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("[KV] Error cerrando el almacén: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Operaciones que se escriben juntas; la última sobre una misma clave gana. */
+    public static final class Batch {
+        private final Map<String, byte[]> operations = new LinkedHashMap<>();
+
+        public Batch put(String key, byte[] value) {
+            operations.remove(key);
+            operations.put(key, value);
+            return this;
+        }
+
+        public Batch delete(String key) {
+            operations.remove(key);
+            operations.put(key, null);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return operations.isEmpty();
+        }
+    }
+
+    private interface ChannelOperation {
+        void run(FileChannel channel) throws IOException;
+    }
+
+    private static final class Location {
+        final long offset;      // inicio del valor
+        final int length;       // largo del valor
+        final int recordLength; // registro completo, para contabilizar bytes vigentes
+
+        Location(long offset, int length, int recordLength) {
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package edu.pucmm.eict.util;
+
+import edu.pucmm.eict.modelos.Url;
+
+/**
+ * Paginación recibida como parámetro (?limit=&cursor=). El cursor es el id del último
+ * enlace de la página anterior: la siguiente empieza justo debajo (keyset sobre id DESC).
+ */
+public class PageParams {
+
+    public static final int DEFAULT_LIMIT = AppConfig.getInt("APP_PAGE_SIZE", 50);
+    public static final int MAX_LIMIT = AppConfig.getInt("APP_PAGE_SIZE_MAX", 500);
+
+    private PageParams() {
+    }
+
+    /** Tamaño de página; sin parámetro el valor por defecto, acotado a MAX_LIMIT. */
+    public static int limit(String value) {
+        if (value == null || value.isBlank()) return DEFAULT_LIMIT;
+        try {
+            int limit = Integer.parseInt(value.trim());
+            if (limit < 1) throw new IllegalArgumentException("limit debe ser positivo: " + value);
+            return Math.min(limit, MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit inválido: " + value);
+        }
+    }
+
+    /** id desde el cual (excluido) sigue el listado, o null para la primera página. */
+    public static Long cursor(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            long id = Long.parseLong(value.trim());
+            if (id < 1) throw new IllegalArgumentException("Cursor inválido: " + value);
+            return id;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor inválido: " + value);
+        }
+    }
+
+    public static String cursorOf(Url url) {
+        return String.valueOf(url.getId());
+    }
+}
@@ -0,0 +1,144 @@
+package edu.pucmm.eict.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumen Space-Saving de los ids más frecuentes de un flujo, con k contadores.
+ *
+ * Los contadores se agrupan por conteo en una lista ascendente (Stream-Summary), así que
+ * offer() es O(1): sube el contador al grupo siguiente o, si el id es nuevo y no hay lugar,
+ * reemplaza uno del grupo mínimo heredando su conteo como error. Todo id con más de n/k
+ * apariciones está presente, y su conteo excede el real en a lo sumo su error.
+ * No es seguro para uso concurrente.
+ */
+public final class SpaceSaving {
+
+    /** Recibe cada contador: id, conteo (cota superior) y error máximo. */
+    public interface CounterVisitor {
+        void visit(long key, long count, long error);
+    }
+
+    private final int capacity;
+    private final Map<Long, Counter> counters;
+    private Group min; // grupo de menor conteo; los siguientes en orden ascendente
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>(this.capacity * 2);
+    }
+
+    public void offer(long key) {
+        total++;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            increment(counter);
+            return;
+        }
+        if (counters.size() < capacity) {
+            counter = new Counter(key, 0);
+            if (min == null || min.count != 1) {
+                Group group = new Group(1);
+                group.next = min;
+                if (min != null) min.prev = group;
+                min = group;
+            }
+            min.add(counter);
+        } else {
+            counter = min.head;
+            counters.remove(counter.key);
+            counter.key = key;
+            counter.error = min.count;
+            increment(counter);
+        }
+        counters.put(key, counter);
+    }
+
+    // Pasa el contador del grupo c al grupo c + 1, creándolo si hace falta
+    private void increment(Counter counter) {
+        Group group = counter.group;
+        long target = group.count + 1;
+        group.remove(counter);
+        Group next = group.next;
+        if (next == null || next.count != target) {
+            Group created = new Group(target);
+            created.prev = group;
+            created.next = next;
+            if (next != null) next.prev = created;
+            group.next = created;
+            next = created;
+        }
+        next.add(counter);
+        if (group.head == null) unlink(group);
+    }
+
+    private void unlink(Group group) {
+        if (group.prev != null) group.prev.next = group.next;
+        else min = group.next;
+        if (group.next != null) group.next.prev = group.prev;
+    }
+
+    public void forEach(CounterVisitor visitor) {
+        for (Group group = min; group != null; group = group.next) {
+            for (Counter counter = group.head; counter != null; counter = counter.next) {
+                visitor.visit(counter.key, group.count, counter.error);
+            }
+        }
+    }
+
+    /** Elementos vistos desde el último clear(). */
+    public long total() {
+        return total;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public void clear() {
+        counters.clear();
+        min = null;
+        total = 0;
+    }
+
+    private static final class Group {
+        final long count;
+        Group prev;
+        Group next;
+        Counter head;
+
+        Group(long count) {
+            this.count = count;
+        }
+
+        void add(Counter counter) {
+            counter.group = this;
+            counter.prev = null;
+            counter.next = head;
+            if (head != null) head.prev = counter;
+            head = counter;
+        }
+
+        void remove(Counter counter) {
+            if (counter.prev != null) counter.prev.next = counter.next;
+            else head = counter.next;
+            if (counter.next != null) counter.next.prev = counter.prev;
+            counter.prev = null;
+            counter.next = null;
+        }
+    }
+
+    private static final class Counter {
+        long key;
+        long error;
+        Group group;
+        Counter prev;
+        Counter next;
+
+        Counter(long key, long error) {
+            this.key = key;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package edu.pucmm.eict.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Rueda de tiempo jerárquica para vencimientos de ids (long).
+ *
+ * Cada nivel tiene 64 ranuras; una ranura del nivel 0 dura un tick, una del nivel 1 dura
+ * 64 ticks, etc. Programar y avanzar cuestan O(1) por elemento: al entrar a una ranura de un
+ * nivel superior sus elementos bajan de nivel hasta llegar al 0, donde vencen. Lo que queda
+ * más allá del horizonte (tick * 64^niveles) no se acepta y debe cubrirse por otra vía.
+ */
+public class TimingWheel {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final int levels;
+    private final List<List<long[]>> slots; // nivel * SLOTS + ranura -> {id, tick de vencimiento}
+    private final List<long[]> overdue = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickMillis, int levels, long nowMillis) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.levels = Math.max(1, Math.min(levels, 63 / BITS));
+        this.slots = new ArrayList<>(this.levels * SLOTS);
+        for (int i = 0; i < this.levels * SLOTS; i++) slots.add(new ArrayList<>());
+        this.currentTick = nowMillis / this.tickMillis;
+    }
+
+    /** Milisegundos hacia adelante que la rueda puede representar. */
+    public long horizonMillis() {
+        return tickMillis << (BITS * levels);
+    }
+
+    /** Programa el vencimiento; false si queda más allá del horizonte. */
+    public synchronized boolean schedule(long id, long deadlineMillis) {
+        long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        if (!place(new long[]{id, tick})) return false;
+        size++;
+        return true;
+    }
+
+    private boolean place(long[] entry) {
+        long delta = entry[1] - currentTick;
+        if (delta <= 0) {
+            overdue.add(entry);
+            return true;
+        }
+        for (int level = 0; level < levels; level++) {
+            if (delta < 1L << (BITS * (level + 1))) {
+                int slot = (int) ((entry[1] >>> (BITS * level)) & MASK);
+                slots.get(level * SLOTS + slot).add(entry);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Avanza hasta {@code nowMillis} y entrega los ids vencidos. */
+    public synchronized void advance(long nowMillis, LongConsumer expired) {
+        long target = nowMillis / tickMillis;
+        drain(overdue, expired);
+        while (currentTick < target) {
+            currentTick++;
+            // Primero bajan los niveles superiores cuya ranura empieza en este tick
+            for (int level = levels - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) != 0) continue;
+                List<long[]> slot = slots.get(level * SLOTS + (int) ((currentTick >>> (BITS * level)) & MASK));
+                if (slot.isEmpty()) continue;
+                List<long[]> moved = new ArrayList<>(slot);
+                slot.clear();
+                for (long[] entry : moved) place(entry);
+            }
+            drain(slots.get((int) (currentTick & MASK)), expired);
+            drain(overdue, expired);
+        }
+    }
+
+    private void drain(List<long[]> slot, LongConsumer expired) {
+        if (slot.isEmpty()) return;
+        for (long[] entry : slot) expired.accept(entry[0]);
+        size -= slot.size();
+        slot.clear();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
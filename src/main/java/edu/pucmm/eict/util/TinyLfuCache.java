@@ -0,0 +1,238 @@
+package edu.pucmm.eict.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché acotada con admisión por frecuencia (TinyLFU) y expiración por entrada.
+ *
+ * Cada segmento es un LRU; cuando un segmento está lleno, la entrada nueva solo
+ * desplaza a la víctima LRU si su frecuencia estimada es mayor. Así un barrido
+ * de claves de un solo uso no expulsa a los enlaces populares.
+ * La frecuencia se estima con un Count-Min sketch de contadores de 4 bits que
+ * se reduce a la mitad periódicamente para olvidar popularidad antigua.
+ */
+public class TinyLfuCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final int maxSize;
+    private final Segment<K, V>[] segments;
+    private final FrequencySketch sketch;
+    // Se incrementa en cada invalidación; un put cargado antes de una invalidación se descarta
+    private final AtomicLong version = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public TinyLfuCache(int maxSize) {
+        this.maxSize = Math.max(SEGMENTS, maxSize);
+        this.segments = newSegments(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            int capacity = this.maxSize / SEGMENTS + (i < this.maxSize % SEGMENTS ? 1 : 0);
+            segments[i] = new Segment<>(capacity);
+        }
+        this.sketch = new FrequencySketch(this.maxSize);
+    }
+
+    public V get(K key) {
+        int hash = spread(key.hashCode());
+        sketch.increment(hash);
+        Segment<K, V> segment = segments[hash & (SEGMENTS - 1)];
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                if (entry.expiresAtMillis > now) {
+                    hits.increment();
+                    return entry.value;
+                }
+                segment.map.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Versión actual; debe leerse antes de cargar el valor desde la base de datos. */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Inserta un valor cargado mientras la versión era {@code loadedAtVersion}.
+     * Si hubo una invalidación desde entonces o el valor ya expiró, no se guarda.
+     */
+    public void put(K key, V value, long expiresAtMillis, long loadedAtVersion) {
+        long now = System.currentTimeMillis();
+        if (expiresAtMillis <= now) return;
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segments[hash & (SEGMENTS - 1)];
+        synchronized (segment) {
+            if (version.get() != loadedAtVersion) return;
+            Entry<V> entry = new Entry<>(value, expiresAtMillis);
+            if (segment.map.containsKey(key) || segment.map.size() < segment.capacity) {
+                segment.map.put(key, entry);
+                return;
+            }
+            Iterator<Map.Entry<K, Entry<V>>> it = segment.map.entrySet().iterator();
+            Map.Entry<K, Entry<V>> victim = it.next();
+            boolean victimExpired = victim.getValue().expiresAtMillis <= now;
+            if (victimExpired || sketch.frequency(hash) > sketch.frequency(spread(victim.getKey().hashCode()))) {
+                it.remove();
+                if (!victimExpired) evictions.increment();
+                segment.map.put(key, entry);
+            } else {
+                rejections.increment();
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        version.incrementAndGet();
+        Segment<K, V> segment = segments[spread(key.hashCode()) & (SEGMENTS - 1)];
+        synchronized (segment) {
+            segment.map.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", maxSize);
+        stats.put("size", size());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.sum());
+        stats.put("rejections", rejections.sum());
+        return stats;
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    // Java no permite crear arreglos de tipos genéricos; el arreglo nunca sale de la instancia
+    // y solo guarda segmentos con los mismos K y V, así que la conversión es segura
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Segment<K, V>[] newSegments(int count) {
+        return new Segment[count];
+    }
+
+    private static final class Segment<K, V> {
+        final int capacity;
+        // orden de acceso: el primer elemento es el menos usado recientemente
+        final LinkedHashMap<K, Entry<V>> map;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAtMillis;
+
+        Entry(V value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Count-Min sketch con 4 filas de contadores de 4 bits empaquetados en longs.
+     * Las actualizaciones no son atómicas: perder un incremento ocasional es aceptable
+     * porque solo se usa como estimación para decidir admisiones.
+     */
+    private static final class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {0x97cb3127, 0xd6e8feb8, 0x6c62272e, 0x9e3779b9};
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(64, maximumSize) - 1) << 1;
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                int count = (int) ((table[index] >>> offset) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        // Envejecimiento: divide todos los contadores entre dos
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions = additions >>> 1;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + (long) SEEDS[row]) * SEEDS[row];
+            h += (h >>> 32);
+            return ((int) h) & tableMask;
+        }
+
+        // Cada long guarda 16 contadores de 4 bits; cada fila usa su propio contador dentro del long
+        private int counterOffset(int hash, int row) {
+            return (((hash >>> (row << 3)) & 3) + (row << 2)) << 2;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package edu.pucmm.eict.util;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Forma canónica de una URL de destino y su hash de ancho fijo (columna urls.original_url_hash).
+ *
+ * Se normaliza lo que no cambia el recurso: esquema y host en minúsculas, puerto por defecto,
+ * ruta vacía como "/" y sin fragmento. La consulta se conserva tal cual.
+ */
+public class UrlNormalizer {
+
+    private UrlNormalizer() {
+    }
+
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+        try {
+            URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) return trimmed;
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : uri.getRawAuthority().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) port = -1;
+            StringBuilder sb = new StringBuilder(scheme).append("://");
+            if (uri.getRawUserInfo() != null) sb.append(uri.getRawUserInfo()).append('@');
+            sb.append(host);
+            if (port != -1) sb.append(':').append(port);
+            String path = uri.getRawPath();
+            sb.append(path == null || path.isEmpty() ? "/" : path);
+            if (uri.getRawQuery() != null) sb.append('?').append(uri.getRawQuery());
+            return sb.toString();
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+
+    /** Primeros 64 bits del SHA-256 de la URL normalizada; los choques se descartan comparando la URL. */
+    public static long hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalize(url).getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.util.ClickArchive;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchivedAccessEventRepositoryTest extends RepositoryContractTest {
+
+    @TempDir
+    Path directory;
+
+    private MemoryRepository hot;
+    private ArchivedAccessEventRepository repository;
+
+    @BeforeEach
+    void setup() throws IOException {
+        hot = new MemoryRepository();
+        repository = new ArchivedAccessEventRepository(hot, new ClickArchive(directory));
+    }
+
+    @Override
+    protected UrlRepository urls() {
+        return hot;
+    }
+
+    @Override
+    protected AccessEventRepository accessEvents() {
+        return repository;
+    }
+
+    @Override
+    protected long ownerId() {
+        return 7;
+    }
+
+    private static Date at(int year, int month, int day, int hour) {
+        return Date.from(LocalDate.of(year, month, day).atTime(hour, 0).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    void archived_months_are_read_together_with_hot_rows() throws IOException {
+        Url first = newUrl("https://example.com/archive-a", code());
+        Url second = newUrl("https://example.com/archive-b", code());
+        assertTrue(urls().insert(first, null, 0L));
+        assertTrue(urls().insert(second, null, 0L));
+        List<ClickEvent> events = new ArrayList<>();
+        events.add(new ClickEvent(first.getId(), new AccessDetail(at(2001, 1, 20, 9), "Chrome", "10.0.0.1", "a.local", "Linux")));
+        events.add(new ClickEvent(first.getId(), new AccessDetail(at(2001, 1, 3, 8), "Firefox", "10.0.0.2", null, "Windows")));
+        events.add(new ClickEvent(second.getId(), new AccessDetail(at(2001, 1, 5, 7), "Chrome", "10.0.0.1", null, null)));
+        events.add(new ClickEvent(first.getId(), new AccessDetail(at(2001, 3, 2, 6), "Safari", "10.0.0.3", null, "Mac")));
+        repository.insertEvents(events, null, 0);
+
+        assertEquals(List.of("access_details_p200101"), repository.archivePartitionsBefore(at(2001, 3, 1, 0)));
+        assertEquals(List.of("access_details_p200103"), hot.listPartitions());
+        assertEquals(3, repository.getArchive().rowCount(200101));
+
+        List<AccessDetail> details = repository.findByUrl(first.getId());
+        assertEquals(3, details.size());
+        assertEquals("Firefox", details.get(0).getBrowser());
+        assertEquals("Windows", details.get(0).getPlatform());
+        assertNull(details.get(0).getClientDomain());
+        assertEquals("a.local", details.get(1).getClientDomain());
+        assertEquals(at(2001, 1, 20, 9), details.get(1).getTimestamp());
+        assertEquals("Safari", details.get(2).getBrowser());
+        assertEquals(1, repository.findByUrl(first.getId(), at(2001, 1, 10, 0), at(2001, 2, 1, 0)).size());
+        assertNull(repository.findByUrl(second.getId()).get(0).getPlatform());
+
+        // Un acceso tardío de enero vuelve a la partición caliente y el siguiente archivado lo fusiona
+        repository.insertEvents(List.of(new ClickEvent(second.getId(), new AccessDetail(at(2001, 1, 6, 7), "Edge", "10.0.0.4", null, null))), null, 0);
+        assertEquals(2, repository.findByUrl(second.getId()).size());
+        // En streaming también: archivo y partición caliente del mismo mes, y luego los meses calientes
+        List<String> browsers = new ArrayList<>();
+        repository.scanByUrl(second.getId(), null, null, d -> browsers.add(d.getBrowser()));
+        assertEquals(List.of("Chrome", "Edge"), browsers);
+        browsers.clear();
+        repository.scanByUrl(first.getId(), at(2001, 1, 10, 0), null, d -> browsers.add(d.getBrowser()));
+        assertEquals(List.of("Chrome", "Safari"), browsers);
+        repository.archivePartitionsBefore(at(2001, 3, 1, 0));
+        assertEquals(4, repository.getArchive().rowCount(200101));
+        assertEquals(2, repository.findByUrl(second.getId()).size());
+
+        // Los segmentos sobreviven a reabrir el archivo
+        ClickArchive reopened = new ClickArchive(directory);
+        assertEquals(4, reopened.rowCount(200101));
+        assertEquals(2, reopened.read(200101, first.getId(), null, null).size());
+
+        // La retención también elimina los segmentos vencidos
+        assertTrue(repository.dropPartitionsBefore(at(2001, 2, 1, 0)).contains("archive/access_details_p200101"));
+        assertEquals(1, repository.findByUrl(first.getId()).size());
+    }
+
+    @Test
+    void lookups_only_decode_the_blocks_of_the_link_and_merges_keep_duplicates_out() throws IOException {
+        System.setProperty("APP_ARCHIVE_BLOCK_ROWS", "2");
+        try {
+            repository = new ArchivedAccessEventRepository(hot, new ClickArchive(directory));
+            List<Url> links = new ArrayList<>();
+            List<ClickEvent> events = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Url url = newUrl("https://example.com/blocks-" + i, code());
+                assertTrue(urls().insert(url, null, 0L));
+                links.add(url);
+                for (int day = 1; day <= 3; day++) {
+                    events.add(new ClickEvent(url.getId(), new AccessDetail(at(2001, 1, day, i), "Chrome", "10.0.0." + day, null, null)));
+                }
+            }
+            repository.insertEvents(events, null, 0);
+            repository.archivePartitionsBefore(at(2001, 2, 1, 0));
+            assertEquals(5, ((Number) repository.getArchive().stats().get("blocks")).intValue());
+            for (Url url : links) {
+                List<AccessDetail> details = repository.getArchive().read(200101, url.getId(), null, null);
+                assertEquals(3, details.size());
+                assertEquals("10.0.0.3", details.get(2).getIp());
+            }
+
+            // Una fila tardía y otra que ya estaba archivada (caída antes de borrar la partición)
+            repository.insertEvents(List.of(
+                    new ClickEvent(links.get(1).getId(), new AccessDetail(at(2001, 1, 2, 1), "Chrome", "10.0.0.2", null, null)),
+                    new ClickEvent(links.get(1).getId(), new AccessDetail(at(2001, 1, 2, 1), "Edge", "10.0.0.9", null, null))), null, 0);
+            repository.archivePartitionsBefore(at(2001, 2, 1, 0));
+            assertEquals(10, repository.getArchive().rowCount(200101));
+            assertEquals(4, repository.findByUrl(links.get(1).getId()).size());
+            assertEquals(3, repository.findByUrl(links.get(2).getId()).size());
+        } finally {
+            System.clearProperty("APP_ARCHIVE_BLOCK_ROWS");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.services.UserService;
+import edu.pucmm.eict.util.Database;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class H2RepositoryTest extends RepositoryContractTest {
+
+    private static H2Repository repository;
+
+    @BeforeAll
+    static void setup() {
+        System.setProperty("APP_DB_MODE", "mem");
+        Database.init();
+        repository = new H2Repository(Database.getDataSource(), false);
+    }
+
+    @Override
+    protected UrlRepository urls() {
+        return repository;
+    }
+
+    @Override
+    protected AccessEventRepository accessEvents() {
+        return repository;
+    }
+
+    // user_id tiene FK a usuarios: el dueño debe existir
+    @Override
+    protected long ownerId() {
+        String username = "owner-" + code();
+        UserService userService = new UserService();
+        userService.register(username, "pwd");
+        return userService.getUserByUsername(username).getId();
+    }
+
+    // Varios escritores crean a la vez el sketch del mismo enlace y día (en horas distintas, para no
+    // chocar en los rollups): ninguno pisa al otro
+    @Test
+    void concurrent_writers_merge_a_new_visitors_sketch() throws Exception {
+        for (int round = 0; round < 30; round++) race(round);
+    }
+
+    private void race(int round) throws Exception {
+        Url url = newUrl("https://example.com/visitors-race", code());
+        assertTrue(repository.insert(url, null, 0L));
+        long day = 86_400_000L * (20_100 + round);
+        int writers = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                List<ClickEvent> events = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(day + w * 3_600_000L + i), "Chrome", "10." + w + "." + (i / 256) + "." + (i % 256), null, null)));
+                }
+                done.add(pool.submit(() -> {
+                    start.await();
+                    repository.insertEvents(events, null, 0);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(writers * 100, repository.loadAccessStats(url.getId()).getUniqueVisitors(), 20);
+    }
+
+    // Páginas con empates de fecha, y sin retener el lock de particiones mientras corre el consumidor
+    @Test
+    void scan_by_url_pages_through_ties_without_holding_the_partition_lock() throws Exception {
+        Url url = newUrl("https://example.com/scan-pages", code());
+        assertTrue(repository.insert(url, null, 0L));
+        long base = 86_400_000L * 20_200;
+        List<ClickEvent> events = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(base + i / 7), "Chrome", "10.0." + (i / 256) + "." + (i % 256), null, null)));
+        }
+        repository.insertEvents(events, null, 0);
+
+        List<AccessDetail> seen = new ArrayList<>();
+        Set<String> ips = new HashSet<>();
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            repository.scanByUrl(url.getId(), null, null, d -> {
+                if (seen.isEmpty()) {
+                    try {
+                        other.submit(() -> repository.dropPartitionsBefore(new Date(0))).get(5, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new AssertionError("La retención quedó esperando al consumidor", e);
+                    }
+                }
+                seen.add(d);
+                ips.add(d.getIp());
+            });
+        } finally {
+            other.shutdown();
+        }
+        assertEquals(2500, seen.size());
+        assertEquals(2500, ips.size());
+        for (int i = 1; i < seen.size(); i++) assertFalse(seen.get(i).getTimestamp().before(seen.get(i - 1).getTimestamp()));
+    }
+
+    // Caída simulada después de copiar el primer mes: se retoma desde el siguiente sin duplicar y la
+    // tabla original queda vacía
+    @Test
+    void legacy_details_migrate_one_month_at_a_time_and_resume() throws SQLException {
+        Url url = newUrl("https://example.com/legacy", code());
+        assertTrue(repository.insert(url, null, 0L));
+        long january = AccessPartitions.monthStart(201901);
+        long february = AccessPartitions.monthStart(201902);
+        repository.insertEvents(List.of(new ClickEvent(url.getId(), new AccessDetail(new Date(january + 1000), "Chrome", "10.9.0.1", null, null))), null, 0);
+        try (Connection c = Database.getDataSource().getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO access_details(url_id, timestamp, browser) VALUES(?, ?, 'Chrome')")) {
+                for (long ts : new long[]{january + 1000, february + 1000, february + 2000}) {
+                    ps.setLong(1, url.getId());
+                    ps.setTimestamp(2, new Timestamp(ts));
+                    ps.executeUpdate();
+                }
+            }
+            try (Statement st = c.createStatement()) {
+                st.executeUpdate("MERGE INTO click_journal_checkpoints(name, seq) KEY(name) VALUES('legacy-details', 201901)");
+            }
+
+            H2Repository migrated = new H2Repository(Database.getDataSource(), false);
+
+            assertEquals(3, migrated.findByUrl(url.getId()).size());
+            try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM access_details")) {
+                rs.next();
+                assertEquals(0, rs.getLong(1));
+            }
+        }
+        assertEquals(201902, repository.loadCheckpoint("legacy-details"));
+    }
+}
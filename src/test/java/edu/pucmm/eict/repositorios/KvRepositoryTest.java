@@ -0,0 +1,162 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.Url;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KvRepositoryTest extends RepositoryContractTest {
+
+    @TempDir
+    Path directory;
+
+    private KvRepository repository;
+
+    @BeforeEach
+    void setup() throws IOException {
+        repository = new KvRepository(directory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @Override
+    protected UrlRepository urls() {
+        return repository;
+    }
+
+    @Override
+    protected AccessEventRepository accessEvents() {
+        return repository;
+    }
+
+    @Override
+    protected long ownerId() {
+        return 7;
+    }
+
+    @Test
+    void data_survives_reopen_and_torn_tail_is_discarded() throws IOException {
+        Url url = newUrl("https://example.com/persist", code());
+        assertTrue(repository.insert(url, 7L, 99L));
+        repository.insertEvents(List.of(new ClickEvent(url.getId(), new AccessDetail(new Date(), "Chrome", "10.0.0.1", null, null))), "details", 5);
+        repository.addAccessCounts(new TreeMap<>(Map.of(url.getId(), 4L)), "counters", 5);
+        repository.close();
+
+        // Simula una caída a mitad de un lote: bytes sin registro COMMIT al final del archivo
+        Files.write(directory.resolve("store.log"), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        repository = new KvRepository(directory);
+        Url loaded = repository.findByShortUrl(url.getShortUrl());
+        assertNotNull(loaded);
+        assertEquals(url.getId(), loaded.getId());
+        assertEquals(4, loaded.getAccessCount());
+        assertEquals(7L, loaded.getUser().getId().longValue());
+        assertEquals(1, repository.findByUrl(url.getId()).size());
+        assertEquals(5, repository.loadCheckpoint("details"));
+        assertEquals(1, repository.findLiveByUserAndHash(7, 99, new Date()).size());
+
+        // Los ids siguen creciendo después de reabrir
+        Url next = newUrl("https://example.com/next", code());
+        assertTrue(repository.insert(next, null, 0L));
+        assertTrue(next.getId() > url.getId());
+    }
+
+    @Test
+    void click_details_span_several_chunks_and_survive_reopen() throws IOException {
+        System.setProperty("APP_KV_DETAIL_CHUNK", "3");
+        try {
+            repository.close();
+            repository = new KvRepository(directory);
+            Url url = newUrl("https://example.com/chunks", code());
+            assertTrue(repository.insert(url, 7L, 0L));
+            long base = System.currentTimeMillis() - 60_000;
+            for (int i = 0; i < 4; i++) {
+                repository.insertEvents(List.of(
+                        new ClickEvent(url.getId(), new AccessDetail(new Date(base + 2 * i), "Chrome", "10.0.0.1", null, null)),
+                        new ClickEvent(url.getId(), new AccessDetail(new Date(base + 2 * i + 1), "Firefox", "10.0.0.2", null, null))), "details", i + 1);
+            }
+            assertEquals(8, repository.findByUrl(url.getId()).size());
+            repository.close();
+
+            repository = new KvRepository(directory);
+            List<AccessDetail> details = repository.findByUrl(url.getId());
+            assertEquals(8, details.size());
+            repository.insertEvents(List.of(new ClickEvent(url.getId(), new AccessDetail(new Date(base + 8), "Chrome", "10.0.0.3", null, null))), "details", 5);
+            assertEquals(9, repository.findByUrl(url.getId()).size());
+
+            // Lotes de a un acceso: se agregan como bloques nuevos y se funden sin perder ni repetir filas
+            for (int i = 9; i < 50; i++) {
+                repository.insertEvents(List.of(new ClickEvent(url.getId(), new AccessDetail(new Date(base + i), "Chrome", "10.0.0.4", null, null))), "details", i - 3);
+            }
+            List<AccessDetail> merged = repository.findByUrl(url.getId());
+            assertEquals(50, merged.size());
+            for (int i = 0; i < merged.size(); i++) assertEquals(base + i, merged.get(i).getTimestamp().getTime());
+            repository.close();
+            repository = new KvRepository(directory);
+            assertEquals(50, repository.findByUrl(url.getId()).size());
+        } finally {
+            System.clearProperty("APP_KV_DETAIL_CHUNK");
+        }
+    }
+
+    @Test
+    void compaction_runs_in_the_background_and_keeps_later_writes() throws Exception {
+        System.setProperty("APP_KV_COMPACT_MIN_BYTES", "1");
+        try {
+            repository.close();
+            repository = new KvRepository(directory);
+            Url url = newUrl("https://example.com/compact", code());
+            assertTrue(repository.insert(url, 7L, 0L));
+            long deadline = System.currentTimeMillis() + 10_000;
+            long counted = 0;
+            // Cada conteo reescribe el enlace: los bytes obsoletos disparan la compactación
+            while (((Number) repository.stats().get("compactions")).longValue() < 2) {
+                assertTrue(System.currentTimeMillis() < deadline, "no hubo compactación");
+                repository.addAccessCounts(new TreeMap<>(Map.of(url.getId(), 1L)), "counters", ++counted);
+            }
+            repository.addAccessCounts(new TreeMap<>(Map.of(url.getId(), 1L)), "counters", ++counted);
+            assertEquals(counted, repository.findByShortUrl(url.getShortUrl()).getAccessCount());
+            repository.close();
+
+            repository = new KvRepository(directory);
+            assertEquals(counted, repository.findByShortUrl(url.getShortUrl()).getAccessCount());
+            assertEquals(counted, repository.loadCheckpoint("counters"));
+        } finally {
+            System.clearProperty("APP_KV_COMPACT_MIN_BYTES");
+        }
+    }
+
+    @Test
+    void an_interrupted_reader_does_not_close_the_store_for_everyone() {
+        Url url = newUrl("https://example.com/interrupted", code());
+        assertTrue(repository.insert(url, 7L, 0L));
+        // Con la bandera puesta, FileChannel se cierra al empezar la lectura
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(RuntimeException.class, () -> repository.findByShortUrl(url.getShortUrl()));
+        } finally {
+            Thread.interrupted();
+        }
+        assertNotNull(repository.findByShortUrl(url.getShortUrl()));
+        Url next = newUrl("https://example.com/after-interrupt", code());
+        assertTrue(repository.insert(next, 7L, 0L));
+        assertEquals(1L, repository.stats().get("reopens"));
+    }
+}
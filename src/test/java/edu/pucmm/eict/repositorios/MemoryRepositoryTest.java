@@ -0,0 +1,28 @@
+package edu.pucmm.eict.repositorios;
+
+import org.junit.jupiter.api.BeforeEach;
+
+public class MemoryRepositoryTest extends RepositoryContractTest {
+
+    private MemoryRepository repository;
+
+    @BeforeEach
+    void setup() {
+        repository = new MemoryRepository();
+    }
+
+    @Override
+    protected UrlRepository urls() {
+        return repository;
+    }
+
+    @Override
+    protected AccessEventRepository accessEvents() {
+        return repository;
+    }
+
+    @Override
+    protected long ownerId() {
+        return 7;
+    }
+}
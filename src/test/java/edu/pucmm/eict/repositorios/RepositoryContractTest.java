@@ -0,0 +1,438 @@
+package edu.pucmm.eict.repositorios;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.AccessStats;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ResolvedUrl;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.util.LinkSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Contrato común de los backends de almacenamiento: cada implementación lo hereda
+ * y solo indica cómo se crea. Los short codes son únicos por prueba porque el
+ * backend H2 comparte la base en memoria entre pruebas.
+ */
+public abstract class RepositoryContractTest {
+
+    protected abstract UrlRepository urls();
+
+    protected abstract AccessEventRepository accessEvents();
+
+    /** id de un usuario que el backend acepte como dueño. */
+    protected abstract long ownerId();
+
+    protected static String code() {
+        return "t" + UUID.randomUUID().toString().replace("-", "").substring(0, 9);
+    }
+
+    protected static Url newUrl(String originalUrl, String shortUrl) {
+        Url url = new Url(originalUrl, shortUrl);
+        url.setCreatedAt(new Date());
+        return url;
+    }
+
+    @Test
+    void insert_assigns_id_and_rejects_duplicate_code() {
+        String code = code();
+        Url url = newUrl("https://example.com/a", code);
+        assertTrue(urls().insert(url, null, 1L));
+        assertNotNull(url.getId());
+
+        ResolvedUrl resolved = urls().resolve(code);
+        assertNotNull(resolved);
+        assertEquals(url.getId().longValue(), resolved.getId());
+        assertEquals("https://example.com/a", resolved.getOriginalUrl());
+
+        assertFalse(urls().insert(newUrl("https://example.com/b", code), null, 2L));
+        assertEquals("https://example.com/a", urls().findByShortUrl(code).getOriginalUrl());
+        assertNull(urls().resolve(code()));
+    }
+
+    @Test
+    void insert_all_is_all_or_nothing() {
+        String taken = code();
+        assertTrue(urls().insert(newUrl("https://example.com/taken", taken), null, 0L));
+        String fresh = code();
+        List<Url> batch = Arrays.asList(newUrl("https://example.com/1", fresh), newUrl("https://example.com/2", taken));
+        assertFalse(urls().insertAll(batch, null, new long[]{1L, 2L}));
+        assertNull(urls().resolve(fresh));
+
+        List<Url> ok = Arrays.asList(newUrl("https://example.com/1", code()), newUrl("https://example.com/2", code()));
+        assertTrue(urls().insertAll(ok, null, new long[]{1L, 2L}));
+        for (Url url : ok) {
+            assertNotNull(url.getId());
+            assertEquals(url.getId().longValue(), urls().resolve(url.getShortUrl()).getId());
+        }
+    }
+
+    @Test
+    void find_live_by_user_and_hash_skips_expired_and_other_hashes() {
+        long owner = ownerId();
+        long hash = System.nanoTime();
+        Date now = new Date();
+        Url live = newUrl("https://example.com/live", code());
+        Url expired = newUrl("https://example.com/live", code());
+        expired.setExpiresAt(new Date(now.getTime() - 1000));
+        Url otherHash = newUrl("https://example.com/other", code());
+        assertTrue(urls().insert(live, owner, hash));
+        assertTrue(urls().insert(expired, owner, hash));
+        assertTrue(urls().insert(otherHash, owner, hash + 1));
+
+        List<Url> found = urls().findLiveByUserAndHash(owner, hash, now);
+        assertEquals(1, found.size());
+        assertEquals(live.getShortUrl(), found.get(0).getShortUrl());
+        assertEquals(owner, found.get(0).getUser().getId().longValue());
+    }
+
+    @Test
+    void existing_codes_count_and_iteration_see_new_rows() {
+        long before = urls().count();
+        Url first = newUrl("https://example.com/x", code());
+        Url second = newUrl("https://example.com/y", code());
+        assertTrue(urls().insert(first, null, 0L));
+        assertTrue(urls().insert(second, null, 0L));
+        assertEquals(before + 2, urls().count());
+
+        String missing = code();
+        Set<String> existing = urls().findExistingShortCodes(Arrays.asList(first.getShortUrl(), missing, second.getShortUrl()));
+        assertEquals(Set.of(first.getShortUrl(), second.getShortUrl()), existing);
+
+        Map<Long, String> seen = new HashMap<>();
+        urls().forEachShortCode(first.getId() - 1, seen::put);
+        assertEquals(first.getShortUrl(), seen.get(first.getId()));
+        assertEquals(second.getShortUrl(), seen.get(second.getId()));
+        assertFalse(seen.keySet().stream().anyMatch(id -> id < first.getId()));
+    }
+
+    @Test
+    void update_short_url_renames_and_refuses_taken_codes() {
+        String original = code();
+        String renamed = code();
+        String taken = code();
+        Url url = newUrl("https://example.com/rename", original);
+        assertTrue(urls().insert(url, null, 0L));
+        assertTrue(urls().insert(newUrl("https://example.com/taken", taken), null, 0L));
+
+        assertTrue(urls().updateShortUrl(original, renamed));
+        assertNull(urls().resolve(original));
+        assertEquals(url.getId().longValue(), urls().resolve(renamed).getId());
+        boolean conflict;
+        try {
+            conflict = urls().updateShortUrl(renamed, taken);
+        } catch (RuntimeException e) {
+            conflict = false; // H2 lo reporta con la violación de unicidad
+        }
+        assertFalse(conflict);
+        assertEquals(url.getId().longValue(), urls().resolve(renamed).getId());
+        assertFalse(urls().updateShortUrl(code(), code()));
+    }
+
+    @Test
+    void events_are_returned_in_time_order_and_deleted_with_their_url() {
+        Url url = newUrl("https://example.com/events", code());
+        assertTrue(urls().insert(url, null, 0L));
+        long base = System.currentTimeMillis();
+        List<ClickEvent> events = new ArrayList<>();
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(base + 2000), "Firefox", "10.0.0.2", "b.com", "Linux")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(base), "Chrome", "10.0.0.1", "a.com", "Windows")));
+        accessEvents().insertEvents(events, null, 0);
+
+        List<AccessDetail> details = accessEvents().findByUrl(url.getId());
+        assertEquals(2, details.size());
+        assertEquals("Chrome", details.get(0).getBrowser());
+        assertEquals("10.0.0.2", details.get(1).getIp());
+
+        assertTrue(urls().deleteById(url.getId()));
+        assertFalse(urls().deleteById(url.getId()));
+        assertNull(urls().resolve(url.getShortUrl()));
+        assertTrue(accessEvents().findByUrl(url.getId()).isEmpty());
+    }
+
+    @Test
+    void access_counts_and_checkpoints_are_applied_together() {
+        Url first = newUrl("https://example.com/c1", code());
+        Url second = newUrl("https://example.com/c2", code());
+        assertTrue(urls().insert(first, null, 0L));
+        assertTrue(urls().insert(second, null, 0L));
+        String checkpoint = "test-" + code();
+        assertEquals(0, accessEvents().loadCheckpoint(checkpoint));
+
+        SortedMap<Long, Long> deltas = new TreeMap<>();
+        deltas.put(first.getId(), 3L);
+        deltas.put(second.getId(), 1L);
+        accessEvents().addAccessCounts(deltas, checkpoint, 42);
+        accessEvents().addAccessCounts(new TreeMap<>(Map.of(first.getId(), 2L)), null, 0);
+
+        assertEquals(5, urls().findByShortUrl(first.getShortUrl()).getAccessCount());
+        assertEquals(1, urls().findByShortUrl(second.getShortUrl()).getAccessCount());
+        assertEquals(42, accessEvents().loadCheckpoint(checkpoint));
+
+        accessEvents().insertEvents(new ArrayList<>(), checkpoint, 50);
+        assertEquals(50, accessEvents().loadCheckpoint(checkpoint));
+    }
+
+    @Test
+    void rollups_follow_inserted_events_per_hour_browser_and_platform() {
+        Url url = newUrl("https://example.com/rollups", code());
+        assertTrue(urls().insert(url, null, 0L));
+        long hour = 3_600_000L * 480_000; // inicio de una hora cualquiera
+        List<ClickEvent> events = new ArrayList<>();
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 10), "Chrome", "10.0.0.1", null, "Windows")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 20), "Chrome", "10.0.0.2", null, "Linux")));
+        accessEvents().insertEvents(events, null, 0);
+        List<ClickEvent> later = new ArrayList<>();
+        later.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 3_600_000L + 5), "Firefox", "10.0.0.3", null, null)));
+        later.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 30), "Chrome", "10.0.0.4", null, "Windows")));
+        accessEvents().insertEvents(later, null, 0);
+
+        AccessStats stats = accessEvents().loadAccessStats(url.getId());
+        assertEquals(4, stats.getTotalClicks());
+        assertEquals(3, stats.getBrowsers().get("Chrome").longValue());
+        assertEquals(1, stats.getBrowsers().get("Firefox").longValue());
+        assertEquals(2, stats.getPlatforms().get("Windows").longValue());
+        assertEquals(1, stats.getPlatforms().get(AccessStats.UNKNOWN).longValue());
+        assertEquals(3, stats.getHourly().get(hour).longValue());
+        assertEquals(1, stats.getHourly().get(hour + 3_600_000L).longValue());
+
+        assertTrue(urls().deleteById(url.getId()));
+        assertEquals(0, accessEvents().loadAccessStats(url.getId()).getTotalClicks());
+    }
+
+    @Test
+    void details_stream_in_time_order_and_rollups_scan_by_hour() {
+        Url url = newUrl("https://example.com/scan", code());
+        assertTrue(urls().insert(url, null, 0L));
+        long hour = 3_600_000L * 481_000; // inicio de una hora cualquiera
+        long nextMonth = hour + 40L * 86_400_000L;
+        List<ClickEvent> events = new ArrayList<>();
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(nextMonth), "Safari", "10.0.0.3", null, "macOS")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 20), "Chrome", "10.0.0.2", null, "Linux")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 10), "Firefox", "10.0.0.1", null, "Windows")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(new Date(hour + 3_600_000L), "Chrome", "10.0.0.4", null, "Linux")));
+        accessEvents().insertEvents(events, null, 0);
+
+        List<String> ips = new ArrayList<>();
+        accessEvents().scanByUrl(url.getId(), null, null, d -> ips.add(d.getIp()));
+        assertEquals(List.of("10.0.0.1", "10.0.0.2", "10.0.0.4", "10.0.0.3"), ips);
+        ips.clear();
+        accessEvents().scanByUrl(url.getId(), new Date(hour + 15), new Date(nextMonth), d -> ips.add(d.getIp()));
+        assertEquals(List.of("10.0.0.2", "10.0.0.4"), ips);
+
+        Map<String, Long> firstHour = new TreeMap<>();
+        accessEvents().scanRollups(url.getId(), new Date(hour + 15), new Date(hour + 3_600_000L), (start, dimension, value, clicks) -> {
+            assertEquals(hour, start);
+            firstHour.merge(dimension + ":" + value, clicks, Long::sum);
+        });
+        assertEquals(Map.of("browser:Chrome", 1L, "browser:Firefox", 1L, "platform:Linux", 1L, "platform:Windows", 1L), firstHour);
+    }
+
+    @Test
+    void unique_visitors_merge_daily_sketches_across_batches() {
+        Url url = newUrl("https://example.com/visitors", code());
+        assertTrue(urls().insert(url, null, 0L));
+        long day = 86_400_000L * 20_000; // inicio de un día UTC cualquiera
+        List<ClickEvent> first = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) first.add(new ClickEvent(url.getId(), new AccessDetail(new Date(day + i), "Chrome", "10.0." + (i / 256) + "." + (i % 256), null, null)));
+        accessEvents().insertEvents(first, null, 0);
+        List<ClickEvent> second = new ArrayList<>(first); // repetir IPs no suma visitantes
+        for (int i = 500; i < 1500; i++) second.add(new ClickEvent(url.getId(), new AccessDetail(new Date(day + i), "Chrome", "10.0." + (i / 256) + "." + (i % 256), null, null)));
+        for (int i = 0; i < 100; i++) second.add(new ClickEvent(url.getId(), new AccessDetail(new Date(day + 86_400_000L + i), "Chrome", "10.0." + (i / 256) + "." + (i % 256), null, null)));
+        second.add(new ClickEvent(url.getId(), new AccessDetail(new Date(day + 5), "Chrome", null, null, null)));
+        accessEvents().insertEvents(second, null, 0);
+
+        AccessStats stats = accessEvents().loadAccessStats(url.getId());
+        assertEquals(1500, stats.getUniqueVisitors(), 75);
+        assertEquals(1500, stats.getDailyVisitors().get(LocalDate.ofEpochDay(20_000).toString()), 75);
+        assertEquals(100, stats.getDailyVisitors().get(LocalDate.ofEpochDay(20_001).toString()), 3);
+        AccessStats secondDay = accessEvents().loadAccessStats(List.of(url.getId()), new Date(day + 86_400_000L + 50), null).get(url.getId());
+        assertEquals(100, secondDay.getUniqueVisitors(), 3);
+        assertEquals(1, secondDay.getDailyVisitors().size());
+
+        assertTrue(urls().deleteById(url.getId()));
+        assertEquals(0, accessEvents().loadAccessStats(url.getId()).getUniqueVisitors());
+    }
+
+    private static Date day(int year, int month, int day) {
+        return Date.from(LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    @Test
+    void range_reads_and_partition_drop_work_by_month() {
+        Url url = newUrl("https://example.com/partitions", code());
+        assertTrue(urls().insert(url, null, 0L));
+        List<ClickEvent> events = new ArrayList<>();
+        events.add(new ClickEvent(url.getId(), new AccessDetail(day(2001, 1, 15), "Chrome", "10.0.0.1", null, "Linux")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(day(2001, 3, 2), "Firefox", "10.0.0.2", null, "Linux")));
+        events.add(new ClickEvent(url.getId(), new AccessDetail(day(2001, 3, 20), "Safari", "10.0.0.3", null, "Mac")));
+        accessEvents().insertEvents(events, null, 0);
+
+        assertEquals(3, accessEvents().findByUrl(url.getId()).size());
+        List<AccessDetail> march = accessEvents().findByUrl(url.getId(), day(2001, 2, 1), day(2001, 3, 10));
+        assertEquals(1, march.size());
+        assertEquals("Firefox", march.get(0).getBrowser());
+        assertEquals(2, accessEvents().loadAccessStats(List.of(url.getId()), day(2001, 3, 1), null).get(url.getId()).getTotalClicks());
+
+        // Marzo no terminó antes del corte: solo se elimina enero
+        List<String> dropped = accessEvents().dropPartitionsBefore(day(2001, 3, 5));
+        assertTrue(dropped.contains("access_details_p200101"));
+        assertFalse(dropped.contains("access_details_p200103"));
+        List<AccessDetail> remaining = accessEvents().findByUrl(url.getId());
+        assertEquals(2, remaining.size());
+        assertEquals("Firefox", remaining.get(0).getBrowser());
+        // Los rollups se conservan
+        assertEquals(3, accessEvents().loadAccessStats(url.getId()).getTotalClicks());
+    }
+
+    @Test
+    void expired_links_are_found_by_expiry_and_deleted_in_batch() {
+        Date now = new Date();
+        Url expired = newUrl("https://example.com/expired", code());
+        expired.setExpiresAt(new Date(now.getTime() - 60_000));
+        Url soon = newUrl("https://example.com/soon", code());
+        soon.setExpiresAt(new Date(now.getTime() + 60_000));
+        Url permanent = newUrl("https://example.com/permanent", code());
+        assertTrue(urls().insertAll(Arrays.asList(expired, soon, permanent), null, new long[3]));
+        accessEvents().insertEvents(List.of(new ClickEvent(expired.getId(), new AccessDetail(now, "Chrome", "10.0.0.1", null, null))), null, 0);
+
+        List<Long> found = urls().findExpiredIds(now, 1000);
+        assertTrue(found.contains(expired.getId()));
+        assertFalse(found.contains(soon.getId()));
+        assertFalse(found.contains(permanent.getId()));
+        Map<Long, Date> expiring = new HashMap<>();
+        urls().forEachExpiringBefore(new Date(now.getTime() + 120_000), expiring::put);
+        assertTrue(expiring.containsKey(expired.getId()));
+        assertEquals(soon.getExpiresAt().getTime(), expiring.get(soon.getId()).getTime());
+        assertFalse(expiring.containsKey(permanent.getId()));
+
+        assertEquals(2, urls().deleteByIds(Arrays.asList(expired.getId(), soon.getId(), -1L)));
+        assertNull(urls().resolve(expired.getShortUrl()));
+        assertNull(urls().resolve(soon.getShortUrl()));
+        assertNotNull(urls().resolve(permanent.getShortUrl()));
+        assertTrue(accessEvents().findByUrl(expired.getId()).isEmpty());
+        assertFalse(urls().findExpiredIds(now, 1000).contains(expired.getId()));
+    }
+
+    @Test
+    void pages_walk_owner_links_by_descending_id() {
+        long owner = ownerId();
+        List<Long> inserted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Url url = newUrl("https://example.com/page" + i, code());
+            assertTrue(urls().insert(url, owner, 0L));
+            inserted.add(url.getId());
+        }
+        Url other = newUrl("https://example.com/page-other", code());
+        assertTrue(urls().insert(other, null, 0L));
+
+        List<Url> first = urls().findPage(owner, null, 2);
+        assertEquals(2, first.size());
+        assertEquals(inserted.get(4), first.get(0).getId());
+        assertEquals(inserted.get(3), first.get(1).getId());
+        List<Url> second = urls().findPage(owner, first.get(1).getId(), 2);
+        assertEquals(inserted.get(2), second.get(0).getId());
+        assertEquals(inserted.get(1), second.get(1).getId());
+        for (Url url : urls().findPage(owner, inserted.get(4) + 1, 100)) {
+            assertNotEquals(other.getId(), url.getId());
+        }
+        assertEquals(other.getId(), urls().findPage(null, null, 1).get(0).getId());
+    }
+
+    @Test
+    void link_walk_feeds_a_snapshot_that_resolves_like_the_repository(@TempDir Path directory) throws IOException {
+        Url permanent = newUrl("https://example.com/snapshot/ñ", code());
+        Url expiring = newUrl("https://example.com/snapshot/expiring", code());
+        expiring.setExpiresAt(new Date(System.currentTimeMillis() + 60_000));
+        assertTrue(urls().insertAll(Arrays.asList(permanent, expiring), null, new long[2]));
+
+        Map<String, ResolvedUrl> walked = new HashMap<>();
+        urls().forEachLink(walked::put);
+        assertEquals(permanent.getId().longValue(), walked.get(permanent.getShortUrl()).getId());
+
+        LinkSnapshot.write(directory, 1L, urls()::forEachLink);
+        LinkSnapshot snapshot = LinkSnapshot.openLatest(directory);
+        assertNotNull(snapshot);
+        assertEquals(walked.size(), snapshot.size());
+        for (Url url : Arrays.asList(permanent, expiring)) {
+            ResolvedUrl expected = urls().resolve(url.getShortUrl());
+            ResolvedUrl actual = snapshot.lookup(url.getShortUrl());
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getOriginalUrl(), actual.getOriginalUrl());
+            assertEquals(expected.getExpiresAt(), actual.getExpiresAt());
+        }
+        assertNull(snapshot.lookup(code()));
+    }
+
+    @Test
+    void matching_links_are_walked_by_id_in_chunks() {
+        long owner = ownerId();
+        String prefix = "https://purge.example.com/" + UUID.randomUUID() + "/";
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Url url = newUrl(prefix + i, code());
+            assertTrue(urls().insert(url, owner, 0L));
+            expected.add(url.getId());
+        }
+        Url otherPrefix = newUrl("https://other.example.com/_%", code());
+        assertTrue(urls().insert(otherPrefix, owner, 0L));
+        Url ownerless = newUrl(prefix + "ownerless", code());
+        assertTrue(urls().insert(ownerless, null, 0L));
+
+        UrlFilter filter = new UrlFilter();
+        filter.setUserId(owner);
+        filter.setOriginalUrlPrefix(prefix);
+        List<Long> walked = new ArrayList<>();
+        long afterId = 0;
+        while (true) {
+            Map<Long, String> chunk = urls().findMatching(filter, afterId, 2);
+            if (chunk.isEmpty()) break;
+            assertTrue(chunk.size() <= 2);
+            for (Map.Entry<Long, String> entry : chunk.entrySet()) {
+                assertEquals(entry.getValue(), urls().findByShortUrl(entry.getValue()).getShortUrl());
+                walked.add(entry.getKey());
+                afterId = entry.getKey();
+            }
+        }
+        assertEquals(expected, walked);
+
+        UrlFilter orphaned = new UrlFilter();
+        orphaned.setOrphaned(true);
+        orphaned.setOriginalUrlPrefix(prefix);
+        assertEquals(List.of(ownerless.getId()), new ArrayList<>(urls().findMatching(orphaned, 0, 100).keySet()));
+        UrlFilter literal = new UrlFilter();
+        literal.setOriginalUrlPrefix("https://other.example.com/_%");
+        assertEquals(List.of(otherPrefix.getId()), new ArrayList<>(urls().findMatching(literal, otherPrefix.getId() - 1, 100).keySet()));
+    }
+
+    @Test
+    void short_codes_are_found_by_id_skipping_missing_ones() {
+        long owner = ownerId();
+        Url first = newUrl("https://example.com/hot/1", code());
+        Url second = newUrl("https://example.com/hot/2", code());
+        assertTrue(urls().insert(first, owner, 0L));
+        assertTrue(urls().insert(second, owner, 0L));
+
+        Map<Long, String> codes = urls().findShortCodes(List.of(first.getId(), second.getId(), -1L));
+        assertEquals(Map.of(first.getId(), first.getShortUrl(), second.getId(), second.getShortUrl()), codes);
+        assertTrue(urls().findShortCodes(List.of()).isEmpty());
+    }
+}
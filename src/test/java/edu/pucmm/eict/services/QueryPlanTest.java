@@ -0,0 +1,291 @@
+package edu.pucmm.eict.services;
+
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlPage;
+import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.repositorios.Repositories;
+import edu.pucmm.eict.util.Database;
+import edu.pucmm.eict.util.UrlNormalizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Regresiones de planes de consulta: siembra una base H2 grande, ejecuta las operaciones de
+ * UrlService y UserService capturando cada sentencia SQL que llega al pool (con sus parámetros),
+ * y corre EXPLAIN sobre cada una. Falla si alguna recorre una tabla completa sin estar en la
+ * lista de recorridos aceptados, y reporta la latencia de cada sentencia a esa escala.
+ *
+ * No corre con el resto de las pruebas: gradle planTest (-Dplans.urls=... para cambiar el tamaño).
+ */
+@Tag("plans")
+public class QueryPlanTest {
+
+    private static final int URLS = Integer.getInteger("plans.urls", 1_000_000);
+    private static final int USERS = Integer.getInteger("plans.users", 10_000);
+    private static final int EVENTS = Integer.getInteger("plans.events", 1_000_000);
+    private static final int RUNS = Integer.getInteger("plans.runs", 20);
+    private static final double MAX_MILLIS = Double.parseDouble(System.getProperty("plans.maxMillis", "0")); // 0 = solo reportar
+
+    // Recorridos completos que son intencionales (fragmento del SQL normalizado -> motivo)
+    private static final Map<String, String> FULL_SCANS_ALLOWED = Map.of(
+            "FROM usuarios ORDER BY username", "listado de usuarios del panel de admin, sin filtro",
+            "ORDER BY url_id, timestamp", "archivado: recorre la partición completa a propósito",
+            "INFORMATION_SCHEMA", "metadatos de particiones al arrancar",
+            "SELECT COUNT(*) FROM urls", "H2 lo responde con el conteo de filas de la tabla");
+
+    // H2: "/* PUBLIC.URLS.tableScan */" o un índice sin condición, "/* PUBLIC.IDX_X */"
+    private static final Pattern TABLE_SCAN = Pattern.compile("/\\*\\s*([\\w.\"]+)\\.tableScan\\s*\\*/");
+    private static final Pattern INDEX_WITHOUT_CONDITION = Pattern.compile("/\\*\\s*PUBLIC\\.([\\w\"]+)\\s*\\*/");
+
+    private static final Map<String, Captured> statements = new LinkedHashMap<>();
+
+    @BeforeAll
+    static void setup() throws SQLException {
+        System.setProperty("APP_DB_MODE", "mem");
+        System.setProperty("APP_EXPIRY_SWEEP", "false"); // el barrido se ejecuta a mano abajo
+        Database.init();
+        Repositories.init();
+        seed(Database.getDataSource());
+        Database.setStatementListener((sql, parameters) -> {
+            synchronized (statements) {
+                statements.putIfAbsent(normalize(sql), new Captured(sql, parameters));
+            }
+        });
+        exerciseServices();
+        Database.setStatementListener(null);
+    }
+
+    private static void seed(DataSource ds) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO usuarios(username, password, role) VALUES(?,?,?)")) {
+                for (int i = 1; i <= USERS; i++) {
+                    ps.setString(1, "seed-user-" + i);
+                    ps.setString(2, "x");
+                    ps.setString(3, "user");
+                    ps.addBatch();
+                    if (i % 10_000 == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            long firstUser;
+            try (Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT MIN(id) FROM usuarios WHERE username LIKE 'seed-user-%'")) {
+                rs.next();
+                firstUser = rs.getLong(1);
+            }
+            long now = System.currentTimeMillis();
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO urls(original_url, short_url, access_count, user_id, created_at, expires_at, original_url_hash) VALUES(?,?,?,?,?,?,?)")) {
+                for (int i = 0; i < URLS; i++) {
+                    String original = "https://seed.example.com/" + (i % 50_000) + "/" + i;
+                    ps.setString(1, original);
+                    ps.setString(2, "seed-" + i);
+                    ps.setInt(3, 0);
+                    // Uno de cada cinco es anónimo y vence (la mitad ya vencidos)
+                    boolean anonymous = i % 5 == 0;
+                    if (anonymous) ps.setNull(4, Types.BIGINT); else ps.setLong(4, firstUser + i % USERS);
+                    ps.setTimestamp(5, new Timestamp(now - TimeUnit.DAYS.toMillis(90) + i));
+                    if (anonymous) ps.setTimestamp(6, new Timestamp(now + (i % 10 == 0 ? -1 : 1) * TimeUnit.HOURS.toMillis(1) + i));
+                    else ps.setNull(6, Types.TIMESTAMP);
+                    ps.setLong(7, UrlNormalizer.hash(original));
+                    ps.addBatch();
+                    if (i % 10_000 == 9_999) {
+                        ps.executeBatch();
+                        c.commit();
+                    }
+                }
+                ps.executeBatch();
+            }
+            c.commit();
+            c.setAutoCommit(true);
+        }
+        // Accesos por el repositorio para que caigan en sus particiones mensuales y rollups
+        long now = System.currentTimeMillis();
+        List<ClickEvent> batch = new ArrayList<>();
+        for (int i = 0; i < EVENTS; i++) {
+            long urlId = 1 + i * 7919L % URLS;
+            Date when = new Date(now - (i % (60 * 24 * 80)) * 60_000L);
+            batch.add(new ClickEvent(urlId, new AccessDetail(when, i % 2 == 0 ? "Chrome" : "Firefox", "10.0." + (i % 250) + ".1", null, i % 3 == 0 ? "Linux" : "Windows")));
+            if (batch.size() == 10_000) {
+                Repositories.accessEvents().insertEvents(batch, null, 0);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) Repositories.accessEvents().insertEvents(batch, null, 0);
+        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("ANALYZE");
+        }
+        System.out.printf("[PLANS] Base sembrada: %d urls, %d usuarios, %d accesos en %d s%n",
+                URLS, USERS, EVENTS, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    // Recorre las operaciones públicas de los servicios para que emitan todas sus sentencias
+    private static void exerciseServices() {
+        UserService userService = new UserService();
+        userService.register("plan-user", "pwd");
+        userService.authenticate("plan-user", "pwd");
+        userService.getAllUsers();
+        userService.updateRole("plan-user", "user");
+        userService.updateUser("plan-user", "pwd", "user");
+        Usuario user = userService.getUserByUsername("plan-user");
+        Usuario seeded = userService.getUserByUsername("seed-user-1");
+
+        UrlService urlService = new UrlService();
+        Url created = urlService.saveUrl("https://seed.example.com/1/1", user, true);
+        urlService.saveUrl("https://seed.example.com/1/1", user, true);
+        Usuario anonymous = new Usuario();
+        anonymous.setUsername("anon-plan");
+        anonymous.setRole("anonymous");
+        urlService.saveUrl("https://example.org/anon", anonymous);
+        urlService.saveUrls(Arrays.asList("https://example.org/bulk/1", "https://example.org/bulk/2"), user);
+
+        Date from = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(7));
+        urlService.resolveUrl("seed-1");
+        urlService.getOriginalUrl("seed-2");
+        urlService.recordAccess(created, new AccessDetail(new Date(), "Chrome", "10.0.0.1", null, "Linux"));
+        urlService.flushPendingClicks(5000);
+        Url withAccesses = urlService.getUrl("seed-1", from, null);
+        urlService.getAccessStats(withAccesses);
+        UrlPage page = urlService.listUrls(seeded, null, 50, true, from, null);
+        urlService.getAccessStats(page.getUrls(), from, null);
+        urlService.listUrls(seeded, page.getNextCursor() != null ? page.getNextCursor() : "9223372036854775807", 50, false, null, null);
+        UrlPage all = urlService.listUrls(null, null, 50, false, null, null);
+        urlService.listUrls(null, all.getNextCursor(), 50, false, null, null);
+        urlService.updateShortUrl(created.getShortUrl(), "plan-renamed");
+        urlService.deleteUrl("plan-renamed");
+        new ExpirationSweeper(Repositories.urls(), deleted -> { }).sweepOnce();
+        urlService.close();
+        userService.deleteUser("plan-user");
+    }
+
+    @Test
+    void service_statements_use_indexes_at_scale() throws SQLException {
+        List<String> failures = new ArrayList<>();
+        List<String> report = new ArrayList<>();
+        Map<String, Captured> captured;
+        synchronized (statements) {
+            captured = new LinkedHashMap<>(statements);
+        }
+        assertFalse(captured.isEmpty(), "No se capturó ninguna sentencia");
+        try (Connection c = Database.getDataSource().getConnection()) {
+            for (Map.Entry<String, Captured> entry : captured.entrySet()) {
+                Captured statement = entry.getValue();
+                String verb = statement.sql.trim().split("\\s+")[0].toUpperCase();
+                if (!verb.equals("SELECT") && !verb.equals("UPDATE") && !verb.equals("DELETE") && !verb.equals("MERGE")) continue;
+                String plan = explain(c, statement);
+                String scan = fullScan(plan);
+                if (scan != null && allowedReason(entry.getKey()) == null) {
+                    failures.add(scan + " en: " + entry.getKey() + "\n    plan: " + plan.replaceAll("\\s+", " "));
+                }
+                double[] millis = measure(c, statement);
+                if (MAX_MILLIS > 0 && millis[0] > MAX_MILLIS) {
+                    failures.add(String.format("p50 %.2f ms > %.2f ms en: %s", millis[0], MAX_MILLIS, entry.getKey()));
+                }
+                report.add(String.format("%9.3f %9.3f  %s%s", millis[0], millis[1], scan != null ? "[scan] " : "", entry.getKey()));
+            }
+        }
+        report.sort((a, b) -> b.compareTo(a));
+        System.out.println("[PLANS]  p50 (ms)  max (ms)  sentencia (" + RUNS + " ejecuciones, " + URLS + " urls)");
+        report.forEach(line -> System.out.println("[PLANS] " + line));
+        assertTrue(failures.isEmpty(), "Sentencias sin índice:\n" + String.join("\n", failures));
+    }
+
+    private static String explain(Connection c, Captured statement) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("EXPLAIN " + statement.sql)) {
+            bind(ps, statement);
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) plan.append(rs.getString(1)).append('\n');
+            }
+            return plan.toString();
+        }
+    }
+
+    static String fullScan(String plan) {
+        Matcher table = TABLE_SCAN.matcher(plan);
+        if (table.find()) return "tableScan de " + table.group(1).replace("\"", "");
+        Matcher index = INDEX_WITHOUT_CONDITION.matcher(plan);
+        if (index.find()) return "índice completo " + index.group(1).replace("\"", "");
+        return null;
+    }
+
+    private static String allowedReason(String normalizedSql) {
+        for (Map.Entry<String, String> allowed : FULL_SCANS_ALLOWED.entrySet()) {
+            if (normalizedSql.contains(allowed.getKey())) return allowed.getValue();
+        }
+        return null;
+    }
+
+    // Ejecuta la sentencia RUNS veces dentro de una transacción que se deshace; devuelve {p50, max} en ms
+    private static double[] measure(Connection c, Captured statement) throws SQLException {
+        double[] samples = new double[RUNS];
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement(statement.sql)) {
+            for (int i = 0; i < RUNS; i++) {
+                bind(ps, statement);
+                long start = System.nanoTime();
+                if (ps.execute()) {
+                    try (ResultSet rs = ps.getResultSet()) {
+                        while (rs.next()) {
+                            // consumir el resultado completo
+                        }
+                    }
+                }
+                samples[i] = (System.nanoTime() - start) / 1_000_000.0;
+                c.rollback();
+            }
+        } finally {
+            c.rollback();
+            c.setAutoCommit(true);
+        }
+        Arrays.sort(samples);
+        return new double[]{samples[samples.length / 2], samples[samples.length - 1]};
+    }
+
+    private static void bind(PreparedStatement ps, Captured statement) throws SQLException {
+        for (Map.Entry<Integer, Object> parameter : statement.parameters.entrySet()) {
+            ps.setObject(parameter.getKey(), parameter.getValue());
+        }
+    }
+
+    // Una entrada por forma de sentencia: listas IN de largo variable y particiones mensuales se agrupan
+    static String normalize(String sql) {
+        return sql.replaceAll("\\s+", " ").trim()
+                .replaceAll("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)", "(?...)")
+                .replaceAll("access_details_p\\d{6}", "access_details_p*");
+    }
+
+    private static final class Captured {
+        final String sql;
+        final Map<Integer, Object> parameters;
+
+        Captured(String sql, Map<Integer, Object> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+}
@@ -1,11 +1,40 @@
 package edu.pucmm.eict.services;
 
+import edu.pucmm.eict.modelos.AccessDetail;
+import edu.pucmm.eict.modelos.ClickEvent;
+import edu.pucmm.eict.modelos.ClickHistogram;
+import edu.pucmm.eict.modelos.HotLink;
+import edu.pucmm.eict.modelos.PurgeJob;
+import edu.pucmm.eict.modelos.ResolvedUrl;
 import edu.pucmm.eict.modelos.Url;
+import edu.pucmm.eict.modelos.UrlFilter;
+import edu.pucmm.eict.modelos.UrlPage;
 import edu.pucmm.eict.modelos.Usuario;
+import edu.pucmm.eict.repositorios.MemoryRepository;
+import edu.pucmm.eict.util.ClickJournal;
 import edu.pucmm.eict.util.Database;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UrlServiceTest {
@@ -28,5 +57,390 @@ public class UrlServiceTest {
         assertNotNull(loaded);
         assertEquals("https://example.com", loaded.getOriginalUrl());
     }
-}
 
+    @Test
+    void resolve_url_returns_destination_only() {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/resolve", null);
+        ResolvedUrl resolved = urlService.resolveUrl(u.getShortUrl());
+        assertNotNull(resolved);
+        assertEquals(u.getId().longValue(), resolved.getId());
+        assertEquals("https://example.org/resolve", resolved.getOriginalUrl());
+        assertNull(resolved.getExpiresAt());
+        assertNull(urlService.resolveUrl("noexiste"));
+    }
+
+    @Test
+    void resolve_cache_is_invalidated_on_delete_and_update() {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/cached", null);
+        assertNotNull(urlService.resolveUrl(u.getShortUrl()));
+        assertNotNull(urlService.resolveUrl(u.getShortUrl())); // segundo acceso desde caché
+
+        String renamed = u.getShortUrl() + "x";
+        assertTrue(urlService.updateShortUrl(u.getShortUrl(), renamed));
+        assertNull(urlService.resolveUrl(u.getShortUrl()));
+        assertNotNull(urlService.resolveUrl(renamed));
+
+        assertTrue(urlService.deleteUrl(renamed));
+        assertNull(urlService.resolveUrl(renamed));
+    }
+
+    @Test
+    void recorded_accesses_are_persisted_in_batches() {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/clicks", null);
+        for (int i = 0; i < 25; i++) {
+            urlService.recordAccess(u.getId(), new AccessDetail(new Date(), "Chrome", "127.0.0.1", "localhost", "Linux"));
+        }
+        assertTrue(urlService.flushPendingClicks(5000));
+        Url loaded = urlService.getUrl(u.getShortUrl());
+        assertEquals(25, loaded.getAccessCount());
+        assertEquals(25, loaded.getAccessDetails().size());
+    }
+
+    @Test
+    void short_codes_are_unique_across_service_instances() {
+        UrlService first = new UrlService();
+        UrlService second = new UrlService(); // otro "nodo": reserva su propio bloque del contador
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(codes.add(first.saveUrl("https://example.org/a" + i, null).getShortUrl()));
+            assertTrue(codes.add(second.saveUrl("https://example.org/b" + i, null).getShortUrl()));
+        }
+        for (String code : codes) {
+            assertTrue(code.length() >= 6);
+        }
+    }
+
+    @Test
+    void bulk_save_keeps_input_order() {
+        UrlService urlService = new UrlService();
+        List<String> originals = new ArrayList<>();
+        for (int i = 0; i < 30; i++) originals.add("https://example.org/bulk/" + i);
+        List<Url> saved = urlService.saveUrls(originals, null);
+        assertEquals(30, saved.size());
+        for (int i = 0; i < 30; i++) {
+            assertNotNull(saved.get(i));
+            assertEquals(originals.get(i), saved.get(i).getOriginalUrl());
+            ResolvedUrl resolved = urlService.resolveUrl(saved.get(i).getShortUrl());
+            assertNotNull(resolved);
+            assertEquals(saved.get(i).getId().longValue(), resolved.getId());
+        }
+    }
+
+    @Test
+    void dedupe_returns_existing_link_for_same_user_and_destination() {
+        UserService userService = new UserService();
+        userService.register("dedupeuser", "pwd");
+        Usuario user = userService.getUserByUsername("dedupeuser");
+        UrlService urlService = new UrlService();
+
+        Url first = urlService.saveUrl("https://Example.org:443/dedupe#top", user, true);
+        Url second = urlService.saveUrl("https://example.org/dedupe", user, true);
+        assertEquals(first.getShortUrl(), second.getShortUrl());
+
+        Url other = urlService.saveUrl("https://example.org/dedupe?x=1", user, true);
+        assertNotEquals(first.getShortUrl(), other.getShortUrl());
+        Url forced = urlService.saveUrl("https://example.org/dedupe", user, false);
+        assertNotEquals(first.getShortUrl(), forced.getShortUrl());
+
+        // El lote decide igual que saveUrl, también entre elementos repetidos
+        List<Url> bulk = urlService.saveUrls(List.of("https://example.org/dedupe", "https://example.org/dedupe/new",
+                "https://EXAMPLE.org/dedupe/new"), user, true);
+        assertEquals(first.getShortUrl(), bulk.get(0).getShortUrl());
+        assertNotEquals(first.getShortUrl(), bulk.get(1).getShortUrl());
+        assertEquals(bulk.get(1).getShortUrl(), bulk.get(2).getShortUrl());
+        assertNotNull(urlService.resolveUrl(bulk.get(1).getShortUrl()));
+    }
+
+    @Test
+    void list_urls_pages_by_owner_with_cursor() {
+        UserService userService = new UserService();
+        userService.register("pageuser", "pwd");
+        Usuario user = userService.getUserByUsername("pageuser");
+        UrlService urlService = new UrlService();
+        for (int i = 0; i < 3; i++) urlService.saveUrl("https://example.org/page/" + i, user, false);
+        urlService.saveUrl("https://example.org/page/anon", null);
+
+        UrlPage first = urlService.listUrls(user, null, 2, false, null, null);
+        assertEquals(2, first.getUrls().size());
+        assertEquals("https://example.org/page/2", first.getUrls().get(0).getOriginalUrl());
+        assertEquals("pageuser", first.getUrls().get(0).getUser().getUsername());
+        assertTrue(first.getUrls().get(0).getAccessDetails().isEmpty());
+        assertNotNull(first.getNextCursor());
+
+        UrlPage second = urlService.listUrls(user, first.getNextCursor(), 2, false, null, null);
+        assertEquals(1, second.getUrls().size());
+        assertEquals("https://example.org/page/0", second.getUrls().get(0).getOriginalUrl());
+        assertNull(second.getNextCursor());
+        assertThrows(IllegalArgumentException.class, () -> urlService.listUrls(user, "abc", 2, false, null, null));
+    }
+
+    @Test
+    void purging_a_users_links_runs_in_chunks_and_then_deletes_the_user() throws InterruptedException {
+        System.setProperty("APP_PURGE_CHUNK", "2");
+        UserService userService = new UserService();
+        userService.register("purgeuser", "pwd");
+        Usuario user = userService.getUserByUsername("purgeuser");
+        UrlService urlService = new UrlService();
+        System.clearProperty("APP_PURGE_CHUNK");
+        List<Url> links = new ArrayList<>();
+        for (int i = 0; i < 5; i++) links.add(urlService.saveUrl("https://example.org/purge/" + i, user, false));
+        Url kept = urlService.saveUrl("https://example.org/purge/kept", null);
+        urlService.recordAccess(links.get(0), new AccessDetail(new Date(), "Chrome", "10.0.0.1", null, "Linux"));
+        assertTrue(urlService.flushPendingClicks(5000));
+        assertNotNull(urlService.resolveUrl(links.get(0).getShortUrl())); // queda en caché
+
+        PurgeJob job = urlService.purgeUserLinks(user, () -> userService.deleteUser("purgeuser"));
+        for (int i = 0; i < 100 && !job.isFinished(); i++) Thread.sleep(50);
+        assertEquals(PurgeJob.DONE, job.getStatus());
+        assertEquals(5, job.getDeleted());
+        assertEquals(3, job.getChunks());
+        for (Url link : links) assertNull(urlService.resolveUrl(link.getShortUrl()));
+        assertNotNull(urlService.resolveUrl(kept.getShortUrl()));
+        assertNull(userService.getUserByUsername("purgeuser"));
+        assertSame(job, urlService.getPurgeJob(job.getId()));
+        assertThrows(IllegalArgumentException.class, () -> urlService.purgeLinks(new UrlFilter(), null, null));
+        urlService.close();
+    }
+
+    @Test
+    void repeated_lookups_reuse_prepared_statements() {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/statements", null);
+        urlService.getUrl(u.getShortUrl());
+        long hits = ((Number) Database.getPoolStats().get("statementHits")).longValue();
+        for (int i = 0; i < 5; i++) assertNotNull(urlService.getUrl(u.getShortUrl()));
+        assertTrue(((Number) Database.getPoolStats().get("statementHits")).longValue() >= hits + 5);
+        assertTrue(((Number) Database.getPoolStats().get("statementsCached")).intValue() > 0);
+    }
+
+    @Test
+    void variable_in_lists_bypass_the_statement_cache() throws SQLException {
+        long uncached = ((Number) Database.getPoolStats().get("statementsUncached")).longValue();
+        try (Connection c = Database.getDataSource().getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id FROM urls WHERE id IN (?, ?)")) {
+            ps.setLong(1, 1);
+            ps.setLong(2, 2);
+            ps.executeQuery().close();
+        }
+        assertEquals(uncached + 1, ((Number) Database.getPoolStats().get("statementsUncached")).longValue());
+    }
+
+    @Test
+    void hot_links_rank_recent_clicks_and_skip_deleted_links() {
+        UrlService urlService = new UrlService();
+        Url busy = urlService.saveUrl("https://example.org/hot/busy", null);
+        Url quiet = urlService.saveUrl("https://example.org/hot/quiet", null);
+        Url gone = urlService.saveUrl("https://example.org/hot/gone", null);
+        for (int i = 0; i < 5; i++) urlService.recordAccess(busy, new AccessDetail(new Date(), "Chrome", "10.0.0." + i, null, "Linux"));
+        urlService.recordAccess(quiet, new AccessDetail(new Date(), "Firefox", "10.0.1.1", null, "Windows"));
+        for (int i = 0; i < 9; i++) urlService.recordAccess(gone, new AccessDetail(new Date(), "Chrome", "10.0.2.1", null, "Linux"));
+        urlService.deleteUrl(gone.getShortUrl());
+
+        List<HotLink> top = urlService.getHotLinks("1m", 10);
+        assertEquals(2, top.size());
+        assertEquals(busy.getShortUrl(), top.get(0).getShortUrl());
+        assertEquals("https://example.org/hot/busy", top.get(0).getOriginalUrl());
+        assertEquals(5, top.get(0).getClicks());
+        assertEquals(quiet.getShortUrl(), top.get(1).getShortUrl());
+        assertEquals(1, urlService.getHotLinks("24h", 1).size());
+        assertThrows(IllegalArgumentException.class, () -> urlService.getHotLinks("2d", 10));
+        urlService.close();
+    }
+
+    @Test
+    void stats_watchers_receive_new_clicks_of_their_link_only() throws InterruptedException {
+        UrlService urlService = new UrlService();
+        Url watched = urlService.saveUrl("https://example.org/live/watched", null);
+        Url other = urlService.saveUrl("https://example.org/live/other", null);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(2);
+        CountDownLatch closed = new CountDownLatch(1);
+        ClickBroadcaster.Subscription subscription = urlService.watchClicks(watched.getId(), new ClickBroadcaster.Sink() {
+            @Override
+            public boolean clicks(List<ClickEvent> events) {
+                for (ClickEvent event : events) {
+                    received.add(event.getDetail().getIp());
+                    delivered.countDown();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean lagged(long missed) {
+                return true;
+            }
+
+            @Override
+            public boolean heartbeat() {
+                return true;
+            }
+
+            @Override
+            public void closed() {
+                closed.countDown();
+            }
+        });
+        assertNotNull(subscription);
+        urlService.recordAccess(watched, new AccessDetail(new Date(), "Chrome", "10.1.0.1", null, "Linux"));
+        urlService.recordAccess(other, new AccessDetail(new Date(), "Chrome", "10.1.0.2", null, "Linux"));
+        urlService.recordAccess(watched, new AccessDetail(new Date(), "Firefox", "10.1.0.3", null, "Windows"));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("10.1.0.1", "10.1.0.3"), received);
+
+        subscription.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, ((Number) urlService.getStatsStreamStats().get("subscribers")).intValue());
+        assertEquals(2, urlService.getUrlSummary(watched.getShortUrl()).getAccessCount());
+        urlService.close();
+    }
+
+    @Test
+    void histogram_buckets_clicks_from_rollups_and_from_details() {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/histogram", null);
+        long hour = (System.currentTimeMillis() / 3_600_000L - 3) * 3_600_000L;
+        urlService.recordAccess(u, new AccessDetail(new Date(hour + 60_000), "Chrome", "10.2.0.1", null, "Linux"));
+        urlService.recordAccess(u, new AccessDetail(new Date(hour + 90_000), "Firefox", "10.2.0.2", null, "Windows"));
+        urlService.recordAccess(u, new AccessDetail(new Date(hour + 2 * 3_600_000L), "Chrome", "10.2.0.3", null, "Linux"));
+        assertTrue(urlService.flushPendingClicks(5000));
+
+        ClickHistogram hourly = urlService.getHistogram(u, "hour", new Date(hour), new Date(hour + 3 * 3_600_000L), true);
+        assertEquals(3, hourly.getTotalClicks());
+        List<Map<String, Object>> buckets = hourly.getBuckets();
+        assertEquals(3, buckets.size());
+        assertEquals(List.of(2L, 0L, 1L), buckets.stream().map(b -> b.get("clicks")).toList());
+        assertEquals(Map.of("Chrome", 1L, "Firefox", 1L), buckets.get(0).get("browsers"));
+
+        ClickHistogram minutes = urlService.getHistogram(u, "minute", new Date(hour), new Date(hour + 5 * 60_000), false);
+        assertEquals(List.of(0L, 2L, 0L, 0L, 0L), minutes.getBuckets().stream().map(b -> b.get("clicks")).toList());
+        assertEquals(3, urlService.getHistogram(u, "week", null, null, false).getTotalClicks());
+        assertThrows(IllegalArgumentException.class, () -> urlService.getHistogram(u, "year", null, null, false));
+        assertThrows(IllegalArgumentException.class, () -> urlService.getHistogram(u, "minute", new Date(0), new Date(), false));
+        urlService.close();
+    }
+
+    @Test
+    void click_export_streams_rows_and_resumes_after_the_last_token() throws Exception {
+        UrlService urlService = new UrlService();
+        Url u = urlService.saveUrl("https://example.org/export", null);
+        long t = System.currentTimeMillis() - 60_000;
+        urlService.recordAccess(u, new AccessDetail(new Date(t), "Chrome", "10.3.0.1", "=cmd|calc", "Linux"));
+        urlService.recordAccess(u, new AccessDetail(new Date(t + 1000), "Firefox", "10.3.0.2", null, "Windows"));
+        urlService.recordAccess(u, new AccessDetail(new Date(t + 1000), "Safari", "10.3.0.3", "a,b", "Mac"));
+        urlService.recordAccess(u, new AccessDetail(new Date(t + 2000), "Edge", "10.3.0.4", null, "Windows"));
+        assertTrue(urlService.flushPendingClicks(5000));
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        assertEquals(4, urlService.exportClicks(u, null, null, null, ClickExporter.Format.CSV, full));
+        List<String> lines = full.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(1).endsWith(",\"'=cmd|calc\""), lines.get(1));
+        assertTrue(lines.get(3).endsWith(",\"a,b\""), lines.get(3));
+
+        // Se corta después de la primera de las dos filas con la misma fecha
+        String token = lines.get(2).substring(0, lines.get(2).indexOf(','));
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        assertEquals(2, urlService.exportClicks(u, null, null, ClickExporter.Cursor.parse(token), ClickExporter.Format.CSV, rest));
+        assertEquals(lines.subList(3, 5), rest.toString(StandardCharsets.UTF_8).lines().skip(1).toList());
+
+        UrlFilter all = new UrlFilter();
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        urlService.exportClicks(all, new Date(t + 1000), null, null, ClickExporter.Format.NDJSON, ndjson);
+        assertEquals(3, ndjson.toString(StandardCharsets.UTF_8).lines().filter(l -> l.contains("\"shortUrl\":\"" + u.getShortUrl() + "\"")).count());
+        assertThrows(IllegalArgumentException.class, () -> ClickExporter.Cursor.parse("abc"));
+        urlService.close();
+    }
+
+    @Test
+    void ingestor_retries_transient_write_errors_instead_of_dropping_clicks() {
+        int[] failures = {2};
+        MemoryRepository repository = new MemoryRepository() {
+            @Override
+            public synchronized void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+                if (failures[0]-- > 0) {
+                    throw new RuntimeException(new SQLTransientConnectionException("No hay conexiones disponibles"));
+                }
+                super.insertEvents(events, checkpoint, sequence);
+            }
+        };
+        Url url = new Url("https://example.org/retry", "retry1");
+        repository.insert(url, null, 0);
+        ClickIngestor ingestor = new ClickIngestor(repository, null);
+        ingestor.submit(new ClickEvent(url.getId(), new AccessDetail(new Date(), "Chrome", "10.4.0.1", null, "Linux")));
+        assertTrue(ingestor.awaitFlushed(5000));
+        assertEquals(1, repository.findByUrl(url.getId()).size());
+        Map<String, Object> stats = ingestor.stats();
+        assertEquals(2L, stats.get("retries"));
+        assertEquals(0L, stats.get("failedEvents"));
+        ingestor.close();
+
+        assertTrue(ClickIngestor.isPermanent(new RuntimeException(new SQLException("FK", "23506"))));
+        assertFalse(ClickIngestor.isPermanent(new RuntimeException(new SQLException("Timeout", "HYT00"))));
+    }
+
+    @Test
+    void journaled_clicks_never_wait_for_a_stalled_writer() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        MemoryRepository repository = new MemoryRepository() {
+            @Override
+            public void insertEvents(List<ClickEvent> events, String checkpoint, long sequence) {
+                try {
+                    if (!events.isEmpty()) stalled.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.insertEvents(events, checkpoint, sequence);
+            }
+        };
+        Url url = new Url("https://example.org/stalled", "stall1");
+        repository.insert(url, null, 0);
+        Path directory = Files.createTempDirectory("journal");
+        try (ClickJournal journal = new ClickJournal(directory, ClickIngestor.JOURNAL_CONSUMER)) {
+            ClickIngestor ingestor = new ClickIngestor(repository, journal);
+            int clicks = 12_000; // más que APP_CLICK_QUEUE_CAPACITY
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                for (int i = 0; i < clicks; i++) {
+                    ClickEvent event = new ClickEvent(url.getId(), new AccessDetail(new Date(), "Chrome", "10.4.0.1", null, "Linux"));
+                    journal.append(event);
+                    ingestor.submit(event);
+                }
+            });
+            assertEquals(0L, ingestor.stats().get("syncFallbacks"));
+            stalled.countDown();
+            assertTrue(ingestor.awaitFlushed(10_000));
+            assertEquals(clicks, repository.findByUrl(url.getId()).size());
+            assertEquals(0L, ingestor.stats().get("journalLag"));
+            ingestor.close();
+        }
+    }
+
+    @Test
+    void counter_keeps_every_increment_while_flushes_retire_idle_links() throws InterruptedException {
+        MemoryRepository repository = new MemoryRepository();
+        Url url = new Url("https://example.org/counted", "count1");
+        repository.insert(url, null, 0);
+        AccessCounter counter = new AccessCounter(repository, null);
+        int threads = 4;
+        int rounds = 2_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < rounds; i++) {
+                    counter.increment(url.getId());
+                    // Deja que el volcado encuentre el contador en cero y lo retire
+                    if (i % 50 == 0) Thread.yield();
+                }
+                done.countDown();
+            }).start();
+        }
+        while (done.getCount() > 0) counter.flush();
+        counter.flush();
+        counter.flush();
+        assertEquals(threads * rounds, repository.findByShortUrl("count1").getAccessCount());
+        assertEquals(0, counter.pending(url.getId()));
+        counter.close();
+    }
+}